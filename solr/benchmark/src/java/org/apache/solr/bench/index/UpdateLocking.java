@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.index;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.update.UpdateLocks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+@Warmup(time = 5, iterations = 2)
+@Measurement(time = 10, iterations = 3)
+@Fork(value = 1)
+// A benchmark of the per-doc locking of the updates on a busy leader. With a single stripe, the
+// locks behave as they did before they were striped.
+public class UpdateLocking {
+
+  @State(Scope.Benchmark)
+  public static class BenchState {
+
+    @Param({"1", "64"})
+    int stripes;
+
+    @Param({"1000000"})
+    int numIds;
+
+    UpdateLocks locks;
+    BytesRef[] ids;
+
+    @Setup
+    public void setup() {
+      locks = new UpdateLocks(0, stripes);
+      ids = new BytesRef[numIds];
+      for (int i = 0; i < numIds; i++) {
+        ids[i] = new BytesRef(Integer.toString(i));
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    final SplittableRandom random = new SplittableRandom();
+  }
+
+  @Benchmark
+  public Object lockDoc(BenchState state, ThreadState threadState) throws IOException {
+    BytesRef id = state.ids[threadState.random.nextInt(state.numIds)];
+    return state.locks.runWithLock(
+        id,
+        condition -> {
+          // a little work, as updates do while holding the lock
+          Blackhole.consumeCPU(16);
+          return id;
+        });
+  }
+}
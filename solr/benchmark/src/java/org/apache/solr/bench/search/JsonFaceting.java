@@ -92,6 +92,13 @@ public class JsonFaceting {
     @Param({"3000"})
     int facetCard2;
 
+    // search segment slices concurrently, including the collection of the DocSet to facet on
+    @Param({"false", "true"})
+    boolean multiThreaded;
+
+    @Param("10")
+    int rows;
+
     private ModifiableSolrParams params;
 
     @Setup(Level.Trial)
@@ -137,6 +144,10 @@ public class JsonFaceting {
           params,
           "q",
           "*:*",
+          "rows",
+          Integer.toString(rows),
+          "multiThreaded",
+          Boolean.toString(multiThreaded),
           "json.facet",
           "{f1:{method:'"
               + fm
@@ -301,6 +301,9 @@ public class SolrConfig implements MapSerializable {
 
       filterCacheConfig =
           CacheConfig.getConfig(this, get("query").get("filterCache"), "query/filterCache");
+      segmentFilterCacheConfig =
+          CacheConfig.getConfig(
+              this, get("query").get("segmentFilterCache"), "query/segmentFilterCache");
       queryResultCacheConfig =
           CacheConfig.getConfig(
               this, get("query").get("queryResultCache"), "query/queryResultCache");
@@ -664,6 +667,7 @@ public class SolrConfig implements MapSerializable {
   //  public final float filtOptThreshold;
   // SolrIndexSearcher - caches configurations
   public final CacheConfig filterCacheConfig;
+  public final CacheConfig segmentFilterCacheConfig;
   public final CacheConfig queryResultCacheConfig;
   public final CacheConfig documentCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
@@ -1002,7 +1006,12 @@ public class SolrConfig implements MapSerializable {
     }
 
     addCacheConfig(
-        m, filterCacheConfig, queryResultCacheConfig, documentCacheConfig, fieldValueCacheConfig);
+        m,
+        filterCacheConfig,
+        segmentFilterCacheConfig,
+        queryResultCacheConfig,
+        documentCacheConfig,
+        fieldValueCacheConfig);
     m = new LinkedHashMap<>();
     result.put("requestDispatcher", m);
     m.put("handleSelect", handleSelect);
@@ -21,12 +21,14 @@ import java.util.List;
 import org.apache.solr.client.solrj.SolrRequest.SolrRequestType;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
 import org.apache.solr.common.util.ContentStream;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.loader.ContentStreamLoader;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.update.SolrCoreState;
+import org.apache.solr.update.processor.ParallelUpdateProcessor;
 import org.apache.solr.update.processor.UpdateRequestProcessor;
 import org.apache.solr.update.processor.UpdateRequestProcessorChain;
 import org.apache.solr.util.circuitbreaker.CircuitBreaker;
@@ -83,6 +85,12 @@ public abstract class ContentStreamHandlerBase extends RequestHandlerBase {
       UpdateRequestProcessorChain processorChain = req.getCore().getUpdateProcessorChain(params);
 
       UpdateRequestProcessor processor = processorChain.createProcessor(req, rsp);
+      int threads =
+          Math.min(
+              params.getInt(UpdateParams.THREADS, 1), Runtime.getRuntime().availableProcessors());
+      if (threads > 1 && ParallelUpdateProcessor.isSupported(processorChain)) {
+        processor = new ParallelUpdateProcessor(processorChain, req, rsp, processor, threads);
+      }
 
       try {
         ContentStreamLoader documentLoader = newLoader(req, processor);
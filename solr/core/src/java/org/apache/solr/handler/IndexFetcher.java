@@ -26,6 +26,7 @@ import static org.apache.solr.handler.ReplicationHandler.CMD_INDEX_VERSION;
 import static org.apache.solr.handler.ReplicationHandler.COMMAND;
 import static org.apache.solr.handler.ReplicationHandler.CONF_FILES;
 import static org.apache.solr.handler.ReplicationHandler.FETCH_FROM_LEADER;
+import static org.apache.solr.handler.ReplicationHandler.FETCH_THREADS;
 import static org.apache.solr.handler.ReplicationHandler.LEADER_URL;
 import static org.apache.solr.handler.ReplicationHandler.SIZE;
 import static org.apache.solr.handler.ReplicationHandler.SKIP_COMMIT_ON_LEADER_VERSION_ZERO;
@@ -53,11 +54,13 @@ import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -68,6 +71,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -78,6 +82,7 @@ import java.util.zip.Adler32;
 import java.util.zip.Checksum;
 import java.util.zip.InflaterInputStream;
 import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.SegmentInfos;
@@ -88,6 +93,7 @@ import org.apache.lucene.store.FilterDirectory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RateLimiter;
 import org.apache.solr.client.api.model.FileMetaData;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
@@ -102,6 +108,7 @@ import org.apache.solr.common.cloud.ClusterState;
 import org.apache.solr.common.cloud.Replica;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.EnvUtils;
 import org.apache.solr.common.util.ExecutorUtil;
 import org.apache.solr.common.util.FastInputStream;
 import org.apache.solr.common.util.IOUtils;
@@ -187,6 +194,22 @@ public class IndexFetcher {
 
   private boolean clearLocalIndexFirst = false;
 
+  /** The number of index files fetched at once */
+  private final int fetchThreads;
+
+  /** The most index files fetched at once, each fetch holds a connection to the leader */
+  static final int MAX_FETCH_THREADS = 8;
+
+  /** Whether the index files other cores of the node have are copied rather than fetched */
+  private final boolean copyLocalFiles =
+      EnvUtils.getPropertyAsBool("solr.replication.copyLocalFiles", false);
+
+  /**
+   * Limits the bandwidth the followers of this node take all together to fetch the index files, if
+   * {@code solr.replication.maxReadMBPerSec} is set.
+   */
+  private static final RateLimiter readRateLimiter = createReadRateLimiter();
+
   private static final String INTERRUPT_RESPONSE_MESSAGE =
       "Interrupted while waiting for modify lock";
 
@@ -289,6 +312,20 @@ public class IndexFetcher {
     useExternalCompression = ReplicationHandler.EXTERNAL.equals(compress);
     connTimeout = getParameter(initArgs, HttpClientUtil.PROP_CONNECTION_TIMEOUT, 30000, null);
     soTimeout = getParameter(initArgs, HttpClientUtil.PROP_SO_TIMEOUT, 120000, null);
+    Object fetchThreads = initArgs.get(FETCH_THREADS);
+    int requestedFetchThreads =
+        fetchThreads != null
+            ? Integer.parseInt(fetchThreads.toString())
+            : EnvUtils.getPropertyAsInteger("solr.replication.fetchThreads", 1);
+    this.fetchThreads = Math.max(1, Math.min(requestedFetchThreads, MAX_FETCH_THREADS));
+    if (this.fetchThreads != requestedFetchThreads) {
+      log.warn(
+          "{} must be between 1 and {}, using {} instead of {}",
+          FETCH_THREADS,
+          MAX_FETCH_THREADS,
+          this.fetchThreads,
+          requestedFetchThreads);
+    }
 
     String httpBasicAuthUser = (String) initArgs.get(HttpClientUtil.PROP_BASIC_AUTH_USER);
     String httpBasicAuthPassword = (String) initArgs.get(HttpClientUtil.PROP_BASIC_AUTH_PASS);
@@ -296,6 +333,14 @@ public class IndexFetcher {
         createSolrClient(solrCore, httpBasicAuthUser, httpBasicAuthPassword, leaderBaseUrl);
   }
 
+  private static RateLimiter createReadRateLimiter() {
+    String maxReadMBPerSec = EnvUtils.getProperty("solr.replication.maxReadMBPerSec");
+    if (maxReadMBPerSec == null || Double.parseDouble(maxReadMBPerSec) <= 0) {
+      return null;
+    }
+    return new RateLimiter.SimpleRateLimiter(Double.parseDouble(maxReadMBPerSec));
+  }
+
   private void setLeaderCoreUrl(String leaderCoreUrl) {
     if (leaderCoreUrl != null) {
       leaderCoreUrl = leaderCoreUrl.trim();
@@ -809,6 +854,11 @@ public class IndexFetcher {
         }
       }
 
+      if (successfulInstall) {
+        // the files a failed fetch left to resume from aren't needed anymore
+        deletePartialFiles();
+      }
+
       if (core.getCoreContainer().isZooKeeperAware()) {
         // we only track replication success in SolrCloud mode
         core.getUpdateHandler().getSolrCoreState().setLastReplicateIndexSuccess(successfulInstall);
@@ -1115,7 +1165,6 @@ public class IndexFetcher {
     if (log.isDebugEnabled()) {
       log.debug("Download files to dir: {}", Arrays.asList(indexDir.listAll()));
     }
-    long bytesDownloaded = 0;
     long bytesSkippedCopying = 0;
     boolean doDifferentialCopy =
         (indexDir instanceof FSDirectory
@@ -1142,52 +1191,64 @@ public class IndexFetcher {
       deleteFilesInAdvance(indexDir, indexDirPath, totalSpaceRequired, usableSpace);
     }
 
-    for (Map<String, Object> file : filesToDownload) {
-      String filename = (String) file.get(NAME);
-      long size = (Long) file.get(SIZE);
-      CompareResult compareResult =
-          compareFile(indexDir, filename, size, (Long) file.get(CHECKSUM));
-      boolean alwaysDownload = filesToAlwaysDownloadIfNoChecksums(filename, size, compareResult);
-      if (log.isDebugEnabled()) {
-        log.debug(
-            "Downloading file={} size={} checksum={} alwaysDownload={}",
-            filename,
-            size,
-            file.get(CHECKSUM),
-            alwaysDownload);
-      }
-      if (!compareResult.equal || downloadCompleteIndex || alwaysDownload) {
-        Path localFile = Path.of(indexDirPath, filename);
-        if (downloadCompleteIndex
-            && doDifferentialCopy
-            && compareResult.equal
-            && compareResult.checkSummed
-            && Files.exists(localFile)) {
-          if (log.isInfoEnabled()) {
-            log.info(
-                "Don't need to download this file. Local file's path is: {}, checksum is: {}",
-                localFile.toAbsolutePath(),
-                file.get(CHECKSUM));
+    List<Map<String, Object>> filesToFetch = new ArrayList<>();
+    LocalIndexFiles localIndexFiles =
+        copyLocalFiles && FilterDirectory.unwrap(tmpIndexDir) instanceof FSDirectory
+            ? LocalIndexFiles.ofOtherCores(solrCore)
+            : null;
+    try {
+      for (Map<String, Object> file : filesToDownload) {
+        String filename = (String) file.get(NAME);
+        long size = (Long) file.get(SIZE);
+        CompareResult compareResult =
+            compareFile(indexDir, filename, size, (Long) file.get(CHECKSUM));
+        boolean alwaysDownload = filesToAlwaysDownloadIfNoChecksums(filename, size, compareResult);
+        if (log.isDebugEnabled()) {
+          log.debug(
+              "Downloading file={} size={} checksum={} alwaysDownload={}",
+              filename,
+              size,
+              file.get(CHECKSUM),
+              alwaysDownload);
+        }
+        if (!compareResult.equal || downloadCompleteIndex || alwaysDownload) {
+          Path localFile = Path.of(indexDirPath, filename);
+          if (downloadCompleteIndex
+              && doDifferentialCopy
+              && compareResult.equal
+              && compareResult.checkSummed
+              && Files.exists(localFile)) {
+            if (log.isInfoEnabled()) {
+              log.info(
+                  "Don't need to download this file. Local file's path is: {}, checksum is: {}",
+                  localFile.toAbsolutePath(),
+                  file.get(CHECKSUM));
+            }
+            // A hard link here should survive the eventual directory move, and should be more space
+            // efficient as compared to a file copy. TODO: Maybe we could do a move safely here?
+            Files.createLink(Path.of(tmpIndexDirPath, filename), localFile);
+            bytesSkippedCopying += Files.size(localFile);
+            filesDownloaded.add(new HashMap<>(file));
+          } else if (localIndexFiles != null
+              && file.get(CHECKSUM) != null
+              && localIndexFiles.copyTo(
+                  Path.of(tmpIndexDirPath), filename, size, (Long) file.get(CHECKSUM))) {
+            // another core of this node has the same file
+            bytesSkippedCopying += size;
+            filesDownloaded.add(new HashMap<>(file));
+          } else {
+            filesToFetch.add(file);
           }
-          // A hard link here should survive the eventual directory move, and should be more space
-          // efficient as compared to a file copy. TODO: Maybe we could do a move safely here?
-          Files.createLink(Path.of(tmpIndexDirPath, filename), localFile);
-          bytesSkippedCopying += Files.size(localFile);
         } else {
-          dirFileFetcher =
-              new DirectoryFileFetcher(
-                  tmpIndexDir, file, (String) file.get(NAME), FILE, latestGeneration);
-          currentFile = file;
-          dirFileFetcher.fetchFile();
-          bytesDownloaded += dirFileFetcher.getBytesDownloaded();
-        }
-        filesDownloaded.add(new HashMap<>(file));
-      } else {
-        if (log.isDebugEnabled()) {
-          log.debug("Skipping download for {} because it already exists", file.get(NAME));
+          if (log.isDebugEnabled()) {
+            log.debug("Skipping download for {} because it already exists", file.get(NAME));
+          }
         }
       }
+    } finally {
+      IOUtils.closeQuietly(localIndexFiles);
     }
+    long bytesDownloaded = fetchIndexFiles(tmpIndexDir, filesToFetch, latestGeneration);
     log.info(
         "Bytes downloaded: {}, Bytes skipped downloading: {}",
         bytesDownloaded,
@@ -1195,6 +1256,73 @@ public class IndexFetcher {
     return bytesDownloaded;
   }
 
+  /**
+   * Fetches the index files from the leader, {@link #fetchThreads} of them at once. The largest
+   * files are fetched first, so that the fetch doesn't end up waiting for one large file alone. The
+   * first file that fails to be fetched stops the others.
+   *
+   * @return number of bytes downloaded
+   */
+  private long fetchIndexFiles(
+      Directory tmpIndexDir, List<Map<String, Object>> files, long latestGeneration)
+      throws Exception {
+    int threads = Math.min(fetchThreads, files.size());
+    long bytesDownloaded = 0;
+    if (threads <= 1) {
+      for (Map<String, Object> file : files) {
+        bytesDownloaded += fetchIndexFile(tmpIndexDir, file, latestGeneration);
+      }
+      return bytesDownloaded;
+    }
+
+    List<Map<String, Object>> bySize = new ArrayList<>(files);
+    bySize.sort(Comparator.comparing((Map<String, Object> f) -> (Long) f.get(SIZE)).reversed());
+    ExecutorService executor =
+        ExecutorUtil.newMDCAwareFixedThreadPool(
+            threads, new SolrNamedThreadFactory("indexFetcherFiles"));
+    try {
+      ExecutorCompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+      for (Map<String, Object> file : bySize) {
+        completionService.submit(() -> fetchIndexFile(tmpIndexDir, file, latestGeneration));
+      }
+      for (int i = 0; i < bySize.size(); i++) {
+        bytesDownloaded += completionService.take().get();
+      }
+      return bytesDownloaded;
+    } catch (ExecutionException e) {
+      stop = true;
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    } catch (InterruptedException e) {
+      stop = true;
+      throw e;
+    } finally {
+      // the fetches still running stop at their next packet, rather than being interrupted in the
+      // middle of a write
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+    }
+  }
+
+  /**
+   * @return number of bytes downloaded
+   */
+  private long fetchIndexFile(
+      Directory tmpIndexDir, Map<String, Object> file, long latestGeneration) throws Exception {
+    if (stop) {
+      throw new ReplicationHandlerException("User aborted replication");
+    }
+    DirectoryFileFetcher fileFetcher =
+        new DirectoryFileFetcher(
+            tmpIndexDir, file, (String) file.get(NAME), FILE, latestGeneration);
+    dirFileFetcher = fileFetcher;
+    currentFile = file;
+    fileFetcher.fetchFile();
+    filesDownloaded.add(new HashMap<>(file));
+    return fileFetcher.getBytesDownloaded();
+  }
+
   // only for testing purposes. do not use this anywhere else
   // -----------START----------------------
   static BooleanSupplier testWait = () -> true;
@@ -1565,6 +1693,34 @@ public class IndexFetcher {
     }
   }
 
+  /**
+   * Returns where the start of an index file is kept when it fails to be fetched, for the next
+   * fetch to resume from. The file is known by its size and checksum along with its name, as the
+   * commits of the leader may have different files of the same name. Returns null if the file can't
+   * be kept, since the leader didn't send its checksum or the index isn't on the local file system.
+   */
+  private Path getPartialFile(Directory tmpIndexDir, Map<String, Object> fileDetails) {
+    Long checksum = (Long) fileDetails.get(CHECKSUM);
+    if (checksum == null || !(FilterDirectory.unwrap(tmpIndexDir) instanceof FSDirectory)) {
+      return null;
+    }
+    return Path.of(
+        solrCore.getDataDir(),
+        PARTIAL_FILES_DIR,
+        fileDetails.get(NAME) + "." + fileDetails.get(SIZE) + "." + checksum);
+  }
+
+  private void deletePartialFiles() {
+    Path partialFilesDir = Path.of(solrCore.getDataDir(), PARTIAL_FILES_DIR);
+    if (Files.exists(partialFilesDir)) {
+      try {
+        org.apache.lucene.util.IOUtils.rm(partialFilesDir);
+      } catch (IOException e) {
+        log.warn("Unable to delete directory : {}", partialFilesDir, e);
+      }
+    }
+  }
+
   /** Stops the ongoing fetch */
   void abortFetch() {
     stop = true;
@@ -1692,30 +1848,19 @@ public class IndexFetcher {
     /** The main method which downloads file */
     public void fetchFile() throws Exception {
       bytesDownloaded = 0;
+      long bytesResumed = 0;
       try {
-        fetch();
-      } catch (Exception e) {
-        if (!aborted) {
-          IndexFetcher.log.error("Error fetching file, doing one retry...", e);
-          // one retry
+        bytesDownloaded = bytesResumed = resume();
+        try {
           fetch();
-        } else {
-          throw e;
-        }
-      }
-    }
-
-    private void fetch() throws Exception {
-      try {
-        while (true) {
-          try (FastInputStream fis = getStream()) {
-            int result;
-            // fetch packets one by one in a single request
-            result = fetchPackets(fis);
-            if (result == 0 || result == NO_CONTENT) {
-              return;
-            }
-            // if there is an error continue. But continue from the point where it got broken
+        } catch (Exception e) {
+          if (!aborted) {
+            IndexFetcher.log.error("Error fetching file, doing one retry...", e);
+            // one retry, from the last packet written
+            errorCount = 0;
+            fetch();
+          } else {
+            throw e;
           }
         }
       } finally {
@@ -1730,11 +1875,56 @@ public class IndexFetcher {
               }
             });
       }
+      if (bytesResumed > 0) {
+        verifyResumed();
+      }
+    }
+
+    /**
+     * Writes the start of the file that an earlier fetch got, if any.
+     *
+     * @return the number of bytes written
+     */
+    protected long resume() throws IOException {
+      return 0;
+    }
+
+    /** Checks the whole file, once fetched after {@link #resume()} */
+    protected void verifyResumed() throws IOException {}
+
+    /**
+     * Keeps the start of the file, which failed to be fetched, for the next fetch to {@link
+     * #resume()} from.
+     *
+     * @return false if the file can't be kept
+     */
+    protected boolean keepPartial() {
+      return false;
+    }
+
+    private void fetch() throws Exception {
+      while (true) {
+        int result;
+        try (FastInputStream fis = getStream()) {
+          // fetch packets one by one in a single request
+          result = fetchPackets(fis);
+        } catch (IOException e) {
+          // the leader couldn't be reached, which is retried like a broken stream
+          result = onError(e);
+        }
+        if (result == 0 || result == NO_CONTENT) {
+          return;
+        }
+        // if there is an error continue. But continue from the point where it got broken, after a
+        // pause growing with the errors in a row, which gives a flaky link some time to recover
+        Thread.sleep(RETRY_PAUSE_MS << (errorCount - 1));
+      }
     }
 
     private int fetchPackets(FastInputStream fis) throws Exception {
       byte[] intbytes = new byte[4];
       byte[] longbytes = new byte[8];
+      long bytesBeforePause = 0;
       try {
         while (true) {
           if (fis.peek() == -1) {
@@ -1745,7 +1935,7 @@ public class IndexFetcher {
             return 0;
           }
           if (stop) {
-            stop = false;
+            // reset by cleanup(), once all the files fetched at once have stopped
             aborted = true;
             throw new ReplicationHandlerException("User aborted replication");
           }
@@ -1777,15 +1967,22 @@ public class IndexFetcher {
             checksum.update(buf, 0, packetSize);
             long checkSumClient = checksum.getValue();
             if (checkSumClient != checkSumServer) {
-              log.error("Checksum not matched between client and server for file: {}", fileName);
-              // if checksum is wrong it is a problem return (there doesn't seem to be a retry in
-              // this case.)
-              return 1;
+              // the packet isn't written, and is fetched again
+              return onError(
+                  new IOException(
+                      "Checksum not matched between client and server for file: " + fileName));
             }
           }
           // if everything is fine, write down the packet to the file
           file.write(buf, packetSize);
           bytesDownloaded += packetSize;
+          if (readRateLimiter != null) {
+            bytesBeforePause += packetSize;
+            if (bytesBeforePause >= readRateLimiter.getMinPauseCheckBytes()) {
+              readRateLimiter.pause(bytesBeforePause);
+              bytesBeforePause = 0;
+            }
+          }
           log.debug("Fetched and wrote {} bytes of file: {}", bytesDownloaded, fileName);
           // errorCount is always set to zero after a successful packet
           errorCount = 0;
@@ -1793,34 +1990,38 @@ public class IndexFetcher {
       } catch (ReplicationHandlerException e) {
         throw e;
       } catch (Exception e) {
-        log.warn(
-            "Error in fetching file: {} (downloaded {} of {} bytes)",
-            fileName,
-            bytesDownloaded,
-            size,
+        return onError(e);
+      }
+    }
+
+    private int onError(Exception e) {
+      log.warn(
+          "Error in fetching file: {} (downloaded {} of {} bytes)",
+          fileName,
+          bytesDownloaded,
+          size,
+          e);
+      // for any failure, increment the error count
+      errorCount++;
+      // if it fails for the same packet for MAX_RETRIES fail and come out
+      if (errorCount > MAX_RETRIES) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Failed to fetch file: "
+                + fileName
+                + " (downloaded "
+                + bytesDownloaded
+                + " of "
+                + size
+                + " bytes"
+                + ", error count: "
+                + errorCount
+                + " > "
+                + MAX_RETRIES
+                + ")",
             e);
-        // for any failure, increment the error count
-        errorCount++;
-        // if it fails for the same packet for MAX_RETRIES fail and come out
-        if (errorCount > MAX_RETRIES) {
-          throw new SolrException(
-              SolrException.ErrorCode.SERVER_ERROR,
-              "Failed to fetch file: "
-                  + fileName
-                  + " (downloaded "
-                  + bytesDownloaded
-                  + " of "
-                  + size
-                  + " bytes"
-                  + ", error count: "
-                  + errorCount
-                  + " > "
-                  + MAX_RETRIES
-                  + ")",
-              e);
-        }
-        return ERR;
       }
+      return ERR;
     }
 
     /**
@@ -1853,12 +2054,14 @@ public class IndexFetcher {
         log.error("Error closing file: {}", this.saveAs, e);
       }
       if (bytesDownloaded != size) {
-        // if the download is not complete then
-        // delete the file being downloaded
-        try {
-          file.delete();
-        } catch (Exception e) {
-          log.error("Error deleting file: {}", this.saveAs, e);
+        // if the download is not complete then keep what was fetched for the next fetch to resume
+        // from, or else delete the file being downloaded
+        if (bytesDownloaded == 0 || !keepPartial()) {
+          try {
+            file.delete();
+          } catch (Exception e) {
+            log.error("Error deleting file: {}", this.saveAs, e);
+          }
         }
         // if the failure is due to a user abort it is returned normally else an exception is thrown
         if (!aborted)
@@ -1950,6 +2153,18 @@ public class IndexFetcher {
       outStream = copy2Dir.createOutput(this.saveAs, DirectoryFactory.IOCONTEXT_NO_CACHE);
     }
 
+    /** Writes the whole given file, and returns its length */
+    long write(Path from) throws IOException {
+      try (InputStream in = Files.newInputStream(from)) {
+        return in.transferTo(new IndexOutputOutputStream(outStream));
+      }
+    }
+
+    /** The path of the file, when the directory is on the local file system */
+    Path getPath() {
+      return ((FSDirectory) FilterDirectory.unwrap(copy2Dir)).getDirectory().resolve(saveAs);
+    }
+
     @Override
     public void sync() throws IOException {
       copy2Dir.sync(Collections.singleton(saveAs));
@@ -1972,6 +2187,10 @@ public class IndexFetcher {
   }
 
   protected class DirectoryFileFetcher extends FileFetcher {
+    private final DirectoryFile directoryFile;
+    private final Map<String, Object> fileDetails;
+    private final Path partialFile;
+
     DirectoryFileFetcher(
         Directory tmpIndexDir,
         Map<String, Object> fileDetails,
@@ -1979,8 +2198,71 @@ public class IndexFetcher {
         String solrParamOutput,
         long latestGen)
         throws IOException {
-      super(
-          new DirectoryFile(tmpIndexDir, saveAs), fileDetails, saveAs, solrParamOutput, latestGen);
+      this(
+          new DirectoryFile(tmpIndexDir, saveAs),
+          tmpIndexDir,
+          fileDetails,
+          saveAs,
+          solrParamOutput,
+          latestGen);
+    }
+
+    private DirectoryFileFetcher(
+        DirectoryFile directoryFile,
+        Directory tmpIndexDir,
+        Map<String, Object> fileDetails,
+        String saveAs,
+        String solrParamOutput,
+        long latestGen) {
+      super(directoryFile, fileDetails, saveAs, solrParamOutput, latestGen);
+      this.directoryFile = directoryFile;
+      this.fileDetails = fileDetails;
+      this.partialFile = getPartialFile(tmpIndexDir, fileDetails);
+    }
+
+    @Override
+    protected long resume() throws IOException {
+      if (partialFile == null || !Files.exists(partialFile)) {
+        return 0;
+      }
+      long bytesResumed = 0;
+      if (Files.size(partialFile) < (Long) fileDetails.get(SIZE)) {
+        bytesResumed = directoryFile.write(partialFile);
+        log.info("Resuming the fetch of {} from byte {}", partialFile.getFileName(), bytesResumed);
+      }
+      Files.delete(partialFile);
+      return bytesResumed;
+    }
+
+    @Override
+    protected void verifyResumed() throws IOException {
+      // the start of the file was checked packet by packet, but has been on disk since
+      try (IndexInput in =
+          directoryFile.copy2Dir.openInput(directoryFile.saveAs, IOContext.READONCE)) {
+        long checksum = CodecUtil.checksumEntireFile(in);
+        if (checksum != (Long) fileDetails.get(CHECKSUM)) {
+          throw new CorruptIndexException(
+              "Resumed file has checksum " + checksum + " instead of " + fileDetails.get(CHECKSUM),
+              in);
+        }
+      }
+    }
+
+    @Override
+    protected boolean keepPartial() {
+      if (partialFile == null) {
+        return false;
+      }
+      try {
+        Files.createDirectories(partialFile.getParent());
+        Files.move(directoryFile.getPath(), partialFile, StandardCopyOption.REPLACE_EXISTING);
+        org.apache.lucene.util.IOUtils.fsync(partialFile, false);
+        return true;
+      } catch (IOException e) {
+        log.warn("Could not keep the start of {} to resume from", partialFile.getFileName(), e);
+        org.apache.lucene.util.IOUtils.deleteFilesIgnoringExceptions(partialFile);
+        return false;
+      }
     }
   }
 
@@ -2064,6 +2346,12 @@ public class IndexFetcher {
 
   private static final int MAX_RETRIES = 5;
 
+  /** The pause before fetching a file again after an error, doubled with every error in a row */
+  private static final long RETRY_PAUSE_MS = 250;
+
+  /** The directory in the data dir where the files a fetch failed to finish are kept */
+  static final String PARTIAL_FILES_DIR = "replication.partial";
+
   private static final int NO_CONTENT = 1;
 
   private static final int ERR = 2;
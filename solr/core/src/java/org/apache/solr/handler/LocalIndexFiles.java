@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.IOUtils;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The index files of the other cores of the node, for a replication to link or copy the files it
+ * needs from them rather than fetching them from the leader. The indexes of the node thus make a
+ * store of index files, addressed by their name, size and checksum. The checksum of an index file
+ * covers its header, which holds the id of its segment, so the files matching on all three are the
+ * same.
+ *
+ * <p>The index directories are opened and listed once, for all the files of a fetch, and closed
+ * with it. The checksum of a local file is only read if a file of its name and size is looked for,
+ * and at most once.
+ */
+class LocalIndexFiles implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final List<Directory> dirs = new ArrayList<>();
+  /** The files of the index directories, by name */
+  private final Map<String, List<LocalFile>> files = new HashMap<>();
+
+  LocalIndexFiles(List<Path> indexDirs) throws IOException {
+    try {
+      for (Path indexDir : indexDirs) {
+        Directory dir = new NIOFSDirectory(indexDir);
+        dirs.add(dir);
+        addFiles(indexDir, dir);
+      }
+    } catch (IOException | RuntimeException e) {
+      IOUtils.closeWhileHandlingException(dirs);
+      throw e;
+    }
+  }
+
+  /** The index files of the cores of the node other than the given one */
+  static LocalIndexFiles ofOtherCores(SolrCore core) throws IOException {
+    CoreContainer coreContainer = core.getCoreContainer();
+    List<Path> indexDirs = new ArrayList<>();
+    for (String name : coreContainer.getLoadedCoreNames()) {
+      if (name.equals(core.getName())) {
+        continue;
+      }
+      try (SolrCore other = coreContainer.getCore(name)) {
+        if (other == null) {
+          // unloaded since
+          continue;
+        }
+        Path indexDir = Path.of(other.getIndexDir());
+        if (Files.isDirectory(indexDir)) {
+          indexDirs.add(indexDir);
+        }
+      }
+    }
+    return new LocalIndexFiles(indexDirs);
+  }
+
+  private void addFiles(Path indexDir, Directory dir) throws IOException {
+    for (String name : dir.listAll()) {
+      Path file = indexDir.resolve(name);
+      if (!Files.isRegularFile(file)) {
+        continue;
+      }
+      try {
+        files
+            .computeIfAbsent(name, k -> new ArrayList<>(1))
+            .add(new LocalFile(file, dir, dir.fileLength(name)));
+      } catch (IOException e) {
+        // deleted since
+        log.debug("Could not read the size of {}", file, e);
+      }
+    }
+  }
+
+  /** Returns a local copy of the given index file, or null if there is none */
+  Path find(String name, long size, long checksum) {
+    for (LocalFile file : files.getOrDefault(name, List.of())) {
+      if (file.size == size) {
+        Long fileChecksum = file.checksum();
+        if (fileChecksum != null && fileChecksum == checksum) {
+          return file.path;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Links the local copy of the given index file into the directory, or copies it there if it's on
+   * another file system.
+   *
+   * @return false if there is no local copy of the file, or it couldn't be copied
+   */
+  boolean copyTo(Path dir, String name, long size, long checksum) {
+    Path file = find(name, size, checksum);
+    if (file == null) {
+      return false;
+    }
+    Path target = dir.resolve(name);
+    try {
+      try {
+        Files.createLink(target, file);
+      } catch (IOException | UnsupportedOperationException e) {
+        Files.copy(file, target);
+        IOUtils.fsync(target, false);
+      }
+      log.info("Copied {} from the local index file {}", name, file);
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not copy {} from the local index file {}", name, file, e);
+      IOUtils.deleteFilesIgnoringExceptions(target);
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.close(dirs);
+  }
+
+  /** A file of an index directory, with its size as listed and its checksum once read */
+  private static class LocalFile {
+    final Path path;
+    final Directory dir;
+    final long size;
+    private boolean checksumRead;
+    private Long checksum;
+
+    LocalFile(Path path, Directory dir, long size) {
+      this.path = path;
+      this.dir = dir;
+      this.size = size;
+    }
+
+    /** The checksum in the footer of the file, or null if it couldn't be read */
+    Long checksum() {
+      if (!checksumRead) {
+        checksumRead = true;
+        try (IndexInput in = dir.openInput(path.getFileName().toString(), IOContext.READONCE)) {
+          if (in.length() == size) {
+            checksum = CodecUtil.retrieveChecksum(in);
+          }
+        } catch (IOException e) {
+          // deleted since, or not a whole index file
+          log.debug("Could not read the checksum of {}", path, e);
+        }
+      }
+      return checksum;
+    }
+  }
+}
@@ -1522,6 +1522,9 @@ public class ReplicationHandler extends RequestHandlerBase
 
   public static final String FETCH_FROM_LEADER = "fetchFromLeader";
 
+  /** The number of index files a follower fetches at once */
+  public static final String FETCH_THREADS = "fetchThreads";
+
   // In case of TLOG replica, if leaderVersion = zero, don't do commit
   // otherwise updates from current tlog won't be copied over properly to the new tlog,
   // leading to data loss.
@@ -265,7 +265,8 @@ public abstract class ReplicationAPIBase extends JerseyResource {
     protected boolean useChecksum;
 
     protected long offset = -1;
-    protected int len = -1;
+    /** The number of bytes to stream from the offset, or -1 for the rest of the file */
+    protected long len = -1;
 
     protected Checksum checksum;
 
@@ -334,12 +335,12 @@ public abstract class ReplicationAPIBase extends JerseyResource {
 
     protected void initWrite() throws IOException {
       this.offset = (sOffset != null) ? Long.parseLong(sOffset) : -1;
-      this.len = (sLen != null) ? Integer.parseInt(sLen) : -1;
+      this.len = (sLen != null) ? Long.parseLong(sLen) : -1;
       if (fileName == null && cfileName == null && tlogFileName == null) {
         // no filename do nothing
         writeNothingAndFlush();
       }
-      buf = new byte[(len == -1 || len > PACKET_SZ) ? PACKET_SZ : len];
+      buf = new byte[(len <= 0 || len > PACKET_SZ) ? PACKET_SZ : (int) len];
 
       // reserve commit point till write is complete
       if (indexGen != null) {
@@ -387,11 +388,13 @@ public abstract class ReplicationAPIBase extends JerseyResource {
         if (offset != -1) in.seek(offset);
 
         long filelen = dir.fileLength(fileName);
+        // the end of the range to stream, if a length is given
+        long end = len < 0 ? filelen : Math.min(filelen, Math.max(offset, 0) + len);
         long maxBytesBeforePause = 0;
 
         while (true) {
           offset = offset == -1 ? 0 : offset;
-          int read = (int) Math.min(buf.length, filelen - offset);
+          int read = (int) Math.min(buf.length, end - offset);
           in.readBytes(buf, 0, read);
 
           fos.writeInt(read);
@@ -482,9 +485,11 @@ public abstract class ReplicationAPIBase extends JerseyResource {
             // if offset is mentioned move the pointer to that point
             if (offset != -1) channel.position(offset);
             ByteBuffer bb = ByteBuffer.wrap(buf);
+            long remaining = len < 0 ? Long.MAX_VALUE : len;
 
             while (true) {
               bb.clear();
+              bb.limit((int) Math.min(buf.length, remaining));
               long bytesRead = channel.read(bb);
               if (bytesRead <= 0) {
                 writeNothingAndFlush();
@@ -493,6 +498,7 @@ public abstract class ReplicationAPIBase extends JerseyResource {
                 fos.close();
                 break;
               }
+              remaining -= bytesRead;
               fos.writeInt((int) bytesRead);
               if (useChecksum) {
                 checksum.reset();
@@ -19,11 +19,16 @@ package org.apache.solr.handler.component;
 import static org.apache.solr.common.params.CommonParams.PARTIAL_RESULTS;
 import static org.apache.solr.request.SolrQueryRequest.disallowPartialResults;
 
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,6 +37,7 @@ import net.jcip.annotations.NotThreadSafe;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrResponse;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
+import org.apache.solr.client.solrj.impl.JavaBinResponseParser;
 import org.apache.solr.client.solrj.impl.LBHttp2SolrClient;
 import org.apache.solr.client.solrj.impl.LBSolrClient;
 import org.apache.solr.client.solrj.request.QueryRequest;
@@ -46,12 +52,18 @@ import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.EnvUtils;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.StrUtils;
 import org.apache.solr.core.CoreDescriptor;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.JavaBinResponseWriter;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.security.AllowListUrlChecker;
+import org.slf4j.MDC;
 
 /**
  * Solr's default {@link ShardHandler} implementation; uses Jetty's async HTTP Client APIs for
@@ -77,6 +89,10 @@ public class HttpShardHandler extends ShardHandler {
    */
   public static String ONLY_NRT_REPLICAS = "distribOnlyRealtime";
 
+  /** Whether the shard responses may refer to a dictionary of the strings they have in common */
+  private static final boolean STRING_DICTIONARY_ENABLED =
+      EnvUtils.getPropertyAsBool("solr.shardRequests.stringDictionary", true);
+
   private final HttpShardHandlerFactory httpShardHandlerFactory;
 
   /*
@@ -205,16 +221,35 @@ public class HttpShardHandler extends ShardHandler {
       ShardRequest sreq, String shard, ModifiableSolrParams params, List<String> urls) {
     params.remove(CommonParams.WT); // use default (currently javabin)
     params.remove(CommonParams.VERSION);
+    SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    JavaBinCodec.StringDictionary dictionary = getStringDictionary(requestInfo);
+    if (dictionary != null) {
+      params.set(JavaBinResponseParser.STRING_DICTIONARY_PARAM, dictionary.getVersion());
+    }
     QueryRequest req = createQueryRequest(sreq, params, shard);
     req.setMethod(SolrRequest.METHOD.POST);
-    SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
     if (requestInfo != null) {
       req.setUserPrincipal(requestInfo.getUserPrincipal());
     }
+    if (dictionary != null) {
+      req.setResponseParser(new JavaBinResponseParser().setStringDictionary(dictionary));
+    }
 
     return httpShardHandlerFactory.newLBHttpSolrClientReq(req, urls);
   }
 
+  /**
+   * The dictionary of the strings the shard responses have in common, when the shards share the
+   * schema of the request. They refer to it rather than repeat the field names in every response.
+   */
+  private static JavaBinCodec.StringDictionary getStringDictionary(SolrRequestInfo requestInfo) {
+    if (!STRING_DICTIONARY_ENABLED || requestInfo == null || requestInfo.getReq() == null) {
+      return null;
+    }
+    IndexSchema schema = requestInfo.getReq().getSchema();
+    return schema == null ? null : JavaBinResponseWriter.getStringDictionary(schema);
+  }
+
   private ShardResponse prepareShardResponse(ShardRequest sreq, String shard) {
     ShardResponse srsp = new ShardResponse();
     if (sreq.nodeName != null) {
@@ -281,7 +316,7 @@ public class HttpShardHandler extends ShardHandler {
       SimpleSolrResponse ssr,
       ShardResponse srsp,
       long startTimeNS) {
-    CompletableFuture<LBSolrClient.Rsp> future = this.lbClient.requestAsync(lbReq);
+    CompletableFuture<LBSolrClient.Rsp> future = requestAsync(lbReq);
     future.whenComplete(new ShardRequestCallback(ssr, srsp, startTimeNS, sreq, shard, params));
     synchronized (FUTURE_MAP_LOCK) {
       // we want to ensure that there is a future in flight before incrementing
@@ -293,6 +328,194 @@ public class HttpShardHandler extends ShardHandler {
     }
   }
 
+  /**
+   * Sends the request to the first replica of the shard, or to the next ones if it fails. If
+   * hedging is enabled and the replica takes longer than it usually does, the request is sent to
+   * the second replica too, and the first response is used, cancelling the other request. The
+   * hedges are limited to a fraction of the requests by the budget of the factory.
+   *
+   * <p>The latencies and the outstanding requests of the replicas are tracked along the way, for
+   * the hedging and the "latency" replica routing.
+   *
+   * @see HttpShardHandlerFactory#getHedgeDelay(String)
+   * @see LatencyReplicaListTransformer
+   */
+  protected CompletableFuture<LBSolrClient.Rsp> requestAsync(LBSolrClient.Req lbReq) {
+    List<LBSolrClient.Endpoint> endpoints = lbReq.getEndpoints();
+    long hedgeDelay =
+        endpoints.size() > 1
+            ? httpShardHandlerFactory.getHedgeDelay(endpoints.get(0).toString())
+            : -1;
+    if (httpShardHandlerFactory.hedgeScheduler != null) {
+      httpShardHandlerFactory.earnHedge();
+    }
+    HedgedRequest request = new HedgedRequest();
+    request.send(lbReq, false);
+    if (hedgeDelay < 0) {
+      return request.result;
+    }
+    LBSolrClient.Req hedgeReq =
+        new LBSolrClient.Req(
+            lbReq.getRequest(),
+            endpoints.subList(1, endpoints.size()),
+            lbReq.getNumServersToTry());
+    Future<?> hedge =
+        httpShardHandlerFactory.hedgeScheduler.schedule(
+            withRequestContext(() -> request.send(hedgeReq, true)),
+            hedgeDelay,
+            TimeUnit.NANOSECONDS);
+    request.result.whenComplete((rsp, t) -> hedge.cancel(false));
+    return request.result;
+  }
+
+  /**
+   * Wraps a task so that it runs on the hedge scheduler with the context of the calling thread, as
+   * the executors of {@link ExecutorUtil} do: its request info, which authenticates the request to
+   * the other replica, its MDC and its tracing context. It runs as a server thread, so that a
+   * request using the server token is authenticated too.
+   *
+   * <p>The task gets request info of its own, for the same request and principal, so that it can
+   * be cancelled without holding on to the one of the calling thread.
+   */
+  private static Runnable withRequestContext(Runnable task) {
+    SolrRequestInfo callerInfo = SolrRequestInfo.getRequestInfo();
+    SolrRequestInfo requestInfo = null;
+    if (callerInfo != null && callerInfo.getReq() != null) {
+      requestInfo =
+          new SolrRequestInfo(callerInfo.getReq(), callerInfo.getRsp(), callerInfo.getAction());
+      requestInfo.setUseServerToken(callerInfo.useServerToken());
+    }
+    final SolrRequestInfo taskInfo = requestInfo;
+    final Map<String, String> mdc = MDC.getCopyOfContextMap();
+    final Context traceContext = Context.current();
+    return () -> {
+      if (taskInfo != null) {
+        SolrRequestInfo.setRequestInfo(taskInfo);
+      }
+      if (mdc != null) {
+        MDC.setContextMap(mdc);
+      }
+      ExecutorUtil.setServerThreadFlag(true);
+      try (Scope ignored = traceContext.makeCurrent()) {
+        task.run();
+      } finally {
+        ExecutorUtil.setServerThreadFlag(null);
+        MDC.clear();
+        if (taskInfo != null) {
+          SolrRequestInfo.clearRequestInfo();
+        }
+      }
+    };
+  }
+
+  /**
+   * A shard request, sent to one replica and maybe later to another one. It completes with the
+   * first response, or with the error of the first replica once all of them have failed.
+   */
+  private class HedgedRequest {
+    final CompletableFuture<LBSolrClient.Rsp> result = new CompletableFuture<>();
+    private final List<CompletableFuture<LBSolrClient.Rsp>> attempts = new ArrayList<>(2);
+    private int failed;
+    private Throwable error;
+    /** Whether the result was decided: no more requests are sent then */
+    private boolean done;
+    /** Whether the result is a response, and not an error */
+    private boolean answered;
+
+    HedgedRequest() {
+      result.whenComplete(
+          (rsp, t) -> {
+            if (result.isCancelled()) {
+              cancelAttempts();
+            }
+          });
+    }
+
+    void send(LBSolrClient.Req lbReq, boolean hedge) {
+      ReplicaLatencyStats stats = httpShardHandlerFactory.latencyStats;
+      String replica = lbReq.getEndpoints().get(0).toString();
+      long startTimeNS = System.nanoTime();
+      CompletableFuture<LBSolrClient.Rsp> attempt;
+      synchronized (this) {
+        if (done || result.isDone()) {
+          return;
+        }
+        if (hedge) {
+          if (!httpShardHandlerFactory.spendHedge()) {
+            return;
+          }
+          httpShardHandlerFactory.hedgedRequests.inc();
+        }
+        stats.requestStarted(replica);
+        try {
+          attempt = lbClient.requestAsync(lbReq);
+        } catch (RuntimeException e) {
+          stats.requestEnded(replica);
+          throw e;
+        }
+        attempts.add(attempt);
+      }
+      attempt.whenComplete(
+          (rsp, t) -> {
+            stats.requestEnded(replica);
+            onComplete(rsp, t, replica, startTimeNS, hedge);
+          });
+    }
+
+    // the result is completed outside the lock, since its callbacks may cancel other requests
+    private void onComplete(
+        LBSolrClient.Rsp rsp, Throwable t, String replica, long startTimeNS, boolean hedge) {
+      ReplicaLatencyStats stats = httpShardHandlerFactory.latencyStats;
+      long latencyNS = System.nanoTime() - startTimeNS;
+      if (rsp != null) {
+        stats.record(rsp.getServer(), latencyNS);
+      } else if (!(t instanceof CancellationException)) {
+        stats.recordFailure(replica, latencyNS);
+      }
+      Throwable failure;
+      synchronized (this) {
+        if (done) {
+          if (rsp == null && answered) {
+            // cancelled because the other replica answered first: this one would have taken at
+            // least as long, which its latencies must show or its slow requests would never count
+            stats.record(replica, latencyNS);
+          }
+          return;
+        }
+        if (rsp == null) {
+          if (error == null || !hedge) {
+            error = t;
+          }
+          if (++failed < attempts.size()) {
+            return;
+          }
+        }
+        done = true;
+        answered = rsp != null;
+        failure = error;
+      }
+      if (rsp != null) {
+        if (hedge) {
+          httpShardHandlerFactory.hedgeWins.inc();
+        }
+        cancelAttempts();
+        result.complete(rsp);
+      } else {
+        result.completeExceptionally(failure);
+      }
+    }
+
+    private void cancelAttempts() {
+      List<CompletableFuture<LBSolrClient.Rsp>> toCancel;
+      synchronized (this) {
+        toCancel = new ArrayList<>(attempts);
+      }
+      for (CompletableFuture<LBSolrClient.Rsp> attempt : toCancel) {
+        attempt.cancel(true);
+      }
+    }
+  }
+
   /** Subclasses could modify the request based on the shard */
   @SuppressWarnings("unused")
   protected QueryRequest createQueryRequest(
@@ -340,6 +563,9 @@ public class HttpShardHandler extends ShardHandler {
         // for a request was received.  Otherwise we might return the same
         // request more than once.
         rsp.getShardRequest().responses.add(rsp);
+        if (rsp.getException() == null && rsp.getShardRequest().responseListener != null) {
+          rsp.getShardRequest().responseListener.accept(rsp);
+        }
 
         if (rsp.getShardRequest().responses.size() == rsp.getShardRequest().actualShards.length) {
           return rsp;
@@ -18,6 +18,7 @@ package org.apache.solr.handler.component;
 
 import static org.apache.solr.util.stats.InstrumentedHttpListenerFactory.KNOWN_METRIC_NAME_STRATEGIES;
 
+import com.codahale.metrics.Counter;
 import java.lang.invoke.MethodHandles;
 import java.util.Iterator;
 import java.util.List;
@@ -26,8 +27,11 @@ import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
@@ -93,8 +97,26 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
   int permittedLoadBalancerRequestsMinimumAbsolute = 0;
   float permittedLoadBalancerRequestsMaximumFraction = 1.0f;
   boolean accessPolicy = false;
+  float hedgePercentile = 0f;
+  int hedgeMinDelayMs = 5;
+  float hedgeMaxFraction = 0.1f;
   private SolrMetricsContext solrMetricsContext;
 
+  final ReplicaLatencyStats latencyStats = new ReplicaLatencyStats();
+  /** Sends the hedged requests, if hedging is enabled */
+  ScheduledExecutorService hedgeScheduler;
+  Counter hedgedRequests = new Counter();
+  Counter hedgeWins = new Counter();
+
+  /** The most hedges sent in a row once the budget has built up */
+  static final int HEDGE_BURST = 10;
+
+  /**
+   * The hedges that may be sent, in thousandths of a hedge. Each shard request adds its share of
+   * {@link #hedgeMaxFraction}, up to {@link #HEDGE_BURST} hedges, and each hedge takes one.
+   */
+  private final AtomicLong hedgeBudget = new AtomicLong(HEDGE_BURST * 1000L);
+
   private String scheme = null;
 
   private InstrumentedHttpListenerFactory.NameStrategy metricNameStrategy;
@@ -128,6 +150,15 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
   // Configure if the threadpool favours fairness over throughput
   static final String INIT_FAIRNESS_POLICY = "fairnessPolicy";
 
+  // The percentile of the latencies of a replica after which its requests are hedged (0 to disable)
+  static final String HEDGE_PERCENTILE = "hedgePercentile";
+
+  // The least time, in milliseconds, to wait for a replica before hedging its request
+  static final String HEDGE_MIN_DELAY_MS = "hedgeMinDelayMs";
+
+  // The most requests hedged, as a fraction of all the shard requests
+  static final String HEDGE_MAX_FRACTION = "hedgeMaxFraction";
+
   /** Get {@link ShardHandler} that uses the default http client. */
   @Override
   public ShardHandler getShardHandler() {
@@ -179,6 +210,10 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
             defaultRouting = checkDefaultReplicaListTransformer(c, key, defaultRouting);
             stableRltFactory = new AffinityReplicaListTransformerFactory(c);
             break;
+          case ShardParams.REPLICA_LATENCY:
+            defaultRouting =
+                checkDefaultReplicaListTransformer(getNamedList(e.getValue()), key, defaultRouting);
+            break;
           default:
             throw new IllegalArgumentException("invalid replica routing spec name: " + key);
         }
@@ -187,13 +222,23 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
     if (stableRltFactory == null) {
       stableRltFactory = new AffinityReplicaListTransformerFactory();
     }
+    ReplicaListTransformerFactory latencyRltFactory =
+        (String configSpec, SolrParams requestParams, ReplicaListTransformerFactory fallback) -> {
+          if (configSpec != null) {
+            throw new IllegalArgumentException("Invalid routing spec: \"" + configSpec + '"');
+          }
+          return new LatencyReplicaListTransformer(latencyStats, r);
+        };
     if (ShardParams.REPLICA_STABLE.equals(defaultRouting)) {
       defaultRltFactory = stableRltFactory;
+    } else if (ShardParams.REPLICA_LATENCY.equals(defaultRouting)) {
+      defaultRltFactory = latencyRltFactory;
     } else {
       defaultRltFactory = RequestReplicaListTransformerGenerator.RANDOM_RLTF;
     }
     this.requestReplicaListTransformerGenerator =
-        new RequestReplicaListTransformerGenerator(defaultRltFactory, stableRltFactory);
+        new RequestReplicaListTransformerGenerator(
+            defaultRltFactory, stableRltFactory, latencyRltFactory);
   }
 
   /**
@@ -215,7 +260,15 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
    *   <li>fairnessPolicy - true if the thread pool should prioritize fairness over throughput,
    *       false otherwise
    *   <li>replicaRouting - a NamedList of preferences used to select the order in which replicas
-   *       for a shard will be used by created ShardHandlers
+   *       for a shard will be used by created ShardHandlers. The "latency" preference orders them
+   *       by the latencies of their recent responses and the requests they are still serving.
+   *   <li>hedgePercentile - if more than 0, a shard request the replica hasn't answered once this
+   *       percentile of its recent latencies has passed is sent to another replica of the shard as
+   *       well, and the first response is used. Costs a few more requests to cut the tail latency.
+   *   <li>hedgeMinDelayMs - the least time to wait for a replica before sending the request to
+   *       another one
+   *   <li>hedgeMaxFraction - the most requests hedged, as a fraction of all the shard requests, so
+   *       that a slow cluster isn't flooded with hedges
    * </ul>
    *
    * @param info configuration for the created factory, typically reflecting the contents of a
@@ -260,6 +313,18 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
             permittedLoadBalancerRequestsMaximumFraction,
             sb);
     this.accessPolicy = getParameter(args, INIT_FAIRNESS_POLICY, accessPolicy, sb);
+    this.hedgePercentile = getParameter(args, HEDGE_PERCENTILE, hedgePercentile, sb);
+    this.hedgeMinDelayMs = getParameter(args, HEDGE_MIN_DELAY_MS, hedgeMinDelayMs, sb);
+    this.hedgeMaxFraction = getParameter(args, HEDGE_MAX_FRACTION, hedgeMaxFraction, sb);
+    if (hedgePercentile < 0 || hedgePercentile > 100) {
+      throw new SolrException(
+          ErrorCode.SERVER_ERROR,
+          HEDGE_PERCENTILE + " must be between 0 and 100, not " + hedgePercentile);
+    }
+    if (hedgePercentile > 0) {
+      this.hedgeScheduler =
+          Executors.newSingleThreadScheduledExecutor(new SolrNamedThreadFactory("shardHedger"));
+    }
 
     if (args != null && args.get("shardsWhitelist") != null) {
       log.warn(
@@ -354,6 +419,9 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
         }
       } finally {
         ExecutorUtil.shutdownAndAwaitTermination(commExecutor);
+        if (hedgeScheduler != null) {
+          ExecutorUtil.shutdownNowAndAwaitTermination(hedgeScheduler);
+        }
       }
     }
     try {
@@ -380,6 +448,38 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
     return new LBSolrClient.Req(req, endpoints, numServersToTry);
   }
 
+  /**
+   * Returns how long to wait for the given replica before sending its request to another replica
+   * too, in nanoseconds, or -1 not to hedge the request.
+   *
+   * @param replica the URL of the replica, as in {@link LBSolrClient.Endpoint#toString()}
+   */
+  long getHedgeDelay(String replica) {
+    if (hedgeScheduler == null) {
+      return -1;
+    }
+    long delay = latencyStats.getPercentile(replica, hedgePercentile);
+    return delay < 0 ? -1 : Math.max(delay, TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs));
+  }
+
+  /** Adds the share of a shard request to the hedge budget */
+  void earnHedge() {
+    long share = (long) (hedgeMaxFraction * 1000);
+    hedgeBudget.accumulateAndGet(share, (budget, s) -> Math.min(budget + s, HEDGE_BURST * 1000L));
+  }
+
+  /** Takes a hedge from the budget, returns false if it's spent */
+  boolean spendHedge() {
+    long budget;
+    do {
+      budget = hedgeBudget.get();
+      if (budget < 1000) {
+        return false;
+      }
+    } while (!hedgeBudget.compareAndSet(budget, budget - 1000));
+    return true;
+  }
+
   /**
    * Creates a list of urls for the given shard.
    *
@@ -447,5 +547,7 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory
             null,
             solrMetricsContext.getMetricRegistry(),
             SolrMetricManager.mkName("httpShardExecutor", expandedScope, "threadPool"));
+    hedgedRequests = solrMetricsContext.counter("hedgedRequests", expandedScope);
+    hedgeWins = solrMetricsContext.counter("hedgeWins", expandedScope);
   }
 }
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.apache.solr.client.solrj.routing.ReplicaListTransformer;
+import org.apache.solr.common.cloud.Replica;
+
+/**
+ * Orders the replicas by their {@link ReplicaLatencyStats#getScore(String) score}, so that the
+ * replica expected to answer first comes first. The replicas with the same score, such as those
+ * no request was sent to yet, are shuffled.
+ */
+class LatencyReplicaListTransformer implements ReplicaListTransformer {
+  private final ReplicaLatencyStats stats;
+  private final Random random;
+
+  LatencyReplicaListTransformer(ReplicaLatencyStats stats, Random random) {
+    this.stats = stats;
+    this.random = random;
+  }
+
+  @Override
+  public <T> void transform(List<T> choices) {
+    if (choices.size() > 1) {
+      // the scores change as requests come and go, so they are only read once
+      List<Scored<T>> scored = new ArrayList<>(choices.size());
+      for (T choice : choices) {
+        scored.add(new Scored<>(choice, stats.getScore(getUrl(choice))));
+      }
+      Collections.shuffle(scored, random);
+      scored.sort(Comparator.comparingDouble(Scored::score));
+      for (int i = 0; i < scored.size(); i++) {
+        choices.set(i, scored.get(i).choice());
+      }
+    }
+  }
+
+  private static String getUrl(Object choice) {
+    return choice instanceof Replica replica ? replica.getCoreUrl() : choice.toString();
+  }
+
+  private record Scored<T>(T choice, double score) {}
+}
@@ -25,6 +25,7 @@ import java.io.StringWriter;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -943,11 +944,10 @@ public class QueryComponent extends SearchComponent {
     // id to shard mapping, to eliminate any accidental dups
     HashMap<Object, String> uniqueDoc = new HashMap<>();
 
-    // Merge the docs via a priority queue so we don't have to sort *all* of the
-    // documents... we only need to order the top (rows+start)
-    final ShardFieldSortedHitQueue queue =
-        new ShardFieldSortedHitQueue(
-            sortFields, ss.getOffset() + ss.getCount(), rb.req.getSearcher());
+    // Merge the sorted docs of the shards, only up to the top (rows+start)
+    final ShardDocMerger merger =
+        new ShardDocMerger(
+            sortFields, rb.req.getSearcher(), uniqueKeyField.getName(), scoreDependentFields);
 
     NamedList<Object> shardInfo = null;
     if (rb.req.getParams().getBool(ShardParams.SHARDS_INFO, false)) {
@@ -1113,8 +1113,9 @@ public class QueryComponent extends SearchComponent {
       NamedList<List<Object>> unmarshalledSortFieldValues =
           needsUnmarshalling ? unmarshalSortValues(ss, sortFieldValues, schema) : new NamedList<>();
 
-      // go through every doc in this response, construct a ShardDoc, and
-      // put it in the priority queue so it can be ordered.
+      // go through every doc in this response to find the ones already returned by another
+      // shard, and hand them to the merger so they can be ordered.
+      BitSet duplicates = null;
       for (int i = 0; i < docs.size(); i++) {
         SolrDocument doc = docs.get(i);
         Object id = doc.getFieldValue(uniqueKeyField.getName());
@@ -1124,49 +1125,28 @@ public class QueryComponent extends SearchComponent {
           // duplicate detected
           numFound--;
 
-          // For now, just always use the first encountered since we can't currently
-          // remove the previous one added to the priority queue.  If we switched
-          // to the Java5 PriorityQueue, this would be easier.
-          continue;
+          // For now, just always use the first encountered.
+          if (duplicates == null) {
+            duplicates = new BitSet(docs.size());
+          }
+          duplicates.set(i);
           // make which duplicate is used deterministic based on shard
           // if (prevShard.compareTo(srsp.shard) >= 0) {
-          //  TODO: remove previous from priority queue
+          //  TODO: remove previous from the merge
           //  continue;
           // }
         }
-
-        ShardDoc shardDoc = new ShardDoc();
-        shardDoc.id = id;
-        shardDoc.shard = srsp.getShard();
-        shardDoc.orderInShard = i;
-        Object scoreObj = doc.getFieldValue(SolrReturnFields.SCORE);
-        if (scoreObj != null) {
-          if (scoreObj instanceof String) {
-            shardDoc.score = Float.parseFloat((String) scoreObj);
-          } else {
-            shardDoc.score = ((Number) scoreObj).floatValue();
-          }
-        }
-        if (!scoreDependentFields.isEmpty()) {
-          shardDoc.scoreDependentFields = doc.getSubsetOfFields(scoreDependentFields);
-        }
-
-        shardDoc.sortFieldValues = unmarshalledSortFieldValues;
-
-        queue.insertWithOverflow(shardDoc);
       } // end for-each-doc-in-response
+
+      merger.add(srsp.getShard(), docs, unmarshalledSortFieldValues, duplicates);
     } // end for-each-response
 
-    // The queue now has 0 -> queuesize docs, where queuesize <= start + rows
-    // So we want to pop the last documents off the queue to get
-    // the docs offset -> queuesize
-    int resultSize = queue.size() - ss.getOffset();
-    resultSize = Math.max(0, resultSize); // there may not be any docs in range
+    // the docs offset -> offset + rows, there may not be any docs in range
+    List<ShardDoc> page = merger.merge(ss.getOffset(), ss.getCount());
+    int resultSize = page.size();
 
     Map<Object, ShardDoc> resultIds = new HashMap<>();
-    for (int i = resultSize - 1; i >= 0; i--) {
-      ShardDoc shardDoc = queue.pop();
-      shardDoc.positionInResponse = i;
+    for (ShardDoc shardDoc : page) {
       // Need the toString() for correlation with other lists that must
       // be strings (like keys in highlighting, explain, etc)
       resultIds.put(shardDoc.id.toString(), shardDoc);
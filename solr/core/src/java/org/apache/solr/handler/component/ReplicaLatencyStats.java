@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.solr.common.util.URLUtil;
+
+/**
+ * The latencies of the recent shard requests to each replica, to tell how long a request to a
+ * replica usually takes. The percentiles are computed over the last {@value #SAMPLES} latencies of
+ * a replica, and kept for a little while since every shard request asks for one.
+ *
+ * <p>The requests still waiting for each replica are counted too, which along with an exponentially
+ * weighted moving average of its latencies gives the {@link #getScore(String) score} replicas are
+ * ranked by. A failed request weighs in that average as its time plus {@link
+ * #FAILURE_PENALTY_NS}, so that a replica answering errors fast isn't preferred. The replicas are
+ * known by their URL, with or without its scheme, and forgotten once they got no requests for
+ * {@link #STALE_NS}.
+ */
+public class ReplicaLatencyStats {
+  static final int SAMPLES = 128;
+
+  /** The number of latencies of a replica below which its percentiles aren't trusted */
+  static final int MIN_SAMPLES = 16;
+
+  private static final long REFRESH_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /** The weight of a new latency in the moving average */
+  private static final double EWMA_ALPHA = 0.2;
+
+  /**
+   * The time after which the moving average of a replica has halved, if it got no response since.
+   * A replica that was slow for a while thus gets requests again, and a chance to show it's fast.
+   */
+  private static final long EWMA_HALF_LIFE_NS = TimeUnit.SECONDS.toNanos(10);
+
+  /** Added to the time of a failed request in the moving average of its replica */
+  static final long FAILURE_PENALTY_NS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The time after which a replica that got no requests is forgotten */
+  static final long STALE_NS = TimeUnit.MINUTES.toNanos(10);
+
+  private static final long EVICT_INTERVAL_NS = TimeUnit.MINUTES.toNanos(1);
+
+  private final Map<String, Latencies> replicas = new ConcurrentHashMap<>();
+  private final Latencies all = new Latencies();
+  private final AtomicLong lastEvictionNS = new AtomicLong(System.nanoTime());
+
+  /**
+   * @param replica the URL of the replica, as in {@link
+   *     org.apache.solr.client.solrj.impl.LBSolrClient.Rsp#getServer()}
+   */
+  public void record(String replica, long latencyNS) {
+    get(replica).add(latencyNS);
+    all.add(latencyNS);
+  }
+
+  /**
+   * Records a request to the replica that failed, or timed out, after the given time. It only
+   * counts in the moving average of the replica, not in its percentiles.
+   */
+  public void recordFailure(String replica, long latencyNS) {
+    get(replica).addToAverage(latencyNS + FAILURE_PENALTY_NS);
+  }
+
+  /** Counts a request sent to the replica, until {@link #requestEnded(String)} */
+  public void requestStarted(String replica) {
+    get(replica).inFlight.incrementAndGet();
+    evictStale();
+  }
+
+  public void requestEnded(String replica) {
+    Latencies latencies = replicas.get(key(replica));
+    if (latencies != null) {
+      latencies.inFlight.updateAndGet(n -> Math.max(0, n - 1));
+    }
+  }
+
+  /**
+   * Returns the score of the replica: the lower, the sooner it should answer a new request. It's
+   * the moving average of its latencies, multiplied by the number of requests it would then have
+   * to serve, as in least outstanding requests routing. The replicas with no latencies yet score
+   * next to nothing, so they get requests and latencies.
+   */
+  public double getScore(String replica) {
+    Latencies latencies = replicas.get(key(replica));
+    return latencies == null ? 1 : latencies.getScore();
+  }
+
+  /**
+   * Returns the given percentile, between 0 and 100, of the recent latencies of the replica, in
+   * nanoseconds. Those of all the replicas stand for them until the replica has enough of its own.
+   * Returns -1 if there aren't enough latencies at all.
+   */
+  public long getPercentile(String replica, double percentile) {
+    Latencies latencies = replicas.get(key(replica));
+    long value = latencies == null ? -1 : latencies.getPercentile(percentile);
+    return value >= 0 ? value : all.getPercentile(percentile);
+  }
+
+  /** The number of replicas stats are kept for */
+  int size() {
+    return replicas.size();
+  }
+
+  private Latencies get(String replica) {
+    Latencies latencies = replicas.computeIfAbsent(key(replica), k -> new Latencies());
+    latencies.usedAtNS = System.nanoTime();
+    return latencies;
+  }
+
+  /** Forgets the replicas that got no requests lately, now and then */
+  void evictStale() {
+    long now = System.nanoTime();
+    long last = lastEvictionNS.get();
+    if (now - last > EVICT_INTERVAL_NS && lastEvictionNS.compareAndSet(last, now)) {
+      evictStale(now);
+    }
+  }
+
+  void evictStale(long now) {
+    replicas.values().removeIf(l -> l.inFlight.get() == 0 && now - l.usedAtNS > STALE_NS);
+  }
+
+  private static String key(String url) {
+    String key = URLUtil.removeScheme(url);
+    return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+  }
+
+  private static final class Latencies {
+    private final long[] samples = new long[SAMPLES];
+    private int size;
+    private int next;
+    final AtomicInteger inFlight = new AtomicInteger();
+    volatile long usedAtNS = System.nanoTime();
+
+    private double ewma;
+    private long ewmaAtNS;
+
+    private double cachedPercentile = -1;
+    private long cachedValue;
+    private long cachedAtNS;
+
+    synchronized void add(long latencyNS) {
+      samples[next] = latencyNS;
+      next = (next + 1) % SAMPLES;
+      size = Math.min(size + 1, SAMPLES);
+      addToAverage(latencyNS);
+    }
+
+    synchronized void addToAverage(long latencyNS) {
+      long now = System.nanoTime();
+      double current = decayedEwma(now);
+      ewma = current == 0 ? latencyNS : current + EWMA_ALPHA * (latencyNS - current);
+      ewmaAtNS = now;
+    }
+
+    private double decayedEwma(long now) {
+      return ewma * Math.pow(0.5, (double) (now - ewmaAtNS) / EWMA_HALF_LIFE_NS);
+    }
+
+    synchronized double getScore() {
+      return (decayedEwma(System.nanoTime()) + 1) * (inFlight.get() + 1);
+    }
+
+    synchronized long getPercentile(double percentile) {
+      if (size < MIN_SAMPLES) {
+        return -1;
+      }
+      long now = System.nanoTime();
+      if (percentile != cachedPercentile || now - cachedAtNS > REFRESH_NS) {
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * size) - 1;
+        cachedValue = sorted[Math.max(0, Math.min(size - 1, rank))];
+        cachedPercentile = percentile;
+        cachedAtNS = now;
+      }
+      return cachedValue;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import static org.apache.solr.common.SolrException.ErrorCode.SERVER_ERROR;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Pruning;
+import org.apache.lucene.search.SortField;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SolrReturnFields;
+
+/**
+ * Merges the sorted document lists of the shards into the page of the distributed response. Since
+ * each shard already sorted its documents, only the first documents of the shards are compared,
+ * in a tournament tree, and the merge stops once it has the documents up to the end of the page.
+ * Only the documents of the page become {@link ShardDoc}s.
+ *
+ * <p>The sort values of the numeric fields and the scores are held in primitive arrays, one per
+ * shard and sort field; the other values are compared with the {@link FieldComparator} of their
+ * field, as in {@link ShardFieldSortedHitQueue}, whose order this merge follows.
+ */
+final class ShardDocMerger {
+  private final SortField[] sortFields;
+  private final SortField.Type[] types;
+  private final FieldComparator<?>[] comparators;
+  /** The position of the values of each sort field in the sort values of the shard responses */
+  private final int[] fieldNums;
+
+  private final String uniqueKeyField;
+  private final Set<String> scoreDependentFields;
+  private final List<Source> sources = new ArrayList<>();
+
+  /**
+   * @param uniqueKeyField the name of the field holding the ids of the documents
+   * @param scoreDependentFields the fields to keep in the {@link ShardDoc}s
+   */
+  ShardDocMerger(
+      SortField[] sortFields,
+      IndexSearcher searcher,
+      String uniqueKeyField,
+      Set<String> scoreDependentFields) {
+    this.uniqueKeyField = uniqueKeyField;
+    this.scoreDependentFields = scoreDependentFields;
+    int n = sortFields.length;
+    this.sortFields = new SortField[n];
+    this.types = new SortField.Type[n];
+    this.comparators = new FieldComparator<?>[n];
+    this.fieldNums = new int[n];
+    List<String> fieldNames = new ArrayList<>();
+    for (SortField sortField : sortFields) {
+      if (sortField.getType() != SortField.Type.SCORE
+          && sortField.getType() != SortField.Type.DOC) {
+        fieldNames.add(sortField.getField());
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      SortField sortField = sortFields[i];
+      if (sortField.getType() == SortField.Type.REWRITEABLE) {
+        try {
+          sortField = sortField.rewrite(searcher);
+        } catch (IOException e) {
+          throw new SolrException(SERVER_ERROR, "Exception rewriting sort field " + sortField, e);
+        }
+      }
+      this.sortFields[i] = sortField;
+      types[i] = sortField.getType();
+      if (types[i] != SortField.Type.SCORE) {
+        comparators[i] =
+            sortField.getComparator(
+                0,
+                fieldNames.size() > 1 ? Pruning.GREATER_THAN : Pruning.GREATER_THAN_OR_EQUAL_TO);
+        // like ShardFieldSortedHitQueue, the values of the first field if there is no such name
+        fieldNums[i] = Math.max(0, fieldNames.indexOf(sortField.getField()));
+      }
+    }
+  }
+
+  /**
+   * Adds the documents a shard returned, in their order
+   *
+   * @param sortFieldValues the unmarshalled sort values of the documents, by field
+   * @param duplicates the positions of the documents another shard returned too, if any
+   */
+  void add(
+      String shard,
+      SolrDocumentList docs,
+      NamedList<List<Object>> sortFieldValues,
+      BitSet duplicates) {
+    if (!docs.isEmpty()) {
+      sources.add(new Source(shard, docs, sortFieldValues, duplicates));
+    }
+  }
+
+  /**
+   * Returns the documents of the given page of the merged lists, in order, with their {@link
+   * ShardDoc#positionInResponse} set.
+   */
+  List<ShardDoc> merge(int offset, int count) {
+    long end = (long) offset + count;
+    List<ShardDoc> page = new ArrayList<>();
+    int n = sources.size();
+    if (n == 0 || end <= 0) {
+      return page;
+    }
+    int leaves = Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    // the winner of each match, by source index; the leaves hold the sources, -1 once exhausted
+    int[] tree = new int[2 * leaves];
+    for (int i = 0; i < leaves; i++) {
+      tree[leaves + i] = i < n && sources.get(i).hasNext() ? i : -1;
+    }
+    for (int node = leaves - 1; node > 0; node--) {
+      tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+    }
+
+    for (long taken = 0; taken < end && tree[1] >= 0; taken++) {
+      int w = tree[1];
+      Source source = sources.get(w);
+      if (taken >= offset) {
+        ShardDoc shardDoc = source.toShardDoc();
+        shardDoc.positionInResponse = (int) (taken - offset);
+        page.add(shardDoc);
+      }
+      source.advance();
+      int node = leaves + w;
+      tree[node] = source.hasNext() ? w : -1;
+      for (node >>= 1; node > 0; node >>= 1) {
+        tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+      }
+    }
+    return page;
+  }
+
+  private int winner(int a, int b) {
+    if (a < 0) return b;
+    if (b < 0) return a;
+    return compare(sources.get(a), sources.get(b)) >= 0 ? a : b;
+  }
+
+  /** Positive if the current document of a comes first, as in ShardFieldSortedHitQueue */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private int compare(Source a, Source b) {
+    for (int i = 0; i < sortFields.length; i++) {
+      int c;
+      if (types[i] == SortField.Type.SCORE) {
+        float fa = a.scores[a.pos], fb = b.scores[b.pos];
+        c = fa < fb ? -1 : (fa > fb ? 1 : 0);
+      } else if (a.longs[i] != null && b.longs[i] != null) {
+        c = -Long.compare(a.longs[i][a.pos], b.longs[i][b.pos]);
+      } else if (a.doubles[i] != null && b.doubles[i] != null) {
+        c = -Double.compare(a.doubles[i][a.pos], b.doubles[i][b.pos]);
+      } else {
+        c = -((FieldComparator) comparators[i]).compareValues(a.sortValue(i), b.sortValue(i));
+      }
+      if (c != 0) {
+        return sortFields[i].getReverse() ? -c : c;
+      }
+    }
+    // smaller docids come first, so do the smaller shards
+    return -a.shard.compareTo(b.shard);
+  }
+
+  /** The documents of a shard, and its current one */
+  private class Source {
+    final String shard;
+    final SolrDocumentList docs;
+    final NamedList<List<Object>> sortFieldValues;
+    final BitSet duplicates;
+    final float[] scores;
+    final long[][] longs = new long[sortFields.length][];
+    final double[][] doubles = new double[sortFields.length][];
+    int pos;
+
+    Source(
+        String shard,
+        SolrDocumentList docs,
+        NamedList<List<Object>> sortFieldValues,
+        BitSet duplicates) {
+      this.shard = shard;
+      this.docs = docs;
+      this.sortFieldValues = sortFieldValues;
+      this.duplicates = duplicates;
+      float[] scores = null;
+      for (int i = 0; i < sortFields.length; i++) {
+        if (types[i] == SortField.Type.SCORE) {
+          if (scores == null) {
+            scores = new float[docs.size()];
+            for (int d = 0; d < scores.length; d++) {
+              scores[d] = getScore(docs.get(d));
+            }
+          }
+        } else if (fieldNums[i] < sortFieldValues.size()) {
+          List<Object> values = sortFieldValues.getVal(fieldNums[i]);
+          switch (types[i]) {
+            case INT, LONG -> longs[i] = toLongs(values);
+            case FLOAT, DOUBLE -> doubles[i] = toDoubles(values);
+            default -> {}
+          }
+        }
+      }
+      this.scores = scores;
+      this.pos = -1;
+      advance();
+    }
+
+    boolean hasNext() {
+      return pos < docs.size();
+    }
+
+    void advance() {
+      pos++;
+      while (duplicates != null && pos < docs.size() && duplicates.get(pos)) {
+        pos++;
+      }
+    }
+
+    Object sortValue(int i) {
+      assert sortFieldValues.getName(fieldNums[i]).equals(sortFields[i].getField());
+      return sortFieldValues.getVal(fieldNums[i]).get(pos);
+    }
+
+    ShardDoc toShardDoc() {
+      SolrDocument doc = docs.get(pos);
+      ShardDoc shardDoc = new ShardDoc();
+      shardDoc.id = doc.getFieldValue(uniqueKeyField);
+      shardDoc.shard = shard;
+      shardDoc.orderInShard = pos;
+      if (doc.getFieldValue(SolrReturnFields.SCORE) != null) {
+        shardDoc.score = scores != null ? scores[pos] : getScore(doc);
+      }
+      if (!scoreDependentFields.isEmpty()) {
+        shardDoc.scoreDependentFields = doc.getSubsetOfFields(scoreDependentFields);
+      }
+      shardDoc.sortFieldValues = sortFieldValues;
+      return shardDoc;
+    }
+  }
+
+  private static float getScore(SolrDocument doc) {
+    Object score = doc.getFieldValue(SolrReturnFields.SCORE);
+    if (score instanceof String s) {
+      return Float.parseFloat(s);
+    }
+    return score == null ? Float.NaN : ((Number) score).floatValue();
+  }
+
+  /** The values as longs, or null if they aren't all integers */
+  private static long[] toLongs(List<Object> values) {
+    long[] longs = new long[values.size()];
+    for (int i = 0; i < longs.length; i++) {
+      if (!(values.get(i) instanceof Integer || values.get(i) instanceof Long)) {
+        return null;
+      }
+      longs[i] = ((Number) values.get(i)).longValue();
+    }
+    return longs;
+  }
+
+  /** The values as doubles, or null if they aren't all floats or doubles */
+  private static double[] toDoubles(List<Object> values) {
+    double[] doubles = new double[values.size()];
+    for (int i = 0; i < doubles.length; i++) {
+      if (!(values.get(i) instanceof Float || values.get(i) instanceof Double)) {
+        return null;
+      }
+      doubles[i] = ((Number) values.get(i)).doubleValue();
+    }
+    return doubles;
+  }
+}
@@ -18,6 +18,7 @@ package org.apache.solr.handler.component;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import org.apache.solr.common.params.ModifiableSolrParams;
 
 // todo... when finalized make accessors
@@ -56,6 +57,17 @@ public class ShardRequest {
   /** may be null */
   public String nodeName;
 
+  /**
+   * called with every successful response as soon as it is taken from the shard handler, before
+   * the responses of the other shards arrived; may be null
+   */
+  public Consumer<ShardResponse> responseListener;
+
+  /** Adds a listener that is called with every successful response as soon as it is taken. */
+  public void addResponseListener(Consumer<ShardResponse> listener) {
+    responseListener = responseListener == null ? listener : responseListener.andThen(listener);
+  }
+
   // TODO: one could store a list of numbers to correlate where returned docs
   // go in the top-level response rather than looking up by id...
   // this would work well if we ever transitioned to using internal ids and
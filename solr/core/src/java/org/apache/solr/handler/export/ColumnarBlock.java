@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.handler.export;
+
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_BOOL;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_DATE;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_DOUBLE;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_EMPTY;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_FLOAT;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_INT;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_LONG;
+import static org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser.COLUMN_OBJECT;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.apache.solr.common.IteratorWriter;
+import org.apache.solr.common.MapWriter;
+
+/**
+ * Collects the values the {@link FieldWriter}s write for a block of rows into one typed array per
+ * field, and writes them out as a block of the columnar export format read by {@link
+ * org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser}. The field names aren't part of
+ * the block, they are written once ahead of all the blocks.
+ */
+class ColumnarBlock implements MapWriter.EntryWriter, IteratorWriter {
+  private final Column[] columns;
+  private final int capacity;
+  private Column current;
+  private int rows;
+
+  ColumnarBlock(int numColumns, int capacity) {
+    this.capacity = capacity;
+    this.columns = new Column[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      columns[i] = new Column(capacity);
+    }
+  }
+
+  /** The values put from now on are those of the given column of the current row */
+  void setColumn(int column) {
+    current = columns[column];
+  }
+
+  void endRow() {
+    rows++;
+  }
+
+  boolean isFull() {
+    return rows == capacity;
+  }
+
+  boolean isEmpty() {
+    return rows == 0;
+  }
+
+  void clear() {
+    for (Column column : columns) {
+      column.clear(rows);
+    }
+    rows = 0;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, Object v) throws IOException {
+    if (v instanceof Date d) {
+      current.setLong(COLUMN_DATE, rows, d.getTime());
+    } else if (v instanceof CharSequence cs) {
+      // some writers reuse the same char sequence for every row
+      current.setObject(rows, cs.toString());
+    } else if (v instanceof IteratorWriter iw) {
+      // multivalued writers iterate their doc values lazily
+      current.setObject(rows, iw.toList(new ArrayList<>()));
+    } else if (v != null) {
+      current.setObject(rows, v);
+    }
+    return this;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, int v) {
+    current.setInt(rows, v);
+    return this;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, long v) {
+    current.setLong(COLUMN_LONG, rows, v);
+    return this;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, float v) {
+    current.setFloat(rows, v);
+    return this;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, double v) {
+    current.setDouble(rows, v);
+    return this;
+  }
+
+  @Override
+  public MapWriter.EntryWriter put(CharSequence k, boolean v) {
+    current.setBool(rows, v);
+    return this;
+  }
+
+  @Override
+  public void writeIter(ItemWriter iw) throws IOException {
+    iw.add(rows);
+    for (Column column : columns) {
+      column.write(iw, rows);
+    }
+  }
+
+  private static class Column {
+    int type = COLUMN_EMPTY;
+    final boolean[] present;
+    int numPresent;
+    int[] ints;
+    long[] longs;
+    float[] floats;
+    double[] doubles;
+    boolean[] bools;
+    Object[] objects;
+
+    Column(int capacity) {
+      present = new boolean[capacity];
+    }
+
+    /**
+     * Makes the column hold values of the given type. A field writer always writes values of the
+     * same type, but if it didn't, the column falls back to holding objects.
+     */
+    private boolean ensureType(int newType) {
+      if (type == newType || type == COLUMN_OBJECT) {
+        return type == newType;
+      }
+      if (type == COLUMN_EMPTY) {
+        type = newType;
+        int capacity = present.length;
+        switch (newType) {
+          case COLUMN_INT -> ints = ints == null ? new int[capacity] : ints;
+          case COLUMN_LONG, COLUMN_DATE -> longs = longs == null ? new long[capacity] : longs;
+          case COLUMN_FLOAT -> floats = floats == null ? new float[capacity] : floats;
+          case COLUMN_DOUBLE -> doubles = doubles == null ? new double[capacity] : doubles;
+          case COLUMN_BOOL -> bools = bools == null ? new boolean[capacity] : bools;
+          default -> objects = objects == null ? new Object[capacity] : objects;
+        }
+        return true;
+      }
+      Object[] boxed = new Object[present.length];
+      for (int row = 0; row < present.length; row++) {
+        if (present[row]) {
+          boxed[row] = get(row);
+        }
+      }
+      objects = boxed;
+      type = COLUMN_OBJECT;
+      return newType == COLUMN_OBJECT;
+    }
+
+    private Object get(int row) {
+      return switch (type) {
+        case COLUMN_INT -> ints[row];
+        case COLUMN_LONG -> longs[row];
+        case COLUMN_DATE -> new Date(longs[row]);
+        case COLUMN_FLOAT -> floats[row];
+        case COLUMN_DOUBLE -> doubles[row];
+        case COLUMN_BOOL -> bools[row];
+        default -> objects[row];
+      };
+    }
+
+    private void setPresent(int row) {
+      present[row] = true;
+      numPresent++;
+    }
+
+    void setInt(int row, int v) {
+      if (ensureType(COLUMN_INT)) {
+        ints[row] = v;
+      } else {
+        objects[row] = v;
+      }
+      setPresent(row);
+    }
+
+    void setLong(int longType, int row, long v) {
+      if (ensureType(longType)) {
+        longs[row] = v;
+      } else {
+        objects[row] = longType == COLUMN_DATE ? new Date(v) : v;
+      }
+      setPresent(row);
+    }
+
+    void setFloat(int row, float v) {
+      if (ensureType(COLUMN_FLOAT)) {
+        floats[row] = v;
+      } else {
+        objects[row] = v;
+      }
+      setPresent(row);
+    }
+
+    void setDouble(int row, double v) {
+      if (ensureType(COLUMN_DOUBLE)) {
+        doubles[row] = v;
+      } else {
+        objects[row] = v;
+      }
+      setPresent(row);
+    }
+
+    void setBool(int row, boolean v) {
+      if (ensureType(COLUMN_BOOL)) {
+        bools[row] = v;
+      } else {
+        objects[row] = v;
+      }
+      setPresent(row);
+    }
+
+    void setObject(int row, Object v) {
+      ensureType(COLUMN_OBJECT);
+      objects[row] = v;
+      setPresent(row);
+    }
+
+    void write(ItemWriter iw, int rows) throws IOException {
+      if (numPresent == 0) {
+        iw.add(COLUMN_EMPTY).add(null).add(null);
+        return;
+      }
+      iw.add(type);
+      iw.add(numPresent == rows ? null : Arrays.copyOf(present, rows));
+      boolean full = rows == present.length;
+      switch (type) {
+        case COLUMN_INT -> iw.add(full ? ints : Arrays.copyOf(ints, rows));
+        case COLUMN_LONG, COLUMN_DATE -> iw.add(full ? longs : Arrays.copyOf(longs, rows));
+        case COLUMN_FLOAT -> iw.add(full ? floats : Arrays.copyOf(floats, rows));
+        case COLUMN_DOUBLE -> iw.add(full ? doubles : Arrays.copyOf(doubles, rows));
+        case COLUMN_BOOL -> iw.add(full ? bools : Arrays.copyOf(bools, rows));
+        default -> iw.add(Arrays.asList(objects).subList(0, rows));
+      }
+    }
+
+    void clear(int rows) {
+      Arrays.fill(present, 0, rows, false);
+      numPresent = 0;
+      if (objects != null) {
+        Arrays.fill(objects, 0, rows, null);
+      }
+      // keep the arrays, the next block very likely has the same type
+      type = COLUMN_EMPTY;
+    }
+  }
+}
@@ -19,12 +19,16 @@ package org.apache.solr.handler.export;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import org.apache.lucene.index.LeafReaderContext;
@@ -60,6 +64,7 @@ class ExportBuffers {
   Buffer outputBuffer;
   Runnable filler;
   ExecutorService service;
+  MergeIterator mergeIterator;
   Throwable error;
   LongAdder outputCounter = new LongAdder();
   volatile boolean shutDown = false;
@@ -96,7 +101,19 @@ class ExportBuffers {
     outputBuffer = bufferTwo;
     SortDoc writerSortDoc = exportWriter.getSortDoc(searcher, sort.getSort());
 
-    MergeIterator mergeIterator = exportWriter.getMergeIterator(leaves, sets, writerSortDoc);
+    // the segments are sorted on the node's searcher executor, without it on the filler thread
+    final int sortThreads = Math.min(exportWriter.sortThreads, leaves.size());
+    final Executor nodeExecutor = searcher.getCore().getCoreContainer().getIndexSearcherExecutor();
+    final Executor sortExecutor =
+        sortThreads > 1 && nodeExecutor != null
+            ? new BoundedExecutor(nodeExecutor, sortThreads)
+            : null;
+    try {
+      mergeIterator = exportWriter.getMergeIterator(leaves, sets, writerSortDoc, sortExecutor);
+    } catch (IOException | RuntimeException e) {
+      shutdownNow();
+      throw e;
+    }
 
     bufferOne.initialize(writerSortDoc);
     bufferTwo.initialize(writerSortDoc);
@@ -200,6 +217,10 @@ class ExportBuffers {
       service.shutdownNow();
       service = null;
     }
+    if (mergeIterator != null) {
+      // the sort executor is shared, only the sorts of this export are dropped
+      mergeIterator.cancel();
+    }
     shutDown = true;
   }
 
@@ -260,6 +281,62 @@ class ExportBuffers {
     }
   }
 
+  /**
+   * Runs at most <code>maxRunning</code> tasks of one export at a time on a shared executor, the
+   * others wait for their turn. A task rejected by the shared executor runs on the caller.
+   */
+  static final class BoundedExecutor implements Executor {
+    private final Executor delegate;
+    private final int maxRunning;
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int running;
+
+    BoundedExecutor(Executor delegate, int maxRunning) {
+      this.delegate = delegate;
+      this.maxRunning = maxRunning;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      synchronized (this) {
+        if (running >= maxRunning) {
+          waiting.add(task);
+          return;
+        }
+        running++;
+      }
+      dispatch(task);
+    }
+
+    private void dispatch(Runnable task) {
+      final Runnable wrapped =
+          () -> {
+            try {
+              task.run();
+            } finally {
+              runNext();
+            }
+          };
+      try {
+        delegate.execute(wrapped);
+      } catch (RejectedExecutionException e) {
+        wrapped.run();
+      }
+    }
+
+    private void runNext() {
+      final Runnable next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          running--;
+          return;
+        }
+      }
+      dispatch(next);
+    }
+  }
+
   /** Buffer used for transporting documents from the filler to the writer thread. */
   static final class Buffer {
     static final int EMPTY = -1;
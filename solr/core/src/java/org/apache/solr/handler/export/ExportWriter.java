@@ -31,6 +31,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SortedDocValues;
@@ -99,9 +102,13 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
 
   public static final String BATCH_SIZE_PARAM = "batchSize";
   public static final String QUEUE_SIZE_PARAM = "queueSize";
+  public static final String SORT_THREADS_PARAM = "sortThreads";
+  public static final String COLUMNAR_PARAM = "columnar";
 
   public static final int DEFAULT_BATCH_SIZE = 30000;
   public static final int DEFAULT_QUEUE_SIZE = 150000;
+  // The number of rows of the blocks of a columnar response.
+  public static final int COLUMNAR_BLOCK_SIZE = 4096;
   private static final FieldWriter EMPTY_FIELD_WRITER =
       new FieldWriter() {
         @Override
@@ -121,9 +128,14 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
   final int batchSize;
   // The max combined size of the segment level priority queues.
   private int priorityQueueSize;
+  // The number of segments sorted at the same time, 1 sorts them on the filler thread.
+  final int sortThreads;
+  // Whether the docs are written as blocks of columns rather than one map per doc.
+  boolean columnar;
   StreamExpression streamExpression;
   StreamContext streamContext;
   List<FieldWriter> fieldWriters;
+  final List<String> fieldNames = new ArrayList<>();
   int totalHits = 0;
   FixedBitSet[] sets = null;
   PushWriter writer;
@@ -144,6 +156,12 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
     this.metricsPath = metricsPath;
     this.priorityQueueSize = req.getParams().getInt(QUEUE_SIZE_PARAM, DEFAULT_QUEUE_SIZE);
     this.batchSize = DEFAULT_BATCH_SIZE;
+    this.sortThreads =
+        Math.min(
+            Math.max(1, req.getParams().getInt(SORT_THREADS_PARAM, 1)),
+            Runtime.getRuntime().availableProcessors());
+    this.columnar =
+        CommonParams.JAVABIN.equals(wt) && req.getParams().getBool(COLUMNAR_PARAM, false);
   }
 
   @Override
@@ -330,6 +348,8 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
       streamContext.put("core", req.getCore().getName());
       streamContext.put("solr-core", req.getCore());
       streamContext.put(CommonParams.SORT, params.get(CommonParams.SORT));
+      // the tuples of the expression don't come from the field writers
+      columnar = false;
     }
 
     try {
@@ -341,7 +361,12 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
                 (MapWriter)
                     mw -> {
                       mw.put("numFound", totalHits);
-                      mw.put("docs", (IteratorWriter) iw -> writeDocs(req, os, iw, sort));
+                      if (columnar) {
+                        mw.put("fields", fieldNames);
+                        mw.put("columns", (IteratorWriter) iw -> writeDocs(req, os, iw, sort));
+                      } else {
+                        mw.put("docs", (IteratorWriter) iw -> writeDocs(req, os, iw, sort));
+                      }
                     });
           });
     } catch (java.io.EOFException e) {
@@ -401,6 +426,7 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
         tupleStream = createTupleStream();
         tupleStream.open();
       } catch (Exception e) {
+        buffers.shutdownNow();
         buffers.getWriter().add((MapWriter) ew -> Tuple.EXCEPTION(e, true).writeMap(ew));
         return;
       }
@@ -433,6 +459,8 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
             return true;
           });
       tupleStream.close();
+    } else if (columnar) {
+      writeColumns(buffers, leaves, writer);
     } else {
       buffers.run(
           () -> {
@@ -473,6 +501,51 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
     }
   }
 
+  private void writeColumns(
+      ExportBuffers buffers, List<LeafReaderContext> leaves, IteratorWriter.ItemWriter writer)
+      throws IOException {
+    ColumnarBlock block = new ColumnarBlock(fieldWriters.size(), COLUMNAR_BLOCK_SIZE);
+    buffers.run(
+        () -> {
+          buffers.exchangeBuffers();
+          ExportBuffers.Buffer buffer = buffers.getOutputBuffer();
+          while (buffer.outDocsIndex != ExportBuffers.Buffer.NO_MORE_DOCS) {
+            if (Thread.currentThread().isInterrupted()) {
+              break;
+            }
+            for (int i = 0; i <= buffer.outDocsIndex; ++i) {
+              writeRow(buffer.outDocs[i], leaves, block);
+              if (block.isFull()) {
+                writer.add(block);
+                block.clear();
+              }
+            }
+            buffers.exchangeBuffers();
+            buffer = buffers.getOutputBuffer();
+          }
+          if (!block.isEmpty()) {
+            writer.add(block);
+          }
+          return true;
+        });
+    if (null != buffers.getError()) {
+      throw new IOException(buffers.getError().getMessage(), buffers.getError());
+    }
+  }
+
+  private void writeRow(SortDoc sortDoc, List<LeafReaderContext> leaves, ColumnarBlock block)
+      throws IOException {
+    LeafReaderContext context = leaves.get(sortDoc.ord);
+    int fieldIndex = 0;
+    for (int i = 0; i < fieldWriters.size(); i++) {
+      block.setColumn(i);
+      if (fieldWriters.get(i).write(sortDoc, context, block, fieldIndex)) {
+        ++fieldIndex;
+      }
+    }
+    block.endRow();
+  }
+
   void fillOutDocs(MergeIterator mergeIterator, ExportBuffers.Buffer buffer) throws IOException {
     transferBatchToBufferForOutput(mergeIterator, buffer);
   }
@@ -573,6 +646,7 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
             "Export fields must be one of the following types: int,float,long,double,string,date,boolean,SortableText");
       }
       writers.add(writer);
+      fieldNames.add(field);
     }
     return writers;
   }
@@ -707,10 +781,25 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
       }
       return outDoc;
     }
+
+    /** Cancels the sorts that haven't started yet, the docs can't be read anymore afterwards. */
+    public void cancel() {
+      for (SegmentIterator segmentIterator : segmentIterators) {
+        segmentIterator.cancel();
+      }
+    }
   }
 
+  /**
+   * Creates the iterator merging the sorted docs of all the segments. With an executor, the
+   * segments are sorted concurrently: every segment sorts its first batch right away, and then
+   * sorts its next batch while the current one is being merged.
+   *
+   * @param executor runs the sorting of the segments, or null to sort on the calling thread
+   */
   public MergeIterator getMergeIterator(
-      List<LeafReaderContext> leaves, FixedBitSet[] bits, SortDoc sortDoc) throws IOException {
+      List<LeafReaderContext> leaves, FixedBitSet[] bits, SortDoc sortDoc, Executor executor)
+      throws IOException {
     try {
       long totalDocs = 0;
       for (int i = 0; i < leaves.size(); i++) {
@@ -750,11 +839,11 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
         log.debug("Combined priority queue size {}:", combineQueueSize);
       }
 
+      // all the segments start sorting before the merge iterator waits for the first of them
       SegmentIterator[] segmentIterators = new SegmentIterator[leaves.size()];
       for (int i = 0; i < segmentIterators.length; i++) {
-        SortQueue sortQueue = new SortQueue(sizes[i], sortDoc.copy());
         segmentIterators[i] =
-            new SegmentIterator(bits[i], leaves.get(i), sortQueue, sortDoc.copy());
+            new SegmentIterator(bits[i], leaves.get(i), sizes[i], sortDoc.copy(), executor);
       }
 
       return new MergeIterator(segmentIterators, sortDoc);
@@ -765,41 +854,48 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
   private static class SegmentIterator {
 
     private final FixedBitSet bits;
-    private final SortQueue queue;
     private final SortDoc sortDoc;
     private final LeafReaderContext context;
-    private final SortDoc[] outDocs;
+    private final Executor executor;
+
+    // the batch next() takes docs from
+    private Batch batch;
+    // the batch sorted by the executor while the current one is consumed, null without executor
+    private Batch spare;
+    private volatile FutureTask<Batch> pending;
+    // set by the sort that took the last docs of the segment
+    private boolean exhausted;
 
     private SortDoc nextDoc;
-    private int index;
 
     public SegmentIterator(
-        FixedBitSet bits, LeafReaderContext context, SortQueue sortQueue, SortDoc sortDoc)
+        FixedBitSet bits,
+        LeafReaderContext context,
+        int queueSize,
+        SortDoc sortDoc,
+        Executor executor)
         throws IOException {
       this.bits = bits;
-      this.queue = sortQueue;
       this.sortDoc = sortDoc;
       this.nextDoc = sortDoc.copy();
       this.context = context;
-      this.outDocs = new SortDoc[sortQueue.maxSize];
-      topDocs();
+      this.executor = executor;
+      this.batch = new Batch(new SortQueue(queueSize, sortDoc.copy()));
+      if (executor == null) {
+        topDocs(batch);
+      } else {
+        this.spare = new Batch(new SortQueue(queueSize, sortDoc.copy()));
+        sortInBackground();
+      }
     }
 
     public SortDoc next() throws IOException {
-      SortDoc _sortDoc = null;
-      if (index > -1) {
-        _sortDoc = outDocs[index--];
-      } else {
-        topDocs();
-        if (index > -1) {
-          _sortDoc = outDocs[index--];
-        }
+      if (batch.index < 0) {
+        nextBatch();
       }
+      SortDoc _sortDoc = batch.index > -1 ? batch.outDocs[batch.index--] : null;
 
       if (_sortDoc != null) {
-        // Clear the bit so it's not loaded again.
-        bits.clear(_sortDoc.docId);
-
         // Load the global ordinal (only matters for strings)
         _sortDoc.setGlobalValues(nextDoc);
 
@@ -812,8 +908,59 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
       return nextDoc;
     }
 
-    private void topDocs() throws IOException {
+    private void nextBatch() throws IOException {
+      if (pending == null) {
+        if (!exhausted) {
+          topDocs(batch);
+        }
+        return;
+      }
+
+      final Batch sorted;
       try {
+        sorted = pending.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException ioe) {
+          throw ioe;
+        }
+        throw new IOException(e.getCause());
+      }
+      pending = null;
+      spare = batch;
+      batch = sorted;
+      if (!exhausted) {
+        sortInBackground();
+      }
+    }
+
+    private void sortInBackground() {
+      final Batch toSort = spare;
+      pending =
+          new FutureTask<>(
+              () -> {
+                topDocs(toSort);
+                return toSort;
+              });
+      executor.execute(pending);
+    }
+
+    private void cancel() {
+      final FutureTask<Batch> task = pending;
+      if (task != null) {
+        task.cancel(false);
+      }
+    }
+
+    /**
+     * Fills the batch with the smallest docs of the segment that haven't been taken by a previous
+     * batch, and clears their bits so that the next batch starts after them.
+     */
+    private void topDocs(Batch target) throws IOException {
+      try {
+        final SortQueue queue = target.queue;
         queue.reset();
         SortDoc top = queue.top();
         this.sortDoc.setNextReader(context);
@@ -830,19 +977,36 @@ public class ExportWriter implements SolrCore.RawWriter, Closeable {
         }
 
         // Pop the queue and load up the array.
-        index = -1;
+        int index = -1;
 
         SortDoc _sortDoc;
         while ((_sortDoc = queue.pop()) != null) {
           if (_sortDoc.docId > -1) {
-            outDocs[++index] = _sortDoc;
+            target.outDocs[++index] = _sortDoc;
+            // Clear the bit so it's not loaded again.
+            bits.clear(_sortDoc.docId);
           }
         }
+        target.index = index;
+        // a batch that isn't full took all the remaining docs
+        exhausted = index + 1 < queue.maxSize;
       } catch (Exception e) {
         log.error("Segment Iterator Error:", e);
         throw new IOException(e);
       }
     }
+
+    /** The sorted docs of one pass over the segment, consumed from the end. */
+    private static final class Batch {
+      final SortQueue queue;
+      final SortDoc[] outDocs;
+      int index = -1;
+
+      Batch(SortQueue queue) {
+        this.queue = queue;
+        this.outDocs = new SortDoc[queue.maxSize];
+      }
+    }
   }
 
   public static class IgnoreException extends IOException {
@@ -25,8 +25,12 @@ import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.TotalHits;
@@ -48,6 +52,59 @@ public class JavaBinResponseWriter implements QueryResponseWriter {
   //  public static boolean useUtf8CharSeq = true;
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  /** The keys found in most shard responses, besides the field names */
+  private static final List<String> COMMON_STRINGS =
+      List.of(
+          "responseHeader",
+          "status",
+          "QTime",
+          "params",
+          "response",
+          "partialResults",
+          "score",
+          "sort_values",
+          "facet_counts",
+          "facet_queries",
+          "facet_fields",
+          "facet_ranges",
+          "facet_intervals",
+          "facet_heatmaps",
+          "facet_pivot",
+          "counts",
+          "gap",
+          "start",
+          "end",
+          "before",
+          "after",
+          "between",
+          "facets",
+          "count",
+          "buckets",
+          "val",
+          "stats",
+          "stats_fields",
+          "min",
+          "max",
+          "sum",
+          "missing",
+          "mean",
+          "sumOfSquares",
+          "stddev",
+          "highlighting",
+          "grouped",
+          "matches",
+          "groups",
+          "groupValue",
+          "doclist",
+          "expanded",
+          "debug",
+          "track",
+          "timing",
+          "explain");
+
+  private static final Map<IndexSchema, JavaBinCodec.StringDictionary> STRING_DICTIONARIES =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
   @Override
   public void write(
       OutputStream out, SolrQueryRequest req, SolrQueryResponse response, String contentType)
@@ -55,8 +112,39 @@ public class JavaBinResponseWriter implements QueryResponseWriter {
     Resolver resolver = new Resolver(req, response.getReturnFields());
     if (req.getParams().getBool(CommonParams.OMIT_HEADER, false)) response.removeResponseHeader();
     try (JavaBinCodec jbc = new JavaBinCodec(resolver)) {
-      jbc.setWritableDocFields(resolver).marshal(response.getValues(), out);
+      jbc.setWritableDocFields(resolver)
+          .setStringDictionary(getRequestedStringDictionary(req))
+          .marshal(response.getValues(), out);
+    }
+  }
+
+  /**
+   * The dictionary of the strings the shard responses of a collection have in common: the field
+   * names of its schema and the keys of the usual response sections. A coordinator and its shards
+   * sharing a schema have a dictionary with the same version, so the shards may refer to it in
+   * their responses.
+   *
+   * @see JavaBinResponseParser#STRING_DICTIONARY_PARAM
+   */
+  public static JavaBinCodec.StringDictionary getStringDictionary(IndexSchema schema) {
+    return STRING_DICTIONARIES.computeIfAbsent(
+        schema,
+        s -> {
+          List<String> strings = new ArrayList<>(COMMON_STRINGS);
+          // sorted, since the version depends on the order
+          strings.addAll(new TreeSet<>(s.getFields().keySet()));
+          return new JavaBinCodec.StringDictionary(strings);
+        });
+  }
+
+  /** The dictionary of the schema, if the client has one with the same version */
+  private static JavaBinCodec.StringDictionary getRequestedStringDictionary(SolrQueryRequest req) {
+    long version = req.getParams().getLong(JavaBinResponseParser.STRING_DICTIONARY_PARAM, -1L);
+    if (version < 0 || req.getSchema() == null) {
+      return null;
     }
+    JavaBinCodec.StringDictionary dictionary = getStringDictionary(req.getSchema());
+    return dictionary.getVersion() == version ? dictionary : null;
   }
 
   @Override
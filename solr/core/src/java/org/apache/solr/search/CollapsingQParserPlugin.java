@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
@@ -42,30 +43,36 @@ import org.apache.lucene.index.EmptyDocValuesProducer;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.PointValues;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queries.function.FunctionQuery;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
 import org.apache.lucene.search.LeafFieldComparator;
 import org.apache.lucene.search.Pruning;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
 import org.apache.lucene.search.Scorable;
 import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
 import org.apache.lucene.util.LongValues;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.GroupParams;
@@ -145,6 +152,13 @@ public class CollapsingQParserPlugin extends QParserPlugin {
    */
   public static String COLLECT_ELEVATED_DOCS_WHEN_COLLAPSING = "collectElevatedDocsWhenCollapsing";
 
+  /**
+   * The most groups the collapse data structures are sized for up-front when the <code>size</code>
+   * local param isn't given. They start smaller when the collapse field has fewer values, and grow
+   * with the groups found by the query.
+   */
+  public static final int DEFAULT_SIZE = 100000;
+
   /**
    * @deprecated use {@link NullPolicy} instead.
    */
@@ -355,8 +369,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
           + ", "
           + this.groupHeadSelector
           + (hint == null ? "" : ", hint=" + this.hint)
-          + ", size="
-          + this.size
+          + (size > 0 ? ", size=" + this.size : "")
           + ")";
     }
 
@@ -409,7 +422,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
               : null;
 
       this.hint = localParams.get("hint");
-      this.size = localParams.getInt("size", 100000); // Only used for collapsing on int fields.
+      this.size = localParams.getInt("size", 0); // the expected number of groups, if > 0
 
       {
         final SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
@@ -483,6 +496,127 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         throw new RuntimeException(e);
       }
     }
+
+    /**
+     * Runs the query through the given collector of this filter like {@link
+     * IndexSearcher#search(Query, org.apache.lucene.search.Collector)}, but collapses each slice of
+     * the searcher in parallel first. The group head of a group is then the group head within its
+     * slice too, so the collector only has to collapse the group heads of all the slices, along
+     * with their scores. Whatever the group head selector, boosted docs and null policy, these are
+     * the docs it would keep out of all of them.
+     *
+     * <p>The collector of each slice is a new collector of this filter, which takes as much memory
+     * as the given one.
+     */
+    void searchSlices(SolrIndexSearcher searcher, Query query, DelegatingCollector collector)
+        throws IOException {
+      final ScoreMode scoreMode = collector.scoreMode();
+      final SliceHeadsCollector heads =
+          searcher.search(
+              query,
+              new CollectorManager<DelegatingCollector, SliceHeadsCollector>() {
+                @Override
+                public DelegatingCollector newCollector() {
+                  DelegatingCollector sliceCollector = getFilterCollector(searcher);
+                  sliceCollector.setDelegate(new SliceHeadsCollector(scoreMode));
+                  return sliceCollector;
+                }
+
+                @Override
+                public SliceHeadsCollector reduce(Collection<DelegatingCollector> collectors)
+                    throws IOException {
+                  SliceHeadsCollector all = new SliceHeadsCollector(scoreMode);
+                  for (DelegatingCollector sliceCollector : collectors) {
+                    sliceCollector.complete();
+                    all.addAll((SliceHeadsCollector) sliceCollector.getDelegate());
+                  }
+                  all.sort();
+                  return all;
+                }
+              });
+
+      ScoreAndDoc scorer = new ScoreAndDoc();
+      int i = 0;
+      for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+        LeafCollector leafCollector = collector.getLeafCollector(leaf);
+        leafCollector.setScorer(scorer);
+        int end = leaf.docBase + leaf.reader().maxDoc();
+        for (; i < heads.docs.size() && heads.docs.get(i) < end; i++) {
+          scorer.docId = heads.docs.get(i) - leaf.docBase;
+          scorer.score = heads.scores.get(i);
+          leafCollector.collect(scorer.docId);
+        }
+        leafCollector.finish();
+      }
+    }
+  }
+
+  /** Collects the group heads a collapse collector passes on, with their scores. */
+  private static class SliceHeadsCollector extends SimpleCollector {
+    private final ScoreMode scoreMode;
+    final IntArrayList docs = new IntArrayList();
+    final FloatArrayList scores = new FloatArrayList();
+    private Scorable scorer;
+    private int docBase;
+
+    SliceHeadsCollector(ScoreMode scoreMode) {
+      this.scoreMode = scoreMode;
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+      return scoreMode;
+    }
+
+    @Override
+    public void setScorer(Scorable scorer) {
+      this.scorer = scorer;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+      this.docBase = context.docBase;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      docs.add(docBase + doc);
+      scores.add(scoreMode.needsScores() ? scorer.score() : 0f);
+    }
+
+    void addAll(SliceHeadsCollector other) {
+      docs.addAll(other.docs);
+      scores.addAll(other.scores);
+    }
+
+    /** Sorts the heads by doc id, as the slices don't come in the order of their docs */
+    void sort() {
+      final int[] docBuffer = docs.buffer;
+      final float[] scoreBuffer = scores.buffer;
+      new IntroSorter() {
+        private int pivot;
+
+        @Override
+        protected void setPivot(int i) {
+          pivot = docBuffer[i];
+        }
+
+        @Override
+        protected int comparePivot(int j) {
+          return Integer.compare(pivot, docBuffer[j]);
+        }
+
+        @Override
+        protected void swap(int i, int j) {
+          int doc = docBuffer[i];
+          docBuffer[i] = docBuffer[j];
+          docBuffer[j] = doc;
+          float score = scoreBuffer[i];
+          scoreBuffer[i] = scoreBuffer[j];
+          scoreBuffer[j] = score;
+        }
+      }.sort(0, docs.size());
+    }
   }
 
   /**
@@ -618,6 +752,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int segments,
         DocValuesProducer collapseValuesProducer,
         int nullPolicy,
+        int size,
         IntIntHashMap boostDocsMap,
         IndexSearcher searcher,
         boolean collectElevatedDocsWhenCollapsing)
@@ -639,8 +774,8 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         this.multiSortedDocValues = (MultiDocValues.MultiSortedDocValues) collapseValues;
         this.ordinalMap = multiSortedDocValues.mapping;
       }
-      this.ords = new IntIntDynamicMap(valueCount, -1);
-      this.scores = new IntFloatDynamicMap(valueCount, -Float.MAX_VALUE);
+      this.ords = new IntIntDynamicMap(valueCount, size, -1);
+      this.scores = new IntFloatDynamicMap(valueCount, size, -Float.MAX_VALUE);
       this.nullPolicy = nullPolicy;
       if (nullPolicy == NullPolicy.EXPAND.getCode()) {
         nullScores = new FloatArrayList();
@@ -1030,6 +1165,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int segments,
         DocValuesProducer collapseValuesProducer,
         int nullPolicy,
+        int size,
         GroupHeadSelector groupHeadSelector,
         SortSpec sortSpec,
         boolean needsScores4Collapsing,
@@ -1069,6 +1205,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
                 maxDoc,
                 nullPolicy,
                 valueCount,
+                size,
                 groupHeadSelector,
                 this.needsScores4Collapsing,
                 this.needsScores,
@@ -1082,6 +1219,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
                 maxDoc,
                 nullPolicy,
                 valueCount,
+                size,
                 groupHeadSelector,
                 this.needsScores4Collapsing,
                 this.needsScores,
@@ -1104,6 +1242,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
                       maxDoc,
                       nullPolicy,
                       valueCount,
+                      size,
                       groupHeadSelector,
                       this.needsScores,
                       boostedDocsCollector,
@@ -1117,6 +1256,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
                       maxDoc,
                       nullPolicy,
                       valueCount,
+                      size,
                       groupHeadSelector,
                       this.needsScores,
                       boostedDocsCollector,
@@ -1130,6 +1270,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
                       maxDoc,
                       nullPolicy,
                       valueCount,
+                      size,
                       groupHeadSelector,
                       this.needsScores,
                       boostedDocsCollector,
@@ -2053,6 +2194,33 @@ public class CollapsingQParserPlugin extends QParserPlugin {
       return NUMERIC_COLLAPSIBLE_TYPES.contains(collapseFieldType.getNumberType());
     }
 
+    /**
+     * Estimates the number of groups of a collapse, sizing its data structures, when the
+     * <code>size</code> local param isn't given: no more than the docs with a value in the field.
+     * When collapsing on ords, no more than the elements a map of the ords expects either, so that
+     * the group heads start in maps rather than in arrays with a slot for every value.
+     *
+     * @see org.apache.solr.util.DynamicMap#mapExpectedElements(int)
+     */
+    private static int estimateSize(
+        String collapseField,
+        FieldType collapseFieldType,
+        DocValuesProducer docValuesProducer,
+        SolrIndexSearcher searcher)
+        throws IOException {
+      IndexReader reader = searcher.getIndexReader();
+      int docCount =
+          Math.max(
+              reader.getDocCount(collapseField), PointValues.getDocCount(reader, collapseField));
+      // no points nor terms: docValues only
+      int size = Math.min(DEFAULT_SIZE, docCount > 0 ? docCount : searcher.maxDoc());
+      if (collapseFieldType instanceof StrField) {
+        int valueCount = docValuesProducer.getSorted(null).getValueCount();
+        size = Math.min(size, (valueCount >>> 6) + 2);
+      }
+      return size;
+    }
+
     public DelegatingCollector getCollector(
         String collapseField,
         GroupHeadSelector groupHeadSelector,
@@ -2140,6 +2308,9 @@ public class CollapsingQParserPlugin extends QParserPlugin {
 
       int maxDoc = searcher.maxDoc();
       int leafCount = searcher.getTopReaderContext().leaves().size();
+      if (size <= 0) {
+        size = estimateSize(collapseField, collapseFieldType, docValuesProducer, searcher);
+      }
 
       SolrRequestInfo req = SolrRequestInfo.getRequestInfo();
       boolean collectElevatedDocsWhenCollapsing =
@@ -2157,6 +2328,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
               leafCount,
               docValuesProducer,
               nullPolicy,
+              size,
               boostDocs,
               searcher,
               collectElevatedDocsWhenCollapsing);
@@ -2202,6 +2374,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
               leafCount,
               docValuesProducer,
               nullPolicy,
+              size,
               groupHeadSelector,
               sortSpec,
               needsScores4Collapsing,
@@ -2311,11 +2484,12 @@ public class CollapsingQParserPlugin extends QParserPlugin {
     public OrdFieldValueStrategy(
         int maxDoc,
         int valueCount,
+        int size,
         int nullPolicy,
         boolean needsScores,
         BoostedDocsCollector boostedDocsCollector,
         SortedDocValues values) {
-      this.ords = new IntIntDynamicMap(valueCount, -1);
+      this.ords = new IntIntDynamicMap(valueCount, size, -1);
       this.nullPolicy = nullPolicy;
       this.needsScores = needsScores;
       this.collapsedSet = new FixedBitSet(maxDoc);
@@ -2323,7 +2497,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
       this.boostedDocsCollector = boostedDocsCollector;
 
       if (this.needsScores) {
-        this.scores = new IntFloatDynamicMap(valueCount, 0.0f);
+        this.scores = new IntFloatDynamicMap(valueCount, size, 0.0f);
         if (nullPolicy == NullPolicy.EXPAND.getCode()) {
           nullScores = new FloatArrayList();
         }
@@ -2382,22 +2556,23 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int maxDoc,
         int nullPolicy,
         int valueCount,
+        int size,
         GroupHeadSelector groupHeadSelector,
         boolean needsScores,
         BoostedDocsCollector boostedDocsCollector,
         SortedDocValues values)
         throws IOException {
-      super(maxDoc, valueCount, nullPolicy, needsScores, boostedDocsCollector, values);
+      super(maxDoc, valueCount, size, nullPolicy, needsScores, boostedDocsCollector, values);
       this.field = groupHeadSelector.selectorText;
 
       assert GroupHeadSelectorType.MIN_MAX.contains(groupHeadSelector.type);
 
       if (GroupHeadSelectorType.MAX.equals(groupHeadSelector.type)) {
         comp = new MaxIntComp();
-        this.ordVals = new IntIntDynamicMap(valueCount, Integer.MIN_VALUE);
+        this.ordVals = new IntIntDynamicMap(valueCount, size, Integer.MIN_VALUE);
       } else {
         comp = new MinIntComp();
-        this.ordVals = new IntIntDynamicMap(valueCount, Integer.MAX_VALUE);
+        this.ordVals = new IntIntDynamicMap(valueCount, size, Integer.MAX_VALUE);
         this.nullVal = Integer.MAX_VALUE;
       }
     }
@@ -2458,23 +2633,24 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int maxDoc,
         int nullPolicy,
         int valueCount,
+        int size,
         GroupHeadSelector groupHeadSelector,
         boolean needsScores,
         BoostedDocsCollector boostedDocsCollector,
         SortedDocValues values)
         throws IOException {
-      super(maxDoc, valueCount, nullPolicy, needsScores, boostedDocsCollector, values);
+      super(maxDoc, valueCount, size, nullPolicy, needsScores, boostedDocsCollector, values);
       this.field = groupHeadSelector.selectorText;
 
       assert GroupHeadSelectorType.MIN_MAX.contains(groupHeadSelector.type);
 
       if (GroupHeadSelectorType.MAX.equals(groupHeadSelector.type)) {
         comp = new MaxFloatComp();
-        this.ordVals = new IntFloatDynamicMap(valueCount, -Float.MAX_VALUE);
+        this.ordVals = new IntFloatDynamicMap(valueCount, size, -Float.MAX_VALUE);
         this.nullVal = -Float.MAX_VALUE;
       } else {
         comp = new MinFloatComp();
-        this.ordVals = new IntFloatDynamicMap(valueCount, Float.MAX_VALUE);
+        this.ordVals = new IntFloatDynamicMap(valueCount, size, Float.MAX_VALUE);
         this.nullVal = Float.MAX_VALUE;
       }
     }
@@ -2538,23 +2714,24 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int maxDoc,
         int nullPolicy,
         int valueCount,
+        int size,
         GroupHeadSelector groupHeadSelector,
         boolean needsScores,
         BoostedDocsCollector boostedDocsCollector,
         SortedDocValues values)
         throws IOException {
-      super(maxDoc, valueCount, nullPolicy, needsScores, boostedDocsCollector, values);
+      super(maxDoc, valueCount, size, nullPolicy, needsScores, boostedDocsCollector, values);
       this.field = groupHeadSelector.selectorText;
 
       assert GroupHeadSelectorType.MIN_MAX.contains(groupHeadSelector.type);
 
       if (GroupHeadSelectorType.MAX.equals(groupHeadSelector.type)) {
         comp = new MaxLongComp();
-        this.ordVals = new IntLongDynamicMap(valueCount, Long.MIN_VALUE);
+        this.ordVals = new IntLongDynamicMap(valueCount, size, Long.MIN_VALUE);
       } else {
         this.nullVal = Long.MAX_VALUE;
         comp = new MinLongComp();
-        this.ordVals = new IntLongDynamicMap(valueCount, Long.MAX_VALUE);
+        this.ordVals = new IntLongDynamicMap(valueCount, size, Long.MAX_VALUE);
       }
     }
 
@@ -2617,6 +2794,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int maxDoc,
         int nullPolicy,
         int valueCount,
+        int size,
         GroupHeadSelector groupHeadSelector,
         boolean needsScores4Collapsing,
         boolean needsScores,
@@ -2625,7 +2803,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         IndexSearcher searcher,
         SortedDocValues values)
         throws IOException {
-      super(maxDoc, valueCount, nullPolicy, needsScores, boostedDocsCollector, values);
+      super(maxDoc, valueCount, size, nullPolicy, needsScores, boostedDocsCollector, values);
       this.needsScores4Collapsing = needsScores4Collapsing;
       this.valueSource = funcQuery.getValueSource();
       this.rcontext = ValueSource.newContext(searcher);
@@ -2634,11 +2812,11 @@ public class CollapsingQParserPlugin extends QParserPlugin {
 
       if (GroupHeadSelectorType.MAX.equals(groupHeadSelector.type)) {
         comp = new MaxFloatComp();
-        this.ordVals = new IntFloatDynamicMap(valueCount, -Float.MAX_VALUE);
+        this.ordVals = new IntFloatDynamicMap(valueCount, size, -Float.MAX_VALUE);
       } else {
         this.nullVal = Float.MAX_VALUE;
         comp = new MinFloatComp();
-        this.ordVals = new IntFloatDynamicMap(valueCount, Float.MAX_VALUE);
+        this.ordVals = new IntFloatDynamicMap(valueCount, size, Float.MAX_VALUE);
       }
 
       collapseScore.setupIfNeeded(groupHeadSelector, rcontext);
@@ -2703,6 +2881,8 @@ public class CollapsingQParserPlugin extends QParserPlugin {
 
     private final SortFieldsCompare compareState;
     private final Sort sort;
+    // the slots of the groups in compareState, unless their ords are, when collapsing sparsely
+    private final IntIntHashMap groupSlots;
 
     private float score;
     private boolean needsScores4Collapsing;
@@ -2711,6 +2891,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         int maxDoc,
         int nullPolicy,
         int valueCount,
+        int size,
         GroupHeadSelector groupHeadSelector,
         boolean needsScores4Collapsing,
         boolean needsScores,
@@ -2719,14 +2900,33 @@ public class CollapsingQParserPlugin extends QParserPlugin {
         IndexSearcher searcher,
         SortedDocValues values)
         throws IOException {
-      super(maxDoc, valueCount, nullPolicy, needsScores, boostedDocsCollector, values);
+      super(maxDoc, valueCount, size, nullPolicy, needsScores, boostedDocsCollector, values);
       this.needsScores4Collapsing = needsScores4Collapsing;
 
       assert GroupHeadSelectorType.SORT.equals(groupHeadSelector.type);
 
       this.sort = rewriteSort(sortSpec, searcher);
 
-      this.compareState = new SortFieldsCompare(sort.getSort(), valueCount);
+      if (ords.isArrayBased()) {
+        this.groupSlots = null;
+        this.compareState = new SortFieldsCompare(sort.getSort(), valueCount);
+      } else {
+        this.groupSlots = new IntIntHashMap();
+        this.compareState = new SortFieldsCompare(sort.getSort(), 0);
+      }
+    }
+
+    /** Returns the slot of the group in compareState, taking the next one for a new group */
+    private int groupSlot(int ord) {
+      if (groupSlots == null) {
+        return ord;
+      }
+      int slot = groupSlots.getOrDefault(ord, -1);
+      if (slot == -1) {
+        slot = groupSlots.size();
+        groupSlots.put(ord, slot);
+      }
+      return slot;
     }
 
     @Override
@@ -2750,7 +2950,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
       if (ord > -1) { // real collapseKey
         if (-1 == ords.get(ord)) {
           // we've never seen this ord (aka: collapseKey) before, treat it as group head for now
-          compareState.setGroupValues(ord, contextDoc);
+          compareState.setGroupValues(groupSlot(ord), contextDoc);
           ords.put(ord, globalDoc);
           if (needsScores) {
             if (!needsScores4Collapsing) {
@@ -2760,7 +2960,7 @@ public class CollapsingQParserPlugin extends QParserPlugin {
           }
         } else {
           // test this ord to see if it's a new group leader
-          if (compareState.testAndSetGroupValues(ord, contextDoc)) { // TODO X
+          if (compareState.testAndSetGroupValues(groupSlot(ord), contextDoc)) { // TODO X
             ords.put(ord, globalDoc);
             if (needsScores) {
               if (!needsScores4Collapsing) {
@@ -18,10 +18,16 @@ package org.apache.solr.search;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Scorable;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.FixedBitSet;
 
 /** */
@@ -101,6 +107,140 @@ public class DocSetCollector extends SimpleCollector {
     this.base = context.docBase;
   }
 
+  /**
+   * Collects the docs of one index slice when searching with a {@link
+   * org.apache.lucene.search.CollectorManager}. Segments may be visited in any order, so hits are
+   * kept per segment: in a small array at first, and in a bitset covering just the segment once
+   * there are too many for the array. {@link #merge} builds the DocSet of all slices.
+   */
+  public static class SliceCollector extends SimpleCollector {
+    private final List<SegmentDocs> segments = new ArrayList<>();
+    private SegmentDocs current;
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+      current = new SegmentDocs(context.docBase, context.reader().maxDoc());
+      segments.add(current);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      current.add(doc);
+    }
+
+    /** The number of documents that have been collected */
+    public int size() {
+      int size = 0;
+      for (SegmentDocs segment : segments) {
+        size += segment.size;
+      }
+      return size;
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+      return ScoreMode.COMPLETE_NO_SCORES;
+    }
+  }
+
+  /** The hits of a single segment, in segment doc ids */
+  private static final class SegmentDocs {
+    final int docBase;
+    final int maxDoc;
+    final int smallSetSize;
+    // offsets the bits so that they are word aligned with a top level bitset
+    final int skipBits;
+    int[] docs = new int[0];
+    FixedBitSet bits;
+    int size;
+
+    SegmentDocs(int docBase, int maxDoc) {
+      this.docBase = docBase;
+      this.maxDoc = maxDoc;
+      this.smallSetSize = DocSetUtil.smallSetSize(maxDoc);
+      this.skipBits = docBase & 0x3f;
+    }
+
+    void add(int doc) {
+      if (bits == null) {
+        if (size < smallSetSize) {
+          if (size == docs.length) {
+            docs = ArrayUtil.grow(docs, size + 1);
+          }
+          docs[size++] = doc;
+          return;
+        }
+        bits = new FixedBitSet(skipBits + maxDoc);
+        for (int i = 0; i < size; i++) {
+          bits.set(skipBits + docs[i]);
+        }
+        docs = null;
+      }
+      bits.set(skipBits + doc);
+      size++;
+    }
+  }
+
+  /**
+   * Merges the docs of the slice collectors of a concurrent search into a single DocSet.
+   *
+   * @param maxDoc the maxDoc of the searcher
+   */
+  public static DocSet merge(int maxDoc, Collection<SliceCollector> collectors) {
+    final List<SegmentDocs> segments = new ArrayList<>();
+    int size = 0;
+    for (SliceCollector collector : collectors) {
+      for (SegmentDocs segment : collector.segments) {
+        if (segment.size > 0) {
+          segments.add(segment);
+          size += segment.size;
+        }
+      }
+    }
+
+    if (size <= DocSetUtil.smallSetSize(maxDoc)) {
+      // slices visit segments in any order; concatenate them in doc id order
+      segments.sort(Comparator.comparingInt(segment -> segment.docBase));
+      final int[] docs = new int[size];
+      int pos = 0;
+      for (SegmentDocs segment : segments) {
+        if (segment.bits == null) {
+          for (int i = 0; i < segment.size; i++) {
+            docs[pos++] = segment.docBase + segment.docs[i];
+          }
+        } else {
+          final int offset = segment.docBase - segment.skipBits;
+          final BitSetIterator iter = new BitSetIterator(segment.bits, segment.size);
+          for (int bit = iter.nextDoc();
+              bit != DocIdSetIterator.NO_MORE_DOCS;
+              bit = iter.nextDoc()) {
+            docs[pos++] = offset + bit;
+          }
+        }
+      }
+      assert pos == size;
+      return new SortedIntDocSet(docs, size);
+    }
+
+    final long[] words = new long[FixedBitSet.bits2words(maxDoc)];
+    for (SegmentDocs segment : segments) {
+      if (segment.bits == null) {
+        for (int i = 0; i < segment.size; i++) {
+          final int doc = segment.docBase + segment.docs[i];
+          words[doc >> 6] |= 1L << doc;
+        }
+      } else {
+        // neighbouring segments may share the first and last words
+        final long[] segmentWords = segment.bits.getBits();
+        final int skipWords = segment.docBase >>> 6;
+        for (int i = 0; i < segmentWords.length && skipWords + i < words.length; i++) {
+          words[skipWords + i] |= segmentWords[i];
+        }
+      }
+    }
+    return DocSetUtil.compact(new FixedBitSet(words, maxDoc), size);
+  }
+
   protected static class ExpandingIntArray {
     private static final int[] EMPTY = new int[0];
     private int[] currentAddArray = null;
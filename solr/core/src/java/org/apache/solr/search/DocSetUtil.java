@@ -36,6 +36,7 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.util.EnvUtils;
 
 /**
  * @lucene.experimental
@@ -53,6 +54,42 @@ public class DocSetUtil {
     return (maxDoc >> 6) + 5; // The +5 is for better test coverage for small sets
   }
 
+  private static final boolean COMPACT_DOC_SETS =
+      EnvUtils.getPropertyAsBool("solr.search.compactDocSets", false);
+
+  /**
+   * Returns the docs of a large set as a {@link BitDocSet} over the given bits. If the <code>
+   * solr.search.compactDocSets</code> system property is set, sets that take at least twice the
+   * memory as a {@link RoaringDocSet} are compressed instead, which trades the bitset fast paths of
+   * the set operations for memory.
+   *
+   * @param size the number of set bits, or -1 if unknown
+   * @see #compactIfSmaller(FixedBitSet, int)
+   */
+  public static DocSet compact(FixedBitSet bits, int size) {
+    if (COMPACT_DOC_SETS) {
+      return compactIfSmaller(bits, size);
+    }
+    return size < 0 ? new BitDocSet(bits) : new BitDocSet(bits, size);
+  }
+
+  /**
+   * Returns the docs of a large set as a {@link RoaringDocSet} if that takes at most half the memory
+   * of a {@link BitDocSet}, otherwise as a BitDocSet over the given bits. Medium sized and clustered
+   * sets are compressed this way; dense or uniformly spread sets stay bitsets.
+   *
+   * @param size the number of set bits, or -1 if unknown
+   */
+  static DocSet compactIfSmaller(FixedBitSet bits, int size) {
+    if (size != 0) {
+      long bitSetBytes = (long) FixedBitSet.bits2words(bits.length()) << 3;
+      if (RoaringDocSet.estimateRamBytesUsed(bits) <= bitSetBytes >> 1) {
+        return RoaringDocSet.fromBits(bits);
+      }
+    }
+    return size < 0 ? new BitDocSet(bits) : new BitDocSet(bits, size);
+  }
+
   /**
    * Iterates DocSets to test for equality - slow and for testing purposes only.
    *
@@ -91,7 +128,11 @@ public class DocSetUtil {
       return searcher.offerLiveDocs(collector::getDocSet, size);
     }
 
-    return collector.getDocSet();
+    DocSet docs = collector.getDocSet();
+    if (docs instanceof BitDocSet bitDocSet) {
+      return compact(bitDocSet.getBits(), size);
+    }
+    return docs;
   }
 
   /**
@@ -248,7 +289,7 @@ public class DocSetUtil {
       return smallSet;
     }
 
-    return docSet;
+    return compact(docSet.getBits(), sz);
   }
 
   public static DocSet toSmallSet(BitDocSet bitSet) {
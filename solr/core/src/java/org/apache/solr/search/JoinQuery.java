@@ -456,8 +456,14 @@ class JoinQuery extends Query implements SolrSearcherRequirer {
       int[] docs = new int[sz];
       int pos = 0;
       for (DocSet set : resultList) {
-        System.arraycopy(((SortedIntDocSet) set).getDocs(), 0, docs, pos, set.size());
-        pos += set.size();
+        if (set instanceof SortedIntDocSet sortedSet) {
+          System.arraycopy(sortedSet.getDocs(), 0, docs, pos, set.size());
+          pos += set.size();
+        } else {
+          for (DocIterator iter = set.iterator(); iter.hasNext(); ) {
+            docs[pos++] = iter.nextDoc();
+          }
+        }
       }
       Arrays.sort(docs);
       int[] dedup = new int[sz];
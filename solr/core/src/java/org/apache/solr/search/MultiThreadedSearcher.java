@@ -22,18 +22,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
-import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreMode;
-import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldDocs;
-import org.apache.lucene.util.FixedBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -126,6 +123,23 @@ public class MultiThreadedSearcher {
     return postFilter == null && !cmd.getSegmentTerminateEarly() && cmd.getMultiThreaded();
   }
 
+  /**
+   * Whether the post filter is a collapse that can collapse the slices of the searcher in parallel
+   * before collapsing their group heads. Not with a <code>timeAllowed</code>: the time limit is
+   * enforced by the collector the collapse delegates to, which the slices don't go through.
+   *
+   * @see CollapsingQParserPlugin.CollapsingPostFilter#searchSlices
+   */
+  static boolean allowMTCollapse(
+      SolrIndexSearcher.ProcessedFilter pf, QueryCommand cmd, SolrIndexSearcher searcher) {
+    return pf.postFilterQuery instanceof CollapsingQParserPlugin.CollapsingPostFilter
+        && !cmd.getSegmentTerminateEarly()
+        && cmd.getTimeAllowed() <= 0
+        && cmd.getMultiThreaded()
+        && searcher.getExecutor() != null
+        && searcher.getSlices().length > 1;
+  }
+
   static class MaxScoreResult {
     final float maxScore;
 
@@ -134,67 +148,6 @@ public class MultiThreadedSearcher {
     }
   }
 
-  static class FixedBitSetCollector extends SimpleCollector {
-    @SuppressWarnings("JdkObsolete")
-    private final LinkedList<FixedBitSet> bitSets = new LinkedList<>();
-
-    @SuppressWarnings("JdkObsolete")
-    private final LinkedList<Integer> skipWords = new LinkedList<>();
-
-    @SuppressWarnings("JdkObsolete")
-    private final LinkedList<Integer> skipBits = new LinkedList<>();
-
-    FixedBitSetCollector() {}
-
-    @Override
-    protected void doSetNextReader(LeafReaderContext context) throws IOException {
-      this.bitSets.add(null); // lazy allocate when collecting document(s)
-      this.skipWords.add(context.docBase / 64);
-      this.skipBits.add(context.docBase % 64);
-    }
-
-    @Override
-    public void collect(int doc) throws IOException {
-      FixedBitSet bitSet = this.bitSets.getLast();
-      final int idx = this.skipBits.getLast() + doc;
-
-      final int numWords = FixedBitSet.bits2words(idx + 1); // +1 to ensure minimum 1 word
-
-      if (bitSet == null) {
-        this.bitSets.removeLast();
-        bitSet = new FixedBitSet(numWords * 64);
-        this.bitSets.addLast(bitSet);
-
-      } else if (bitSet.getBits().length < numWords) {
-        FixedBitSet smallerBitSet = this.bitSets.removeLast();
-        bitSet = new FixedBitSet(numWords * 64);
-        bitSet.xor(smallerBitSet);
-        this.bitSets.addLast(bitSet);
-      }
-
-      bitSet.set(idx);
-    }
-
-    void update(FixedBitSet allBitSet) {
-      final long[] allBits = allBitSet.getBits();
-      for (int bs_idx = 0; bs_idx < this.bitSets.size(); ++bs_idx) {
-        final FixedBitSet itBitSet = this.bitSets.get(bs_idx);
-        if (itBitSet != null) {
-          final int skipWords = this.skipWords.get(bs_idx);
-          final long[] itBits = itBitSet.getBits();
-          for (int idx = 0; idx < itBits.length && skipWords + idx < allBits.length; ++idx) {
-            allBits[skipWords + idx] ^= itBits[idx];
-          }
-        }
-      }
-    }
-
-    @Override
-    public ScoreMode scoreMode() {
-      return ScoreMode.COMPLETE_NO_SCORES;
-    }
-  }
-
   static class SearchResult {
     final ScoreMode scoreMode;
     private final Object[] result;
@@ -226,10 +179,10 @@ public class MultiThreadedSearcher {
       }
     }
 
-    public FixedBitSet getFixedBitSet() {
+    public DocSet getDocSet() {
       for (Object res : result) {
-        if (res instanceof FixedBitSet) {
-          return (FixedBitSet) res;
+        if (res instanceof DocSet) {
+          return (DocSet) res;
         }
       }
       return null;
@@ -284,19 +237,23 @@ public class MultiThreadedSearcher {
     @Override
     public Collector newCollector() throws IOException {
       // TODO: add to firstCollectors here? or if not have comment w.r.t. why not adding
-      return new FixedBitSetCollector();
+      return new DocSetCollector.SliceCollector();
     }
 
     @Override
     @SuppressWarnings({"rawtypes"})
     public Object reduce(Collection collectors) throws IOException {
-      final FixedBitSet reduced = new FixedBitSet(maxDoc);
+      final List<DocSetCollector.SliceCollector> sliceCollectors =
+          new ArrayList<>(collectors.size());
       for (Object collector : collectors) {
-        if (collector instanceof FixedBitSetCollector fixedBitSetCollector) {
-          fixedBitSetCollector.update(reduced);
+        if (collector instanceof final EarlyTerminatingCollector earlyTerminatingCollector) {
+          collector = earlyTerminatingCollector.getDelegate();
+        }
+        if (collector instanceof DocSetCollector.SliceCollector sliceCollector) {
+          sliceCollectors.add(sliceCollector);
         }
       }
-      return reduced;
+      return DocSetCollector.merge(maxDoc, sliceCollectors);
     }
   }
 
@@ -0,0 +1,1001 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.util.IOFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SolrCache} for the <code>filterCache</code> that keeps {@link DocSet}s off-heap, split
+ * per index segment.
+ *
+ * <p>Every cached filter is stored as one slice per segment, keyed by the segment's core cache key.
+ * A slice lives in direct (off-heap) memory and holds either a sorted list of segment-relative doc
+ * ids or a bitset, whichever is smaller. Only small bookkeeping objects are kept on the Java heap;
+ * the top-level {@link DocSet} is assembled from the slices on lookup. The assembled sets of the
+ * first <code>assembledSize</code> (16 by default) filters hit in a cache generation are kept until
+ * the generation is closed, so hot filters are not assembled again on every lookup, while all
+ * other assembled sets are short-lived garbage instead of old generation residents.
+ *
+ * <p>The slices are shared by all generations of the cache through the persistence object (see
+ * {@link SolrCache#init(Map, Object, CacheRegenerator)}). When a new searcher is opened, {@link
+ * #warm(SolrIndexSearcher, SolrCache)} reuses the slices of unchanged segments for which the
+ * filter's {@link Weight#isCacheable(LeafReaderContext)} holds, and only executes the filter on the
+ * remaining segments. New deletions are applied when a set is assembled. The configured {@link
+ * CacheRegenerator} is therefore not used. A slice replaced by warming stays readable by the
+ * searchers it was valid for until their cache generations are closed.
+ *
+ * <p>A slice stops counting against <code>maxRamMB</code> as soon as it is evicted and no lookup
+ * reads it anymore. Its direct memory is then reclaimed by the garbage collector, which the JVM
+ * runs by itself before an allocation would exceed <code>-XX:MaxDirectMemorySize</code>.
+ *
+ * <p>Filters are evicted in approximate LRU order: every lookup stamps the filter with a counter,
+ * and the thread that finds the cache over its limits evicts the filters with the oldest stamps.
+ *
+ * <p>The <code>size</code> parameter limits the number of cached filters, and <code>maxRamMB
+ * </code> limits the off-heap memory used by the slices. {@link #ramBytesUsed()} only reports heap
+ * usage, including the kept assembled sets; off-heap usage is reported separately by {@link
+ * #offHeapBytesUsed()}.
+ *
+ * @lucene.experimental
+ */
+public class OffHeapFilterCache extends SolrCacheBase
+    implements SolrCache<Query, DocSet>, Accountable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String OFF_HEAP_BYTES_USED_PARAM = "offHeapBytesUsed";
+
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(OffHeapFilterCache.class)
+          + 3 * RamUsageEstimator.shallowSizeOfInstance(LongAdder.class);
+
+  public static final String ASSEMBLED_SIZE_PARAM = "assembledSize";
+
+  private static final long RAM_BYTES_PER_ENTRY =
+      RamUsageEstimator.shallowSizeOfInstance(QueryEntry.class)
+          + RamUsageEstimator.shallowSizeOfInstance(ConcurrentHashMap.class)
+          + RamUsageEstimator.HASHTABLE_RAM_BYTES_PER_ENTRY;
+
+  private static final long RAM_BYTES_PER_SLICE =
+      RamUsageEstimator.shallowSizeOfInstance(Slice.class)
+          + RamUsageEstimator.shallowSizeOfInstance(ByteBuffer.allocateDirect(0).getClass())
+          + RamUsageEstimator.LINKED_HASHTABLE_RAM_BYTES_PER_ENTRY;
+
+  private SegmentStore store;
+  private volatile Layout layout;
+
+  /** assembled sets kept for the searcher of this cache generation */
+  private final Map<QueryEntry, DocSet> assembled = new ConcurrentHashMap<>();
+
+  private final AtomicLong assembledBytes = new AtomicLong();
+  private int maxAssembled;
+
+  private String description = "Off-Heap Filter Cache";
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder inserts = new LongAdder();
+  private final LongAdder lookups = new LongAdder();
+  private long priorHits;
+  private long priorInserts;
+  private long priorLookups;
+  private long warmupTime;
+  private int segmentsReused;
+  private int segmentsComputed;
+
+  private MetricsMap cacheMap;
+  private SolrMetricsContext solrMetricsContext;
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, regenerator);
+    String str = args.get(SIZE_PARAM);
+    int maxSize = str == null ? 1024 : Integer.parseInt(str);
+    str = args.get(MAX_RAM_MB_PARAM);
+    int maxRamMB = str == null ? -1 : Double.valueOf(str).intValue();
+    str = args.get(ASSEMBLED_SIZE_PARAM);
+    maxAssembled = str == null ? 16 : Integer.parseInt(str);
+
+    if (persistence == null) {
+      persistence = new SegmentStore();
+    }
+    store = (SegmentStore) persistence;
+    store.setMaxSize(maxSize);
+    store.setMaxRamMB(maxRamMB);
+    description = generateDescription();
+    return persistence;
+  }
+
+  @Override
+  public void initialSearcher(SolrIndexSearcher initialSearcher) {
+    layout = new Layout(initialSearcher, store);
+  }
+
+  /** Frees the slices only the searcher of this cache generation could still read. */
+  @Override
+  public void close() throws IOException {
+    final Layout layout = this.layout;
+    if (layout != null) {
+      store.retire(layout.generation);
+    }
+    assembled.clear();
+    assembledBytes.set(0);
+    super.close();
+  }
+
+  @Override
+  public DocSet get(Query key) {
+    lookups.increment();
+    final Layout layout = this.layout;
+    if (layout == null) {
+      // not yet bound to a searcher (e.g. a cold searcher registered before warming)
+      return null;
+    }
+    QueryEntry entry = store.get(key);
+    if (entry == null) {
+      return null;
+    }
+    DocSet answer = assembled.get(entry);
+    if (answer == null) {
+      answer = entry.assemble(layout);
+      if (answer != null) {
+        keepAssembled(entry, answer);
+      }
+    }
+    if (answer != null) {
+      hits.increment();
+    }
+    return answer;
+  }
+
+  /** Keeps the assembled set of a filter for this generation, unless enough sets are kept. */
+  private void keepAssembled(QueryEntry entry, DocSet docs) {
+    if (assembled.size() >= maxAssembled) {
+      forgetAssembled();
+      if (assembled.size() >= maxAssembled) {
+        return;
+      }
+    }
+    if (assembled.putIfAbsent(entry, docs) == null) {
+      assembledBytes.addAndGet(docs.ramBytesUsed());
+    }
+  }
+
+  /** Drops the assembled sets of filters that were evicted or removed from the cache. */
+  private void forgetAssembled() {
+    for (Map.Entry<QueryEntry, DocSet> e : assembled.entrySet()) {
+      if (e.getKey().evicted && assembled.remove(e.getKey(), e.getValue())) {
+        assembledBytes.addAndGet(-e.getValue().ramBytesUsed());
+      }
+    }
+  }
+
+  /**
+   * Caches the segment slices of <code>value</code>. The previous value is never materialized, so
+   * this method always returns null.
+   */
+  @Override
+  public DocSet put(Query key, DocSet value) {
+    final Layout layout = this.layout;
+    if (layout == null || !layout.cacheable) {
+      return null;
+    }
+    inserts.increment();
+    store.put(key, layout, value);
+    return null;
+  }
+
+  @Override
+  public DocSet computeIfAbsent(
+      Query key, IOFunction<? super Query, ? extends DocSet> mappingFunction) throws IOException {
+    DocSet answer = get(key);
+    if (answer != null) {
+      return answer;
+    }
+    // no lock is held while computing, so concurrent misses on the same key may both compute
+    answer = mappingFunction.apply(key);
+    if (answer != null) {
+      put(key, answer);
+    }
+    return answer;
+  }
+
+  @Override
+  public boolean isRecursionSupported() {
+    return true;
+  }
+
+  /** Removes the filter from all generations of this cache; always returns null. */
+  @Override
+  public DocSet remove(Query key) {
+    store.remove(key);
+    forgetAssembled();
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    store.clear();
+    forgetAssembled();
+  }
+
+  @Override
+  public int size() {
+    return store.size();
+  }
+
+  @Override
+  public int getMaxSize() {
+    return store.maxSize;
+  }
+
+  @Override
+  public void setMaxSize(int maxSize) {
+    store.setMaxSize(maxSize);
+    store.enforceLimits();
+    description = generateDescription();
+  }
+
+  @Override
+  public int getMaxRamMB() {
+    return store.maxOffHeapBytes != Long.MAX_VALUE
+        ? (int) (store.maxOffHeapBytes / 1024L / 1024L)
+        : -1;
+  }
+
+  @Override
+  public void setMaxRamMB(int maxRamMB) {
+    store.setMaxRamMB(maxRamMB);
+    store.enforceLimits();
+    description = generateDescription();
+  }
+
+  /** Heap memory used by this cache; see {@link #offHeapBytesUsed()} for the slices themselves. */
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + store.heapBytes.get() + assembledBytes.get();
+  }
+
+  /** Direct memory used by the segment slices of all generations of this cache. */
+  public long offHeapBytesUsed() {
+    return store.offHeapBytes.get();
+  }
+
+  @Override
+  public void warm(SolrIndexSearcher searcher, SolrCache<Query, DocSet> old) {
+    long warmingStartTime = System.nanoTime();
+    final Layout layout = new Layout(searcher, store);
+    this.layout = layout;
+
+    if (isAutowarmingOn() && layout.cacheable) {
+      for (QueryEntry entry : store.hottest(autowarm.getWarmCount(store.size()))) {
+        try {
+          warmEntry(searcher, layout, entry);
+        } catch (Exception e) {
+          log.error("Error during auto-warming of key: {}", entry.query, e);
+        }
+      }
+    }
+
+    OffHeapFilterCache other = (OffHeapFilterCache) old;
+    priorHits = other.hits.sum() + other.priorHits;
+    priorInserts = other.inserts.sum() + other.priorInserts;
+    priorLookups = other.lookups.sum() + other.priorLookups;
+    warmupTime =
+        TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Brings all slices of <code>entry</code> up to date with the new searcher: slices of segments on
+   * which the filter is cacheable are reused as they are, everything else is executed again.
+   */
+  private void warmEntry(SolrIndexSearcher searcher, Layout layout, QueryEntry entry)
+      throws IOException {
+    Weight weight =
+        searcher.createWeight(searcher.rewrite(entry.query), ScoreMode.COMPLETE_NO_SCORES, 1f);
+    for (int i = 0; i < layout.leaves.size(); i++) {
+      LeafReaderContext leaf = layout.leaves.get(i);
+      IndexReader.CacheKey coreKey = layout.coreKeys[i];
+      Slice existing = entry.segments.get(coreKey);
+      if (existing != null
+          && weight.isCacheable(leaf)
+          && store.extendSlice(entry, coreKey, existing, layout.generation)) {
+        segmentsReused++;
+      } else {
+        store.putSlice(entry, coreKey, computeSlice(weight, leaf, layout.generation));
+        segmentsComputed++;
+      }
+    }
+  }
+
+  private Slice computeSlice(Weight weight, LeafReaderContext leaf, long generation)
+      throws IOException {
+    FixedBitSet bits = new FixedBitSet(leaf.reader().maxDoc());
+    int cardinality = 0;
+    Scorer scorer = weight.scorer(leaf);
+    if (scorer != null) {
+      Bits liveDocs = leaf.reader().getLiveDocs();
+      DocIdSetIterator it = scorer.iterator();
+      for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+        if (liveDocs == null || liveDocs.get(doc)) {
+          bits.set(doc);
+          cardinality++;
+        }
+      }
+    }
+    return Slice.encode(generation, bits, cardinality, store.offHeapBytes);
+  }
+
+  private String generateDescription() {
+    return String.format(
+        Locale.ROOT,
+        "Off-Heap Filter Cache(maxSize=%d, maxRamMB=%d, assembledSize=%d%s)",
+        getMaxSize(),
+        getMaxRamMB(),
+        maxAssembled,
+        isAutowarmingOn() ? (", autowarmCount=" + autowarm) : "");
+  }
+
+  //////////////////////// SolrInfoBean methods //////////////////////
+
+  @Override
+  public String getName() {
+    return OffHeapFilterCache.class.getName();
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  // for unit tests only
+  @VisibleForTesting
+  MetricsMap getMetricsMap() {
+    return cacheMap;
+  }
+
+  @Override
+  public SolrMetricsContext getSolrMetricsContext() {
+    return solrMetricsContext;
+  }
+
+  @Override
+  public String toString() {
+    return name() + (cacheMap != null ? cacheMap.getValue().toString() : "");
+  }
+
+  @Override
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    solrMetricsContext = parentContext.getChildContext(this);
+    cacheMap =
+        new MetricsMap(
+            map -> {
+              long hitCount = hits.sum();
+              long insertCount = inserts.sum();
+              long lookupCount = lookups.sum();
+
+              map.put(LOOKUPS_PARAM, lookupCount);
+              map.put(HITS_PARAM, hitCount);
+              map.put(HIT_RATIO_PARAM, calcHitRatio(lookupCount, hitCount));
+              map.put(INSERTS_PARAM, insertCount);
+              map.put(EVICTIONS_PARAM, store.evictions.sum());
+              map.put(SIZE_PARAM, store.size());
+              map.put("warmupTime", warmupTime);
+              map.put("warmupSegmentsReused", segmentsReused);
+              map.put("warmupSegmentsComputed", segmentsComputed);
+              map.put(RAM_BYTES_USED_PARAM, ramBytesUsed());
+              map.put(OFF_HEAP_BYTES_USED_PARAM, offHeapBytesUsed());
+              map.put(MAX_RAM_MB_PARAM, getMaxRamMB());
+
+              long cumLookups = priorLookups + lookupCount;
+              long cumHits = priorHits + hitCount;
+              map.put("cumulative_lookups", cumLookups);
+              map.put("cumulative_hits", cumHits);
+              map.put("cumulative_hitratio", calcHitRatio(cumLookups, cumHits));
+              map.put("cumulative_inserts", priorInserts + insertCount);
+            });
+    solrMetricsContext.gauge(cacheMap, true, scope, getCategory().toString());
+  }
+
+  /** The segments of the searcher a cache generation is bound to. */
+  private static final class Layout {
+    final long generation;
+    final int maxDoc;
+    final List<LeafReaderContext> leaves;
+    final IndexReader.CacheKey[] coreKeys;
+    /** false if any segment has no core cache key, in which case nothing is cached */
+    final boolean cacheable;
+
+    Layout(SolrIndexSearcher searcher, SegmentStore store) {
+      this.generation = store.startGeneration();
+      this.maxDoc = searcher.maxDoc();
+      this.leaves = searcher.getIndexReader().leaves();
+      this.coreKeys = new IndexReader.CacheKey[leaves.size()];
+      boolean cacheable = true;
+      for (int i = 0; i < coreKeys.length; i++) {
+        IndexReader.CacheHelper cacheHelper = leaves.get(i).reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+          cacheable = false;
+          break;
+        }
+        coreKeys[i] = cacheHelper.getKey();
+        store.trackCore(cacheHelper);
+      }
+      this.cacheable = cacheable;
+    }
+  }
+
+  /** All slices of a single filter, by segment core. */
+  private static final class QueryEntry {
+    final Query query;
+    final Map<IndexReader.CacheKey, Slice> segments = new ConcurrentHashMap<>();
+    volatile boolean evicted;
+
+    /** value of the store's access counter when the filter was last used */
+    volatile long lastAccessed;
+
+    QueryEntry(Query query) {
+      this.query = query;
+    }
+
+    /**
+     * Builds the top-level set for <code>layout</code>, or returns null if any segment is missing
+     * or was not validated for that generation.
+     */
+    DocSet assemble(Layout layout) {
+      if (!layout.cacheable) {
+        return null;
+      }
+      final int numLeaves = layout.leaves.size();
+      final Slice[] slices = new Slice[numLeaves];
+      int acquired = 0;
+      try {
+        long upperBound = 0;
+        for (; acquired < numLeaves; acquired++) {
+          Slice head = segments.get(layout.coreKeys[acquired]);
+          Slice slice = head == null ? null : head.find(layout.generation);
+          if (slice == null || !slice.tryIncRef()) {
+            return null;
+          }
+          slices[acquired] = slice;
+          upperBound += slice.cardinality;
+        }
+        return assemble(layout, slices, upperBound);
+      } finally {
+        for (int i = 0; i < acquired; i++) {
+          slices[i].decRef();
+        }
+      }
+    }
+
+    private static DocSet assemble(Layout layout, Slice[] slices, long upperBound) {
+      final int numLeaves = slices.length;
+      if (upperBound == 0) {
+        return DocSet.empty();
+      }
+      if (upperBound <= DocSetUtil.smallSetSize(layout.maxDoc)) {
+        int[] docs = new int[(int) upperBound];
+        int size = 0;
+        for (int i = 0; i < numLeaves; i++) {
+          LeafReaderContext leaf = layout.leaves.get(i);
+          size = slices[i].addTo(docs, size, leaf.docBase, leaf.reader().getLiveDocs());
+        }
+        return new SortedIntDocSet(docs, size);
+      }
+      long[] bits = new long[FixedBitSet.bits2words(layout.maxDoc)];
+      int size = 0;
+      for (int i = 0; i < numLeaves; i++) {
+        LeafReaderContext leaf = layout.leaves.get(i);
+        size += slices[i].addTo(bits, leaf.docBase, leaf.reader().getLiveDocs());
+      }
+      return new BitDocSet(new FixedBitSet(bits, layout.maxDoc), size);
+    }
+  }
+
+  /**
+   * The matches of a filter in a single segment, kept in direct memory. The matches are immutable
+   * and only read with absolute accessors. The slice is valid for the cache generations from the
+   * one it was computed for to the last one it was validated for.
+   *
+   * <p>The store holds one reference to the slice, and lookups take another one while they read
+   * it. The direct memory is no longer accounted once the last reference is released.
+   */
+  static final class Slice {
+    /** generation of the cache the slice was computed for */
+    final long fromGeneration;
+
+    /** generation of the cache the slice was last validated for */
+    volatile long generation;
+
+    /**
+     * the slice this one replaced for the same segment, kept while searchers of its generations
+     * may still read it
+     */
+    volatile Slice older;
+
+    final int cardinality;
+    final boolean bitset;
+    /** null if the slice is empty */
+    final ByteBuffer buffer;
+
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicLong offHeapBytesUsed;
+
+    private Slice(
+        long generation,
+        int cardinality,
+        boolean bitset,
+        ByteBuffer buffer,
+        AtomicLong offHeapBytesUsed) {
+      this.fromGeneration = generation;
+      this.generation = generation;
+      this.cardinality = cardinality;
+      this.bitset = bitset;
+      this.buffer = buffer;
+      this.offHeapBytesUsed = offHeapBytesUsed;
+      offHeapBytesUsed.addAndGet(offHeapBytes());
+    }
+
+    /**
+     * Encodes a segment-sized bitset as doc ids or as words, whichever needs less memory. The
+     * direct memory is accounted in <code>offHeapBytesUsed</code> until the slice is released.
+     */
+    static Slice encode(
+        long generation, FixedBitSet bits, int cardinality, AtomicLong offHeapBytesUsed) {
+      if (cardinality == 0) {
+        return new Slice(generation, 0, false, null, offHeapBytesUsed);
+      }
+      final int numWords = FixedBitSet.bits2words(bits.length());
+      if ((long) cardinality * Integer.BYTES < (long) numWords * Long.BYTES) {
+        ByteBuffer buffer =
+            ByteBuffer.allocateDirect(cardinality * Integer.BYTES).order(ByteOrder.nativeOrder());
+        final int maxDoc = bits.length();
+        int i = 0;
+        for (int doc = bits.nextSetBit(0);
+            doc != DocIdSetIterator.NO_MORE_DOCS;
+            doc = doc + 1 < maxDoc ? bits.nextSetBit(doc + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+          buffer.putInt(Integer.BYTES * i++, doc);
+        }
+        return new Slice(generation, cardinality, false, buffer, offHeapBytesUsed);
+      }
+      ByteBuffer buffer =
+          ByteBuffer.allocateDirect(numWords * Long.BYTES).order(ByteOrder.nativeOrder());
+      buffer.asLongBuffer().put(bits.getBits(), 0, numWords);
+      return new Slice(generation, cardinality, true, buffer, offHeapBytesUsed);
+    }
+
+    boolean covers(long generation) {
+      return fromGeneration <= generation && generation <= this.generation;
+    }
+
+    /** Returns this slice or the older one valid for the generation, or null if there is none. */
+    Slice find(long generation) {
+      if (covers(generation)) {
+        return this;
+      }
+      Slice older = this.older;
+      return older != null && older.covers(generation) ? older : null;
+    }
+
+    /** Takes a reference for reading the slice, unless its memory was already freed. */
+    boolean tryIncRef() {
+      for (int count = refCount.get(); count > 0; count = refCount.get()) {
+        if (refCount.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void decRef() {
+      if (refCount.decrementAndGet() == 0) {
+        offHeapBytesUsed.addAndGet(-offHeapBytes());
+      }
+    }
+
+    long offHeapBytes() {
+      return buffer == null ? 0 : buffer.capacity();
+    }
+
+    /** Appends the live docs of this slice to <code>docs</code>, returns the new length. */
+    int addTo(int[] docs, int pos, int docBase, Bits liveDocs) {
+      if (buffer == null) {
+        return pos;
+      }
+      if (bitset) {
+        final int numWords = buffer.capacity() / Long.BYTES;
+        for (int w = 0; w < numWords; w++) {
+          long word = buffer.getLong(Long.BYTES * w);
+          while (word != 0) {
+            int doc = (w << 6) + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+            if (liveDocs == null || liveDocs.get(doc)) {
+              docs[pos++] = docBase + doc;
+            }
+          }
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          int doc = buffer.getInt(Integer.BYTES * i);
+          if (liveDocs == null || liveDocs.get(doc)) {
+            docs[pos++] = docBase + doc;
+          }
+        }
+      }
+      return pos;
+    }
+
+    /** Sets the live docs of this slice in the top-level <code>bits</code>, returns their count. */
+    int addTo(long[] bits, int docBase, Bits liveDocs) {
+      if (buffer == null) {
+        return 0;
+      }
+      int count = 0;
+      if (bitset) {
+        final int numWords = buffer.capacity() / Long.BYTES;
+        for (int w = 0; w < numWords; w++) {
+          long word = buffer.getLong(Long.BYTES * w);
+          if (word == 0) {
+            continue;
+          }
+          if (liveDocs != null) {
+            word = clearDeleted(word, w << 6, liveDocs);
+          }
+          count += Long.bitCount(word);
+          orShifted(bits, docBase + (w << 6), word);
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          int doc = buffer.getInt(Integer.BYTES * i);
+          if (liveDocs == null || liveDocs.get(doc)) {
+            int globalDoc = docBase + doc;
+            bits[globalDoc >> 6] |= 1L << globalDoc;
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+
+    private static long clearDeleted(long word, int base, Bits liveDocs) {
+      long remaining = word;
+      while (remaining != 0) {
+        int bit = Long.numberOfTrailingZeros(remaining);
+        remaining &= remaining - 1;
+        if (!liveDocs.get(base + bit)) {
+          word &= ~(1L << bit);
+        }
+      }
+      return word;
+    }
+
+    /** ORs a 64 bit word into <code>dest</code> starting at an arbitrary bit index. */
+    private static void orShifted(long[] dest, int bitIndex, long word) {
+      final int destWord = bitIndex >>> 6;
+      final int shift = bitIndex & 63;
+      dest[destWord] |= word << shift;
+      if (shift != 0) {
+        long carry = word >>> (64 - shift);
+        if (carry != 0) {
+          dest[destWord + 1] |= carry;
+        }
+      }
+    }
+  }
+
+  /**
+   * The persistence object shared by all generations of an {@link OffHeapFilterCache}. Holds the
+   * filters together with the memory accounting and the limits. Lookups do not lock; only one
+   * thread at a time evicts filters, in the order of their last access.
+   */
+  static final class SegmentStore {
+    private final Map<Query, QueryEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong accessCounter = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Set<IndexReader.CacheKey> trackedCores = ConcurrentHashMap.newKeySet();
+    private final AtomicLong generation = new AtomicLong();
+    /** generations whose searcher is not closed yet */
+    private final NavigableSet<Long> liveGenerations = new ConcurrentSkipListSet<>();
+    final AtomicLong heapBytes = new AtomicLong();
+    final AtomicLong offHeapBytes = new AtomicLong();
+    final LongAdder evictions = new LongAdder();
+    volatile int maxSize;
+    volatile long maxOffHeapBytes;
+
+    /** Starts a new cache generation, which stays live until it is retired. */
+    long startGeneration() {
+      long next = generation.incrementAndGet();
+      liveGenerations.add(next);
+      return next;
+    }
+
+    /**
+     * Retires the generation of a closed searcher, and frees the replaced slices that no live
+     * generation can read anymore. Everything is freed once the last generation is retired.
+     */
+    void retire(long generation) {
+      liveGenerations.remove(generation);
+      if (liveGenerations.isEmpty()) {
+        clear();
+        return;
+      }
+      for (QueryEntry entry : entries.values()) {
+        for (IndexReader.CacheKey coreKey : entry.segments.keySet()) {
+          entry.segments.computeIfPresent(
+              coreKey,
+              (k, head) -> {
+                Slice older = head.older;
+                if (older != null && !isLive(older)) {
+                  head.older = null;
+                  older.decRef();
+                }
+                return head;
+              });
+        }
+      }
+    }
+
+    private boolean isLive(Slice slice) {
+      return !liveGenerations.subSet(slice.fromGeneration, true, slice.generation, true).isEmpty();
+    }
+
+    void setMaxSize(int maxSize) {
+      this.maxSize = maxSize < 0 ? Integer.MAX_VALUE : maxSize;
+    }
+
+    void setMaxRamMB(int maxRamMB) {
+      this.maxOffHeapBytes = maxRamMB < 0 ? Long.MAX_VALUE : maxRamMB * 1024L * 1024L;
+    }
+
+    /** Purges the slices of a segment once its core is closed, e.g. after it was merged away. */
+    void trackCore(IndexReader.CacheHelper cacheHelper) {
+      if (trackedCores.add(cacheHelper.getKey())) {
+        cacheHelper.addClosedListener(this::onCoreClosed);
+      }
+    }
+
+    void onCoreClosed(IndexReader.CacheKey coreKey) {
+      trackedCores.remove(coreKey);
+      for (QueryEntry entry : entries.values()) {
+        release(entry.segments.remove(coreKey));
+      }
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    QueryEntry get(Query query) {
+      QueryEntry entry = entries.get(query);
+      if (entry != null) {
+        entry.lastAccessed = accessCounter.incrementAndGet();
+      }
+      return entry;
+    }
+
+    /** The <code>n</code> most recently used filters, most recent first. */
+    List<QueryEntry> hottest(int n) {
+      if (n <= 0) {
+        return Collections.emptyList();
+      }
+      List<QueryEntry> hottest = byLastAccess();
+      Collections.reverse(hottest);
+      return hottest.size() > n ? hottest.subList(0, n) : hottest;
+    }
+
+    /** A snapshot of the filters, least recently used first. */
+    private List<QueryEntry> byLastAccess() {
+      List<QueryEntry> snapshot = new ArrayList<>(entries.values());
+      snapshot.sort(Comparator.comparingLong(entry -> entry.lastAccessed));
+      return snapshot;
+    }
+
+    void put(Query query, Layout layout, DocSet docs) {
+      QueryEntry entry =
+          entries.computeIfAbsent(
+              query,
+              q -> {
+                heapBytes.addAndGet(
+                    RamUsageEstimator.sizeOfObject(
+                            q, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED)
+                        + RAM_BYTES_PER_ENTRY);
+                return new QueryEntry(q);
+              });
+      entry.lastAccessed = accessCounter.incrementAndGet();
+      for (int i = 0; i < layout.leaves.size(); i++) {
+        Slice existing = entry.segments.get(layout.coreKeys[i]);
+        if (existing != null && existing.find(layout.generation) != null) {
+          continue;
+        }
+        LeafReaderContext leaf = layout.leaves.get(i);
+        FixedBitSet bits = new FixedBitSet(leaf.reader().maxDoc());
+        int cardinality = 0;
+        DocIdSetIterator it = docs.iterator(leaf);
+        if (it != null) {
+          try {
+            for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+              bits.set(doc);
+              cardinality++;
+            }
+          } catch (IOException e) {
+            // DocSet iterators do not do I/O
+            throw new RuntimeException(e);
+          }
+        }
+        putSlice(
+            entry,
+            layout.coreKeys[i],
+            Slice.encode(layout.generation, bits, cardinality, offHeapBytes));
+      }
+      enforceLimits();
+    }
+
+    /**
+     * Installs a slice for a segment. A slice of a newer generation replaces the current one, which
+     * is kept for the searchers of its generations. A slice of an older generation is kept beside
+     * the current one if there is room, e.g. when the previous searcher misses during warming.
+     */
+    void putSlice(QueryEntry entry, IndexReader.CacheKey coreKey, Slice slice) {
+      entry.segments.compute(
+          coreKey,
+          (k, head) -> {
+            if (head == null) {
+              heapBytes.addAndGet(RAM_BYTES_PER_SLICE);
+              return slice;
+            }
+            if (slice.fromGeneration > head.generation) {
+              Slice dropped = head.older;
+              head.older = null;
+              slice.older = head;
+              if (dropped != null) {
+                dropped.decRef();
+              }
+              return slice;
+            }
+            if (slice.generation < head.fromGeneration && head.older == null) {
+              head.older = slice;
+            } else {
+              slice.decRef();
+            }
+            return head;
+          });
+      if (entry.evicted || !trackedCores.contains(coreKey)) {
+        // raced with eviction or with the segment being closed
+        release(entry.segments.remove(coreKey));
+      }
+    }
+
+    /**
+     * Extends the slice of a segment to a new generation, if it is still the current one for the
+     * segment. Returns false if it was replaced or removed in the meantime.
+     */
+    boolean extendSlice(
+        QueryEntry entry, IndexReader.CacheKey coreKey, Slice existing, long generation) {
+      Slice head =
+          entry.segments.computeIfPresent(
+              coreKey,
+              (k, current) -> {
+                if (current == existing && current.generation < generation) {
+                  current.generation = generation;
+                }
+                return current;
+              });
+      return head == existing && existing.covers(generation);
+    }
+
+    void remove(Query query) {
+      QueryEntry entry = entries.remove(query);
+      if (entry != null) {
+        evict(entry);
+      }
+    }
+
+    void clear() {
+      for (QueryEntry entry : entries.values()) {
+        if (entries.remove(entry.query, entry)) {
+          evict(entry);
+        }
+      }
+    }
+
+    private boolean overLimits() {
+      return entries.size() > maxSize || offHeapBytes.get() > maxOffHeapBytes;
+    }
+
+    /**
+     * Evicts the least recently used filters until the cache is within its limits. Threads that
+     * find another one evicting leave it to that thread.
+     */
+    void enforceLimits() {
+      if (!overLimits() || !evictionLock.tryLock()) {
+        return;
+      }
+      try {
+        for (QueryEntry entry : byLastAccess()) {
+          if (!overLimits()) {
+            break;
+          }
+          if (entries.remove(entry.query, entry)) {
+            evict(entry);
+            evictions.increment();
+          }
+        }
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+
+    private void evict(QueryEntry entry) {
+      entry.evicted = true;
+      heapBytes.addAndGet(
+          -(RamUsageEstimator.sizeOfObject(
+                  entry.query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED)
+              + RAM_BYTES_PER_ENTRY));
+      for (IndexReader.CacheKey coreKey : entry.segments.keySet()) {
+        release(entry.segments.remove(coreKey));
+      }
+    }
+
+    /**
+     * Releases the store's references to a slice that was removed together with the one it
+     * replaced. Their direct memory is freed once no lookup is reading them anymore.
+     */
+    private void release(Slice slice) {
+      if (slice != null) {
+        heapBytes.addAndGet(-RAM_BYTES_PER_SLICE);
+        Slice older = slice.older;
+        slice.older = null;
+        if (older != null) {
+          older.decRef();
+        }
+        slice.decRef();
+      }
+    }
+  }
+}
@@ -0,0 +1,1031 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A compressed {@link DocSet} in the spirit of Roaring bitmaps, good for medium sized or clustered
+ * sets that would waste most of a {@link BitDocSet}. The doc id space is split into blocks of
+ * 65536 docs, and the docs of every non-empty block are held by the smallest of three containers:
+ * a sorted array of the low 16 bits of the docs, a 65536 bit bitmap, or a list of runs of
+ * consecutive docs.
+ *
+ * <p>Instances are immutable; containers are shared between the results of set operations.
+ *
+ * @see DocSetUtil#compact(FixedBitSet, int)
+ */
+public class RoaringDocSet extends DocSet {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(RoaringDocSet.class);
+
+  static final int BLOCK_SHIFT = 16;
+  static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  static final int BLOCK_WORDS = BLOCK_SIZE >>> 6;
+
+  /** Array containers bigger than this would take more memory than a bitmap container */
+  static final int MAX_ARRAY_SIZE = BLOCK_WORDS * 4;
+
+  private final int[] keys; // the block of every container, increasing
+  private final Container[] containers;
+  private final int size;
+  private final long ramBytesUsed;
+
+  RoaringDocSet(int[] keys, Container[] containers, int size) {
+    assert keys.length == containers.length;
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+    long ram =
+        BASE_RAM_BYTES_USED
+            + RamUsageEstimator.sizeOf(keys)
+            + RamUsageEstimator.shallowSizeOf(containers);
+    for (Container container : containers) {
+      ram += container.ramBytesUsed();
+    }
+    this.ramBytesUsed = ram;
+  }
+
+  /** Builds a set with the same docs as the given bits. */
+  public static RoaringDocSet fromBits(FixedBitSet bits) {
+    final long[] words = bits.getBits();
+    final int numWords = FixedBitSet.bits2words(bits.length());
+    final long[] scratch = new long[BLOCK_WORDS];
+    Builder builder = new Builder((numWords + BLOCK_WORDS - 1) / BLOCK_WORDS);
+    for (int key = 0; key << 10 < numWords; key++) {
+      copyBlock(words, numWords, key, scratch);
+      builder.add(key, fromWords(scratch));
+    }
+    return builder.build();
+  }
+
+  /** Builds a set from the first <code>len</code> values of a sorted array of unique docs. */
+  public static RoaringDocSet fromSortedDocs(int[] docs, int len) {
+    final long[] scratch = new long[BLOCK_WORDS];
+    Builder builder = new Builder(len == 0 ? 0 : (docs[len - 1] >>> BLOCK_SHIFT) + 1);
+    int i = 0;
+    while (i < len) {
+      final int key = docs[i] >>> BLOCK_SHIFT;
+      Arrays.fill(scratch, 0L);
+      for (; i < len && docs[i] >>> BLOCK_SHIFT == key; i++) {
+        final int low = docs[i] & BLOCK_MASK;
+        scratch[low >>> 6] |= 1L << low;
+      }
+      builder.add(key, fromWords(scratch));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the number of bytes a {@link RoaringDocSet} holding the given bits would use, without
+   * building it.
+   */
+  public static long estimateRamBytesUsed(FixedBitSet bits) {
+    final long[] words = bits.getBits();
+    final int numWords = FixedBitSet.bits2words(bits.length());
+    long ram = BASE_RAM_BYTES_USED;
+    int numContainers = 0;
+    for (int from = 0; from < numWords; from += BLOCK_WORDS) {
+      final int to = Math.min(numWords, from + BLOCK_WORDS);
+      int cardinality = 0;
+      int runs = 0;
+      long carry = 0;
+      for (int i = from; i < to; i++) {
+        final long word = words[i];
+        cardinality += Long.bitCount(word);
+        runs += Long.bitCount(word & ~((word << 1) | carry));
+        carry = word >>> 63;
+      }
+      if (cardinality == 0) continue;
+      numContainers++;
+      ram += containerBytes(cardinality, runs);
+    }
+    return ram
+        + RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Integer.BYTES * numContainers)
+        + RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * numContainers);
+  }
+
+  /** Whether a block should be stored as runs rather than as an array or a bitmap */
+  private static boolean useRuns(int cardinality, int runs) {
+    // a run takes 4 bytes, an array value 2 bytes and a bitmap 8192 bytes
+    return 2 * runs < Math.min(cardinality, MAX_ARRAY_SIZE);
+  }
+
+  private static long containerBytes(int cardinality, int runs) {
+    if (useRuns(cardinality, runs)) {
+      return RunContainer.BASE_RAM_BYTES_USED
+          + 2
+              * RamUsageEstimator.alignObjectSize(
+                  RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 2L * runs);
+    } else if (cardinality <= MAX_ARRAY_SIZE) {
+      return ArrayContainer.BASE_RAM_BYTES_USED
+          + RamUsageEstimator.alignObjectSize(
+              RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 2L * cardinality);
+    } else {
+      return BitmapContainer.BASE_RAM_BYTES_USED
+          + RamUsageEstimator.alignObjectSize(
+              RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 8L * BLOCK_WORDS);
+    }
+  }
+
+  /**
+   * Copies the words of a block into <code>scratch</code>, padding with zeros past <code>numWords
+   * </code>.
+   */
+  private static void copyBlock(long[] words, int numWords, int key, long[] scratch) {
+    final int from = key << 10;
+    final int n = Math.max(0, Math.min(BLOCK_WORDS, Math.min(numWords, words.length) - from));
+    if (n > 0) {
+      System.arraycopy(words, from, scratch, 0, n);
+    }
+    Arrays.fill(scratch, Math.max(n, 0), BLOCK_WORDS, 0L);
+  }
+
+  /** Returns the smallest container for the bits of a block, or null if there are none. */
+  static Container fromWords(long[] words) {
+    int cardinality = 0;
+    int runs = 0;
+    long carry = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      final long word = words[i];
+      cardinality += Long.bitCount(word);
+      // count the bits that start a run: set, with the preceding bit clear
+      runs += Long.bitCount(word & ~((word << 1) | carry));
+      carry = word >>> 63;
+    }
+    if (cardinality == 0) {
+      return null;
+    }
+    if (useRuns(cardinality, runs)) {
+      final char[] starts = new char[runs];
+      final char[] ends = new char[runs];
+      int run = 0;
+      int start = nextSetBit(words, 0);
+      while (start >= 0) {
+        final int end = nextClearBit(words, start);
+        starts[run] = (char) start;
+        ends[run] = (char) (end - 1);
+        run++;
+        start = end < BLOCK_SIZE ? nextSetBit(words, end) : -1;
+      }
+      assert run == runs;
+      return new RunContainer(starts, ends, cardinality);
+    } else if (cardinality <= MAX_ARRAY_SIZE) {
+      final char[] values = new char[cardinality];
+      int n = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(values);
+    } else {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+  }
+
+  private static int nextSetBit(long[] words, int index) {
+    int i = index >>> 6;
+    long word = words[i] & (-1L << index);
+    while (word == 0) {
+      if (++i == BLOCK_WORDS) return -1;
+      word = words[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  private static int nextClearBit(long[] words, int index) {
+    int i = index >>> 6;
+    long word = ~words[i] & (-1L << index);
+    while (word == 0) {
+      if (++i == BLOCK_WORDS) return BLOCK_SIZE;
+      word = ~words[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  /** Sets the bits in <code>[from, to)</code>, ignoring words past the end of the array. */
+  private static void setRange(long[] words, int wordOffset, int from, int to) {
+    final int startWord = wordOffset + (from >>> 6);
+    final int endWord = wordOffset + ((to - 1) >>> 6);
+    if (startWord >= words.length) return;
+    final long startMask = -1L << from;
+    final long endMask = -1L >>> -to;
+    if (startWord == endWord) {
+      words[startWord] |= startMask & endMask;
+      return;
+    }
+    words[startWord] |= startMask;
+    for (int i = startWord + 1, limit = Math.min(endWord, words.length); i < limit; i++) {
+      words[i] = -1L;
+    }
+    if (endWord < words.length) {
+      words[endWord] |= endMask;
+    }
+  }
+
+  /** The docs of a single block, as values in <code>[0, 65536)</code> */
+  abstract static class Container implements Accountable {
+    abstract int cardinality();
+
+    abstract boolean contains(int value);
+
+    abstract int last();
+
+    /**
+     * ORs the values into <code>words</code>, with value 0 mapping to the first bit of <code>
+     * words[wordOffset]</code>. Values past the end of the array are ignored.
+     */
+    abstract void orInto(long[] words, int wordOffset);
+
+    /** Returns the values as bits in a new array of {@link #BLOCK_WORDS} words */
+    long[] toWords(long[] scratch) {
+      Arrays.fill(scratch, 0L);
+      orInto(scratch, 0);
+      return scratch;
+    }
+  }
+
+  static final class ArrayContainer extends Container {
+    static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(ArrayContainer.class);
+
+    final char[] values; // sorted
+
+    ArrayContainer(char[] values) {
+      this.values = values;
+    }
+
+    @Override
+    int cardinality() {
+      return values.length;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return Arrays.binarySearch(values, (char) value) >= 0;
+    }
+
+    @Override
+    int last() {
+      return values[values.length - 1];
+    }
+
+    @Override
+    void orInto(long[] words, int wordOffset) {
+      for (char value : values) {
+        final int w = wordOffset + (value >>> 6);
+        if (w >= words.length) break;
+        words[w] |= 1L << value;
+      }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(values);
+    }
+  }
+
+  static final class BitmapContainer extends Container {
+    static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(BitmapContainer.class);
+
+    final long[] words;
+    final int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+      assert words.length == BLOCK_WORDS;
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int last() {
+      int i = BLOCK_WORDS - 1;
+      while (words[i] == 0) i--;
+      return (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+    }
+
+    /** Returns the smallest value &gt;= <code>value</code>, or -1 */
+    int nextValue(int value) {
+      return value >= BLOCK_SIZE ? -1 : nextSetBit(words, value);
+    }
+
+    @Override
+    void orInto(long[] target, int wordOffset) {
+      final int n = Math.min(BLOCK_WORDS, target.length - wordOffset);
+      for (int i = 0; i < n; i++) {
+        target[wordOffset + i] |= words[i];
+      }
+    }
+
+    @Override
+    long[] toWords(long[] scratch) {
+      return words;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(words);
+    }
+  }
+
+  static final class RunContainer extends Container {
+    static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(RunContainer.class);
+
+    final char[] starts; // increasing
+    final char[] ends; // inclusive
+    final int cardinality;
+
+    RunContainer(char[] starts, char[] ends, int cardinality) {
+      this.starts = starts;
+      this.ends = ends;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(int value) {
+      final int idx = Arrays.binarySearch(starts, (char) value);
+      if (idx >= 0) return true;
+      final int run = -idx - 2; // the last run starting before value
+      return run >= 0 && value <= ends[run];
+    }
+
+    @Override
+    int last() {
+      return ends[ends.length - 1];
+    }
+
+    @Override
+    void orInto(long[] words, int wordOffset) {
+      for (int i = 0; i < starts.length; i++) {
+        setRange(words, wordOffset, starts[i], ends[i] + 1);
+      }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED
+          + RamUsageEstimator.sizeOf(starts)
+          + RamUsageEstimator.sizeOf(ends);
+    }
+  }
+
+  /** Accumulates containers in increasing key order */
+  private static final class Builder {
+    private int[] keys;
+    private Container[] containers;
+    private int n;
+    private int size;
+
+    Builder(int capacity) {
+      keys = new int[Math.max(capacity, 1)];
+      containers = new Container[keys.length];
+    }
+
+    void add(int key, Container container) {
+      if (container == null) return;
+      assert n == 0 || keys[n - 1] < key;
+      if (n == keys.length) {
+        keys = Arrays.copyOf(keys, n << 1);
+        containers = Arrays.copyOf(containers, n << 1);
+      }
+      keys[n] = key;
+      containers[n] = container;
+      n++;
+      size += container.cardinality();
+    }
+
+    RoaringDocSet build() {
+      return new RoaringDocSet(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n), size);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    final int idx = Arrays.binarySearch(keys, doc >>> BLOCK_SHIFT);
+    return idx >= 0 && containers[idx].contains(doc & BLOCK_MASK);
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // the result is at most as big as the small set
+      return other.intersection(this);
+    }
+    final long[] scratch = new long[BLOCK_WORDS];
+    final long[] otherScratch = new long[BLOCK_WORDS];
+    Builder builder = new Builder(keys.length);
+    if (other instanceof RoaringDocSet otherSet) {
+      for (int i = 0, j = 0; i < keys.length && j < otherSet.keys.length; ) {
+        if (keys[i] < otherSet.keys[j]) {
+          i++;
+        } else if (keys[i] > otherSet.keys[j]) {
+          j++;
+        } else {
+          builder.add(
+              keys[i], and(containers[i], otherSet.containers[j], scratch, otherScratch));
+          i++;
+          j++;
+        }
+      }
+    } else if (other instanceof BitDocSet otherSet) {
+      final long[] bits = otherSet.getBits().getBits();
+      final int numWords = FixedBitSet.bits2words(otherSet.getBits().length());
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] << 10 >= numWords) break;
+        copyBlock(bits, numWords, keys[i], otherScratch);
+        builder.add(keys[i], and(containers[i], otherScratch, scratch));
+      }
+    } else {
+      return intersection(fromDocSet(other));
+    }
+    return builder.build();
+  }
+
+  /** The intersection of a container with the bits of a block, or null if empty */
+  private static Container and(Container container, long[] blockWords, long[] scratch) {
+    if (container instanceof ArrayContainer arrayContainer) {
+      final char[] values = arrayContainer.values;
+      final char[] result = new char[values.length];
+      int n = 0;
+      for (char value : values) {
+        if ((blockWords[value >>> 6] & (1L << value)) != 0) result[n++] = value;
+      }
+      if (n == 0) return null;
+      return new ArrayContainer(n == result.length ? result : Arrays.copyOf(result, n));
+    }
+    final long[] words = container.toWords(scratch);
+    final long[] result = new long[BLOCK_WORDS];
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      result[i] = words[i] & blockWords[i];
+    }
+    return fromWords(result);
+  }
+
+  private static Container and(Container a, Container b, long[] scratch, long[] otherScratch) {
+    if (b instanceof ArrayContainer && !(a instanceof ArrayContainer)) {
+      Container tmp = a;
+      a = b;
+      b = tmp;
+    }
+    if (a instanceof ArrayContainer arrayContainer) {
+      final char[] values = arrayContainer.values;
+      final char[] result = new char[values.length];
+      int n = 0;
+      if (b instanceof ArrayContainer other) {
+        final char[] otherValues = other.values;
+        for (int i = 0, j = 0; i < values.length && j < otherValues.length; ) {
+          if (values[i] < otherValues[j]) {
+            i++;
+          } else if (values[i] > otherValues[j]) {
+            j++;
+          } else {
+            result[n++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (char value : values) {
+          if (b.contains(value)) result[n++] = value;
+        }
+      }
+      if (n == 0) return null;
+      return new ArrayContainer(n == result.length ? result : Arrays.copyOf(result, n));
+    }
+    return and(a, b.toWords(otherScratch), scratch);
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersectionSize(this);
+    }
+    final long[] scratch = new long[BLOCK_WORDS];
+    int count = 0;
+    if (other instanceof RoaringDocSet otherSet) {
+      final long[] otherScratch = new long[BLOCK_WORDS];
+      for (int i = 0, j = 0; i < keys.length && j < otherSet.keys.length; ) {
+        if (keys[i] < otherSet.keys[j]) {
+          i++;
+        } else if (keys[i] > otherSet.keys[j]) {
+          j++;
+        } else {
+          count += andCardinality(containers[i], otherSet.containers[j], scratch, otherScratch);
+          i++;
+          j++;
+        }
+      }
+    } else if (other instanceof BitDocSet otherSet) {
+      final long[] bits = otherSet.getBits().getBits();
+      for (int i = 0; i < keys.length; i++) {
+        count += andCardinality(containers[i], keys[i] << 10, bits, scratch);
+      }
+    } else {
+      DocIterator iter = iterator();
+      while (iter.hasNext()) {
+        if (other.exists(iter.nextDoc())) count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      return other.intersects(this);
+    }
+    final long[] scratch = new long[BLOCK_WORDS];
+    if (other instanceof RoaringDocSet otherSet) {
+      final long[] otherScratch = new long[BLOCK_WORDS];
+      for (int i = 0, j = 0; i < keys.length && j < otherSet.keys.length; ) {
+        if (keys[i] < otherSet.keys[j]) {
+          i++;
+        } else if (keys[i] > otherSet.keys[j]) {
+          j++;
+        } else {
+          if (andCardinality(containers[i], otherSet.containers[j], scratch, otherScratch) > 0) {
+            return true;
+          }
+          i++;
+          j++;
+        }
+      }
+    } else if (other instanceof BitDocSet otherSet) {
+      final long[] bits = otherSet.getBits().getBits();
+      for (int i = 0; i < keys.length; i++) {
+        if (andCardinality(containers[i], keys[i] << 10, bits, scratch) > 0) return true;
+      }
+    } else {
+      DocIterator iter = iterator();
+      while (iter.hasNext()) {
+        if (other.exists(iter.nextDoc())) return true;
+      }
+    }
+    return false;
+  }
+
+  /** The number of values of the container whose bits are set at <code>wordOffset</code> */
+  private static int andCardinality(
+      Container container, int wordOffset, long[] bits, long[] scratch) {
+    if (wordOffset >= bits.length) return 0;
+    int count = 0;
+    if (container instanceof ArrayContainer arrayContainer) {
+      for (char value : arrayContainer.values) {
+        final int w = wordOffset + (value >>> 6);
+        if (w >= bits.length) break;
+        if ((bits[w] & (1L << value)) != 0) count++;
+      }
+      return count;
+    }
+    final long[] words = container.toWords(scratch);
+    final int n = Math.min(BLOCK_WORDS, bits.length - wordOffset);
+    for (int i = 0; i < n; i++) {
+      count += Long.bitCount(words[i] & bits[wordOffset + i]);
+    }
+    return count;
+  }
+
+  private static int andCardinality(
+      Container a, Container b, long[] scratch, long[] otherScratch) {
+    if (b instanceof ArrayContainer && !(a instanceof ArrayContainer)) {
+      Container tmp = a;
+      a = b;
+      b = tmp;
+    }
+    int count = 0;
+    if (a instanceof ArrayContainer arrayContainer) {
+      final char[] values = arrayContainer.values;
+      if (b instanceof ArrayContainer other) {
+        final char[] otherValues = other.values;
+        for (int i = 0, j = 0; i < values.length && j < otherValues.length; ) {
+          if (values[i] < otherValues[j]) {
+            i++;
+          } else if (values[i] > otherValues[j]) {
+            j++;
+          } else {
+            count++;
+            i++;
+            j++;
+          }
+        }
+      } else {
+        for (char value : values) {
+          if (b.contains(value)) count++;
+        }
+      }
+      return count;
+    }
+    return andCardinality(a, 0, b.toWords(otherScratch), scratch);
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (other.size() == 0) return this;
+    final long[] scratch = new long[BLOCK_WORDS];
+    final long[] otherScratch = new long[BLOCK_WORDS];
+    Builder builder = new Builder(keys.length);
+    if (other instanceof RoaringDocSet otherSet) {
+      int j = 0;
+      for (int i = 0; i < keys.length; i++) {
+        while (j < otherSet.keys.length && otherSet.keys[j] < keys[i]) j++;
+        if (j < otherSet.keys.length && otherSet.keys[j] == keys[i]) {
+          builder.add(
+              keys[i],
+              andNot(containers[i], otherSet.containers[j].toWords(otherScratch), scratch));
+        } else {
+          builder.add(keys[i], containers[i]);
+        }
+      }
+    } else if (other instanceof BitDocSet otherSet) {
+      final long[] bits = otherSet.getBits().getBits();
+      final int numWords = FixedBitSet.bits2words(otherSet.getBits().length());
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] << 10 >= numWords) {
+          builder.add(keys[i], containers[i]);
+        } else {
+          copyBlock(bits, numWords, keys[i], otherScratch);
+          builder.add(keys[i], andNot(containers[i], otherScratch, scratch));
+        }
+      }
+    } else {
+      // clear the other docs from the bits of every block
+      DocIterator iter = other.iterator();
+      int doc = iter.hasNext() ? iter.nextDoc() : DocIdSetIterator.NO_MORE_DOCS;
+      for (int i = 0; i < keys.length; i++) {
+        final int key = keys[i];
+        while (doc != DocIdSetIterator.NO_MORE_DOCS && doc >>> BLOCK_SHIFT < key) {
+          doc = iter.hasNext() ? iter.nextDoc() : DocIdSetIterator.NO_MORE_DOCS;
+        }
+        if (doc == DocIdSetIterator.NO_MORE_DOCS || doc >>> BLOCK_SHIFT > key) {
+          builder.add(key, containers[i]);
+          continue;
+        }
+        final long[] words = new long[BLOCK_WORDS];
+        containers[i].orInto(words, 0);
+        while (doc != DocIdSetIterator.NO_MORE_DOCS && doc >>> BLOCK_SHIFT == key) {
+          final int low = doc & BLOCK_MASK;
+          words[low >>> 6] &= ~(1L << low);
+          doc = iter.hasNext() ? iter.nextDoc() : DocIdSetIterator.NO_MORE_DOCS;
+        }
+        builder.add(key, fromWords(words));
+      }
+    }
+    return builder.build();
+  }
+
+  /** The values of a container whose bits are not set in the block, or null if empty */
+  private static Container andNot(Container container, long[] blockWords, long[] scratch) {
+    if (container instanceof ArrayContainer arrayContainer) {
+      final char[] values = arrayContainer.values;
+      final char[] result = new char[values.length];
+      int n = 0;
+      for (char value : values) {
+        if ((blockWords[value >>> 6] & (1L << value)) == 0) result[n++] = value;
+      }
+      if (n == result.length) return container;
+      return n == 0 ? null : new ArrayContainer(Arrays.copyOf(result, n));
+    }
+    final long[] words = container.toWords(scratch);
+    final long[] result = new long[BLOCK_WORDS];
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      result[i] = words[i] & ~blockWords[i];
+    }
+    return fromWords(result);
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (other instanceof BitDocSet otherSet) {
+      FixedBitSet newbits = FixedBitSet.ensureCapacity(otherSet.getBits().clone(), getLength());
+      addAllTo(newbits);
+      return new BitDocSet(newbits);
+    }
+    final RoaringDocSet otherSet =
+        other instanceof RoaringDocSet roaringDocSet ? roaringDocSet : fromDocSet(other);
+    final long[] scratch = new long[BLOCK_WORDS];
+    Builder builder = new Builder(keys.length + otherSet.keys.length);
+    int i = 0;
+    int j = 0;
+    while (i < keys.length || j < otherSet.keys.length) {
+      if (j == otherSet.keys.length || (i < keys.length && keys[i] < otherSet.keys[j])) {
+        builder.add(keys[i], containers[i]);
+        i++;
+      } else if (i == keys.length || keys[i] > otherSet.keys[j]) {
+        builder.add(otherSet.keys[j], otherSet.containers[j]);
+        j++;
+      } else {
+        final long[] words = new long[BLOCK_WORDS];
+        containers[i].orInto(words, 0);
+        otherSet.containers[j].orInto(words, 0);
+        builder.add(keys[i], fromWords(words));
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  private static RoaringDocSet fromDocSet(DocSet docs) {
+    if (docs instanceof RoaringDocSet roaringDocSet) return roaringDocSet;
+    final int[] values = new int[docs.size()];
+    DocIterator iter = docs.iterator();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = iter.nextDoc();
+    }
+    return fromSortedDocs(values, values.length);
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    final long[] words = target.getBits();
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].orInto(words, keys[i] << 10);
+    }
+  }
+
+  /** the {@link Bits#length()} or maxdoc (1 greater than largest possible doc number) */
+  private int getLength() {
+    final int last = keys.length - 1;
+    return last < 0 ? 0 : (keys[last] << BLOCK_SHIFT) + containers[last].last() + 1;
+  }
+
+  @Override
+  public Bits getBits() {
+    final int length = getLength();
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return length;
+      }
+    };
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    FixedBitSet bitSet = new FixedBitSet(getLength());
+    addAllTo(bitSet);
+    return bitSet;
+  }
+
+  /** Walks the docs in order, keeping its position within the current container */
+  private final class Cursor {
+    private int ci; // the current container
+    private int pos; // index of the current value (array container) or run (run container)
+    private int value = -1; // the current value within the container
+
+    /** Moves to the first doc &gt;= target and returns it, or NO_MORE_DOCS */
+    int advance(int target) {
+      if (target == DocIdSetIterator.NO_MORE_DOCS) {
+        ci = keys.length;
+        return DocIdSetIterator.NO_MORE_DOCS;
+      }
+      final int key = target >>> BLOCK_SHIFT;
+      if (ci < keys.length && keys[ci] < key) {
+        final int idx = Arrays.binarySearch(keys, ci, keys.length, key);
+        ci = idx >= 0 ? idx : -idx - 1;
+      }
+      int low = ci < keys.length && keys[ci] == key ? target & BLOCK_MASK : 0;
+      for (; ci < keys.length; ci++, low = 0) {
+        if (seek(containers[ci], low)) {
+          return (keys[ci] << BLOCK_SHIFT) | value;
+        }
+      }
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    /** Moves to the doc after the current one and returns it, or NO_MORE_DOCS */
+    int next() {
+      if (ci >= keys.length) return DocIdSetIterator.NO_MORE_DOCS;
+      final Container container = containers[ci];
+      final boolean found;
+      if (container instanceof ArrayContainer arrayContainer) {
+        found = ++pos < arrayContainer.values.length;
+        if (found) value = arrayContainer.values[pos];
+      } else if (container instanceof RunContainer runContainer) {
+        if (value < runContainer.ends[pos]) {
+          value++;
+          found = true;
+        } else if (++pos < runContainer.starts.length) {
+          value = runContainer.starts[pos];
+          found = true;
+        } else {
+          found = false;
+        }
+      } else {
+        found = seek(container, value + 1);
+      }
+      if (found) {
+        return (keys[ci] << BLOCK_SHIFT) | value;
+      }
+      // every container has at least one value
+      if (++ci < keys.length && seek(containers[ci], 0)) {
+        return (keys[ci] << BLOCK_SHIFT) | value;
+      }
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    private boolean seek(Container container, int low) {
+      if (container instanceof ArrayContainer arrayContainer) {
+        final char[] values = arrayContainer.values;
+        final int idx = Arrays.binarySearch(values, (char) low);
+        pos = idx >= 0 ? idx : -idx - 1;
+        if (pos >= values.length) return false;
+        value = values[pos];
+        return true;
+      } else if (container instanceof RunContainer runContainer) {
+        final int idx = Arrays.binarySearch(runContainer.starts, (char) low);
+        if (idx >= 0) {
+          pos = idx;
+          value = low;
+          return true;
+        }
+        final int run = -idx - 1;
+        if (run > 0 && low <= runContainer.ends[run - 1]) {
+          pos = run - 1;
+          value = low;
+          return true;
+        }
+        if (run >= runContainer.starts.length) return false;
+        pos = run;
+        value = runContainer.starts[run];
+        return true;
+      } else {
+        final int v = ((BitmapContainer) container).nextValue(low);
+        if (v < 0) return false;
+        value = v;
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public DocIterator iterator() {
+    final Cursor cursor = new Cursor();
+    return new DocIterator() {
+      int next = cursor.advance(0);
+
+      @Override
+      public boolean hasNext() {
+        return next != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      /** The remove operation is not supported by this Iterator. */
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException(
+            "The remove  operation is not supported by this Iterator.");
+      }
+
+      @Override
+      public int nextDoc() {
+        final int doc = next;
+        next = cursor.next();
+        return doc;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    if (size == 0 || context.reader().maxDoc() < 1) {
+      return null;
+    }
+    final int base = context.isTopLevel ? 0 : context.docBase;
+    final int max =
+        context.isTopLevel ? DocIdSetIterator.NO_MORE_DOCS : base + context.reader().maxDoc();
+    final Cursor cursor = new Cursor();
+
+    return new DocIdSetIterator() {
+      int adjustedDoc = -1;
+
+      @Override
+      public int docID() {
+        return adjustedDoc;
+      }
+
+      @Override
+      public int nextDoc() {
+        return adjust(adjustedDoc == -1 ? cursor.advance(base) : cursor.next());
+      }
+
+      @Override
+      public int advance(int target) {
+        if (target == NO_MORE_DOCS) return adjustedDoc = NO_MORE_DOCS;
+        return adjust(cursor.advance(base + target));
+      }
+
+      private int adjust(int doc) {
+        return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public DocSetQuery makeQuery() {
+    return new DocSetQuery(this);
+  }
+
+  @Override
+  public RoaringDocSet clone() {
+    // immutable, but a distinct instance is expected
+    return new RoaringDocSet(keys, containers, size);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public String toString() {
+    return "RoaringDocSet{"
+        + "size="
+        + size()
+        + ",containers="
+        + keys.length
+        + ",ramUsed="
+        + RamUsageEstimator.humanReadableUnits(ramBytesUsed())
+        + '}';
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The key of the <code>segmentFilterCache</code>: a filter query together with the core cache key
+ * of the segment it was executed on. The cached values are segment-relative {@link DocSet}s.
+ *
+ * @see SolrIndexSearcher#getDocSet(Query)
+ * @lucene.internal
+ */
+public final class SegmentFilterKey implements Accountable {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(SegmentFilterKey.class);
+
+  private final Query query;
+  private final IndexReader.CacheKey coreKey;
+  private final int hash;
+
+  public SegmentFilterKey(Query query, IndexReader.CacheKey coreKey) {
+    this.query = query;
+    this.coreKey = coreKey;
+    this.hash = 31 * query.hashCode() + coreKey.hashCode();
+  }
+
+  public Query getQuery() {
+    return query;
+  }
+
+  public IndexReader.CacheKey getCoreKey() {
+    return coreKey;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof SegmentFilterKey)) return false;
+    SegmentFilterKey other = (SegmentFilterKey) o;
+    return hash == other.hash && coreKey == other.coreKey && query.equals(other.query);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED
+        + RamUsageEstimator.sizeOfObject(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED);
+  }
+
+  @Override
+  public String toString() {
+    return query + "@" + coreKey;
+  }
+}
@@ -166,6 +166,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
   private final boolean cachingEnabled;
   private final SolrCache<Query, DocSet> filterCache;
+  private final SolrCache<SegmentFilterKey, DocSet> segmentFilterCache;
   private final SolrCache<QueryResultKey, DocList> queryResultCache;
   private final SolrCache<String, UnInvertedField> fieldValueCache;
   private final LongAdder fullSortCount = new LongAdder();
@@ -262,8 +263,9 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       Query query,
       Collector collector,
       QueryCommand cmd,
-      DelegatingCollector postFilter)
+      ProcessedFilter pf)
       throws IOException {
+    final DelegatingCollector postFilter = pf.postFilter;
 
     EarlyTerminatingSortingCollector earlyTerminatingSortingCollector = null;
     if (cmd.getSegmentTerminateEarly()) {
@@ -313,7 +315,12 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
     try {
       try {
-        super.search(query, collector);
+        if (collector == postFilter && MultiThreadedSearcher.allowMTCollapse(pf, cmd, this)) {
+          ((CollapsingQParserPlugin.CollapsingPostFilter) pf.postFilterQuery)
+              .searchSlices(this, query, postFilter);
+        } else {
+          super.search(query, collector);
+        }
       } finally {
         // The complete() method can use the collectors, so this needs to be surrounded by the same
         // catch logic that limit collecting
@@ -429,6 +436,12 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
               ? null
               : solrConfig.fieldValueCacheConfig.newInstance();
       if (fieldValueCache != null) clist.add(fieldValueCache);
+      // warmed before the filterCache, whose regeneration can then reuse unchanged segments
+      segmentFilterCache =
+          solrConfig.segmentFilterCacheConfig == null
+              ? null
+              : solrConfig.segmentFilterCacheConfig.newInstance();
+      if (segmentFilterCache != null) clist.add(segmentFilterCache);
       filterCache =
           solrConfig.filterCacheConfig == null ? null : solrConfig.filterCacheConfig.newInstance();
       if (filterCache != null) clist.add(filterCache);
@@ -456,6 +469,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       cacheList = clist.toArray(new SolrCache[0]);
     } else {
       this.filterCache = null;
+      this.segmentFilterCache = null;
       this.queryResultCache = null;
       this.fieldValueCache = null;
       this.cacheMap = NO_GENERIC_CACHES;
@@ -715,6 +729,28 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
           });
     }
 
+    if (solrConfig.segmentFilterCacheConfig != null
+        && solrConfig.segmentFilterCacheConfig.getRegenerator() == null) {
+      solrConfig.segmentFilterCacheConfig.setRegenerator(
+          new CacheRegenerator() {
+            @Override
+            public <K, V> boolean regenerateItem(
+                SolrIndexSearcher newSearcher,
+                SolrCache<K, V> newCache,
+                SolrCache<K, V> oldCache,
+                K oldKey,
+                V oldVal)
+                throws IOException {
+              // results of segments that are still part of the index carry over as they are;
+              // whether the filter may use them is checked again on lookup
+              if (newSearcher.hasSegmentCore(((SegmentFilterKey) oldKey).getCoreKey())) {
+                newCache.put(oldKey, oldVal);
+              }
+              return true;
+            }
+          });
+    }
+
     if (solrConfig.queryResultCacheConfig != null
         && solrConfig.queryResultCacheConfig.getRegenerator() == null) {
       final int queryResultWindowSize = solrConfig.queryResultWindowSize;
@@ -1033,17 +1069,100 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
       // Not found in the cache so compute and put in the cache
       if (answer == null) {
-        answer = getDocSetNC(query, null);
+        answer = computeFilterDocSet(query);
         filterCache.put(query, answer);
       }
     } else {
-      answer = filterCache.computeIfAbsent(query, q -> getDocSetNC(q, null));
+      answer = filterCache.computeIfAbsent(query, this::computeFilterDocSet);
     }
 
     assert !(answer instanceof MutableBitDocSet) : "should not be mutable";
     return answer;
   }
 
+  /**
+   * Computes the DocSet of a query that missed the filterCache. If a <code>segmentFilterCache
+   * </code> is configured, the query is executed segment by segment and the results for segments
+   * on which it is cacheable are cached with the segment, so that a new searcher only needs to
+   * execute it on new or changed segments. Term queries and {@link DocSetProducer}s keep their
+   * fast paths, which build the whole set directly.
+   */
+  private DocSet computeFilterDocSet(Query query) throws IOException {
+    if (segmentFilterCache == null
+        || query instanceof TermQuery
+        || query instanceof DocSetProducer) {
+      return getDocSetNC(query, null);
+    }
+
+    final Weight weight = createWeight(rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1f);
+    final DocSet[] segmentSets = new DocSet[leafContexts.size()];
+    long upperBound = 0;
+    for (LeafReaderContext leaf : leafContexts) {
+      IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+      DocSet segmentSet;
+      if (cacheHelper != null && weight.isCacheable(leaf)) {
+        segmentSet =
+            segmentFilterCache.computeIfAbsent(
+                new SegmentFilterKey(query, cacheHelper.getKey()),
+                k -> getSegmentDocSet(weight, leaf));
+      } else {
+        segmentSet = getSegmentDocSet(weight, leaf);
+      }
+      segmentSets[leaf.ord] = segmentSet;
+      upperBound += segmentSet.size();
+    }
+
+    // the segment sets may contain docs that were deleted since they were cached
+    DocSetBuilder builder = new DocSetBuilder(maxDoc(), upperBound);
+    for (LeafReaderContext leaf : leafContexts) {
+      Bits liveDocs = leaf.reader().getLiveDocs();
+      for (DocIterator it = segmentSets[leaf.ord].iterator(); it.hasNext(); ) {
+        int doc = it.nextDoc();
+        if (liveDocs == null || liveDocs.get(doc)) {
+          builder.add(leaf.docBase + doc);
+        }
+      }
+    }
+    return DocSetUtil.getDocSet(builder.buildUniqueInOrder(null), this);
+  }
+
+  /** Executes <code>weight</code> on a single segment; the returned ids are segment-relative. */
+  private DocSet getSegmentDocSet(Weight weight, LeafReaderContext leaf) throws IOException {
+    final int segmentMaxDoc = leaf.reader().maxDoc();
+    final FixedBitSet bits = new FixedBitSet(segmentMaxDoc);
+    final int[] count = new int[1];
+    search(
+        Collections.singletonList(leaf),
+        weight,
+        new SimpleCollector() {
+          @Override
+          public void collect(int doc) {
+            bits.set(doc);
+            count[0]++;
+          }
+
+          @Override
+          public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+          }
+        });
+    BitDocSet bitDocSet = new BitDocSet(bits, count[0]);
+    return count[0] < DocSetUtil.smallSetSize(segmentMaxDoc)
+        ? DocSetUtil.toSmallSet(bitDocSet)
+        : bitDocSet;
+  }
+
+  /** Whether a segment with the given core cache key is part of this searcher's index. */
+  boolean hasSegmentCore(IndexReader.CacheKey coreKey) {
+    for (LeafReaderContext leaf : leafContexts) {
+      IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+      if (cacheHelper != null && cacheHelper.getKey() == coreKey) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private static final MatchAllDocsQuery MATCH_ALL_DOCS_QUERY = new MatchAllDocsQuery();
 
   /** Used as a synchronization point to handle the lazy-init of {@link #liveDocs}. */
@@ -1202,6 +1321,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     public DocSet answer;
     public Query filter; // maybe null.  Scoring is irrelevant / unspecified.
     public DelegatingCollector postFilter; // maybe null
+    PostFilter postFilterQuery; // the query postFilter comes from, maybe null
   }
 
   /**
@@ -1342,6 +1462,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         pf.postFilter = postFilters.get(i).getFilterCollector(this);
         if (prev != null) pf.postFilter.setDelegate(prev);
       }
+      pf.postFilterQuery = postFilters.get(0);
     }
 
     return pf;
@@ -1930,7 +2051,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
             };
       }
 
-      buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+      buildAndRunCollectorChain(qr, query, collector, cmd, pf);
 
       totalHits = numHits[0];
       maxScore = totalHits > 0 ? topscore[0] : 0.0f;
@@ -1954,8 +2075,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
           maxScoreCollector = new MaxScoreCollector();
           collector = MultiCollector.wrap(topCollector, maxScoreCollector);
         }
-        scoreModeUsed =
-            buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter).scoreMode();
+        scoreModeUsed = buildAndRunCollectorChain(qr, query, collector, cmd, pf).scoreMode();
 
         totalHits = topCollector.getTotalHits();
         topDocs = topCollector.topDocs(0, len);
@@ -2010,7 +2130,25 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         QueryUtils.combineQueryAndFilter(QueryUtils.makeQueryable(cmd.getQuery()), pf.filter);
 
     // handle zero case...
-    if (lastDocRequested <= 0) {
+    if (lastDocRequested <= 0 && MultiThreadedSearcher.allowMT(pf.postFilter, cmd)) {
+      log.trace("MULTI-THREADED search, using CollectorManager for the DocSet only");
+
+      MultiThreadedSearcher.SearchResult searchResult =
+          new MultiThreadedSearcher(this)
+              .searchCollectorManagers(0, cmd, query, false, needScores, true, qr);
+      set = DocSetUtil.getDocSet(searchResult.getDocSet(), this);
+
+      if (needScores) {
+        maxScore = searchResult.getMaxScore(set.size());
+      } else {
+        maxScore = set.size() > 0 ? Float.NEGATIVE_INFINITY : 0.0f;
+      }
+      docList =
+          new DocSlice(
+              0, 0, new int[0], new float[0], set.size(), maxScore, TotalHits.Relation.EQUAL_TO);
+      // no docs on this page, so cursor doesn't change
+      qr.setNextCursorMark(cmd.getCursorMark());
+    } else if (lastDocRequested <= 0) {
       final float[] topscore = new float[] {Float.NEGATIVE_INFINITY};
 
       final Collector collector;
@@ -2044,7 +2182,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         collector = MultiCollector.wrap(setCollector, topScoreCollector);
       }
 
-      buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+      buildAndRunCollectorChain(qr, query, collector, cmd, pf);
 
       set = DocSetUtil.getDocSet(setCollector, this);
 
@@ -2072,7 +2210,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
         Collector collector = MultiCollector.wrap(collectors);
 
-        buildAndRunCollectorChain(qr, query, collector, cmd, pf.postFilter);
+        buildAndRunCollectorChain(qr, query, collector, cmd, pf);
 
         set = DocSetUtil.getDocSet(setCollector, this);
 
@@ -2094,7 +2232,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         totalHits = topDocsResult.totalHits;
         topDocs = topDocsResult.topDocs;
         maxScore = searchResult.getMaxScore(totalHits);
-        set = new BitDocSet(searchResult.getFixedBitSet());
+        set = DocSetUtil.getDocSet(searchResult.getDocSet(), this);
         // TODO: Think about using ScoreMode from searchResult down below
       }
       final Relation relation =
@@ -82,23 +82,25 @@ public class FacetBucket {
     mcontext.setShardFlag(bucketNumber);
 
     // drive merging off the received bucket?
-    bucket.forEach(
-        (key, val) -> {
-          if ("count".equals(key)) {
-            count += ((Number) val).longValue();
-            return;
-          }
-          if ("val".equals(key)) {
-            // this is taken care of at a higher level...
-            return;
-          }
+    // (indexed, so that merging the buckets of wide facets doesn't allocate a lambda per bucket)
+    for (int i = 0, size = bucket.size(); i < size; i++) {
+      final String key = bucket.getName(i);
+      final Object val = bucket.getVal(i);
+      if ("count".equals(key)) {
+        count += ((Number) val).longValue();
+        continue;
+      }
+      if ("val".equals(key)) {
+        // this is taken care of at a higher level...
+        continue;
+      }
 
-          FacetMerger merger = getMerger(key, val);
+      FacetMerger merger = getMerger(key, val);
 
-          if (merger != null) {
-            merger.merge(val, mcontext);
-          }
-        });
+      if (merger != null) {
+        merger.merge(val, mcontext);
+      }
+    }
   }
 
   public SimpleOrderedMap<Object> getMergedBucket() {
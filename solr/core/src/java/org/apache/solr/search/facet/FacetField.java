@@ -39,6 +39,10 @@ public class FacetField extends FacetRequestSorted {
   // only.
   Boolean perSeg;
 
+  // the number of threads counting segments concurrently for the dv method, negative for one per
+  // processor; 0 or 1 count on the request thread
+  int threads;
+
   {
     // defaults for FacetRequestSorted
     mincount = 1;
@@ -175,6 +179,9 @@ public class FacetField extends FacetRequestSorted {
 
   @Override
   public FacetMerger createFacetMerger(Object prototype) {
+    if (FacetFieldCountsMerger.canMerge(this)) {
+      return new FacetFieldCountsMerger(this);
+    }
     return new FacetFieldMerger(this);
   }
 
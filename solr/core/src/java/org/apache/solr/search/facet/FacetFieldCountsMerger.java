@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search.facet;
+
+import com.carrotsearch.hppc.ObjectLongHashMap;
+import com.carrotsearch.hppc.cursors.ObjectLongCursor;
+import java.util.List;
+import org.apache.lucene.util.IntroSelector;
+import org.apache.solr.common.util.CollectionUtil;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Merges a terms facet whose buckets only have counts: no stats, no sub-facets, no refinement and
+ * a plain <code>count</code> or <code>index</code> sort. The merged counts are kept in a primitive
+ * map rather than in a {@link FacetBucket} per value, and every count is summed over all shards, so
+ * the result does not depend on the order in which the shards respond. Once all shards are merged,
+ * only the best <code>offset+limit</code> values are materialized as buckets to be sorted.
+ */
+class FacetFieldCountsMerger extends FacetFieldMerger {
+  private final ObjectLongHashMap<Object> counts = new ObjectLongHashMap<>();
+  private final boolean byCount;
+  private final int sortMul;
+  // the number of merged values that can make it into the result, or -1 for all of them
+  private final long numToKeep;
+
+  FacetFieldCountsMerger(FacetField freq) {
+    super(freq);
+    this.byCount = "count".equals(freq.sort.sortVariable);
+    this.sortMul = freq.sort.sortDirection.getMultiplier();
+    this.numToKeep = numBucketsToKeep(freq);
+  }
+
+  /** Whether the buckets of <code>freq</code> can be merged by a FacetFieldCountsMerger. */
+  static boolean canMerge(FacetField freq) {
+    return !freq.doRefine()
+        && freq.prelim_sort == null
+        && freq.getFacetStats().isEmpty()
+        && freq.getSubFacets().isEmpty()
+        && ("count".equals(freq.sort.sortVariable) || "index".equals(freq.sort.sortVariable));
+  }
+
+  /**
+   * The number of merged values that can make it into the result, or -1 if all of them can:
+   * without a limit, or if a <code>mincount</code> could filter out the best values in favor of
+   * others.
+   */
+  static long numBucketsToKeep(FacetField freq) {
+    final boolean byCount = "count".equals(freq.sort.sortVariable);
+    if (freq.limit < 0
+        || (freq.mincount > 1
+            && !(byCount && freq.sort.sortDirection == FacetRequest.SortDirection.desc))) {
+      return -1;
+    }
+    return freq.offset + freq.limit;
+  }
+
+  @Override
+  public void mergeBucketList(List<SimpleOrderedMap<?>> bucketList, Context mcontext) {
+    for (SimpleOrderedMap<?> bucketRes : bucketList) {
+      counts.addTo(bucketRes.get("val"), ((Number) bucketRes.get("count")).longValue());
+    }
+  }
+
+  @Override
+  public Object getMergedResult() {
+    // the counts are final now, so only the values that can be returned need to be materialized
+    if (numToKeep >= 0 && counts.size() > numToKeep) {
+      keepBest((int) numToKeep);
+    }
+    buckets = CollectionUtil.newLinkedHashMap(counts.size());
+    for (ObjectLongCursor<Object> cursor : counts) {
+      FacetBucket bucket = newBucket((Comparable<?>) cursor.key, mcontext);
+      bucket.count = cursor.value;
+      buckets.put(cursor.key, bucket);
+    }
+    return super.getMergedResult();
+  }
+
+  private void keepBest(int n) {
+    final Object[] vals = new Object[counts.size()];
+    final long[] valCounts = new long[vals.length];
+    int numVals = 0;
+    for (ObjectLongCursor<Object> cursor : counts) {
+      vals[numVals] = cursor.key;
+      valCounts[numVals++] = cursor.value;
+    }
+
+    new IntroSelector() {
+      Object pivotVal;
+      long pivotCount;
+
+      @Override
+      protected void setPivot(int i) {
+        pivotVal = vals[i];
+        pivotCount = valCounts[i];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return compare(pivotVal, pivotCount, vals[j], valCounts[j]);
+      }
+
+      @Override
+      protected void swap(int i, int j) {
+        Object val = vals[i];
+        vals[i] = vals[j];
+        vals[j] = val;
+        long count = valCounts[i];
+        valCounts[i] = valCounts[j];
+        valCounts[j] = count;
+      }
+    }.select(0, vals.length, n);
+
+    counts.clear();
+    for (int i = 0; i < n; i++) {
+      counts.put(vals[i], valCounts[i]);
+    }
+  }
+
+  // same order as FacetRequestSortedMerger.sortBuckets
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private int compare(Object val1, long count1, Object val2, long count2) {
+    if (!byCount) {
+      return -((Comparable) val1).compareTo(val2) * sortMul;
+    }
+    int c = -Long.compare(count1, count2) * sortMul;
+    return c == 0 ? ((Comparable) val1).compareTo(val2) : c;
+  }
+}
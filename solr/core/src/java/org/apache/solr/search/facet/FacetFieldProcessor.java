@@ -406,7 +406,17 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
     Slot bottom = null;
     Slot scratchSlot = new Slot();
     boolean shardHasMoreBuckets = false; // This shard has more buckets than were returned
-    for (int slotNum = 0; slotNum < numSlots; slotNum++) {
+    // with sparse counts only the counted slots can pass mincount, skip looking at the others
+    final int[] countedSlots =
+        effectiveMincount > 0 && countAcc instanceof SlotAcc.CountSlotMapAcc sparseCountAcc
+            ? sparseCountAcc.getCountedSlots()
+            : null;
+    final int numToVisit = countedSlots == null ? numSlots : countedSlots.length;
+    for (int slotIdx = 0; slotIdx < numToVisit; slotIdx++) {
+      final int slotNum = countedSlots == null ? slotIdx : countedSlots[slotIdx];
+      if (slotNum >= numSlots) {
+        break; // e.g. the allBuckets slot
+      }
 
       // screen out buckets not matching mincount
       if (effectiveMincount > 0) {
@@ -839,6 +849,13 @@ abstract class FacetFieldProcessor extends FacetProcessor<FacetField> {
       }
     }
 
+    @Override
+    void releaseSlots() {
+      for (SlotAcc acc : subAccs) {
+        acc.releaseSlots();
+      }
+    }
+
     @Override
     public void setValues(SimpleOrderedMap<Object> bucket, int slotNum) throws IOException {
       for (SlotAcc acc : subAccs) {
@@ -27,6 +27,7 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.SlotAcc.CountSlotMapAcc;
 import org.apache.solr.search.facet.SlotAcc.SlotContext;
 import org.apache.solr.search.facet.SlotAcc.SweepingCountSlotAcc;
 
@@ -76,17 +77,37 @@ abstract class FacetFieldProcessorByArray extends FacetFieldProcessor {
   /**
    * {@inheritDoc}
    *
-   * <p>This impl first initializes <code>countAcc</code> as a {@link SweepingCountSlotAcc} if null.
+   * <p>This impl first initializes <code>countAcc</code> as a {@link SweepingCountSlotAcc} if null,
+   * or as a {@link CountSlotMapAcc} if only a small fraction of the slots can get a count.
    */
   @Override
   void createCollectAcc(int numDocs, int numSlots) throws IOException {
     if (countAcc == null) {
-      countAcc = new SweepingCountSlotAcc(numSlots, this);
+      if (useSparseCounts(numDocs, numSlots)) {
+        countAcc = new CountSlotMapAcc(fcontext, numSlots);
+      } else {
+        countAcc = new SweepingCountSlotAcc(numSlots, this);
+      }
     }
     super.createCollectAcc(numDocs, numSlots);
     registerSweepingAccIfSupportedByCollectAcc();
   }
 
+  /**
+   * Sparse counts only pay off when there is nothing but counts to collect (stats and sweeping
+   * accs use arrays of all the slots anyway), and when the domain is so small compared to the
+   * number of terms that most slots stay empty. Each value of a multi-valued field is assumed to
+   * hit a different slot.
+   */
+  private boolean useSparseCounts(int numDocs, int numSlots) {
+    if (numSlots < SlotArrayPool.MIN_LENGTH || !freq.getFacetStats().isEmpty()) {
+      return false;
+    }
+    final long maxCounted = (long) numDocs * (sf.multiValued() ? 4 : 1);
+    // at most 1/128th of the slots, half the 1/64th at which IntLongDynamicMap switches to an array
+    return maxCounted < (numSlots >>> 7);
+  }
+
   @Override
   public void process() throws IOException {
     super.process();
@@ -152,17 +173,30 @@ abstract class FacetFieldProcessorByArray extends FacetFieldProcessor {
 
     collectDocs();
 
-    return super.findTopSlots(
-        nTerms,
-        nTerms,
-        slotNum -> { // getBucketValFromSlotNum
-          try {
-            return (Comparable) sf.getType().toObject(sf, lookupOrd(slotNum + startTermIndex));
-          } catch (IOException e) {
-            throw new RuntimeException(e);
-          }
-        },
-        obj -> valueObjToString(obj));
+    try {
+      return super.findTopSlots(
+          nTerms,
+          nTerms,
+          slotNum -> { // getBucketValFromSlotNum
+            try {
+              return (Comparable) sf.getType().toObject(sf, lookupOrd(slotNum + startTermIndex));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          },
+          obj -> valueObjToString(obj));
+    } finally {
+      // the buckets hold their own copies of the counts and stats by now
+      countAcc.releaseSlots();
+      if (collectAcc != null) {
+        collectAcc.releaseSlots();
+      }
+      if (accs != null) {
+        for (SlotAcc acc : accs) {
+          acc.releaseSlots();
+        }
+      }
+    }
   }
 
   private static String valueObjToString(Object obj) {
@@ -17,8 +17,14 @@
 package org.apache.solr.search.facet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiDocValues;
@@ -31,6 +37,7 @@ import org.apache.lucene.util.LongValues;
 import org.apache.lucene.util.UnicodeUtil;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
 import org.apache.solr.search.facet.SlotAcc.CountSlotAcc;
 import org.apache.solr.search.facet.SlotAcc.SweepCountAccStruct;
 import org.apache.solr.search.facet.SlotAcc.SweepingCountSlotAcc;
@@ -42,6 +49,9 @@ import org.apache.solr.uninverting.FieldCacheImpl;
 class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
   static boolean unwrap_singleValued_multiDv = true; // only set to false for test coverage
 
+  // the most counts the tasks of a concurrent count may allocate together (64MB)
+  static final long MAX_CONCURRENT_COUNTS = 1L << 24;
+
   boolean multiValuedField;
   SortedSetDocValues si; // only used for term lookups (for both single and multi-valued)
   OrdinalMap ordinalMap = null; // maps per-segment ords to global ords
@@ -132,6 +142,20 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
 
     final int maxSize = others.size() + 1; // others + base
     final List<LeafReaderContext> leaves = fcontext.searcher.getIndexReader().leaves();
+
+    if (canDoPerSeg && others.isEmpty() && ordinalMap != null) {
+      final int threads = concurrentCountTasks(freq.threads, leaves.size(), si.getValueCount());
+      if (threads > 1) {
+        Executor executor =
+            fcontext.searcher.getCore().getCoreContainer().getIndexSearcherExecutor();
+        if (executor == null) {
+          // no indexSearcherExecutorThreads, like IndexSearcher runs the tasks on the caller
+          executor = Runnable::run;
+        }
+        collectCountsConcurrently(base, leaves, executor, threads);
+        return;
+      }
+    }
     final DocIdSetIterator[] subIterators = new DocIdSetIterator[maxSize];
     final CountSlotAcc[] activeCountAccs = new CountSlotAcc[maxSize];
 
@@ -205,6 +229,163 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
     Arrays.fill(reuse, null); // better GC
   }
 
+  /**
+   * The number of tasks to count the leaves with: the requested threads, at most one per processor
+   * and per leaf, and only as many as can have an array of counts for all terms within {@link
+   * #MAX_CONCURRENT_COUNTS}. Fields with too many terms are counted on the request thread alone.
+   */
+  static int concurrentCountTasks(int requested, int numLeaves, long valueCount) {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final long threads =
+        Math.min(numLeaves, requested < 0 ? processors : Math.min(requested, processors));
+    return (int) Math.min(threads, MAX_CONCURRENT_COUNTS / Math.max(1, valueCount));
+  }
+
+  /**
+   * Counts the leaves with several tasks on the given executor. Every task counts its share of the
+   * leaves per segment, maps the segment counts to global ords in an array of its own, and the
+   * arrays are summed into the count acc at the end. The calling thread runs every task that is
+   * still queued when it is done with its own, and only waits for the ones that are running.
+   */
+  private void collectCountsConcurrently(
+      SweepCountAccStruct base,
+      List<LeafReaderContext> leaves,
+      Executor executor,
+      int numTasks)
+      throws IOException {
+    // spread the leaves so that every task gets about as many docs, biggest leaves first
+    final List<List<LeafReaderContext>> slices = new ArrayList<>(numTasks);
+    final long[] sliceDocs = new long[numTasks];
+    for (int i = 0; i < numTasks; i++) {
+      slices.add(new ArrayList<>());
+    }
+    final List<LeafReaderContext> sortedLeaves = new ArrayList<>(leaves);
+    sortedLeaves.sort(
+        Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+    for (LeafReaderContext leaf : sortedLeaves) {
+      int smallest = 0;
+      for (int i = 1; i < numTasks; i++) {
+        if (sliceDocs[i] < sliceDocs[smallest]) smallest = i;
+      }
+      slices.get(smallest).add(leaf);
+      sliceDocs[smallest] += leaf.reader().maxDoc();
+    }
+
+    final List<FutureTask<int[]>> tasks = new ArrayList<>(numTasks);
+    for (List<LeafReaderContext> slice : slices) {
+      tasks.add(new FutureTask<>(() -> countLeaves(base.docSet, slice)));
+    }
+    // the request thread counts the first slice itself
+    for (int i = 1; i < tasks.size(); i++) {
+      try {
+        executor.execute(tasks.get(i));
+      } catch (RejectedExecutionException e) {
+        tasks.get(i).run();
+      }
+    }
+    // then it also runs the tasks no executor thread has started yet, rather than blocking on them
+    // while they wait in the queue; run() does nothing for a task that was already started
+    for (FutureTask<int[]> task : tasks) {
+      task.run();
+    }
+
+    int[] counts = null;
+    for (FutureTask<int[]> task : tasks) {
+      final int[] taskCounts;
+      try {
+        taskCounts = task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException ioe) throw ioe;
+        if (cause instanceof RuntimeException re) throw re;
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, cause);
+      }
+      if (counts == null) {
+        counts = taskCounts;
+      } else {
+        for (int ord = 0; ord < counts.length; ord++) {
+          counts[ord] += taskCounts[ord];
+        }
+      }
+    }
+
+    // fullRange, so slots are global ords
+    final CountSlotAcc countAcc = base.countAcc;
+    for (int ord = 0; ord < counts.length; ord++) {
+      if (counts[ord] != 0) {
+        countAcc.incrementCount(ord, counts[ord]);
+      }
+    }
+  }
+
+  /** Returns the counts of the docs of the given leaves, by global ord */
+  private int[] countLeaves(DocSet docs, List<LeafReaderContext> leaves) throws IOException {
+    final int[] counts = new int[(int) si.getValueCount()];
+    int[] segCounts = new int[0];
+    for (LeafReaderContext leaf : leaves) {
+      final DocIdSetIterator disi = docs.iterator(leaf);
+      if (disi == null) {
+        continue;
+      }
+
+      SortedDocValues singleDv = null;
+      SortedSetDocValues multiDv = null;
+      final int segMax;
+      if (multiValuedField) {
+        multiDv = leaf.reader().getSortedSetDocValues(sf.getName());
+        if (multiDv == null || multiDv.getValueCount() < 1) {
+          continue;
+        }
+        if (unwrap_singleValued_multiDv) {
+          singleDv = DocValues.unwrapSingleton(multiDv);
+        }
+        segMax = (int) multiDv.getValueCount();
+      } else {
+        singleDv = leaf.reader().getSortedDocValues(sf.getName());
+        if (singleDv == null || singleDv.getValueCount() < 1) {
+          continue;
+        }
+        segMax = singleDv.getValueCount();
+      }
+
+      if (segCounts.length < segMax) {
+        segCounts = new int[segMax];
+      } else {
+        Arrays.fill(segCounts, 0, segMax, 0);
+      }
+
+      int doc;
+      if (singleDv != null) {
+        while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          if (singleDv.advanceExact(doc)) {
+            segCounts[singleDv.ordValue()]++;
+          }
+        }
+      } else {
+        while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          if (multiDv.advanceExact(doc)) {
+            for (; ; ) {
+              int segOrd = (int) multiDv.nextOrd();
+              if (segOrd < 0) break;
+              segCounts[segOrd]++;
+            }
+          }
+        }
+      }
+
+      final LongValues toGlobal = ordinalMap.getGlobalOrds(leaf.ord);
+      for (int segOrd = 0; segOrd < segMax; segOrd++) {
+        if (segCounts[segOrd] != 0) {
+          counts[(int) toGlobal.get(segOrd)] += segCounts[segOrd];
+        }
+      }
+    }
+    return counts;
+  }
+
   @Override
   protected BytesRef lookupOrd(int ord) throws IOException {
     return si.lookupOrd(ord);
@@ -21,9 +21,12 @@ import static org.apache.solr.response.SolrQueryResponse.haveCompleteResults;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.solr.client.solrj.SolrResponse;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CommonParams;
@@ -276,6 +279,9 @@ public class FacetModule extends SearchComponent {
       sreq.purpose |= FacetModule.PURPOSE_GET_JSON_FACETS;
       // The presence of FACET_INFO (_facet_) turns on json faceting
       sreq.params.set(FACET_INFO, "{}");
+      // merge the facets of every shard as soon as it responds, so that they are released before
+      // the slower shards respond rather than when the last one did
+      sreq.addResponseListener(shardRsp -> mergeShardFacets(facetState, shardRsp));
     } else {
       // turn off faceting on other requests
       /* distributedProcess will need to use other requests for refinement
@@ -292,6 +298,9 @@ public class FacetModule extends SearchComponent {
     if (facetState == null) return;
 
     for (ShardResponse shardRsp : sreq.responses) {
+      if (facetState.mergedResponses.remove(shardRsp)) {
+        continue; // merged when it arrived
+      }
       SolrResponse rsp = shardRsp.getSolrResponse();
       NamedList<Object> top = rsp.getResponse();
       if (top == null)
@@ -319,11 +328,39 @@ public class FacetModule extends SearchComponent {
         return;
       }
 
-      // System.err.println("MERGING FACET RESULT FROM SHARD = " + facet);
-      facetState.mcontext.root = facet;
-      facetState.mcontext.newShard(shardRsp.getShard());
-      facetState.merger.merge(facet, facetState.mcontext);
+      mergeFacets(facetState, shardRsp, top, facet, sreq.responses.size());
+    }
+  }
+
+  /** Merges the facets of a shard response as soon as it arrives. */
+  private void mergeShardFacets(FacetComponentState facetState, ShardResponse shardRsp) {
+    NamedList<Object> top = shardRsp.getSolrResponse().getResponse();
+    Object facet = top == null ? null : top.get("facets");
+    if (facet == null) {
+      return; // partial results are checked once all shards responded
+    }
+    mergeFacets(facetState, shardRsp, top, facet, shardRsp.getShardRequest().actualShards.length);
+    facetState.mergedResponses.add(shardRsp);
+  }
+
+  private void mergeFacets(
+      FacetComponentState facetState,
+      ShardResponse shardRsp,
+      NamedList<Object> top,
+      Object facet,
+      int numShards) {
+    if (facetState.merger == null) {
+      facetState.merger = facetState.facetRequest.createFacetMerger(facet);
+      facetState.mcontext = new FacetMerger.Context(numShards);
     }
+    // System.err.println("MERGING FACET RESULT FROM SHARD = " + facet);
+    facetState.mcontext.root = facet;
+    facetState.mcontext.newShard(shardRsp.getShard());
+    facetState.merger.merge(facet, facetState.mcontext);
+    // the merger has what it needs from this shard; release its buckets now rather than holding
+    // every shard's bucket lists until the request finishes
+    facetState.mcontext.root = null;
+    top.remove("facets");
   }
 
   @Override
@@ -365,6 +402,8 @@ public class FacetModule extends SearchComponent {
     //
     FacetMerger merger;
     FacetMerger.Context mcontext;
+    // responses whose facets were merged as they arrived
+    final Set<ShardResponse> mergedResponses = Collections.newSetFromMap(new IdentityHashMap<>());
   }
 
   // base class for facet functions that can be used in a sort
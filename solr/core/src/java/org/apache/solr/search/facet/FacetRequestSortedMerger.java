@@ -73,6 +73,11 @@ abstract class FacetRequestSortedMerger<FacetRequestT extends FacetRequestSorted
   }
 
   public void mergeBucketList(List<SimpleOrderedMap<?>> bucketList, Context mcontext) {
+    if (buckets.isEmpty() && bucketList.size() > 16) {
+      // most values of the first shard are seen again on the others, size the map once instead of
+      // rehashing it (and leaving the old tables as garbage) while it grows
+      buckets = CollectionUtil.newLinkedHashMap(bucketList.size());
+    }
     for (SimpleOrderedMap<?> bucketRes : bucketList) {
       @SuppressWarnings("rawtypes")
       Comparable bucketVal = (Comparable) bucketRes.get("val");
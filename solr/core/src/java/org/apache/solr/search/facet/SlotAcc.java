@@ -16,6 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
+import com.carrotsearch.hppc.IntArrayList;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Array;
@@ -35,6 +36,7 @@ import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.IntLongDynamicMap;
 
 /**
  * Accumulates statistics separated by a slot number. There is a separate statistic per slot. The
@@ -153,6 +155,12 @@ public abstract class SlotAcc implements Closeable {
 
   public abstract void resize(Resizer resizer);
 
+  /**
+   * Hands the arrays of all the slots back to the {@link SlotArrayPool}, once nothing reads the
+   * slots anymore. This acc can't be used afterwards.
+   */
+  void releaseSlots() {}
+
   @Override
   public void close() throws IOException {}
 
@@ -308,7 +316,7 @@ public abstract class SlotAcc implements Closeable {
         ValueSource values, FacetContext fcontext, int numSlots, double initialValue) {
       super(values, fcontext, numSlots);
       this.initialValue = initialValue;
-      result = new double[numSlots];
+      result = SlotArrayPool.INSTANCE.takeDoubles(numSlots);
       if (initialValue != 0) {
         reset();
       }
@@ -331,7 +339,17 @@ public abstract class SlotAcc implements Closeable {
 
     @Override
     public void resize(Resizer resizer) {
-      result = resizer.resize(result, initialValue);
+      double[] old = result;
+      result = resizer.resize(old, initialValue);
+      SlotArrayPool.INSTANCE.release(old);
+    }
+
+    @Override
+    void releaseSlots() {
+      if (result != null) {
+        SlotArrayPool.INSTANCE.release(result);
+        result = null;
+      }
     }
   }
 
@@ -437,7 +455,7 @@ public abstract class SlotAcc implements Closeable {
 
     public AvgSlotAcc(ValueSource values, FacetContext fcontext, int numSlots) {
       super(values, fcontext, numSlots);
-      counts = new int[numSlots];
+      counts = SlotArrayPool.INSTANCE.takeInts(numSlots);
     }
 
     @Override
@@ -482,7 +500,18 @@ public abstract class SlotAcc implements Closeable {
     @Override
     public void resize(Resizer resizer) {
       super.resize(resizer);
-      counts = resizer.resize(counts, 0);
+      int[] old = counts;
+      counts = resizer.resize(old, 0);
+      SlotArrayPool.INSTANCE.release(old);
+    }
+
+    @Override
+    void releaseSlots() {
+      super.releaseSlots();
+      if (counts != null) {
+        SlotArrayPool.INSTANCE.release(counts);
+        counts = null;
+      }
     }
   }
 
@@ -850,7 +879,7 @@ public abstract class SlotAcc implements Closeable {
 
     public CountSlotArrAcc(FacetContext fcontext, int numSlots) {
       super(fcontext);
-      result = new long[numSlots];
+      result = SlotArrayPool.INSTANCE.takeLongs(numSlots);
     }
 
     @Override
@@ -894,6 +923,91 @@ public abstract class SlotAcc implements Closeable {
     public void resize(Resizer resizer) {
       result = resizer.resize(result, 0);
     }
+
+    @Override
+    void releaseSlots() {
+      if (result != null) {
+        SlotArrayPool.INSTANCE.release(result);
+        result = null;
+      }
+    }
+  }
+
+  /**
+   * Counts in an {@link IntLongDynamicMap}, for facets over many slots of which only a few are
+   * expected to get a count. The map starts out hash based, and only switches to an array of all
+   * the slots when it fills up.
+   */
+  static class CountSlotMapAcc extends CountSlotAcc {
+    private final int numSlots;
+    private IntLongDynamicMap counts;
+
+    public CountSlotMapAcc(FacetContext fcontext, int numSlots) {
+      super(fcontext);
+      this.numSlots = numSlots;
+      this.counts = new IntLongDynamicMap(numSlots, 0);
+    }
+
+    @Override
+    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext) {
+      counts.addTo(slotNum, 1);
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return Long.compare(counts.get(slotA), counts.get(slotB));
+    }
+
+    @Override
+    public Object getValue(int slotNum) throws IOException {
+      return counts.get(slotNum);
+    }
+
+    @Override
+    public void incrementCount(int slot, long count) {
+      counts.addTo(slot, count);
+    }
+
+    @Override
+    public long getCount(int slot) {
+      return counts.get(slot);
+    }
+
+    /**
+     * Returns the slots with a positive count in ascending order, or null if the counts switched to
+     * an array, in which case it's cheaper to look at every slot.
+     */
+    int[] getCountedSlots() {
+      if (counts.isArrayBased()) {
+        return null;
+      }
+      final IntArrayList slots = new IntArrayList();
+      counts.forEach(
+          (slot, count) -> {
+            if (count > 0) slots.add(slot);
+          });
+      final int[] ret = slots.toArray();
+      Arrays.sort(ret);
+      return ret;
+    }
+
+    @Override
+    public void reset() {
+      counts = new IntLongDynamicMap(numSlots, 0);
+    }
+
+    @Override
+    public void resize(Resizer resizer) {
+      final IntLongDynamicMap resized = new IntLongDynamicMap(resizer.getNewSize(), 0);
+      counts.forEach(
+          (slot, count) -> {
+            int newSlot = resizer.getNewSlot(slot);
+            if (newSlot >= 0) {
+              resized.put(newSlot, count);
+            }
+          });
+      counts = resized;
+    }
   }
 
   static class SortSlotAcc extends SlotAcc {
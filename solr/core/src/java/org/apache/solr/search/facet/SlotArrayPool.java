@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.util.EnvUtils;
+
+/**
+ * A bounded, node wide pool of the slot arrays of facets over many slots. Requests faceting on the
+ * same high cardinality field ask for arrays of the same length over and over (the number of terms
+ * of the field in the current searcher), so reusing them keeps such big, short-lived arrays from
+ * being allocated for every request.
+ *
+ * <p>The pool holds at most <code>solr.facet.slotArrayPool.maxBytes</code> (default 64MB, 0
+ * disables pooling). When a released array doesn't fit, the arrays of other types and lengths are
+ * dropped first, since those are usually left over from a previous searcher.
+ *
+ * <p>The count arrays of {@link SlotAcc.CountSlotArrAcc}, the value arrays of {@link
+ * SlotAcc.DoubleFuncSlotAcc} (sums, averages, min/max...), the counts of {@link
+ * SlotAcc.AvgSlotAcc} and the slot arrays of {@link UniqueSlotAcc} are pooled. They stay on the
+ * heap, since they are read in the innermost collection loops. The bitsets a unique acc keeps per
+ * slot are not pooled; they are dropped when the array is released.
+ *
+ * @lucene.internal
+ */
+final class SlotArrayPool {
+
+  /** Arrays with fewer slots than this are cheap enough to allocate */
+  static final int MIN_LENGTH = 1 << 16;
+
+  static final SlotArrayPool INSTANCE =
+      new SlotArrayPool(EnvUtils.getPropertyAsLong("solr.facet.slotArrayPool.maxBytes", 64L << 20));
+
+  /** The arrays that can be handed out for one request of an array */
+  private record Key(Class<?> type, int length, int elementBytes) {
+    long bytes() {
+      return (long) length * elementBytes;
+    }
+  }
+
+  private final long maxBytes;
+  private final Map<Key, ArrayDeque<Object>> arrays = new HashMap<>();
+  private long pooledBytes;
+
+  SlotArrayPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns a zeroed array of the given length, from the pool if possible */
+  long[] takeLongs(int length) {
+    long[] array = take(new Key(long[].class, length, Long.BYTES), long[].class);
+    if (array == null) {
+      return new long[length];
+    }
+    Arrays.fill(array, 0);
+    return array;
+  }
+
+  /** Returns a zeroed array of the given length, from the pool if possible */
+  double[] takeDoubles(int length) {
+    double[] array = take(new Key(double[].class, length, Double.BYTES), double[].class);
+    if (array == null) {
+      return new double[length];
+    }
+    Arrays.fill(array, 0);
+    return array;
+  }
+
+  /** Returns a zeroed array of the given length, from the pool if possible */
+  int[] takeInts(int length) {
+    int[] array = take(new Key(int[].class, length, Integer.BYTES), int[].class);
+    if (array == null) {
+      return new int[length];
+    }
+    Arrays.fill(array, 0);
+    return array;
+  }
+
+  /** Returns an array of nulls of the given length, from the pool if possible */
+  FixedBitSet[] takeBitSets(int length) {
+    FixedBitSet[] array = take(bitSetsKey(length), FixedBitSet[].class);
+    return array == null ? new FixedBitSet[length] : array;
+  }
+
+  /** Hands an array back to the pool; the caller must not use it anymore */
+  void release(long[] array) {
+    release(new Key(long[].class, array.length, Long.BYTES), array);
+  }
+
+  /** Hands an array back to the pool; the caller must not use it anymore */
+  void release(double[] array) {
+    release(new Key(double[].class, array.length, Double.BYTES), array);
+  }
+
+  /** Hands an array back to the pool; the caller must not use it anymore */
+  void release(int[] array) {
+    release(new Key(int[].class, array.length, Integer.BYTES), array);
+  }
+
+  /**
+   * Hands an array back to the pool, dropping the bitsets it refers to; the caller must not use it
+   * anymore
+   */
+  void release(FixedBitSet[] array) {
+    if (accepts(bitSetsKey(array.length))) {
+      Arrays.fill(array, null);
+      release(bitSetsKey(array.length), array);
+    }
+  }
+
+  /** The bytes held by the arrays in the pool */
+  synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  private static Key bitSetsKey(int length) {
+    return new Key(FixedBitSet[].class, length, RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+  }
+
+  private boolean accepts(Key key) {
+    return key.length() >= MIN_LENGTH && key.bytes() <= maxBytes;
+  }
+
+  private <T> T take(Key key, Class<T> type) {
+    if (key.length() < MIN_LENGTH || maxBytes <= 0) {
+      return null;
+    }
+    synchronized (this) {
+      ArrayDeque<Object> free = arrays.get(key);
+      Object array = free == null ? null : free.poll();
+      if (array == null) {
+        return null;
+      }
+      pooledBytes -= key.bytes();
+      return type.cast(array);
+    }
+  }
+
+  private void release(Key key, Object array) {
+    if (!accepts(key)) {
+      return;
+    }
+    synchronized (this) {
+      if (pooledBytes + key.bytes() > maxBytes) {
+        ArrayDeque<Object> same = arrays.get(key);
+        arrays.clear();
+        pooledBytes = 0;
+        if (same != null) {
+          arrays.put(key, same);
+          pooledBytes = same.size() * key.bytes();
+        }
+        if (pooledBytes + key.bytes() > maxBytes) {
+          return;
+        }
+      }
+      arrays.computeIfAbsent(key, k -> new ArrayDeque<>()).push(array);
+      pooledBytes += key.bytes();
+    }
+  }
+}
@@ -39,13 +39,16 @@ abstract class UniqueSlotAcc extends SlotAcc {
       throws IOException {
     super(fcontext);
     this.factory = factory;
-    arr = new FixedBitSet[numSlots];
+    arr = SlotArrayPool.INSTANCE.takeBitSets(numSlots);
     this.field = field;
   }
 
   @Override
   public void reset() throws IOException {
-    counts = null;
+    if (counts != null) {
+      SlotArrayPool.INSTANCE.release(counts);
+      counts = null;
+    }
     for (FixedBitSet bits : arr) {
       if (bits == null) continue;
       bits.clear(0, bits.length());
@@ -138,7 +141,7 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   // we only calculate all the counts when sorting by count
   public void calcCounts() {
-    counts = new int[arr.length];
+    counts = SlotArrayPool.INSTANCE.takeInts(arr.length);
     for (int i = 0; i < arr.length; i++) {
       FixedBitSet bs = arr[i];
       counts[i] = bs == null ? 0 : bs.cardinality();
@@ -155,9 +158,25 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   @Override
   public void resize(Resizer resizer) {
-    arr = resizer.resize(arr, null);
+    FixedBitSet[] oldArr = arr;
+    arr = resizer.resize(oldArr, null);
+    SlotArrayPool.INSTANCE.release(oldArr);
+    if (counts != null) {
+      int[] oldCounts = counts;
+      counts = resizer.resize(oldCounts, 0);
+      SlotArrayPool.INSTANCE.release(oldCounts);
+    }
+  }
+
+  @Override
+  void releaseSlots() {
+    if (arr != null) {
+      SlotArrayPool.INSTANCE.release(arr);
+      arr = null;
+    }
     if (counts != null) {
-      counts = resizer.resize(counts, 0);
+      SlotArrayPool.INSTANCE.release(counts);
+      counts = null;
     }
   }
 }
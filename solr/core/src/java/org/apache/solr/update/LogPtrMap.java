@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.solr.update.UpdateLog.LogPtr;
+
+/**
+ * Maps the indexed ids of the updates in a transaction log to their {@link LogPtr}. Between
+ * commits a busy core logs millions of updates, so rather than a map holding a few objects per
+ * update, the ids are copied into the byte blocks of a {@link BytesRefHash}, and the pointers and
+ * versions are held in arrays indexed by the id's ordinal in the hash.
+ *
+ * <p>Not thread safe, the {@link UpdateLog} synchronizes all the accesses.
+ *
+ * @lucene.internal
+ */
+public final class LogPtrMap {
+  private final BytesRefHash ids = new BytesRefHash();
+  private long[] pointers = new long[16];
+  private long[] versions = new long[16];
+  private long[] previousPointers = new long[16];
+
+  /** Returns the latest entry of the given id, or null if the id isn't in the map */
+  public LogPtr get(BytesRef id) {
+    int ord = ids.find(id);
+    if (ord < 0) {
+      return null;
+    }
+    return new LogPtr(pointers[ord], versions[ord], previousPointers[ord]);
+  }
+
+  /** Records the given entry of the id, replacing any previous one */
+  public void put(BytesRef id, long pointer, long version, long previousPointer) {
+    int ord = ids.add(id);
+    if (ord < 0) {
+      ord = -ord - 1;
+    } else if (ord == pointers.length) {
+      pointers = ArrayUtil.grow(pointers, ord + 1);
+      versions = ArrayUtil.growExact(versions, pointers.length);
+      previousPointers = ArrayUtil.growExact(previousPointers, pointers.length);
+    }
+    pointers[ord] = pointer;
+    versions[ord] = version;
+    previousPointers[ord] = previousPointer;
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  /** Removes all the entries, keeping the arrays for the entries to come */
+  public void clear() {
+    ids.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "LogPtrMap{size=" + size() + "}";
+  }
+}
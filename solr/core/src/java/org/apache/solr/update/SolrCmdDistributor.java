@@ -29,7 +29,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import org.apache.http.NoHttpResponseException;
@@ -67,10 +69,16 @@ public class SolrCmdDistributor implements Closeable {
   private final CompletionService<Object> completionService;
   private final Set<Future<Object>> pending = new HashSet<>();
 
+  private final UpdateCoalescer coalescer;
+
+  /** The batches of the coalescer holding our docs, until they are sent */
+  private final List<CompletableFuture<Void>> coalesced = new ArrayList<>();
+
   public SolrCmdDistributor(UpdateShardHandler updateShardHandler) {
     this.clients = new StreamingSolrClients(updateShardHandler);
     this.completionService =
         new ExecutorCompletionService<>(updateShardHandler.getUpdateExecutor());
+    this.coalescer = updateShardHandler.getUpdateCoalescer();
   }
 
   /* For tests only */
@@ -78,6 +86,7 @@ public class SolrCmdDistributor implements Closeable {
     this.clients = clients;
     this.retryPause = retryPause;
     completionService = new ExecutorCompletionService<>(clients.getUpdateExecutor());
+    coalescer = null;
   }
 
   public void finish() {
@@ -275,6 +284,7 @@ public class SolrCmdDistributor implements Closeable {
   }
 
   public void blockAndDoRetries() throws IOException {
+    waitForCoalesced();
     clients.blockUntilFinished();
 
     // wait for any async commits to complete
@@ -292,6 +302,23 @@ public class SolrCmdDistributor implements Closeable {
     doRetriesIfNeeded();
   }
 
+  /** Waits for the coalescer to have sent all our docs */
+  private void waitForCoalesced() {
+    for (CompletableFuture<Void> batch : coalesced) {
+      try {
+        batch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.error("waitForCoalesced interrupted", e);
+        break;
+      } catch (ExecutionException e) {
+        // the coalescer reports its errors along with ours
+        log.error("Unexpected error while coalescing updates", e);
+      }
+    }
+    coalesced.clear();
+  }
+
   void addCommit(UpdateRequest ureq, CommitUpdateCommand cmd) {
     if (cmd == null) return;
     ureq.setAction(
@@ -341,6 +368,14 @@ public class SolrCmdDistributor implements Closeable {
           req.uReq.getParams());
     }
 
+    if (coalescer != null && coalescer.canCoalesce(req)) {
+      coalesced.add(coalescer.add(req, errors));
+      return;
+    }
+
+    // anything else must follow the docs we coalesced, as it would if we had sent them ourselves
+    waitForCoalesced();
+
     if (isCommit) {
       // a commit using ConncurrentUpdateSolrServer is not async,
       // so we make it async to prevent commits from happening
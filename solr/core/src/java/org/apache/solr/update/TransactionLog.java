@@ -18,7 +18,6 @@ package org.apache.solr.update;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.nio.ByteBuffer;
@@ -35,13 +34,19 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.CollectionUtil;
 import org.apache.solr.common.util.DataInputInputStream;
+import org.apache.solr.common.util.EnvUtils;
 import org.apache.solr.common.util.FastInputStream;
 import org.apache.solr.common.util.FastOutputStream;
 import org.apache.solr.common.util.JavaBinCodec;
@@ -70,6 +75,15 @@ public class TransactionLog implements Closeable {
 
   public static final String END_MESSAGE = "SOLR_TLOG_END";
 
+  /**
+   * Whether logs are read through memory mappings of their files rather than through positional
+   * reads of their channel.
+   */
+  static final boolean MMAP_READS = EnvUtils.getPropertyAsBool("solr.ulog.mmapReads", true);
+
+  // the log is mapped again once it grew by this many bytes, or by a quarter of what is mapped
+  private static final long MIN_REMAP_GROWTH = 1 << 20;
+
   long id;
   protected Path tlog;
   protected FileChannel channel;
@@ -88,6 +102,19 @@ public class TransactionLog implements Closeable {
   protected Map<String, Integer> globalStringMap = new HashMap<>();
   protected List<String> globalStringList = new ArrayList<>();
 
+  // the open mappings of the log file, guarded by itself; the latest one covers the most of it,
+  // older ones are closed once the last reader using them released them
+  private final List<Mapping> mappings = new ArrayList<>();
+  private Mapping mapped;
+  private MMapDirectory mmapDirectory;
+
+  // group fsync: every FSYNC finish() takes a ticket once its data is flushed, and one caller at a
+  // time forces the channel for all the tickets taken so far
+  private final Object syncLock = new Object();
+  private long syncTickets;
+  private long syncedTickets;
+  private boolean syncing;
+
   // write a BytesRef as a byte array
   protected static final JavaBinCodec.ObjectResolver resolver =
       new JavaBinCodec.ObjectResolver() {
@@ -290,9 +317,13 @@ public class TransactionLog implements Closeable {
     byte[] buf = new byte[END_MESSAGE.length()];
     long pos = size - END_MESSAGE.length() - 4;
     if (pos < 0) return false;
-    @SuppressWarnings("resource")
-    final InputStream is = channelInputStreamOpener.open(channel, pos);
-    int n = is.read(buf);
+    final ChannelFastInputStream is = openInputStream(pos);
+    int n;
+    try {
+      n = is.read(buf);
+    } finally {
+      releaseInputStream(is);
+    }
     if (n != buf.length) {
       return false;
     }
@@ -317,8 +348,16 @@ public class TransactionLog implements Closeable {
 
   @SuppressWarnings({"unchecked"})
   private void readHeader(DataInputInputStream is) throws IOException {
+    if (is == null) {
+      ChannelFastInputStream headerStream = openInputStream(0);
+      try {
+        readHeader(headerStream);
+      } finally {
+        releaseInputStream(headerStream);
+      }
+      return;
+    }
     // read existing header
-    is = is != null ? is : channelInputStreamOpener.open(channel, 0);
     @SuppressWarnings("resource")
     final LogCodec codec = new LogCodec(resolver);
     Map<?, ?> header = (Map<?, ?>) codec.unmarshal(is);
@@ -569,15 +608,120 @@ public class TransactionLog implements Closeable {
         */
       }
 
-      DataInputInputStream is = channelInputStreamOpener.open(channel, pos);
+      ChannelFastInputStream is = openInputStream(pos);
       try (LogCodec codec = new LogCodec(resolver)) {
         return codec.readVal(is);
+      } finally {
+        releaseInputStream(is);
       }
     } catch (IOException e) {
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
     }
   }
 
+  /**
+   * Opens a stream reading the log from the given position, through memory mappings of the file
+   * when the log is read with the default {@link ChannelInputStreamOpener}. The stream must be
+   * handed to {@link #releaseInputStream} once it is not read anymore.
+   */
+  protected ChannelFastInputStream openInputStream(long position) throws IOException {
+    if (MMAP_READS && channelInputStreamOpener == CHANNEL_INPUT_STREAM_OPENER) {
+      return new MappedFastInputStream(position);
+    }
+    return channelInputStreamOpener.open(channel, position);
+  }
+
+  /**
+   * Lets go of the mapping a stream of {@link #openInputStream} reads from, if any. The stream
+   * can't be used afterwards. Streams are not closed since that would close the log's channel.
+   */
+  private static void releaseInputStream(ChannelFastInputStream is) {
+    if (is instanceof MappedFastInputStream mappedStream) {
+      mappedStream.release();
+    }
+  }
+
+  /** A memory mapping of the log file, with the number of holders keeping it open. */
+  private static final class Mapping {
+    final IndexInput input;
+    // the log holds a reference while this is its latest mapping, and every reader using it another
+    // one; guarded by the mappings
+    int refCount = 1;
+
+    Mapping(IndexInput input) {
+      this.input = input;
+    }
+  }
+
+  /**
+   * Returns the latest mapping of the log file with a reference taken on it, or null if nothing is
+   * mapped. The file is mapped again first if the mapping does not cover the bytes up to the given
+   * end and the file grew enough since it was last mapped; the bytes written since are read through
+   * the channel otherwise.
+   */
+  private Mapping acquireMapping(long end) throws IOException {
+    synchronized (mappings) {
+      Mapping current = mapped;
+      long mappedLength = current == null ? 0 : current.input.length();
+      if (mappedLength < end) {
+        long size = channel.size();
+        if (size >= end && size - mappedLength >= Math.max(MIN_REMAP_GROWTH, mappedLength >>> 2)) {
+          if (mmapDirectory == null) {
+            mmapDirectory = new MMapDirectory(tlog.getParent());
+          }
+          Mapping next =
+              new Mapping(
+                  mmapDirectory.openInput(tlog.getFileName().toString(), IOContext.DEFAULT));
+          mappings.add(next);
+          mapped = next;
+          // the log only holds on to its latest mapping
+          releaseMapping(current);
+          current = next;
+        }
+      }
+      if (current != null) {
+        current.refCount++;
+      }
+      return current;
+    }
+  }
+
+  /** Releases a reference to a mapping, and closes it if it was the last one. */
+  private void releaseMapping(Mapping mapping) {
+    if (mapping == null) {
+      return;
+    }
+    synchronized (mappings) {
+      // the mapping is gone already if the log was closed in the meantime
+      if (--mapping.refCount == 0 && mappings.remove(mapping)) {
+        IOUtils.closeWhileHandlingException(mapping.input);
+      }
+    }
+  }
+
+  /** The number of mappings of the log file that are open */
+  int getNumMappings() {
+    synchronized (mappings) {
+      return mappings.size();
+    }
+  }
+
+  private void closeMappings() throws IOException {
+    synchronized (mappings) {
+      mapped = null;
+      List<IndexInput> inputs = new ArrayList<>(mappings.size());
+      for (Mapping mapping : mappings) {
+        inputs.add(mapping.input);
+      }
+      mappings.clear();
+      IOUtils.close(inputs);
+      if (mmapDirectory != null) {
+        mmapDirectory.close();
+        mmapDirectory = null;
+      }
+    }
+  }
+
   public void incref() {
     int result = refcount.incrementAndGet();
     if (result <= 1) {
@@ -610,6 +754,19 @@ public class TransactionLog implements Closeable {
   public void closeOutput() {}
 
   public void finish(UpdateLog.SyncLevel syncLevel) {
+    finish(syncLevel, 0, null);
+  }
+
+  /**
+   * Flushes the log, and with {@link UpdateLog.SyncLevel#FSYNC} makes it durable. Concurrent
+   * callers share their fsyncs: while one of them forces the log to disk, the others wait and the
+   * next one forces the data of all of them at once.
+   *
+   * @param maxWaitNanos how long the caller that is about to force the log waits for others to
+   *     join in, 0 to force right away
+   * @param listener told about every fsync, may be null
+   */
+  public void finish(UpdateLog.SyncLevel syncLevel, long maxWaitNanos, SyncListener listener) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
       synchronized (this) {
@@ -620,7 +777,7 @@ public class TransactionLog implements Closeable {
         // Since fsync is outside of synchronized block, we can end up with a partial
         // last record on power failure (which is OK, and does not represent an error...
         // we just need to be aware of it when reading).
-        channel.force(true);
+        groupSync(maxWaitNanos, listener);
       }
 
     } catch (IOException e) {
@@ -628,6 +785,69 @@ public class TransactionLog implements Closeable {
     }
   }
 
+  private void groupSync(long maxWaitNanos, SyncListener listener) throws IOException {
+    long firstTicket;
+    synchronized (syncLock) {
+      long ticket = ++syncTickets;
+      while (syncing && syncedTickets < ticket) {
+        try {
+          syncLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(ErrorCode.SERVER_ERROR, "Interrupted waiting for fsync", e);
+        }
+      }
+      if (syncedTickets >= ticket) {
+        return; // forced by someone else after our data was flushed
+      }
+      syncing = true;
+      firstTicket = syncedTickets;
+
+      long deadline = System.nanoTime() + maxWaitNanos;
+      for (long left = maxWaitNanos; left > 0; left = deadline - System.nanoTime()) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(syncLock, left);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+
+    long lastTicket = firstTicket;
+    boolean success = false;
+    long start = System.nanoTime();
+    try {
+      synchronized (syncLock) {
+        // everyone with a ticket so far has flushed, so this force covers them all
+        lastTicket = syncTickets;
+      }
+      channel.force(true);
+      success = true;
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        if (success) {
+          syncedTickets = lastTicket;
+        }
+        syncLock.notifyAll();
+      }
+    }
+    if (listener != null) {
+      listener.synced((int) (lastTicket - firstTicket), System.nanoTime() - start);
+    }
+  }
+
+  /** Told about every fsync of the log */
+  public interface SyncListener {
+
+    /**
+     * @param batchSize the number of {@link #finish} callers made durable by the fsync
+     * @param nanos how long the fsync took
+     */
+    void synced(int batchSize, long nanos);
+  }
+
   @Override
   public void close() {
     try {
@@ -639,6 +859,8 @@ public class TransactionLog implements Closeable {
         fos.flush();
         fos.close();
       }
+      // unmap before deleting, some platforms can't delete mapped files
+      closeMappings();
 
       if (deleteOnClose) {
         try {
@@ -709,7 +931,7 @@ public class TransactionLog implements Closeable {
 
     public LogReader(long startingPos) throws IOException {
       incref();
-      fis = channelInputStreamOpener.open(channel, startingPos);
+      fis = openInputStream(startingPos);
     }
 
     // for classes that extend
@@ -759,6 +981,7 @@ public class TransactionLog implements Closeable {
     }
 
     public void close() {
+      releaseInputStream(fis);
       decref();
     }
 
@@ -879,7 +1102,7 @@ public class TransactionLog implements Closeable {
         assert sz == getLogFileSize();
       }
 
-      fis = channelInputStreamOpener.open(channel, 0);
+      fis = openInputStream(0);
       if (sz >= 4) {
         // readHeader(fis);  // should not be needed
         prevPos = sz - 4;
@@ -942,6 +1165,7 @@ public class TransactionLog implements Closeable {
 
     @Override
     public void close() {
+      releaseInputStream(fis);
       decref();
     }
 
@@ -1021,6 +1245,49 @@ public class TransactionLog implements Closeable {
     }
   }
 
+  /**
+   * Reads the log from the memory mapping of its file. Only the bytes written after the file was
+   * last mapped, if any, are read with positional reads of the channel. The stream holds a
+   * reference to the mapping it reads from until it moves on to a newer one or is released.
+   */
+  class MappedFastInputStream extends ChannelFastInputStream {
+    private Mapping mapping;
+    private IndexInput input;
+
+    MappedFastInputStream(long position) {
+      super(channel, position);
+    }
+
+    @Override
+    public int readWrappedStream(byte[] target, int offset, int len) throws IOException {
+      if (input == null || readFromStream >= input.length()) {
+        Mapping latest = acquireMapping(readFromStream + 1);
+        if (latest == mapping) {
+          releaseMapping(latest);
+        } else {
+          releaseMapping(mapping);
+          mapping = latest;
+          // a clone of its own, since several readers may read the log concurrently
+          input = latest == null ? null : latest.input.clone();
+        }
+      }
+      if (input == null || readFromStream >= input.length()) {
+        return super.readWrappedStream(target, offset, len);
+      }
+      int n = (int) Math.min(len, input.length() - readFromStream);
+      input.seek(readFromStream);
+      input.readBytes(target, offset, n);
+      return n;
+    }
+
+    /** Lets go of the mapping, the stream can't be used afterwards. */
+    void release() {
+      releaseMapping(mapping);
+      mapping = null;
+      input = null;
+    }
+  }
+
   /** Opens {@link OutputStream} from {@link FileChannel}. */
   protected interface OutputStreamOpener {
 
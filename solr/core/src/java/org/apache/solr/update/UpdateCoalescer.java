@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import static org.apache.solr.update.processor.DistributingUpdateProcessorFactory.DISTRIB_UPDATE_PARAM;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.solr.client.solrj.impl.Http2SolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.update.SolrCmdDistributor.ForwardNode;
+import org.apache.solr.update.SolrCmdDistributor.Req;
+import org.apache.solr.update.SolrCmdDistributor.SolrError;
+import org.apache.solr.update.processor.DistributedUpdateProcessor.DistribPhase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs the docs that the leaders on this node send to the same replica within a short window into
+ * a single update request, shared by all the update requests the leaders are processing. When
+ * clients send a doc or a few per request, this saves the replica from parsing a request, with its
+ * params, for each and every doc.
+ *
+ * <p>Only the adds from a leader to its replicas are coalesced. The forwards to leaders aren't,
+ * since the errors the leaders report for those must stay with the request they came from. Each
+ * coalesced doc keeps its own {@link Req}: if the replica rejects the batch, its docs are sent
+ * again one by one, so that only the failing docs get an error. If the replica can't be reached,
+ * every doc of the batch gets an error of its own. The {@link SolrCmdDistributor} of the request
+ * of the doc handles (and retries) that error just like the error of an uncoalesced doc.
+ *
+ * <p>Coalescing is enabled by setting <code>solr.cloud.replication.coalesceMs</code>, the most
+ * time a doc waits for others, to more than 0. A batch is sent as soon as it holds <code>
+ * solr.cloud.replication.coalesceMaxDocs</code> docs (default 500).
+ */
+public class UpdateCoalescer implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Http2SolrClient client;
+  private final Supplier<ExecutorService> executor;
+  private final long windowMs;
+  private final int maxDocs;
+  private final ScheduledExecutorService scheduler;
+
+  /** The batches still gathering docs, by their replica and params. Synchronize to manipulate. */
+  private final Map<String, Batch> batches = new HashMap<>();
+
+  public UpdateCoalescer(
+      Http2SolrClient client, Supplier<ExecutorService> executor, long windowMs, int maxDocs) {
+    this.client = client;
+    this.executor = executor;
+    this.windowMs = windowMs;
+    this.maxDocs = maxDocs;
+    this.scheduler =
+        windowMs > 0
+            ? Executors.newSingleThreadScheduledExecutor(
+                new SolrNamedThreadFactory("updateCoalescer"))
+            : null;
+  }
+
+  public boolean isEnabled() {
+    return scheduler != null && !scheduler.isShutdown();
+  }
+
+  /** Whether the doc of the request can be sent along with others to the same replica */
+  boolean canCoalesce(Req req) {
+    return isEnabled()
+        && !req.synchronous
+        && req.retries == 0
+        && !(req.node instanceof ForwardNode)
+        && req.cmd instanceof AddUpdateCommand cmd
+        && !cmd.isInPlaceUpdate()
+        && req.uReq.getDeleteByIdMap() == null
+        && req.uReq.getDeleteQuery() == null
+        && req.uReq.getDocumentsMap() != null
+        && req.uReq.getDocumentsMap().size() == 1
+        && DistribPhase.FROMLEADER
+            == DistribPhase.parseParam(req.uReq.getParams().get(DISTRIB_UPDATE_PARAM));
+  }
+
+  /**
+   * Adds the doc of the request to the batch of its replica. The returned future completes once
+   * the batch has been sent; if that failed, the error of the doc was added to the given errors.
+   */
+  CompletableFuture<Void> add(Req req, List<SolrError> errors) {
+    assert canCoalesce(req);
+    Principal principal = req.uReq.getUserPrincipal();
+    String key =
+        req.node.getUrl()
+            + '?'
+            + req.uReq.getParams().toQueryString()
+            + (principal == null ? "" : " " + principal.getName());
+
+    Batch full = null;
+    Batch batch;
+    synchronized (batches) {
+      batch = batches.get(key);
+      if (batch == null) {
+        batch = new Batch(key, req);
+        batches.put(key, batch);
+        Batch newBatch = batch;
+        batch.timeout =
+            scheduler.schedule(() -> flush(newBatch), windowMs, TimeUnit.MILLISECONDS);
+      }
+      batch.add(req, errors);
+      if (batch.reqs.size() >= maxDocs) {
+        // the next docs go to a new batch
+        batches.remove(key);
+        batch.taken = true;
+        full = batch;
+      }
+    }
+    if (full != null) {
+      full.timeout.cancel(false);
+      sendAsync(full);
+    }
+    return batch.sent;
+  }
+
+  /** Sends the batch, unless it was already sent because it got full */
+  private void flush(Batch batch) {
+    synchronized (batches) {
+      if (batch.taken) {
+        return;
+      }
+      batches.remove(batch.key);
+      batch.taken = true;
+    }
+    // not on the scheduler thread, which must stay free to flush the other batches on time
+    sendAsync(batch);
+  }
+
+  private void sendAsync(Batch batch) {
+    try {
+      executor.get().execute(() -> send(batch));
+    } catch (RejectedExecutionException e) {
+      send(batch);
+    }
+  }
+
+  private void send(Batch batch) {
+    try {
+      client.requestWithBaseUrl(batch.node.getBaseUrl(), batch.node.getCoreName(), batch.uReq);
+      for (Req req : batch.reqs) {
+        req.trackRequestResult(null, null, true);
+      }
+    } catch (Exception e) {
+      log.error(
+          "Error sending {} coalesced updates to {}", batch.reqs.size(), batch.node.getUrl(), e);
+      if (e instanceof SolrException && batch.reqs.size() > 1) {
+        // the replica rejected the batch, likely for some of its docs: find out which of them
+        sendOneByOne(batch);
+      } else {
+        for (int i = 0; i < batch.reqs.size(); i++) {
+          addError(batch.reqs.get(i), batch.errors.get(i), e);
+        }
+      }
+    } finally {
+      batch.sent.complete(null);
+    }
+  }
+
+  /** Sends each doc of the failed batch on its own, so that only the failing docs get an error */
+  private void sendOneByOne(Batch batch) {
+    for (int i = 0; i < batch.reqs.size(); i++) {
+      Req req = batch.reqs.get(i);
+      UpdateRequest uReq = new UpdateRequest();
+      uReq.setParams(batch.uReq.getParams());
+      uReq.setUserPrincipal(batch.uReq.getUserPrincipal());
+      addDocs(uReq, req);
+      try {
+        client.requestWithBaseUrl(batch.node.getBaseUrl(), batch.node.getCoreName(), uReq);
+        req.trackRequestResult(null, null, true);
+      } catch (Exception e) {
+        addError(req, batch.errors.get(i), e);
+      }
+    }
+  }
+
+  private static void addError(Req req, List<SolrError> errors, Exception e) {
+    SolrError error = new SolrError();
+    error.e = e;
+    if (e instanceof SolrException se) {
+      error.statusCode = se.code();
+    }
+    error.req = req;
+    errors.add(error);
+    if (!req.shouldRetry(error)) {
+      // only track the error if we are not retrying the request
+      req.trackRequestResult(null, null, false);
+    }
+  }
+
+  /** Adds the docs of the request, with their options, to the given update request */
+  private static void addDocs(UpdateRequest uReq, Req req) {
+    for (Map.Entry<SolrInputDocument, Map<String, Object>> doc :
+        req.uReq.getDocumentsMap().entrySet()) {
+      Map<String, Object> options = doc.getValue();
+      uReq.add(
+          doc.getKey(),
+          options == null ? null : (Integer) options.get(UpdateRequest.COMMIT_WITHIN),
+          options == null ? null : (Boolean) options.get(UpdateRequest.OVERWRITE));
+    }
+  }
+
+  @Override
+  public void close() {
+    if (scheduler == null) {
+      return;
+    }
+    List<Batch> pending;
+    synchronized (batches) {
+      pending = new ArrayList<>(batches.values());
+    }
+    // don't leave the requests waiting for their docs
+    for (Batch batch : pending) {
+      flush(batch);
+    }
+    ExecutorUtil.shutdownAndAwaitTermination(scheduler);
+  }
+
+  private static class Batch {
+    final String key;
+    final SolrCmdDistributor.Node node;
+    final UpdateRequest uReq = new UpdateRequest();
+    final List<Req> reqs = new ArrayList<>();
+    /** The errors of the request of each doc, in the order of {@link #reqs} */
+    final List<List<SolrError>> errors = new ArrayList<>();
+
+    final CompletableFuture<Void> sent = new CompletableFuture<>();
+    ScheduledFuture<?> timeout;
+    /** Whether the batch is being sent; only access when synchronized on the batches */
+    boolean taken;
+
+    Batch(String key, Req first) {
+      this.key = key;
+      this.node = first.node;
+      // the params may still change once the request is queued, see distribAdd
+      uReq.setParams(new ModifiableSolrParams(first.uReq.getParams()));
+      uReq.setUserPrincipal(first.uReq.getUserPrincipal());
+    }
+
+    void add(Req req, List<SolrError> reqErrors) {
+      addDocs(uReq, req);
+      if (req.uReq.isLastDocInBatch()) {
+        uReq.lastDocInBatch();
+      }
+      reqs.add(req);
+      errors.add(reqErrors);
+    }
+  }
+}
@@ -26,6 +26,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.lucene.util.BitUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
@@ -38,30 +39,44 @@ import org.apache.solr.util.IOFunction;
  */
 public class UpdateLocks {
 
-  private final long docLockTimeoutMs;
+  /** The most stripes of locks, more than enough to spread the updates of the busiest leader */
+  static final int MAX_STRIPES = 64;
 
-  private final ReadWriteLock blockUpdatesLock = new ReentrantReadWriteLock(true);
+  private final long docLockTimeoutMs;
 
   // SolrCloud's first approach was a fixed size array of locks (lock striping) using an ID's hash.
   //   Sized too small, there was too much lock sharing; sized too big, there was memory waste.
   // Here we have a Map keyed by hash and a pool of locks to re-use.  Synchronization is needed 2x.
   //   Note:  ConcurrentHashMap was also explored but HPPC came out on top, probably because
   //          we can use a hashcode directly as the key, and it's GC friendly (zero-allocation).
+  // With many cores indexing, a single such map (and a single lock blocking updates) is contended
+  //   by every update, so both are striped; a stripe count of 1 gives the unstriped behavior.
 
-  /** Maps a ID hashcode to a lock. Synchronize to manipulate. */
-  private final IntObjectHashMap<LockAndCondition> hashToLock =
-      new IntObjectHashMap<>(32) {
-        @Override
-        protected int hashKey(int key) {
-          return key; // our keys are themselves hash-codes
-        }
-      };
+  private final Stripe[] stripes;
 
-  /** A pool of locks to avoid creating & GC'ing them too much. Must synchronize on hashToLock. */
-  private final ArrayDeque<LockAndCondition> lockPool = new ArrayDeque<>(16);
+  /** Blocks the updates. Each thread takes the read lock of its own stripe. */
+  private final ReadWriteLock[] blockUpdatesLocks;
+
+  private final int stripeMask;
 
   public UpdateLocks(long docLockTimeoutMs) {
+    this(docLockTimeoutMs, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numStripes how many threads can lock different docs without sharing a monitor; rounded
+   *     up to a power of 2, and at most {@link #MAX_STRIPES}
+   */
+  public UpdateLocks(long docLockTimeoutMs, int numStripes) {
     this.docLockTimeoutMs = docLockTimeoutMs;
+    int n = Math.min(MAX_STRIPES, BitUtil.nextHighestPowerOfTwo(Math.max(1, numStripes)));
+    stripeMask = n - 1;
+    stripes = new Stripe[n];
+    blockUpdatesLocks = new ReadWriteLock[n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new Stripe();
+      blockUpdatesLocks[i] = new ReentrantReadWriteLock(true);
+    }
   }
 
   /**
@@ -81,32 +96,15 @@ public class UpdateLocks {
       // hashToLock isn't concurrent, but we synchronize on it briefly twice to do cheap work
 
       final int hash = id.hashCode();
-      final LockAndCondition lock;
-      // get or insert lock, increment refcount
-      synchronized (hashToLock) {
-        final int idx = hashToLock.indexOf(hash);
-        if (hashToLock.indexExists(idx)) {
-          lock = hashToLock.indexGet(idx);
-          assert lock.refCount >= 1;
-          lock.refCount++;
-        } else {
-          lock = borrowLock();
-          hashToLock.indexInsert(idx, hash, lock);
-        }
-      }
+      // the maps place the keys by their low bits, so pick the stripe by the high ones
+      final Stripe stripe = stripes[(hash >>> 16) & stripeMask];
+      final LockAndCondition lock = stripe.acquire(hash);
 
       // try-finally ensuring we decrement the refCount
       try {
         return runWithLockInternal(id, function, lock, startTimeNanos);
       } finally {
-        // decrement refcount, remove lock if unreferenced
-        synchronized (hashToLock) {
-          assert lock.refCount > 0; // because we incremented it
-          if (--lock.refCount == 0) { // typical
-            hashToLock.remove(hash);
-            returnLock(lock);
-          }
-        }
+        stripe.release(hash, lock);
       }
 
     } finally {
@@ -114,20 +112,48 @@ public class UpdateLocks {
     }
   }
 
-  private LockAndCondition borrowLock() {
-    assert Thread.holdsLock(hashToLock);
-    if (lockPool.isEmpty()) {
-      return new LockAndCondition();
-    } else {
-      return lockPool.removeLast();
+  /** The locks of the docs whose ID hashes fall in one stripe, and a pool of unused locks. */
+  private static class Stripe {
+    /** Maps a ID hashcode to a lock. Synchronize to manipulate. */
+    private final IntObjectHashMap<LockAndCondition> hashToLock =
+        new IntObjectHashMap<>(8) {
+          @Override
+          protected int hashKey(int key) {
+            return key; // our keys are themselves hash-codes
+          }
+        };
+
+    /** A pool of locks to avoid creating & GC'ing them too much. Must synchronize on hashToLock. */
+    private final ArrayDeque<LockAndCondition> lockPool = new ArrayDeque<>(4);
+
+    /** Gets or inserts the lock of the hash, and increments its refcount */
+    LockAndCondition acquire(int hash) {
+      synchronized (hashToLock) {
+        final int idx = hashToLock.indexOf(hash);
+        if (hashToLock.indexExists(idx)) {
+          LockAndCondition lock = hashToLock.indexGet(idx);
+          assert lock.refCount >= 1;
+          lock.refCount++;
+          return lock;
+        }
+        LockAndCondition lock = lockPool.isEmpty() ? new LockAndCondition() : lockPool.removeLast();
+        hashToLock.indexInsert(idx, hash, lock);
+        return lock;
+      }
     }
-  }
 
-  private void returnLock(LockAndCondition lock) {
-    assert Thread.holdsLock(hashToLock);
-    if (lockPool.size() < 16) {
-      lockPool.add(lock);
-      lock.refCount = 1; // ready for next use
+    /** Decrements the refcount of the lock, and removes it if unreferenced */
+    void release(int hash, LockAndCondition lock) {
+      synchronized (hashToLock) {
+        assert lock.refCount > 0; // because we incremented it
+        if (--lock.refCount == 0) { // typical
+          hashToLock.remove(hash);
+          if (lockPool.size() < 4) {
+            lockPool.add(lock);
+            lock.refCount = 1; // ready for next use
+          }
+        }
+      }
     }
   }
 
@@ -174,19 +200,29 @@ public class UpdateLocks {
     }
   }
 
+  private ReadWriteLock blockUpdatesLock() {
+    // a thread always takes the same stripe, so that it unlocks what it locked and it can reenter
+    return blockUpdatesLocks[(int) Thread.currentThread().threadId() & stripeMask];
+  }
+
   public void lockForUpdate() {
-    blockUpdatesLock.readLock().lock();
+    blockUpdatesLock().readLock().lock();
   }
 
   public void unlockForUpdate() {
-    blockUpdatesLock.readLock().unlock();
+    blockUpdatesLock().readLock().unlock();
   }
 
   public void blockUpdates() {
-    blockUpdatesLock.writeLock().lock();
+    // always in the same order, so that two threads blocking updates can't deadlock
+    for (ReadWriteLock lock : blockUpdatesLocks) {
+      lock.writeLock().lock();
+    }
   }
 
   public void unblockUpdates() {
-    blockUpdatesLock.writeLock().unlock();
+    for (int i = blockUpdatesLocks.length - 1; i >= 0; i--) {
+      blockUpdatesLocks[i].writeLock().unlock();
+    }
   }
 }
@@ -22,7 +22,9 @@ import static org.apache.solr.update.processor.DistributingUpdateProcessorFactor
 import com.carrotsearch.hppc.LongHashSet;
 import com.carrotsearch.hppc.LongSet;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -211,9 +213,9 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Deque<TransactionLog> newestLogsOnStartup = new ArrayDeque<>();
   protected int numOldRecords; // number of records in the recent logs
 
-  protected Map<BytesRef, LogPtr> map = new HashMap<>();
-  protected Map<BytesRef, LogPtr> prevMap; // used while committing/reopening is happening
-  protected Map<BytesRef, LogPtr> prevMap2; // used while committing/reopening is happening
+  protected LogPtrMap map = new LogPtrMap();
+  protected LogPtrMap prevMap; // used while committing/reopening is happening
+  protected LogPtrMap prevMap2; // used while committing/reopening is happening
   // the transaction log used to look up entries found in prevMap
   protected TransactionLog prevMapLog;
   // the transaction log used to look up entries found in prevMap2
@@ -256,6 +258,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  // how long an fsync waits for more updates to make durable at once
+  protected long syncMaxWaitNanos;
 
   protected volatile UpdateHandler uhandler; // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -266,6 +270,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Meter applyingBufferedOpsMeter;
   protected Meter replayOpsMeter;
   protected Meter copyOverOldUpdatesMeter;
+  protected Timer fsyncTimer;
+  protected Histogram fsyncBatchSizeHistogram;
   protected SolrMetricsContext solrMetricsContext;
 
   public static class LogPtr {
@@ -378,6 +384,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   public void init(PluginInfo info) {
     dataDir = (String) info.initArgs.get("dir");
     defaultSyncLevel = SyncLevel.getSyncLevel((String) info.initArgs.get("syncLevel"));
+    syncMaxWaitNanos =
+        TimeUnit.MILLISECONDS.toNanos(objToInt(info.initArgs.get("syncMaxWaitMs"), 0));
 
     numRecordsToKeep = objToInt(info.initArgs.get("numRecordsToKeep"), 100);
     maxNumLogsToKeep = objToInt(info.initArgs.get("maxNumLogsToKeep"), 10);
@@ -656,6 +664,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     applyingBufferedOpsMeter = solrMetricsContext.meter("ops", scope, "applyingBuffered");
     replayOpsMeter = solrMetricsContext.meter("ops", scope, "replay");
     copyOverOldUpdatesMeter = solrMetricsContext.meter("ops", scope, "copyOverOldUpdates");
+    fsyncTimer = solrMetricsContext.timer("fsync", scope);
+    fsyncBatchSizeHistogram = solrMetricsContext.histogram("batchSize", scope, "fsync");
     solrMetricsContext.gauge(() -> state.getValue(), true, "state", scope);
   }
 
@@ -779,16 +789,14 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       if (!clearCaches) {
         // TODO: in the future we could support a real position for a REPLAY update.
         // Only currently would be useful for RTG while in recovery mode though.
-        LogPtr ptr = new LogPtr(pos, cmd.getVersion(), prevPointer);
-
-        map.put(cmd.getIndexedId(), ptr);
+        map.put(cmd.getIndexedId(), pos, cmd.getVersion(), prevPointer);
 
         if (trace) {
           log.trace(
               "TLOG: added id {} to {} {} map={}",
               cmd.getPrintableId(),
               tlog,
-              ptr,
+              new LogPtr(pos, cmd.getVersion(), prevPointer),
               System.identityHashCode(map));
         }
 
@@ -814,7 +822,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     // note: sync required to ensure maps aren't changed out form under us
     if (cmd.isInPlaceUpdate()) {
       BytesRef indexedId = cmd.getIndexedId();
-      for (Map<BytesRef, LogPtr> currentMap : Arrays.asList(map, prevMap, prevMap2)) {
+      for (LogPtrMap currentMap : Arrays.asList(map, prevMap, prevMap2)) {
         if (currentMap != null) {
           LogPtr prevEntry = currentMap.get(indexedId);
           if (null != prevEntry) {
@@ -843,7 +851,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       }
 
       LogPtr ptr = new LogPtr(pos, cmd.version);
-      map.put(br, ptr);
+      map.put(br, pos, cmd.version, -1);
       oldDeletes.put(br, ptr);
 
       if (trace) {
@@ -979,13 +987,20 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   }
 
   protected void newMap() {
+    // the map dropped here is reused, keeping the arrays it grew
+    LogPtrMap dropped = prevMap2;
     prevMap2 = prevMap;
     prevMapLog2 = prevMapLog;
 
     prevMap = map;
     prevMapLog = tlog;
 
-    map = new HashMap<>();
+    if (dropped != null) {
+      dropped.clear();
+      map = dropped;
+    } else {
+      map = new LogPtrMap();
+    }
   }
 
   private void clearOldMaps() {
@@ -1058,13 +1073,11 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
 
     synchronized (this) {
       if (!cmd.softCommit) return; // already handled this at the start of the hard commit
-      newMap();
-
       // start adding documents to a new map since we won't know if
       // any added documents will make it into this commit or not.
       // But we do know that any updates already added will definitely
       // show up in the latest reader after the commit succeeds.
-      map = new HashMap<>();
+      newMap();
 
       if (debug) {
         log.debug(
@@ -1347,12 +1360,21 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     }
 
     try {
-      currLog.finish(syncLevel);
+      currLog.finish(syncLevel, syncMaxWaitNanos, this::fsynced);
     } finally {
       currLog.decref();
     }
   }
 
+  private void fsynced(int batchSize, long nanos) {
+    Timer timer = fsyncTimer;
+    Histogram batchSizes = fsyncBatchSizeHistogram;
+    if (timer != null) {
+      timer.update(nanos, TimeUnit.NANOSECONDS);
+      batchSizes.update(batchSize);
+    }
+  }
+
   public Future<RecoveryInfo> recoverFromLog() {
     recoveryInfo = new RecoveryInfo();
 
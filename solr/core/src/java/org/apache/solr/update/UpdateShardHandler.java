@@ -32,6 +32,7 @@ import org.apache.solr.client.solrj.impl.Http2SolrClient;
 import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.EnvUtils;
 import org.apache.solr.common.util.ExecutorUtil;
 import org.apache.solr.common.util.IOUtils;
 import org.apache.solr.common.util.SolrNamedThreadFactory;
@@ -75,6 +76,8 @@ public class UpdateShardHandler implements SolrInfoBean {
 
   private final Http2SolrClient updateOnlyClient;
 
+  private final UpdateCoalescer updateCoalescer;
+
   private final Http2SolrClient recoveryOnlyClient;
 
   private final CloseableHttpClient defaultClient;
@@ -143,6 +146,13 @@ public class UpdateShardHandler implements SolrInfoBean {
     recoveryOnlyClient = recoveryOnlyClientBuilder.build();
     recoveryOnlyClient.addListenerFactory(trackHttpSolrMetrics);
 
+    updateCoalescer =
+        new UpdateCoalescer(
+            updateOnlyClient,
+            this::getUpdateExecutor,
+            EnvUtils.getPropertyAsLong("solr.cloud.replication.coalesceMs", 0L),
+            EnvUtils.getPropertyAsLong("solr.cloud.replication.coalesceMaxDocs", 500L).intValue());
+
     ThreadFactory recoveryThreadFactory = new SolrNamedThreadFactory("recoveryExecutor");
     if (cfg != null && cfg.getMaxRecoveryThreads() > 0) {
       if (log.isDebugEnabled()) {
@@ -256,6 +266,11 @@ public class UpdateShardHandler implements SolrInfoBean {
     return updateOnlyClient;
   }
 
+  /** Packs the docs sent to the same replica by the leaders of this node, if enabled */
+  public UpdateCoalescer getUpdateCoalescer() {
+    return updateCoalescer;
+  }
+
   // don't introduce a bug, this client is for recovery ops only!
   public Http2SolrClient getRecoveryOnlyHttpClient() {
     return recoveryOnlyClient;
@@ -284,6 +299,8 @@ public class UpdateShardHandler implements SolrInfoBean {
   @Override
   public void close() {
     try {
+      // send the coalesced docs while we still can
+      updateCoalescer.close();
       // do not interrupt, do not interrupt
       ExecutorUtil.shutdownAndAwaitTermination(updateExecutor);
       ExecutorUtil.shutdownAndAwaitTermination(recoveryExecutor);
@@ -20,6 +20,7 @@ import static org.apache.solr.common.params.CommonParams.VERSION_FIELD;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.util.BytesRef;
@@ -117,23 +118,15 @@ public class VersionInfo {
   // Good if we want to relax some constraints to scale down to where only one node may be
   // up at a time.  Possibly harder to detect missing messages (because versions are not
   // contiguous).
-  private long vclock;
-
-  private final Object clockSync = new Object();
+  // Advanced with a CAS rather than under a monitor, every update of the core takes a version
+  private final AtomicLong vclock = new AtomicLong();
 
   @SuppressForbidden(
       reason =
           "need currentTimeMillis just for getting realistic version stamps, does not assume monotonicity")
   public long getNewClock() {
-    synchronized (clockSync) {
-      long time = System.currentTimeMillis();
-      long result = time << 20;
-      if (result <= vclock) {
-        result = vclock + 1;
-      }
-      vclock = result;
-      return vclock;
-    }
+    long time = System.currentTimeMillis() << 20;
+    return vclock.accumulateAndGet(time, (prev, now) -> now <= prev ? prev + 1 : now);
   }
 
   public Long lookupVersion(BytesRef idBytes) {
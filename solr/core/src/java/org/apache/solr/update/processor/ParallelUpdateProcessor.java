@@ -0,0 +1,485 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.IOUtils;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.DelegatingSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.update.DeleteUpdateCommand;
+import org.apache.solr.update.MergeIndexesCommand;
+import org.apache.solr.update.RollbackUpdateCommand;
+import org.apache.solr.update.UpdateCommand;
+import org.apache.solr.util.OrderedExecutor;
+import org.apache.solr.util.RefCounted;
+
+/**
+ * Runs the adds and the deletes by id of an update request through the update processor chain on
+ * several threads, while the request is still being parsed. Each thread has its own instance of
+ * the chain, since processors aren't thread safe, and the updates of the same id always go to the
+ * same thread so that they are processed in the order of the request. Any other command waits for
+ * all the updates before it, and for the chains of the threads to finish, so that the updates they
+ * sent to other replicas are acknowledged; it is then processed by the chain of the request, and
+ * the threads start over with new chains.
+ *
+ * <p>The chain of a thread gets a request delegating to the request being processed, with a copy of
+ * its context and a searcher of its own, and runs with a {@link SolrRequestInfo} for that request.
+ *
+ * <p>As when the request is processed by a single thread, all the updates before the first one
+ * that fails are processed, and the request fails with the error of that update. The errors of
+ * other updates processed concurrently are attached to it as suppressed exceptions, in the order
+ * of the request. The updates after the first failing one may or may not have been processed.
+ *
+ * <p>Requests enable this with the <code>update.threads</code> param. It isn't used along with
+ * {@link TolerantUpdateProcessorFactory}, whose errors must be counted over the whole request.
+ *
+ * @lucene.internal
+ */
+public class ParallelUpdateProcessor extends UpdateRequestProcessor {
+
+  /** The updates a thread processes in a go */
+  static final int BATCH_SIZE = 64;
+
+  private final SolrQueryRequest req;
+  private final SolrQueryResponse rsp;
+  private final UpdateRequestProcessorChain chain;
+  private final OrderedExecutor<Integer> executor;
+  private final Lane[] lanes;
+  private final SchemaField uniqueKeyField;
+
+  private long nextSeq;
+  private int nextLane;
+
+  /** The batches submitted and not processed yet; synchronize on this */
+  private int pendingBatches;
+
+  /** The errors of the updates, by their position in the request; synchronize on this */
+  private final TreeMap<Long, Throwable> errors = new TreeMap<>();
+
+  /** The position of the first update that failed; the later ones needn't be processed */
+  private volatile long firstErrorSeq = Long.MAX_VALUE;
+
+  private boolean errorsThrown;
+
+  /**
+   * @param next the chain processing the other commands, and finishing the request
+   * @param numThreads how many threads process the updates
+   */
+  public ParallelUpdateProcessor(
+      UpdateRequestProcessorChain chain,
+      SolrQueryRequest req,
+      SolrQueryResponse rsp,
+      UpdateRequestProcessor next,
+      int numThreads) {
+    super(next);
+    this.chain = chain;
+    this.req = req;
+    this.rsp = rsp;
+    this.uniqueKeyField = req.getSchema().getUniqueKeyField();
+    this.executor =
+        new OrderedExecutor<>(
+            numThreads, req.getCoreContainer().getUpdateShardHandler().getUpdateExecutor());
+    this.lanes = new Lane[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      lanes[i] = new Lane(i);
+    }
+  }
+
+  /** Whether the updates of the requests to the given chain may be processed in parallel */
+  public static boolean isSupported(UpdateRequestProcessorChain chain) {
+    for (UpdateRequestProcessorFactory factory : chain.getProcessors()) {
+      if (factory instanceof TolerantUpdateProcessorFactory) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void processAdd(AddUpdateCommand cmd) throws IOException {
+    throwErrorsIfAny();
+    Object id = getRootId(cmd.getSolrInputDocument());
+    // docs without an id get one later in the chain, they can't be updates of the same doc
+    Lane lane = id == null ? lanes[nextLane++ % lanes.length] : laneOf(id.toString());
+    // the loaders reuse their commands
+    lane.add((AddUpdateCommand) cmd.clone());
+  }
+
+  @Override
+  public void processDelete(DeleteUpdateCommand cmd) throws IOException {
+    throwErrorsIfAny();
+    if (cmd.isDeleteById()) {
+      laneOf(cmd.getId()).add(cmd.clone());
+    } else {
+      finishLanes();
+      super.processDelete(cmd);
+    }
+  }
+
+  @Override
+  public void processMergeIndexes(MergeIndexesCommand cmd) throws IOException {
+    finishLanes();
+    super.processMergeIndexes(cmd);
+  }
+
+  @Override
+  public void processCommit(CommitUpdateCommand cmd) throws IOException {
+    finishLanes();
+    super.processCommit(cmd);
+  }
+
+  @Override
+  public void processRollback(RollbackUpdateCommand cmd) throws IOException {
+    finishLanes();
+    super.processRollback(cmd);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    awaitPending();
+    Throwable failure = finishLaneChains();
+    try {
+      super.finish();
+    } catch (Throwable t) {
+      if (failure == null) {
+        throw t;
+      }
+      failure.addSuppressed(t);
+    }
+    if (failure != null) {
+      rethrow(failure);
+    }
+    throwErrorsIfAny();
+  }
+
+  @Override
+  protected void doClose() {
+    for (Lane lane : lanes) {
+      lane.close();
+    }
+  }
+
+  private Object getRootId(SolrInputDocument doc) {
+    if (uniqueKeyField == null || doc == null) {
+      return null;
+    }
+    // like AddUpdateCommand.getIndexedIdStr, children go along with their root
+    Object root = doc.getFieldValue(IndexSchema.ROOT_FIELD_NAME);
+    return root != null ? root : doc.getFieldValue(uniqueKeyField.getName());
+  }
+
+  private Lane laneOf(String id) {
+    return lanes[Math.floorMod(id.hashCode(), lanes.length)];
+  }
+
+  private void submit(Lane lane, List<Update> batch) {
+    synchronized (this) {
+      pendingBatches++;
+    }
+    try {
+      // waits for the previous batch of the lane, so the parsing doesn't get too far ahead
+      executor.execute(lane.index, () -> lane.process(batch));
+    } catch (RuntimeException e) {
+      batchDone();
+      throw e;
+    }
+  }
+
+  private synchronized void batchDone() {
+    if (--pendingBatches == 0) {
+      notifyAll();
+    }
+  }
+
+  /** Submits the updates gathered so far, and waits until they are all processed */
+  private void awaitPending() {
+    for (Lane lane : lanes) {
+      lane.submit();
+    }
+    synchronized (this) {
+      while (pendingBatches > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(ErrorCode.SERVER_ERROR, "Interrupted processing updates", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Processes the updates gathered so far and finishes the chains of the threads, so that what they
+   * sent to other replicas is acknowledged before the next command. Throws the error of the first
+   * failing update, if any.
+   */
+  private void finishLanes() throws IOException {
+    awaitPending();
+    throwErrorsIfAny();
+    Throwable failure = finishLaneChains();
+    if (failure != null) {
+      rethrow(failure);
+    }
+  }
+
+  /**
+   * Finishes the chain of every thread, even if some of them fail. Returns the first failure, with
+   * the later ones suppressed, or null.
+   */
+  private Throwable finishLaneChains() {
+    Throwable failure = null;
+    for (Lane lane : lanes) {
+      try {
+        lane.finish();
+      } catch (Throwable t) {
+        if (failure == null) {
+          failure = t;
+        } else {
+          failure.addSuppressed(t);
+        }
+      }
+    }
+    return failure;
+  }
+
+  private synchronized void addError(long seq, Throwable t) {
+    errors.put(seq, t);
+    if (seq < firstErrorSeq) {
+      firstErrorSeq = seq;
+    }
+  }
+
+  /** Throws the error of the first failing update, once all the updates before it are processed */
+  private void throwErrorsIfAny() throws IOException {
+    if (firstErrorSeq == Long.MAX_VALUE || errorsThrown) {
+      return;
+    }
+    awaitPending();
+    errorsThrown = true;
+    Throwable first;
+    synchronized (this) {
+      first = errors.firstEntry().getValue();
+      for (Throwable other : errors.tailMap(errors.firstKey(), false).values()) {
+        first.addSuppressed(other);
+      }
+    }
+    rethrow(first);
+  }
+
+  private static void rethrow(Throwable t) throws IOException {
+    if (t instanceof IOException ioe) {
+      throw ioe;
+    } else if (t instanceof RuntimeException re) {
+      throw re;
+    } else if (t instanceof Error e) {
+      throw e;
+    }
+    throw new SolrException(ErrorCode.SERVER_ERROR, t);
+  }
+
+  private record Update(long seq, UpdateCommand cmd) {}
+
+  /**
+   * The updates of the ids falling on one thread. Its batches are processed one at a time, in
+   * order, so its processors are never used by two threads at once. Its request is created by the
+   * request thread, and its chain by the thread processing its first batch.
+   */
+  private class Lane {
+    final int index;
+    List<Update> batch = new ArrayList<>(BATCH_SIZE);
+    SolrQueryRequest laneReq;
+    SolrQueryResponse laneRsp;
+    UpdateRequestProcessor processor;
+
+    Lane(int index) {
+      this.index = index;
+    }
+
+    void add(UpdateCommand cmd) {
+      if (laneReq == null) {
+        laneReq = newLaneRequest();
+        laneRsp = new SolrQueryResponse();
+        laneRsp.addResponseHeader(new SimpleOrderedMap<>());
+      }
+      batch.add(new Update(nextSeq++, cmd));
+      if (batch.size() == BATCH_SIZE) {
+        submit();
+      }
+    }
+
+    void submit() {
+      if (!batch.isEmpty()) {
+        List<Update> toProcess = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        ParallelUpdateProcessor.this.submit(this, toProcess);
+      }
+    }
+
+    void process(List<Update> updates) {
+      // on top of the info of the request being processed, which the executor carried over
+      SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+      SolrRequestInfo laneInfo = new SolrRequestInfo(laneReq, laneRsp);
+      if (requestInfo != null) {
+        laneInfo.setAction(requestInfo.getAction());
+        laneInfo.setUseServerToken(requestInfo.useServerToken());
+      }
+      SolrRequestInfo.setRequestInfo(laneInfo);
+      try {
+        if (processor == null) {
+          processor = chain.createProcessor(laneReq, laneRsp);
+        }
+        for (Update update : updates) {
+          if (update.seq() > firstErrorSeq) {
+            break;
+          }
+          try {
+            if (update.cmd() instanceof AddUpdateCommand add) {
+              processor.processAdd(add);
+            } else {
+              processor.processDelete((DeleteUpdateCommand) update.cmd());
+            }
+          } catch (Throwable t) {
+            addError(update.seq(), t);
+            break;
+          }
+        }
+      } catch (Throwable t) {
+        addError(updates.get(0).seq(), t);
+      } finally {
+        SolrRequestInfo.clearRequestInfo();
+        batchDone();
+      }
+    }
+
+    /** Finishes the chain, which the next update replaces with a new one */
+    void finish() throws IOException {
+      try {
+        if (processor != null) {
+          processor.finish();
+          mergeResponse(laneRsp);
+        }
+      } finally {
+        close();
+      }
+    }
+
+    void close() {
+      if (processor != null) {
+        IOUtils.closeQuietly(processor);
+        processor = null;
+      }
+      if (laneReq != null) {
+        laneReq.close();
+        laneReq = null;
+        laneRsp = null;
+      }
+    }
+  }
+
+  /**
+   * A request delegating to the one being processed, for the chain of a thread to use on its own.
+   * It has a copy of the context, its own params and its own searcher, since the request being
+   * processed isn't thread safe.
+   */
+  private SolrQueryRequest newLaneRequest() {
+    final Map<Object, Object> context = new HashMap<>(req.getContext());
+    return new DelegatingSolrQueryRequest(req) {
+      private SolrParams params = req.getParams();
+      private RefCounted<SolrIndexSearcher> searcherHolder;
+
+      @Override
+      public Map<Object, Object> getContext() {
+        return context;
+      }
+
+      @Override
+      public SolrParams getParams() {
+        return params;
+      }
+
+      @Override
+      public void setParams(SolrParams params) {
+        this.params = params;
+      }
+
+      @Override
+      public SolrIndexSearcher getSearcher() {
+        if (searcherHolder == null) {
+          searcherHolder = getCore().getSearcher();
+        }
+        return searcherHolder.get();
+      }
+
+      @Override
+      public void close() {
+        // the request being processed is closed by its handler
+        if (searcherHolder != null) {
+          searcherHolder.decref();
+          searcherHolder = null;
+        }
+      }
+    };
+  }
+
+  /** Adds what the processors of a thread put in their response to the response of the request */
+  private void mergeResponse(SolrQueryResponse laneRsp) {
+    for (Map.Entry<String, Object> entry : laneRsp.getValues()) {
+      Object existing = rsp.getValues().get(entry.getKey());
+      if (existing == null) {
+        rsp.add(entry.getKey(), entry.getValue());
+      } else if (existing instanceof NamedList<?> && entry.getValue() instanceof NamedList<?>) {
+        @SuppressWarnings("unchecked")
+        NamedList<Object> merged = (NamedList<Object>) existing;
+        mergeNamedList(merged, (NamedList<?>) entry.getValue());
+      }
+    }
+  }
+
+  private static void mergeNamedList(NamedList<Object> merged, NamedList<?> lane) {
+    for (Map.Entry<String, ?> entry : lane) {
+      int idx = merged.indexOf(entry.getKey(), 0);
+      if (idx < 0) {
+        // such as the versions of the updates, no two threads have the same ids
+        merged.add(entry.getKey(), entry.getValue());
+      } else if (UpdateRequest.REPFACT.equals(entry.getKey())
+          && merged.getVal(idx) instanceof Integer rf
+          && entry.getValue() instanceof Integer laneRf) {
+        // the replication factor achieved for the request is the lowest of all its threads
+        merged.setVal(idx, Math.min(rf, laneRf));
+      }
+    }
+  }
+}
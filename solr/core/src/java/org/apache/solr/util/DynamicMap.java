@@ -42,6 +42,22 @@ public interface DynamicMap {
     return expectedKeyMax >>> 6;
   }
 
+  /**
+   * Compute threshold for switching from hashMap based to array for a sparse map: the number of
+   * keys from which the hashMap takes about as much memory as the array.
+   */
+  default int sparseThreshold(int expectedKeyMax) {
+    return expectedKeyMax >>> 2;
+  }
+
+  /**
+   * Compute expected elements for the hppc map of a sparse map, no more than for a map that isn't
+   * sparse so that starting sparse never takes more memory
+   */
+  default int sparseMapExpectedElements(int expectedKeyMax, int expectedSize) {
+    return Math.min(expectedSize, mapExpectedElements(expectedKeyMax));
+  }
+
   /**
    * Compute expected elements for hppc maps, so resizing won't happen if we store less elements
    * than {@code threshold}
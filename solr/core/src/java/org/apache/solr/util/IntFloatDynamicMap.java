@@ -46,6 +46,22 @@ public class IntFloatDynamicMap implements DynamicMap {
     }
   }
 
+  /**
+   * Create a sparse map with expected max value of key, sized for the expected number of keys put
+   * in it rather than for the max key. It only switches to an array once its hashMap takes about
+   * as much memory, so for a few keys out of many it takes the memory of these keys only.
+   */
+  public IntFloatDynamicMap(int expectedKeyMax, int expectedSize, float emptyValue) {
+    this.threshold = sparseThreshold(expectedKeyMax);
+    this.maxSize = expectedKeyMax;
+    this.emptyValue = emptyValue;
+    if (useArrayBased(expectedKeyMax) || expectedSize >= threshold) {
+      upgradeToArray();
+    } else {
+      this.hashMap = new IntFloatHashMap(sparseMapExpectedElements(expectedKeyMax, expectedSize));
+    }
+  }
+
   private void upgradeToArray() {
     keyValues = new float[maxSize];
     if (emptyValue != 0.0f) {
@@ -47,6 +47,22 @@ public class IntIntDynamicMap implements DynamicMap {
     }
   }
 
+  /**
+   * Create a sparse map with expected max value of key, sized for the expected number of keys put
+   * in it rather than for the max key. It only switches to an array once its hashMap takes about
+   * as much memory, so for a few keys out of many it takes the memory of these keys only.
+   */
+  public IntIntDynamicMap(int expectedKeyMax, int expectedSize, int emptyValue) {
+    this.threshold = sparseThreshold(expectedKeyMax);
+    this.maxSize = expectedKeyMax;
+    this.emptyValue = emptyValue;
+    if (useArrayBased(expectedKeyMax) || expectedSize >= threshold) {
+      upgradeToArray();
+    } else {
+      this.hashMap = new IntIntHashMap(sparseMapExpectedElements(expectedKeyMax, expectedSize));
+    }
+  }
+
   private void upgradeToArray() {
     keyValues = new int[maxSize];
     if (emptyValue != 0) {
@@ -107,6 +123,11 @@ public class IntIntDynamicMap implements DynamicMap {
     }
   }
 
+  /** Whether the map switched from a hashMap to an array for storing its values */
+  public boolean isArrayBased() {
+    return keyValues != null;
+  }
+
   public void remove(int key) {
     if (keyValues != null) {
       if (key < keyValues.length) keyValues[key] = emptyValue;
@@ -47,6 +47,22 @@ public class IntLongDynamicMap implements DynamicMap {
     }
   }
 
+  /**
+   * Create a sparse map with expected max value of key, sized for the expected number of keys put
+   * in it rather than for the max key. It only switches to an array once its hashMap takes about
+   * as much memory, so for a few keys out of many it takes the memory of these keys only.
+   */
+  public IntLongDynamicMap(int expectedKeyMax, int expectedSize, long emptyValue) {
+    this.threshold = sparseThreshold(expectedKeyMax);
+    this.maxSize = expectedKeyMax;
+    this.emptyValue = emptyValue;
+    if (useArrayBased(expectedKeyMax) || expectedSize >= threshold) {
+      upgradeToArray();
+    } else {
+      this.hashMap = new IntLongHashMap(sparseMapExpectedElements(expectedKeyMax, expectedSize));
+    }
+  }
+
   private void upgradeToArray() {
     keyValues = new long[maxSize];
     if (emptyValue != 0) {
@@ -84,6 +100,22 @@ public class IntLongDynamicMap implements DynamicMap {
     }
   }
 
+  /** Adds the given delta to the value of the key, which is the empty value if not present */
+  public void addTo(int key, long delta) {
+    if (keyValues != null) {
+      if (key >= keyValues.length) {
+        growBuffer(key + 1);
+      }
+      keyValues[key] += delta;
+    } else {
+      this.maxSize = Math.max(key + 1, maxSize);
+      this.hashMap.put(key, this.hashMap.getOrDefault(key, emptyValue) + delta);
+      if (this.hashMap.size() >= threshold) {
+        upgradeToArray();
+      }
+    }
+  }
+
   public long get(int key) {
     if (keyValues != null) {
       if (key >= keyValues.length) {
@@ -107,6 +139,26 @@ public class IntLongDynamicMap implements DynamicMap {
     }
   }
 
+  /** Whether the map switched from a hashMap to an array for storing its values */
+  public boolean isArrayBased() {
+    return keyValues != null;
+  }
+
+  /** Calls the procedure for every key whose value isn't the empty value */
+  public void forEach(IntLongProcedure procedure) {
+    if (keyValues != null) {
+      for (int key = 0; key < keyValues.length; key++) {
+        if (keyValues[key] != emptyValue) procedure.apply(key, keyValues[key]);
+      }
+    } else {
+      hashMap.forEach(
+          (IntLongProcedure)
+              (key, value) -> {
+                if (value != emptyValue) procedure.apply(key, value);
+              });
+    }
+  }
+
   public void remove(int key) {
     if (keyValues != null) {
       if (key < keyValues.length) keyValues[key] = emptyValue;
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.solr.SolrTestCase;
+
+public class LocalIndexFilesTest extends SolrTestCase {
+
+  public void testFindsTheSameFile() throws Exception {
+    Path indexDir = createTempDir("index");
+    String name;
+    long size;
+    long checksum;
+    try (Directory dir = new NIOFSDirectory(indexDir)) {
+      try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+        Document doc = new Document();
+        doc.add(new StringField("id", "1", Field.Store.YES));
+        writer.addDocument(doc);
+        writer.commit();
+      }
+      name = SegmentInfos.readLatestCommit(dir).getSegmentsFileName();
+      size = dir.fileLength(name);
+      try (IndexInput in = dir.openInput(name, IOContext.READONCE)) {
+        checksum = CodecUtil.retrieveChecksum(in);
+      }
+    }
+
+    try (LocalIndexFiles localIndexFiles =
+        new LocalIndexFiles(List.of(createTempDir("empty"), indexDir))) {
+      assertEquals(indexDir.resolve(name), localIndexFiles.find(name, size, checksum));
+      assertNull(localIndexFiles.find(name, size, checksum + 1));
+      assertNull(localIndexFiles.find(name, size + 1, checksum));
+      assertNull(localIndexFiles.find("_missing.si", size, checksum));
+
+      Path tmpIndexDir = createTempDir("tmpIndex");
+      assertFalse(localIndexFiles.copyTo(tmpIndexDir, name, size, checksum + 1));
+      assertFalse(Files.exists(tmpIndexDir.resolve(name)));
+      assertTrue(localIndexFiles.copyTo(tmpIndexDir, name, size, checksum));
+      assertArrayEquals(
+          Files.readAllBytes(indexDir.resolve(name)),
+          Files.readAllBytes(tmpIndexDir.resolve(name)));
+    }
+  }
+}
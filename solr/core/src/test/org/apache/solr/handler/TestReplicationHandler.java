@@ -34,13 +34,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
+import org.apache.commons.io.file.PathUtils;
+import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.tests.util.LuceneTestCase;
 import org.apache.lucene.tests.util.TestUtil;
@@ -884,6 +890,172 @@ public class TestReplicationHandler extends SolrTestCaseJ4 {
     checkForSingleIndex(followerJetty);
   }
 
+  @Test
+  public void doTestIndexFetchWithFetchThreads() throws Exception {
+    // this has no entry for pollinginterval
+    follower.setTestPort(leaderJetty.getLocalPort());
+    follower.copyConfigFile(CONF_DIR + "solrconfig-follower1.xml", "solrconfig.xml");
+    followerJetty.stop();
+    followerJetty = createAndStartJetty(follower);
+    followerClient.close();
+    followerClient =
+        ReplicationTestHelper.createNewSolrClient(
+            buildUrl(followerJetty.getLocalPort()), DEFAULT_TEST_CORENAME);
+
+    leaderClient.deleteByQuery("*:*");
+    followerClient.deleteByQuery("*:*");
+    followerClient.commit();
+
+    // a few commits, for a few segments and so a few files to fetch at once
+    int numDocs = 0;
+    for (int commit = 0; commit < 3; commit++) {
+      for (int i = 0; i < 10; i++, numDocs++) {
+        index(leaderClient, "id", numDocs, "name", "name = " + numDocs);
+      }
+      leaderClient.commit();
+    }
+    SolrDocumentList leaderQueryResult =
+        (SolrDocumentList) rQuery(numDocs, "*:*", leaderClient).get("response");
+
+    assertEquals("OK", fetchIndex(ReplicationHandler.FETCH_THREADS, "4"));
+
+    SolrDocumentList followerQueryResult =
+        (SolrDocumentList) rQuery(numDocs, "*:*", followerClient).get("response");
+    assertEquals(numDocs, followerQueryResult.getNumFound());
+    assertNull(
+        BaseDistributedSearchTestCase.compare(leaderQueryResult, followerQueryResult, 0, null));
+    assertVersions(leaderClient, followerClient);
+  }
+
+  @Test
+  public void doTestIndexFetchLinksLocalFiles() throws Exception {
+    // this has no entry for pollinginterval
+    follower.setTestPort(leaderJetty.getLocalPort());
+    follower.copyConfigFile(CONF_DIR + "solrconfig-follower1.xml", "solrconfig.xml");
+    followerJetty.stop();
+    followerJetty = createAndStartJetty(follower);
+    followerClient.close();
+    followerClient =
+        ReplicationTestHelper.createNewSolrClient(
+            buildUrl(followerJetty.getLocalPort()), DEFAULT_TEST_CORENAME);
+
+    leaderClient.deleteByQuery("*:*");
+    for (int i = 0; i < 10; i++) {
+      index(leaderClient, "id", i, "name", "name = " + i);
+    }
+    leaderClient.commit();
+    // the follower fetches the index from the leader
+    assertEquals("OK", fetchIndex());
+
+    // another core of the follower's node then gets the same files from the follower
+    Path siblingDir = Path.of(follower.getHomeDir(), "sibling");
+    PathUtils.copyDirectory(Path.of(follower.getConfDir()), siblingDir.resolve("conf"));
+    followerJetty.getCoreContainer().create("sibling", Map.of());
+    System.setProperty("solr.replication.copyLocalFiles", "true");
+    try (SolrClient siblingClient =
+        ReplicationTestHelper.createNewSolrClient(
+            buildUrl(followerJetty.getLocalPort()), "sibling")) {
+      SolrQuery q = new SolrQuery();
+      q.add("qt", "/replication")
+          .add("wait", "true")
+          .add("command", "fetchindex")
+          .add("leaderUrl", buildUrl(leaderJetty.getLocalPort()) + "/" + DEFAULT_TEST_CORENAME);
+      assertEquals("OK", siblingClient.query(q).getResponse().get("status"));
+      assertEquals(10, numFound(query("*:*", siblingClient)));
+    } finally {
+      System.clearProperty("solr.replication.copyLocalFiles");
+    }
+
+    Path followerIndex;
+    Path siblingIndex;
+    try (SolrCore core = followerJetty.getCoreContainer().getCore(DEFAULT_TEST_CORENAME)) {
+      followerIndex = Path.of(core.getIndexDir());
+    }
+    try (SolrCore core = followerJetty.getCoreContainer().getCore("sibling")) {
+      siblingIndex = Path.of(core.getIndexDir());
+    }
+    try (Directory dir = FSDirectory.open(siblingIndex)) {
+      for (String file : SegmentInfos.readLatestCommit(dir).files(false)) {
+        // linked rather than fetched
+        assertTrue(file, Files.isSameFile(followerIndex.resolve(file), siblingIndex.resolve(file)));
+      }
+    }
+  }
+
+  @Test
+  public void doTestIndexFetchResumesPartialFile() throws Exception {
+    // this has no entry for pollinginterval
+    follower.setTestPort(leaderJetty.getLocalPort());
+    follower.copyConfigFile(CONF_DIR + "solrconfig-follower1.xml", "solrconfig.xml");
+    followerJetty.stop();
+    followerJetty = createAndStartJetty(follower);
+    followerClient.close();
+    followerClient =
+        ReplicationTestHelper.createNewSolrClient(
+            buildUrl(followerJetty.getLocalPort()), DEFAULT_TEST_CORENAME);
+
+    leaderClient.deleteByQuery("*:*");
+    followerClient.deleteByQuery("*:*");
+    followerClient.commit();
+    int numDocs = 50;
+    for (int i = 0; i < numDocs; i++) {
+      index(leaderClient, "id", i, "name", TestUtil.randomSimpleString(random(), 100, 500));
+    }
+    leaderClient.commit();
+    SolrDocumentList leaderQueryResult =
+        (SolrDocumentList) rQuery(numDocs, "*:*", leaderClient).get("response");
+
+    // the start of the largest file of the leader, as a fetch that failed would have left it
+    Path leaderIndex = Path.of(leader.getDataDir()).resolve("index");
+    String largest = null;
+    long size = 0;
+    long checksum = 0;
+    try (Directory dir = FSDirectory.open(leaderIndex)) {
+      for (String file : SegmentInfos.readLatestCommit(dir).files(true)) {
+        if (dir.fileLength(file) > size) {
+          largest = file;
+          size = dir.fileLength(file);
+          try (IndexInput in = dir.openInput(file, IOContext.READONCE)) {
+            checksum = CodecUtil.retrieveChecksum(in);
+          }
+        }
+      }
+    }
+    Path partialFiles = Path.of(follower.getDataDir()).resolve(IndexFetcher.PARTIAL_FILES_DIR);
+    Files.createDirectories(partialFiles);
+    Path partialFile = partialFiles.resolve(largest + "." + size + "." + checksum);
+    byte[] start;
+    try (InputStream in = Files.newInputStream(leaderIndex.resolve(largest))) {
+      start = in.readNBytes((int) size / 2);
+    }
+
+    // a start that differs from the file of the leader fails the fetch, once the file is whole
+    Files.write(partialFile, new byte[start.length]);
+    assertEquals("ERROR", fetchIndex());
+    assertEquals(0, numFound(query("*:*", followerClient)));
+
+    Files.write(partialFile, start);
+    assertEquals("OK", fetchIndex());
+    SolrDocumentList followerQueryResult =
+        (SolrDocumentList) rQuery(numDocs, "*:*", followerClient).get("response");
+    assertNull(
+        BaseDistributedSearchTestCase.compare(leaderQueryResult, followerQueryResult, 0, null));
+    assertFalse(Files.exists(partialFiles));
+  }
+
+  /** Fetches the index of the leader, and returns the status of the fetch */
+  private String fetchIndex(String... params) throws Exception {
+    SolrQuery q = new SolrQuery();
+    q.add("qt", "/replication")
+        .add("wait", "true")
+        .add("command", "fetchindex")
+        .add("leaderUrl", buildUrl(leaderJetty.getLocalPort()) + "/" + DEFAULT_TEST_CORENAME);
+    for (int i = 0; i < params.length; i += 2) {
+      q.add(params[i], params[i + 1]);
+    }
+    return (String) followerClient.query(q).getResponse().get("status");
+  }
+
   @Test
   public void doTestStressReplication() throws Exception {
     // change solrconfig on follower
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.client.solrj.impl.LBHttp2SolrClient;
+import org.apache.solr.client.solrj.impl.LBSolrClient;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.slf4j.MDC;
+
+public class HttpShardHandlerHedgingTest extends SolrTestCaseJ4 {
+  private static final LBSolrClient.Endpoint FIRST =
+      LBSolrClient.Endpoint.from("http://host1:8983/solr/collection1_shard1_replica_n1");
+  private static final LBSolrClient.Endpoint SECOND =
+      LBSolrClient.Endpoint.from("http://host2:8983/solr/collection1_shard1_replica_n2");
+
+  private HttpShardHandlerFactory factory;
+  private HttpShardHandler handler;
+  /** The requests sent to the replicas, by the first replica they are sent to */
+  private final BlockingQueue<Map.Entry<String, CompletableFuture<LBSolrClient.Rsp>>> sent =
+      new LinkedBlockingQueue<>();
+  /** The context the requests were sent with: the user, whether by a server thread, the MDC */
+  private final BlockingQueue<String> senders = new LinkedBlockingQueue<>();
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUpHandler() {
+    assumeWorkingMockito();
+    factory = new HttpShardHandlerFactory();
+    factory.hedgePercentile = 90;
+    factory.hedgeMinDelayMs = 0;
+    factory.hedgeScheduler =
+        Executors.newSingleThreadScheduledExecutor(new SolrNamedThreadFactory("shardHedger"));
+    handler = new HttpShardHandler(factory);
+    handler.lbClient = mock(LBHttp2SolrClient.class);
+    when(handler.lbClient.requestAsync(any()))
+        .thenAnswer(
+            invocation -> {
+              LBSolrClient.Req req = invocation.getArgument(0);
+              CompletableFuture<LBSolrClient.Rsp> future = new CompletableFuture<>();
+              // what the PKI authentication of the request goes by
+              SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
+              Principal principal = info == null ? null : info.getUserPrincipal();
+              senders.add(
+                  (principal == null ? null : principal.getName())
+                      + " "
+                      + (info != null && info.useServerToken())
+                      + " "
+                      + ExecutorUtil.isSolrServerThread()
+                      + " "
+                      + MDC.get("test"));
+              sent.add(Map.entry(req.getEndpoints().get(0).toString(), future));
+              return future;
+            });
+  }
+
+  @After
+  public void tearDownHandler() {
+    if (factory != null) {
+      ExecutorUtil.shutdownNowAndAwaitTermination(factory.hedgeScheduler);
+    }
+  }
+
+  private static LBSolrClient.Req request() {
+    return new LBSolrClient.Req(
+        new QueryRequest(new ModifiableSolrParams()), List.of(FIRST, SECOND));
+  }
+
+  private static LBSolrClient.Rsp response(LBSolrClient.Endpoint endpoint) {
+    return new LBSolrClient.Rsp() {
+      {
+        server = endpoint.toString();
+      }
+    };
+  }
+
+  private void recordLatencies(LBSolrClient.Endpoint endpoint, long latencyMs) {
+    for (int i = 0; i < ReplicaLatencyStats.SAMPLES; i++) {
+      factory.latencyStats.record(endpoint.toString(), TimeUnit.MILLISECONDS.toNanos(latencyMs));
+    }
+  }
+
+  public void testLatencyPercentiles() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    assertEquals(-1, stats.getPercentile("a", 50));
+    for (int i = 1; i <= 100; i++) {
+      stats.record("a", i);
+    }
+    assertEquals(50, stats.getPercentile("a", 50));
+    assertEquals(95, stats.getPercentile("a", 95));
+    // the latencies of all the replicas stand for those of a replica without enough of its own
+    assertEquals(95, stats.getPercentile("b", 95));
+    for (int i = 0; i < ReplicaLatencyStats.SAMPLES; i++) {
+      stats.record("b", 1000);
+    }
+    assertEquals(1000, stats.getPercentile("b", 50));
+  }
+
+  public void testHedgeWins() throws Exception {
+    recordLatencies(FIRST, 1);
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    var first = sent.take();
+    assertEquals(FIRST.toString(), first.getKey());
+
+    // the first replica takes longer than it usually does
+    var hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+    assertEquals(SECOND.toString(), hedge.getKey());
+    hedge.getValue().complete(response(SECOND));
+
+    assertEquals(SECOND.toString(), result.get(10, TimeUnit.SECONDS).getServer());
+    assertTrue(first.getValue().isCancelled());
+    assertEquals(1, factory.hedgedRequests.getCount());
+    assertEquals(1, factory.hedgeWins.getCount());
+  }
+
+  public void testHedgeHasTheContextOfTheRequest() throws Exception {
+    recordLatencies(FIRST, 1);
+    SolrQueryRequest req =
+        new SolrQueryRequestBase(null, new ModifiableSolrParams()) {
+          @Override
+          public Principal getUserPrincipal() {
+            return () -> "solr-user";
+          }
+        };
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, new SolrQueryResponse()));
+    MDC.put("test", "shard-request");
+    CompletableFuture<LBSolrClient.Rsp> result;
+    try {
+      result = handler.requestAsync(request());
+    } finally {
+      MDC.remove("test");
+      SolrRequestInfo.clearRequestInfo();
+    }
+    sent.take();
+    assertEquals("solr-user false false shard-request", senders.take());
+
+    // the hedge is sent for the same user, by a server thread
+    var hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+    assertEquals("solr-user false true shard-request", senders.take());
+    hedge.getValue().complete(response(SECOND));
+    result.get(10, TimeUnit.SECONDS);
+
+    // as is one on behalf of the node
+    SolrRequestInfo info = new SolrRequestInfo(req, new SolrQueryResponse());
+    info.setUseServerToken(true);
+    SolrRequestInfo.setRequestInfo(info);
+    try {
+      result = handler.requestAsync(request());
+    } finally {
+      SolrRequestInfo.clearRequestInfo();
+    }
+    sent.take();
+    senders.take();
+    hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+    assertEquals("solr-user true true null", senders.take());
+    hedge.getValue().complete(response(SECOND));
+    result.get(10, TimeUnit.SECONDS);
+  }
+
+  public void testCancelledRequestCountsAsLatency() throws Exception {
+    recordLatencies(FIRST, 1);
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    sent.take();
+    var hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+    Thread.sleep(50);
+    hedge.getValue().complete(response(SECOND));
+    result.get(10, TimeUnit.SECONDS);
+
+    // the first replica had been waited for longer than any of its responses took
+    assertTrue(
+        factory.latencyStats.getPercentile(FIRST.toString(), 100)
+            >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  public void testHedgeBudget() throws Exception {
+    factory.hedgeMaxFraction = 0;
+    for (int i = 0; i < HttpShardHandlerFactory.HEDGE_BURST; i++) {
+      assertTrue(factory.spendHedge());
+    }
+    assertFalse(factory.spendHedge());
+
+    recordLatencies(FIRST, 1);
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    var first = sent.take();
+    // the budget is spent, the request waits for the first replica
+    assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    first.getValue().complete(response(FIRST));
+    assertEquals(FIRST.toString(), result.get(10, TimeUnit.SECONDS).getServer());
+    assertEquals(0, factory.hedgedRequests.getCount());
+
+    // each request earns its share of a hedge
+    factory.hedgeMaxFraction = 0.5f;
+    factory.earnHedge();
+    assertFalse(factory.spendHedge());
+    factory.earnHedge();
+    assertTrue(factory.spendHedge());
+  }
+
+  public void testNoHedgeWhenTheReplicaAnswersInTime() throws Exception {
+    // not hedged as long as there are no latencies to go by
+    assertEquals(-1, factory.getHedgeDelay(FIRST.toString()));
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    sent.take().getValue().complete(response(FIRST));
+    assertEquals(FIRST.toString(), result.get().getServer());
+
+    recordLatencies(FIRST, 10_000);
+    result = handler.requestAsync(request());
+    sent.take().getValue().complete(response(FIRST));
+    assertEquals(FIRST.toString(), result.get().getServer());
+    assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    assertEquals(0, factory.hedgedRequests.getCount());
+  }
+
+  public void testFailsWithTheErrorOfTheFirstReplica() throws Exception {
+    recordLatencies(FIRST, 1);
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    var first = sent.take();
+    var hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+
+    hedge.getValue().completeExceptionally(new RuntimeException("second"));
+    assertFalse(result.isDone());
+    first.getValue().completeExceptionally(new RuntimeException("first"));
+    ExecutionException e = expectThrows(ExecutionException.class, result::get);
+    assertEquals("first", e.getCause().getMessage());
+    assertEquals(0, factory.hedgeWins.getCount());
+  }
+
+  public void testCancelsBothRequests() throws Exception {
+    recordLatencies(FIRST, 1);
+    CompletableFuture<LBSolrClient.Rsp> result = handler.requestAsync(request());
+    var first = sent.take();
+    var hedge = sent.poll(10, TimeUnit.SECONDS);
+    assertNotNull("The request wasn't hedged", hedge);
+
+    result.cancel(true);
+    assertTrue(first.getValue().isCancelled());
+    assertTrue(hedge.getValue().isCancelled());
+  }
+}
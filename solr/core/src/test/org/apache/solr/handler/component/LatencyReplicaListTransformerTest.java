@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.ZkStateReader;
+
+public class LatencyReplicaListTransformerTest extends SolrTestCase {
+  private static final String FAST = "http://host1:8983/solr/collection1_shard1_replica_n1/";
+  private static final String SLOW = "http://host2:8983/solr/collection1_shard1_replica_n2/";
+  private static final String NEW = "http://host3:8983/solr/collection1_shard1_replica_n3/";
+
+  private static void record(ReplicaLatencyStats stats, String replica, long latencyMs, int n) {
+    for (int i = 0; i < n; i++) {
+      stats.record(replica, TimeUnit.MILLISECONDS.toNanos(latencyMs));
+    }
+  }
+
+  public void testScore() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    record(stats, FAST, 10, 20);
+    record(stats, SLOW, 30, 20);
+    assertTrue(stats.getScore(FAST) < stats.getScore(SLOW));
+    // the replicas are known with or without the scheme
+    double score = stats.getScore(FAST);
+    assertEquals(score, stats.getScore(FAST.substring("http://".length())), score / 1000);
+
+    // least outstanding requests: the fast replica is busy
+    for (int i = 0; i < 3; i++) {
+      stats.requestStarted(FAST);
+    }
+    assertTrue(stats.getScore(FAST) > stats.getScore(SLOW));
+    for (int i = 0; i < 3; i++) {
+      stats.requestEnded(FAST);
+    }
+    assertTrue(stats.getScore(FAST) < stats.getScore(SLOW));
+
+    // the average follows the latencies
+    record(stats, FAST, 100, 20);
+    assertTrue(stats.getScore(FAST) > stats.getScore(SLOW));
+    assertTrue(stats.getScore(NEW) < stats.getScore(FAST));
+  }
+
+  public void testFailuresCount() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    record(stats, FAST, 10, 20);
+    record(stats, SLOW, 30, 20);
+    // a replica failing fast isn't the fastest
+    for (int i = 0; i < 3; i++) {
+      stats.recordFailure(FAST, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    assertTrue(stats.getScore(FAST) > stats.getScore(SLOW));
+  }
+
+  public void testForgetsStaleReplicas() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    record(stats, FAST, 10, 20);
+    record(stats, SLOW, 30, 20);
+    stats.requestStarted(SLOW);
+    assertEquals(2, stats.size());
+
+    long later = System.nanoTime() + ReplicaLatencyStats.STALE_NS + 1;
+    stats.evictStale(later);
+    // still waiting for the slow replica
+    assertEquals(1, stats.size());
+    stats.requestEnded(SLOW);
+    stats.evictStale(later);
+    assertEquals(0, stats.size());
+    assertEquals(1, stats.getScore(SLOW), 0);
+  }
+
+  public void testOrdersByScore() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    record(stats, FAST, 10, 20);
+    record(stats, SLOW, 30, 20);
+    LatencyReplicaListTransformer transformer =
+        new LatencyReplicaListTransformer(stats, random());
+
+    List<String> urls = new ArrayList<>(List.of(SLOW, NEW, FAST));
+    transformer.transform(urls);
+    assertEquals(List.of(NEW, FAST, SLOW), urls);
+
+    List<Replica> replicas = new ArrayList<>();
+    for (String url : List.of(SLOW, FAST)) {
+      String core = url.substring(url.indexOf("/solr/") + 6, url.length() - 1);
+      replicas.add(
+          new Replica(
+              core,
+              Map.of(
+                  ZkStateReader.BASE_URL_PROP, url.substring(0, url.indexOf("/solr/") + 5),
+                  ZkStateReader.CORE_NAME_PROP, core,
+                  ZkStateReader.NODE_NAME_PROP, "node",
+                  ZkStateReader.REPLICA_TYPE, "NRT"),
+              "collection1",
+              "shard1"));
+    }
+    transformer.transform(replicas);
+    assertEquals(FAST, replicas.get(0).getCoreUrl());
+    assertEquals(SLOW, replicas.get(1).getCoreUrl());
+  }
+}
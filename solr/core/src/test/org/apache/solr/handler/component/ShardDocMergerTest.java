@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+
+public class ShardDocMergerTest extends SolrTestCase {
+
+  /** The merge returns the same page as the priority queue it replaces */
+  public void testMatchesShardFieldSortedHitQueue() {
+    int iters = atLeast(20);
+    for (int iter = 0; iter < iters; iter++) {
+      boolean reverse = random().nextBoolean();
+      boolean scoreFirst = random().nextBoolean();
+      SortField valSort = new SortField("val_l", SortField.Type.LONG, reverse);
+      SortField[] sortFields =
+          scoreFirst
+              ? new SortField[] {SortField.FIELD_SCORE, valSort}
+              : new SortField[] {valSort, SortField.FIELD_SCORE};
+      Comparator<SolrDocument> byVal =
+          Comparator.comparingLong(doc -> (Long) doc.getFieldValue("val_l"));
+      if (reverse) {
+        byVal = byVal.reversed();
+      }
+      Comparator<SolrDocument> byScore =
+          Comparator.<SolrDocument>comparingDouble(doc -> (Float) doc.getFieldValue("score"))
+              .reversed();
+      Comparator<SolrDocument> shardOrder =
+          scoreFirst ? byScore.thenComparing(byVal) : byVal.thenComparing(byScore);
+
+      int offset = random().nextInt(10);
+      int count = TestUtil.nextInt(random(), 1, 30);
+      ShardDocMerger merger = new ShardDocMerger(sortFields, null, "id", Collections.emptySet());
+      ShardFieldSortedHitQueue queue =
+          new ShardFieldSortedHitQueue(sortFields, offset + count, null);
+
+      int numShards = TestUtil.nextInt(random(), 1, 8);
+      for (int s = 0; s < numShards; s++) {
+        String shard = "shard" + s;
+        List<SolrDocument> docs = new ArrayList<>();
+        for (int d = random().nextInt(20); d > 0; d--) {
+          SolrDocument doc = new SolrDocument();
+          doc.setField("id", shard + "_" + d);
+          // few distinct values, to have ties
+          doc.setField("val_l", (long) random().nextInt(5));
+          doc.setField("score", (float) random().nextInt(5));
+          docs.add(doc);
+        }
+        docs.sort(shardOrder);
+        SolrDocumentList docList = new SolrDocumentList();
+        docList.addAll(docs);
+        List<Object> vals = new ArrayList<>();
+        for (SolrDocument doc : docs) {
+          vals.add(doc.getFieldValue("val_l"));
+        }
+        NamedList<List<Object>> sortValues = new NamedList<>();
+        sortValues.add("val_l", vals);
+
+        BitSet duplicates = null;
+        for (int i = 0; i < docs.size(); i++) {
+          if (random().nextInt(10) == 0) {
+            if (duplicates == null) {
+              duplicates = new BitSet();
+            }
+            duplicates.set(i);
+            continue;
+          }
+          ShardDoc shardDoc = new ShardDoc();
+          shardDoc.id = docs.get(i).getFieldValue("id");
+          shardDoc.shard = shard;
+          shardDoc.orderInShard = i;
+          shardDoc.score = (Float) docs.get(i).getFieldValue("score");
+          shardDoc.sortFieldValues = sortValues;
+          queue.insertWithOverflow(shardDoc);
+        }
+        merger.add(shard, docList, sortValues, duplicates);
+      }
+
+      List<Object> expected = new ArrayList<>();
+      for (int i = queue.size() - offset - 1; i >= 0; i--) {
+        expected.add(0, queue.pop().id);
+      }
+      List<ShardDoc> page = merger.merge(offset, count);
+      List<Object> actual = new ArrayList<>();
+      for (int i = 0; i < page.size(); i++) {
+        assertEquals(i, page.get(i).positionInResponse);
+        actual.add(page.get(i).id);
+      }
+      assertEquals(expected, actual);
+    }
+  }
+}
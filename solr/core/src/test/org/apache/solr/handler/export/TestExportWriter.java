@@ -17,7 +17,10 @@
 package org.apache.solr.handler.export;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -27,14 +30,23 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.tests.util.TestUtil;
 import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.client.solrj.io.stream.JavabinTupleStreamParser;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.StreamParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
 import org.apache.solr.common.util.SuppressForbidden;
 import org.apache.solr.common.util.Utils;
 import org.apache.solr.index.LogDocMergePolicyFactory;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.SchemaField;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -1172,6 +1184,181 @@ public class TestExportWriter extends SolrTestCaseJ4 {
     validateSort(numDocs);
   }
 
+  @Test
+  public void testSortThreads() throws Exception {
+    assertU(delQ("*:*"));
+    assertU(commit());
+
+    int numDocs = 2000;
+    for (int i = 0; i < numDocs; i++) {
+      assertU(
+          adoc(
+              "id", String.valueOf(i),
+              "longdv", String.valueOf((i * 7919L) % numDocs),
+              "stringdv", TestUtil.randomSimpleString(random(), 1, 3)));
+      if (i % 250 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    for (String sort : new String[] {"longdv desc", "stringdv asc,longdv asc"}) {
+      // a small queue makes every segment sort several batches
+      List<?> expected =
+          queryJsonReturnDocs(
+              req(
+                  "q", "*:*",
+                  "qt", "/export",
+                  "fl", "id,longdv,stringdv",
+                  "sort", sort,
+                  "queueSize", "100"));
+      assertEquals(numDocs, expected.size());
+      for (String sortThreads : new String[] {"2", "4", "100"}) {
+        List<?> actual =
+            queryJsonReturnDocs(
+                req(
+                    "q", "*:*",
+                    "qt", "/export",
+                    "fl", "id,longdv,stringdv",
+                    "sort", sort,
+                    "queueSize", "100",
+                    "sortThreads", sortThreads));
+        assertEquals("sortThreads=" + sortThreads + ", sort=" + sort, expected, actual);
+      }
+    }
+
+    // ids 1, 10-19, 100-199 and 1000-1999
+    List<?> filtered =
+        queryJsonReturnDocs(
+            req(
+                "q", "id:1*",
+                "qt", "/export",
+                "fl", "longdv",
+                "sort", "longdv asc",
+                "sortThreads", "4"));
+    assertEquals(1111, filtered.size());
+    long last = -1;
+    for (Object doc : filtered) {
+      long val = ((Number) ((Map<?, ?>) doc).get("longdv")).longValue();
+      assertTrue(val > last);
+      last = val;
+    }
+  }
+
+  @Test
+  public void testBoundedSortExecutor() throws Exception {
+    ExecutorService shared =
+        ExecutorUtil.newMDCAwareFixedThreadPool(4, new SolrNamedThreadFactory("testShared"));
+    try {
+      Executor executor = new ExportBuffers.BoundedExecutor(shared, 2);
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger maxRunning = new AtomicInteger();
+      List<FutureTask<Void>> tasks = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        FutureTask<Void> task =
+            new FutureTask<>(
+                () -> {
+                  maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                  Thread.sleep(5);
+                  running.decrementAndGet();
+                  return null;
+                });
+        tasks.add(task);
+        executor.execute(task);
+      }
+      for (FutureTask<Void> task : tasks) {
+        task.get();
+      }
+      assertTrue("maxRunning=" + maxRunning.get(), maxRunning.get() <= 2);
+    } finally {
+      ExecutorUtil.shutdownAndAwaitTermination(shared);
+    }
+  }
+
+  @Test
+  public void testColumnar() throws Exception {
+    assertU(delQ("*:*"));
+    assertU(commit());
+
+    // more docs than fit in one block, with missing and multivalued values
+    int numDocs = ExportWriter.COLUMNAR_BLOCK_SIZE + 500;
+    List<SolrInputDocument> docs = new ArrayList<>();
+    for (int i = 0; i < numDocs; i++) {
+      SolrInputDocument doc = new SolrInputDocument("id", String.format(Locale.ROOT, "%05d", i));
+      if (i % 3 != 0) {
+        doc.addField("intdv", i);
+      }
+      doc.addField("longdv", i * 31L);
+      if (i % 5 != 0) {
+        doc.addField("floatdv", i / 2f);
+      }
+      doc.addField("doubledv", i / 4d);
+      if (i % 2 == 0) {
+        doc.addField("datedv", Instant.ofEpochMilli(i * 86400000L).toString());
+      }
+      doc.addField("stringdv", "s" + (i % 13));
+      if (i % 7 != 0) {
+        doc.addField("booleandv", i % 2 == 0);
+      }
+      doc.addField("intdv_m", i);
+      doc.addField("intdv_m", numDocs + i);
+      if (i % 4 == 0) {
+        doc.addField("stringdv_m", "a" + i);
+        doc.addField("stringdv_m", "b" + i);
+      }
+      docs.add(doc);
+      if (docs.size() == 1000) {
+        updateJ(jsonAdd(docs.toArray(new SolrInputDocument[0])), null);
+        docs.clear();
+      }
+    }
+    updateJ(jsonAdd(docs.toArray(new SolrInputDocument[0])), null);
+    assertU(commit());
+
+    String fl = "id,intdv,longdv,floatdv,doubledv,datedv,stringdv,booleandv,intdv_m,stringdv_m";
+    List<Map<String, Object>> expected =
+        queryJavabinTuples(
+            req("q", "*:*", "fl", fl, "sort", "id asc", "wt", "javabin", "columnar", "false"));
+    List<Map<String, Object>> actual =
+        queryJavabinTuples(
+            req("q", "*:*", "fl", fl, "sort", "id asc", "wt", "javabin", "columnar", "true"));
+    assertEquals(numDocs, expected.size());
+    assertEquals(expected, actual);
+
+    Map<String, Object> first = actual.get(0);
+    assertEquals("00000", first.get("id"));
+    assertFalse(first.containsKey("intdv"));
+    assertFalse(first.containsKey("booleandv"));
+    assertEquals(Instant.EPOCH.toString(), first.get("datedv"));
+    assertEquals(List.of(0L, (long) numDocs), first.get("intdv_m"));
+    assertEquals(List.of("a0", "b0"), first.get("stringdv_m"));
+    Map<String, Object> last = actual.get(numDocs - 2);
+    assertEquals((long) numDocs - 2, last.get("intdv"));
+    assertEquals(true, last.get("booleandv"));
+  }
+
+  private List<Map<String, Object>> queryJavabinTuples(SolrQueryRequest exportReq)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(exportReq, rsp));
+    try {
+      h.getCore().execute(h.getCore().getRequestHandler("/export"), exportReq, rsp);
+      exportReq.getResponseWriter().write(out, exportReq, rsp);
+    } finally {
+      exportReq.close();
+      SolrRequestInfo.clearRequestInfo();
+    }
+    List<Map<String, Object>> tuples = new ArrayList<>();
+    try (JavabinTupleStreamParser parser =
+        new JavabinTupleStreamParser(new ByteArrayInputStream(out.toByteArray()), true)) {
+      for (Map<String, Object> tuple = parser.next(); tuple != null; tuple = parser.next()) {
+        tuples.add(tuple);
+      }
+    }
+    return tuples;
+  }
+
   private void createLargeIndex() throws Exception {
     int BATCH_SIZE = 5000;
     int NUM_BATCHES = 20;
@@ -18,11 +18,13 @@ package org.apache.solr.response;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.client.solrj.impl.JavaBinResponseParser;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
@@ -92,6 +94,49 @@ public class TestJavaBinResponseWriter extends SolrTestCaseJ4 {
     req.close();
   }
 
+  public void testStringDictionary() throws Exception {
+    assertU(adoc("id", "102", "uuid", UUID.randomUUID().toString()));
+    assertU(commit());
+    JavaBinCodec.StringDictionary dictionary =
+        JavaBinResponseWriter.getStringDictionary(h.getCore().getLatestSchema());
+    assertSame(
+        dictionary, JavaBinResponseWriter.getStringDictionary(h.getCore().getLatestSchema()));
+
+    for (long version : new long[] {dictionary.getVersion(), dictionary.getVersion() + 1}) {
+      SolrQueryRequest req =
+          req(
+              "q",
+              "id:102",
+              JavaBinResponseParser.STRING_DICTIONARY_PARAM,
+              Long.toString(version));
+      SolrQueryResponse rsp = h.queryAndResponse(null, req);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      h.getCore().getQueryResponseWriter("javabin").write(baos, req, rsp);
+      req.close();
+
+      // the response refers to the dictionary only if the client has the same one
+      boolean refersToDictionary = version == dictionary.getVersion();
+      NamedList<Object> res =
+          new JavaBinResponseParser()
+              .setStringDictionary(dictionary)
+              .processResponse(new ByteArrayInputStream(baos.toByteArray()), null);
+      SolrDocumentList docs = (SolrDocumentList) res.get("response");
+      assertEquals(1, docs.size());
+      assertEquals("102", docs.get(0).getFieldValue("id"));
+      if (refersToDictionary) {
+        expectThrows(
+            IOException.class,
+            () ->
+                new JavaBinResponseParser()
+                    .processResponse(new ByteArrayInputStream(baos.toByteArray()), null));
+      } else {
+        assertNotNull(
+            new JavaBinResponseParser()
+                .processResponse(new ByteArrayInputStream(baos.toByteArray()), null));
+      }
+    }
+  }
+
   public void testOmitHeader() throws Exception {
     SolrQueryRequest req = req("q", "*:*", "omitHeader", "true");
     SolrQueryResponse rsp = h.queryAndResponse(null, req);
@@ -225,6 +225,57 @@ public class TestCollapseQParserPlugin extends SolrTestCaseJ4 {
     }
   }
 
+  @Test
+  public void testSparseGroupHeads() throws Exception {
+    // many more values in the collapse field than groups matched: the group heads are kept in
+    // maps, and the sort values in slots of their own, rather than in arrays indexed by ord
+    for (int i = 0; i < 300; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "group_s", "g" + (i % 100),
+              "asc_i", Integer.toString(i),
+              "desc_i", Integer.toString(-i)));
+      if (i % 100 == 99) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    // size=1 starts sparse, a size over the values starts with arrays
+    for (String fq : new String[] {"asc_i:[0 TO 9] OR asc_i:[100 TO 109]", "*:*"}) {
+      for (String selector :
+          new String[] {"", "max=asc_i", "min=desc_i", "sort='asc_i desc'", "sort='desc_i asc'"}) {
+        String collapse = "{!collapse field=group_s " + selector + " size=";
+        String sparse = collapseQuery(fq, collapse + "1}");
+        String dense = collapseQuery(fq, collapse + "1000}");
+        assertEquals(fq + " " + selector, dense, sparse);
+      }
+    }
+
+    assertQ(
+        req(
+            "q", "{!func}asc_i",
+            "fq", "asc_i:[0 TO 9] OR asc_i:[100 TO 109]",
+            "fq", "{!collapse field=group_s sort='asc_i desc' size=1}",
+            "sort", "asc_i asc"),
+        "*[count(//doc)=10]",
+        "//result/doc[1]/str[@name='id'][.='100']",
+        "//result/doc[10]/str[@name='id'][.='109']");
+  }
+
+  private String collapseQuery(String fq, String collapse) throws Exception {
+    return h.query(
+        req(
+            "q", "{!func}asc_i",
+            "fq", fq,
+            "fq", collapse,
+            "fl", "id",
+            "rows", "300",
+            "sort", "id asc",
+            "omitHeader", "true"));
+  }
+
   @Test
   public void testNumericCollapse() {
     final String hint = "";
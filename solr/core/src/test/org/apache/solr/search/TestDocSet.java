@@ -17,7 +17,9 @@
 package org.apache.solr.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.function.Supplier;
@@ -45,6 +47,7 @@ import org.apache.lucene.index.Terms;
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.KnnCollector;
+import org.apache.lucene.search.LeafCollector;
 import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.Bits;
@@ -85,6 +88,32 @@ public class TestDocSet extends SolrTestCase {
     iter(set, result); // check that they are equal
   }
 
+  public void testSliceCollectors() throws IOException {
+    for (int iter = 0; iter < 500; iter++) {
+      IndexReader reader = dummyMultiReader(6, 500);
+      int maxDoc = reader.maxDoc();
+      FixedBitSet bs = getRandomSet(maxDoc, rand.nextInt(maxDoc + 1));
+
+      // slices get their segments in any order
+      List<LeafReaderContext> leaves = new ArrayList<>(reader.leaves());
+      Collections.shuffle(leaves, rand);
+      List<DocSetCollector.SliceCollector> collectors = new ArrayList<>();
+      for (LeafReaderContext leaf : leaves) {
+        if (collectors.isEmpty() || rand.nextBoolean()) {
+          collectors.add(new DocSetCollector.SliceCollector());
+        }
+        LeafCollector leafCollector = collectors.get(collectors.size() - 1).getLeafCollector(leaf);
+        for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+          if (bs.get(leaf.docBase + doc)) leafCollector.collect(doc);
+        }
+      }
+
+      DocSet result = DocSetCollector.merge(maxDoc, collectors);
+      assertEquals(bs.cardinality(), result.size());
+      iter(new BitDocSet(bs), result);
+    }
+  }
+
   public FixedBitSet getRandomSet(int sz, int bitsToSet) {
     FixedBitSet bs = new FixedBitSet(sz);
     if (sz == 0) return bs;
@@ -107,6 +136,10 @@ public class TestDocSet extends SolrTestCase {
     return new BitDocSet(bs);
   }
 
+  public DocSet getRoaringDocSet(FixedBitSet bs) {
+    return RoaringDocSet.fromBits(bs);
+  }
+
   public DocSlice getDocSlice(FixedBitSet bs) {
     int len = bs.cardinality();
     int[] arr = new int[len + 5];
@@ -128,7 +161,7 @@ public class TestDocSet extends SolrTestCase {
   }
 
   public DocSet getDocSet(FixedBitSet bs) {
-    switch (rand.nextInt(9)) {
+    switch (rand.nextInt(11)) {
       case 0:
       case 1:
       case 2:
@@ -145,6 +178,10 @@ public class TestDocSet extends SolrTestCase {
         return getIntDocSet(bs);
       case 8:
         return getIntDocSet(bs);
+
+      case 9:
+      case 10:
+        return getRoaringDocSet(bs);
     }
     return null;
   }
@@ -224,6 +261,102 @@ public class TestDocSet extends SolrTestCase {
     // doMany(130, 1000000);
   }
 
+  /**
+   * Returns a set spanning several 64K blocks, each block being empty, sparse, dense or made of
+   * runs so that all kinds of {@link RoaringDocSet} containers get created.
+   */
+  public FixedBitSet getBlockyRandomSet(int sz) {
+    FixedBitSet bs = new FixedBitSet(sz);
+    for (int start = 0; start < sz; start += RoaringDocSet.BLOCK_SIZE) {
+      int end = Math.min(sz, start + RoaringDocSet.BLOCK_SIZE);
+      switch (rand.nextInt(4)) {
+        case 0:
+          break;
+        case 1:
+          for (int i = rand.nextInt(RoaringDocSet.MAX_ARRAY_SIZE * 2); i > 0; i--) {
+            bs.set(start + rand.nextInt(end - start));
+          }
+          break;
+        case 2:
+          for (int doc = start; doc < end; doc++) {
+            if (rand.nextInt(10) < 7) bs.set(doc);
+          }
+          break;
+        case 3:
+          for (int i = rand.nextInt(50); i > 0; i--) {
+            int from = start + rand.nextInt(end - start);
+            bs.set(from, Math.min(end, from + rand.nextInt(3000) + 1));
+          }
+          break;
+      }
+    }
+    return bs;
+  }
+
+  private void assertSameDocs(FixedBitSet expected, DocSet actual) {
+    assertEquals(expected.cardinality(), actual.size());
+    iter(new BitDocSet(expected), actual);
+  }
+
+  public void testRoaringDocSets() {
+    for (int iter = 0; iter < 50; iter++) {
+      int sz = rand.nextInt(RoaringDocSet.BLOCK_SIZE * 4) + 1;
+      FixedBitSet bs1 = getBlockyRandomSet(sz);
+      FixedBitSet bs2 = rand.nextBoolean() ? getBlockyRandomSet(sz) : getRandomSet(sz, 1000);
+      DocSet r1 = getRoaringDocSet(bs1);
+      assertSameDocs(bs1, r1);
+      for (int i = 0; i < 1000; i++) {
+        int doc = rand.nextInt(sz);
+        assertEquals(bs1.get(doc), r1.exists(doc));
+      }
+      FixedBitSet roundTrip = new FixedBitSet(sz);
+      r1.addAllTo(roundTrip);
+      assertEquals(bs1, roundTrip);
+
+      FixedBitSet a_and = bs1.clone();
+      a_and.and(bs2);
+      FixedBitSet a_or = bs1.clone();
+      a_or.or(bs2);
+      FixedBitSet a_andn = bs1.clone();
+      a_andn.andNot(bs2);
+      FixedBitSet b_andn = bs2.clone();
+      b_andn.andNot(bs1);
+
+      for (DocSet b2 :
+          new DocSet[] {getRoaringDocSet(bs2), getBitDocSet(bs2), getIntDocSet(bs2)}) {
+        assertSameDocs(a_and, r1.intersection(b2));
+        assertSameDocs(a_and, b2.intersection(r1));
+        assertSameDocs(a_or, r1.union(b2));
+        assertSameDocs(a_or, b2.union(r1));
+        assertSameDocs(a_andn, r1.andNot(b2));
+        assertSameDocs(b_andn, b2.andNot(r1));
+        assertEquals(a_and.cardinality(), r1.intersectionSize(b2));
+        assertEquals(a_and.cardinality(), b2.intersectionSize(r1));
+        assertEquals(a_and.cardinality() > 0, r1.intersects(b2));
+        assertEquals(a_or.cardinality(), r1.unionSize(b2));
+        assertEquals(a_andn.cardinality(), r1.andNotSize(b2));
+      }
+    }
+  }
+
+  public void testCompact() {
+    int maxDoc = RoaringDocSet.BLOCK_SIZE * 8;
+    // clustered docs take much less memory as containers
+    FixedBitSet clustered = new FixedBitSet(maxDoc);
+    clustered.set(1000, 200000);
+    DocSet compacted = DocSetUtil.compactIfSmaller(clustered, -1);
+    assertTrue(compacted instanceof RoaringDocSet);
+    assertTrue(compacted.ramBytesUsed() < new BitDocSet(clustered).ramBytesUsed() / 2);
+    assertSameDocs(clustered, compacted);
+
+    // random docs with a high density are better off as a bitset
+    FixedBitSet dense = getRandomSet(maxDoc, maxDoc / 2);
+    assertTrue(DocSetUtil.compactIfSmaller(dense, dense.cardinality()) instanceof BitDocSet);
+
+    // compacting is opt-in, so the bitset fast paths are kept by default
+    assertTrue(DocSetUtil.compact(clustered, -1) instanceof BitDocSet);
+  }
+
   public DocSet getRandomDocSet(int n, int maxDoc) {
     FixedBitSet obs = new FixedBitSet(maxDoc);
     int[] a = new int[n];
@@ -585,6 +718,7 @@ public class TestDocSet extends SolrTestCase {
     FixedBitSet bs = getRandomSet(reader.maxDoc(), rand.nextInt(reader.maxDoc() + 1));
     DocSet a = new BitDocSet(bs);
     DocSet b = getIntDocSet(bs);
+    DocSet c = getRoaringDocSet(bs);
 
     //    Query fa = a.makeQuery();
     //    Query fb = b.makeQuery();
@@ -604,7 +738,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
 
     int nReaders = leaves.size();
@@ -614,7 +749,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
   }
 
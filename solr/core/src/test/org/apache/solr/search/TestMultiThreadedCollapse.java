@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.core.SolrXmlConfig;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.util.TestHarness;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that collapsing the slices of the index in parallel keeps the same group heads */
+public class TestMultiThreadedCollapse extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // many segments, so that the search gets several slices
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    // the solr.xml of the tests has indexSearcherExecutorThreads, for the searches to be parallel
+    Path home = TEST_HOME();
+    String solrXml = Files.readString(home.resolve("solr.xml"), StandardCharsets.UTF_8);
+    createCoreContainer(
+        SolrXmlConfig.fromString(home, solrXml),
+        new TestHarness.TestCoresLocator(
+            DEFAULT_TEST_CORENAME,
+            initAndGetDataDir().toString(),
+            "solrconfig-collapseqparser.xml",
+            "schema11.xml"));
+    h.coreName = DEFAULT_TEST_CORENAME;
+
+    for (int i = 0; i < 500; i++) {
+      List<String> fields = new ArrayList<>(List.of("id", Integer.toString(i)));
+      fields.addAll(List.of("val_i", Integer.toString(i % 13), "mod_i", Integer.toString(i % 100)));
+      if (i % 11 != 0) {
+        // the others are in the null group
+        fields.addAll(List.of("cat_s", "c" + (i % 7), "group_i", Integer.toString(i % 17)));
+      }
+      assertU(adoc(fields.toArray(new String[0])));
+      if (i % 50 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    assertNotNull(h.getCoreContainer().getIndexSearcherExecutor());
+    int numSlices = h.getCore().withSearcher(searcher -> searcher.getSlices().length);
+    assertTrue("The collapse isn't multi-threaded with " + numSlices + " slice", numSlices > 1);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testSameGroupHeads() throws Exception {
+    for (String field : new String[] {"cat_s", "group_i"}) {
+      for (String selector : new String[] {"", "min=mod_i", "max=mod_i", "sort='val_i asc'"}) {
+        for (String nullPolicy : new String[] {"ignore", "collapse", "expand"}) {
+          String fq =
+              "{!collapse field=" + field + " " + selector + " nullPolicy=" + nullPolicy + "}";
+          assertSameResponse("q", "{!func}val_i", "fq", fq, "fl", "id,score", "rows", "100");
+          assertSameResponse(
+              "q", "mod_i:[10 TO 89]", "fq", fq, "fl", "id", "rows", "0", "sort", "id asc");
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTimeAllowed() throws Exception {
+    // the time limit is enforced on the single-threaded collapse
+    assertSameResponse(
+        "q", "{!func}val_i",
+        "fq", "{!collapse field=cat_s}",
+        "fl", "id,score",
+        "rows", "100",
+        "timeAllowed", "100000");
+  }
+
+  @Test
+  public void testElevatedDocs() throws Exception {
+    assertSameResponse(
+        "q", "{!func}val_i",
+        "fq", "{!collapse field=cat_s}",
+        "qt", "/elevate",
+        "elevateIds", "3,10,401",
+        "fl", "id,score,[elevated]",
+        "rows", "100");
+  }
+
+  private void assertSameResponse(String... params) throws Exception {
+    List<String> all = new ArrayList<>(List.of(params));
+    all.addAll(List.of("omitHeader", "true", "wt", "json", "multiThreaded", "false"));
+    String expected = h.query(req(all.toArray(new String[0])));
+    all.set(all.size() - 1, "true");
+    assertEquals(expected, h.query(req(all.toArray(new String[0]))));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that the DocSet used for faceting is the same when collected by concurrent slices */
+public class TestMultiThreadedDocSet extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // many segments, so that the search gets several slices
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 500; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", "c" + (i % 7), "mod_i", "" + (i % 100)));
+      if (i % 50 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testFacetsWithoutRows() throws Exception {
+    for (String multiThreaded : new String[] {"false", "true"}) {
+      assertQ(
+          req(
+              "q", "mod_i:[0 TO 9]",
+              "rows", "0",
+              "facet", "true",
+              "facet.field", "cat_s",
+              "multiThreaded", multiThreaded),
+          "//*[@numFound='50']",
+          "//lst[@name='cat_s']/int[@name='c0'][.='7']",
+          "//lst[@name='cat_s']/int[@name='c6'][.='7']");
+      assertJQ(
+          req(
+              "q", "*:*",
+              "fq", "mod_i:[0 TO 49]",
+              "rows", "0",
+              "json.facet", "{cats:{type:terms, field:cat_s, limit:1, sort:'index asc'}}",
+              "multiThreaded", multiThreaded),
+          "/response/numFound==250",
+          "/facets/cats/buckets/[0]=={val:c0, count:36}");
+    }
+  }
+
+  @Test
+  public void testFacetsWithRows() throws Exception {
+    for (String multiThreaded : new String[] {"false", "true"}) {
+      assertQ(
+          req(
+              "q", "*:*",
+              "fq", "-mod_i:[50 TO 99]",
+              "rows", "5",
+              "facet", "true",
+              "facet.query", "mod_i:[0 TO 4]",
+              "multiThreaded", multiThreaded),
+          "//*[@numFound='250']",
+          "//result/doc[5]",
+          "//lst[@name='facet_queries']/int[@name='mod_i:[0 TO 4]'][.='25']");
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Test for {@link OffHeapFilterCache}. */
+public class TestOffHeapFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.filterCache.class", "solr.OffHeapFilterCache");
+    // keep unchanged segments around across commits
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.filterCache.class");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Before
+  public void cleanIndex() {
+    assertU(delQ("*:*"));
+    assertU(commit());
+  }
+
+  private static Map<String, Object> filterCacheMetrics() throws Exception {
+    return h.getCore()
+        .withSearcher(
+            searcher -> {
+              SolrCache<?, ?> filterCache = searcher.getFilterCache();
+              assertTrue(filterCache instanceof OffHeapFilterCache);
+              return ((OffHeapFilterCache) filterCache).getMetricsMap().getValue();
+            });
+  }
+
+  @Test
+  public void testLookupAndReuseAcrossSearchers() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", i % 2 == 0 ? "even" : "odd"));
+    }
+    assertU(commit());
+
+    assertQ(req("q", "*:*", "fq", "cat_s:even"), "//*[@numFound='50']");
+    assertQ(req("q", "*:*", "fq", "cat_s:even"), "//*[@numFound='50']");
+    Map<String, Object> metrics = filterCacheMetrics();
+    assertEquals(1L, metrics.get("hits"));
+    assertEquals(1L, metrics.get("inserts"));
+    assertTrue(((Number) metrics.get("offHeapBytesUsed")).longValue() > 0);
+
+    // a new segment only needs the filter to be executed on that segment
+    for (int i = 100; i < 110; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", i % 2 == 0 ? "even" : "odd"));
+    }
+    assertU(commit());
+    metrics = filterCacheMetrics();
+    assertTrue(((Number) metrics.get("warmupSegmentsReused")).intValue() > 0);
+    assertQ(req("q", "*:*", "fq", "cat_s:even"), "//*[@numFound='55']");
+    assertEquals(1L, filterCacheMetrics().get("hits"));
+
+    // deletions in unchanged segments are applied when the set is assembled
+    assertU(delI("0"));
+    assertU(delI("2"));
+    assertU(commit());
+    assertQ(req("q", "*:*", "fq", "cat_s:even"), "//*[@numFound='53']");
+    assertQ(req("q", "*:*", "fq", "cat_s:odd"), "//*[@numFound='55']");
+  }
+
+  @Test
+  public void testSmallAndLargeSets() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      assertU(adoc("id", Integer.toString(i), "mod_s", Integer.toString(i % 100)));
+      if (i % 300 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              SolrCache<Query, DocSet> filterCache = searcher.getFilterCache();
+              for (String val : new String[] {"0", "42", "99"}) {
+                TermQuery query = new TermQuery(new Term("mod_s", val));
+                DocSet expected = DocSetUtil.createDocSetGeneric(searcher, query);
+                filterCache.put(query, expected);
+                DocSet cached = filterCache.get(query);
+                assertNotNull(cached);
+                assertEquals(expected.size(), cached.size());
+                assertTrue(DocSetUtil.equals(expected, cached));
+              }
+              DocSet all = searcher.getLiveDocSet();
+              TermQuery allQuery = new TermQuery(new Term("all", "docs"));
+              filterCache.put(allQuery, all);
+              assertTrue(DocSetUtil.equals(all, filterCache.get(allQuery)));
+              return null;
+            });
+  }
+
+  @Test
+  public void testReplacedSlicesStayReadableUntilClose() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      assertU(adoc("id", Integer.toString(i), "mod_s", Integer.toString(i % 10)));
+    }
+    assertU(commit());
+
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              TermQuery first = new TermQuery(new Term("mod_s", "1"));
+              TermQuery second = new TermQuery(new Term("mod_s", "2"));
+              DocSet firstDocs = DocSetUtil.createDocSetGeneric(searcher, first);
+              DocSet secondDocs = DocSetUtil.createDocSetGeneric(searcher, second);
+
+              Map<String, String> args = new HashMap<>();
+              args.put(SolrCache.SIZE_PARAM, "10");
+              OffHeapFilterCache oldCache = new OffHeapFilterCache();
+              Object persistence = oldCache.init(args, null, null);
+              oldCache.initialSearcher(searcher);
+              oldCache.put(first, firstDocs);
+              long oneSet = oldCache.offHeapBytesUsed();
+              assertTrue(oneSet > 0);
+
+              // a new generation recomputes the slices while the old searcher is still open
+              OffHeapFilterCache newCache = new OffHeapFilterCache();
+              newCache.init(args, persistence, null);
+              newCache.warm(searcher, oldCache);
+              newCache.put(first, firstDocs);
+              assertTrue(DocSetUtil.equals(firstDocs, newCache.get(first)));
+              assertTrue(DocSetUtil.equals(firstDocs, oldCache.get(first)));
+
+              // a miss of the old searcher is kept next to the slices of the new one
+              newCache.put(second, secondDocs);
+              oldCache.put(second, secondDocs);
+              assertTrue(DocSetUtil.equals(secondDocs, oldCache.get(second)));
+              assertTrue(DocSetUtil.equals(secondDocs, newCache.get(second)));
+              long bothGenerations = newCache.offHeapBytesUsed();
+              assertTrue(bothGenerations > 2 * oneSet);
+
+              // closing the old generation frees the slices only it could read
+              oldCache.close();
+              assertTrue(newCache.offHeapBytesUsed() < bothGenerations);
+              assertTrue(DocSetUtil.equals(firstDocs, newCache.get(first)));
+
+              newCache.remove(first);
+              assertNull(newCache.get(first));
+              newCache.clear();
+              assertEquals(0, newCache.offHeapBytesUsed());
+              newCache.close();
+              return null;
+            });
+  }
+
+  @Test
+  public void testEvictionOrderAndAssembledSets() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "mod_s", Integer.toString(i % 10)));
+    }
+    assertU(commit());
+
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              TermQuery[] queries = new TermQuery[3];
+              DocSet[] docs = new DocSet[queries.length];
+              for (int i = 0; i < queries.length; i++) {
+                queries[i] = new TermQuery(new Term("mod_s", Integer.toString(i)));
+                docs[i] = DocSetUtil.createDocSetGeneric(searcher, queries[i]);
+              }
+
+              Map<String, String> args = new HashMap<>();
+              args.put(SolrCache.SIZE_PARAM, "2");
+              args.put(OffHeapFilterCache.ASSEMBLED_SIZE_PARAM, "1");
+              OffHeapFilterCache cache = new OffHeapFilterCache();
+              cache.init(args, null, null);
+              cache.initialSearcher(searcher);
+              cache.put(queries[0], docs[0]);
+              cache.put(queries[1], docs[1]);
+
+              // the first hit is assembled once, the second one is assembled on every lookup
+              long heapBefore = cache.ramBytesUsed();
+              DocSet first = cache.get(queries[0]);
+              assertSame(first, cache.get(queries[0]));
+              assertTrue(cache.ramBytesUsed() > heapBefore);
+              DocSet second = cache.get(queries[1]);
+              assertTrue(DocSetUtil.equals(docs[1], second));
+              assertNotSame(second, cache.get(queries[1]));
+
+              // the least recently used filter is evicted
+              cache.get(queries[0]);
+              cache.put(queries[2], docs[2]);
+              assertEquals(2, cache.size());
+              assertNull(cache.get(queries[1]));
+              assertTrue(DocSetUtil.equals(docs[0], cache.get(queries[0])));
+              assertTrue(DocSetUtil.equals(docs[2], cache.get(queries[2])));
+
+              // a removed filter's assembled set is dropped
+              cache.remove(queries[0]);
+              assertNull(cache.get(queries[0]));
+              assertTrue(DocSetUtil.equals(docs[2], cache.get(queries[2])));
+              assertSame(cache.get(queries[2]), cache.get(queries[2]));
+              cache.close();
+              return null;
+            });
+  }
+}
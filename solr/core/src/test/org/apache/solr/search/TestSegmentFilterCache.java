@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Map;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that filterCache misses are computed and cached per segment */
+public class TestSegmentFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.segmentFilterCache.enabled", "true");
+    // keep unchanged segments around across commits
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.segmentFilterCache.enabled");
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Before
+  public void cleanIndex() {
+    assertU(delQ("*:*"));
+    assertU(commit());
+  }
+
+  private static Map<String, Object> lookupCacheMetrics(String cacheName) {
+    return ((MetricsMap)
+            ((SolrMetricManager.GaugeWrapper<?>)
+                    h.getCore()
+                        .getCoreMetricManager()
+                        .getRegistry()
+                        .getMetrics()
+                        .get("CACHE.searcher." + cacheName))
+                .getGauge())
+        .getValue();
+  }
+
+  private static void addDocs(int from, int to) {
+    for (int i = from; i < to; i++) {
+      assertU(adoc("id", Integer.toString(i), "cat_s", i % 2 == 0 ? "even" : "odd"));
+    }
+  }
+
+  @Test
+  public void testUnchangedSegmentsAreReused() throws Exception {
+    addDocs(0, 100);
+    assertU(commit());
+
+    assertQ(req("q", "*:*", "fq", "cat_s:ev*"), "//*[@numFound='50']");
+    Map<String, Object> metrics = lookupCacheMetrics("segmentFilterCache");
+    long segmentInserts = (long) metrics.get("inserts");
+    assertTrue(segmentInserts > 0);
+    assertEquals(1L, lookupCacheMetrics("filterCache").get("inserts"));
+
+    // the new segment is the only one the filter needs to be executed on while warming
+    addDocs(100, 110);
+    assertU(commit());
+    metrics = lookupCacheMetrics("segmentFilterCache");
+    assertTrue(((Number) metrics.get("hits")).longValue() > 0);
+    assertTrue(((Number) metrics.get("size")).intValue() > segmentInserts);
+    assertQ(req("q", "*:*", "fq", "cat_s:ev*"), "//*[@numFound='55']");
+    assertQ(req("q", "*:*", "fq", "-cat_s:even"), "//*[@numFound='55']");
+
+    // deletions in unchanged segments are applied to the cached segment results
+    assertU(delI("0"));
+    assertU(delI("4"));
+    assertU(commit());
+    assertQ(req("q", "*:*", "fq", "cat_s:ev*"), "//*[@numFound='53']");
+    assertQ(req("q", "*:*", "fq", "cat_s:od*"), "//*[@numFound='55']");
+  }
+
+  @Test
+  public void testNonCachedFilters() throws Exception {
+    addDocs(0, 20);
+    assertU(commit());
+    assertQ(req("q", "*:*", "fq", "{!cache=false}cat_s:od*"), "//*[@numFound='10']");
+    assertEquals(0L, lookupCacheMetrics("segmentFilterCache").get("inserts"));
+    assertQ(req("q", "*:*", "fq", "cat_s:od*"), "//*[@numFound='10']");
+    assertTrue((long) lookupCacheMetrics("segmentFilterCache").get("inserts") > 0);
+  }
+
+  @Test
+  public void testTermFiltersKeepTheirFastPath() throws Exception {
+    addDocs(0, 20);
+    assertU(commit());
+    assertQ(req("q", "*:*", "fq", "cat_s:odd"), "//*[@numFound='10']");
+    assertEquals(1L, lookupCacheMetrics("filterCache").get("inserts"));
+    assertEquals(0L, lookupCacheMetrics("segmentFilterCache").get("inserts"));
+  }
+}
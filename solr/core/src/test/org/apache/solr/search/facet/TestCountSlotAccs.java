@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Arrays;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.search.facet.SlotAcc.CountSlotArrAcc;
+import org.apache.solr.search.facet.SlotAcc.CountSlotMapAcc;
+
+/** Tests for the slot accs that don't allocate a new array of all the slots per request. */
+public class TestCountSlotAccs extends SolrTestCase {
+
+  public void testSparseCountsMatchArrayCounts() throws Exception {
+    final int numSlots = SlotArrayPool.MIN_LENGTH * 2;
+    final CountSlotArrAcc dense = new CountSlotArrAcc(null, numSlots);
+    final CountSlotMapAcc sparse = new CountSlotMapAcc(null, numSlots);
+    for (int i = 0; i < 500; i++) {
+      int slot = random().nextInt(numSlots);
+      if (random().nextBoolean()) {
+        dense.collect(i, slot, null);
+        sparse.collect(i, slot, null);
+      } else {
+        long count = random().nextInt(5) + 1;
+        dense.incrementCount(slot, count);
+        sparse.incrementCount(slot, count);
+      }
+    }
+
+    final int[] countedSlots = sparse.getCountedSlots();
+    assertNotNull(countedSlots);
+    int expectedCounted = 0;
+    for (int slot = 0; slot < numSlots; slot++) {
+      assertEquals(dense.getCount(slot), sparse.getCount(slot));
+      if (dense.getCount(slot) > 0) {
+        assertEquals(slot, countedSlots[expectedCounted++]);
+      }
+    }
+    assertEquals(expectedCounted, countedSlots.length);
+    assertEquals(
+        Integer.signum(dense.compare(countedSlots[0], countedSlots[1])),
+        Integer.signum(sparse.compare(countedSlots[0], countedSlots[1])));
+
+    // keep every other counted slot
+    final SlotAcc.Resizer resizer =
+        new SlotAcc.Resizer() {
+          @Override
+          public int getNewSize() {
+            return (countedSlots.length + 1) / 2;
+          }
+
+          @Override
+          public int getNewSlot(int oldSlot) {
+            int idx = Arrays.binarySearch(countedSlots, oldSlot);
+            return idx >= 0 && idx % 2 == 0 ? idx / 2 : -1;
+          }
+        };
+    sparse.resize(resizer);
+    for (int i = 0; i < countedSlots.length; i += 2) {
+      assertEquals(dense.getCount(countedSlots[i]), sparse.getCount(i / 2));
+    }
+
+    sparse.reset();
+    assertEquals(0, sparse.getCountedSlots().length);
+  }
+
+  public void testPoolReusesArrays() {
+    final int length = SlotArrayPool.MIN_LENGTH;
+    final long arrayBytes = (long) length * Long.BYTES;
+    final SlotArrayPool pool = new SlotArrayPool(2 * arrayBytes);
+
+    long[] first = pool.takeLongs(length);
+    first[42] = 7;
+    pool.release(first);
+    assertEquals(arrayBytes, pool.getPooledBytes());
+
+    long[] reused = pool.takeLongs(length);
+    assertSame(first, reused);
+    assertEquals("pooled arrays must come back zeroed", 0, reused[42]);
+    assertEquals(0, pool.getPooledBytes());
+
+    // small arrays are never pooled
+    long[] small = pool.takeLongs(length - 1);
+    pool.release(small);
+    assertEquals(0, pool.getPooledBytes());
+    assertNotSame(small, pool.takeLongs(length - 1));
+
+    // arrays of other lengths, likely left over from an older searcher, make room for new ones
+    pool.release(reused);
+    pool.release(new long[length + 1]);
+    assertEquals((length + 1) * Long.BYTES, pool.getPooledBytes());
+    long[] other = new long[length];
+    pool.release(other);
+    assertEquals(arrayBytes, pool.getPooledBytes());
+    assertSame(other, pool.takeLongs(length));
+
+    final SlotArrayPool disabled = new SlotArrayPool(0);
+    long[] unpooled = disabled.takeLongs(length);
+    disabled.release(unpooled);
+    assertEquals(0, disabled.getPooledBytes());
+    assertNotSame(unpooled, disabled.takeLongs(length));
+  }
+
+  public void testPoolKeepsTypesApart() {
+    final int length = SlotArrayPool.MIN_LENGTH;
+    final SlotArrayPool pool = new SlotArrayPool(64L * length);
+
+    double[] sums = pool.takeDoubles(length);
+    sums[3] = 1.5;
+    pool.release(sums);
+    int[] counts = pool.takeInts(length);
+    counts[3] = 2;
+    pool.release(counts);
+    FixedBitSet[] sets = pool.takeBitSets(length);
+    sets[3] = new FixedBitSet(8);
+    pool.release(sets);
+    assertNull("released bitsets must not stay reachable", sets[3]);
+
+    assertNotSame(sums, pool.takeLongs(length));
+    double[] reusedSums = pool.takeDoubles(length);
+    assertSame(sums, reusedSums);
+    assertEquals(0, reusedSums[3], 0);
+    int[] reusedCounts = pool.takeInts(length);
+    assertSame(counts, reusedCounts);
+    assertEquals(0, reusedCounts[3]);
+    assertSame(sets, pool.takeBitSets(length));
+    assertEquals(0, pool.getPooledBytes());
+  }
+}
@@ -18,6 +18,7 @@
 package org.apache.solr.search.facet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
@@ -155,6 +156,95 @@ public class TestJsonFacetRefinement extends SolrTestCaseHS {
     }
   }
 
+  @Test
+  public void testMergeCountsOnly() throws Exception {
+    SolrQueryRequest req = req();
+    try {
+      FacetRequest facetRequest =
+          new FacetParser.FacetTopParser(req)
+              .parse(
+                  Utils.fromJSONString(
+                      "{x:{type:terms, field:X, limit:2, overrequest:0},"
+                          + " y:{type:terms, field:Y, limit:2, refine:true}}"));
+      FacetField y = (FacetField) facetRequest.getSubFacets().get("y");
+      assertFalse(y.createFacetMerger(null) instanceof FacetFieldCountsMerger);
+
+      String[] shardResponses = {
+        "{buckets:[{val:x1, count:10}, {val:x2, count:8}], more:true}",
+        "{buckets:[{val:x3, count:9}, {val:x4, count:7}], more:true}",
+        "{buckets:[{val:x1, count:5}, {val:x5, count:6}], more:true}",
+        "{buckets:[{val:x3, count:9}, {val:x2, count:1}], more:true}"
+      };
+      FacetField x = (FacetField) facetRequest.getSubFacets().get("x");
+      // every order of the shard responses gives the exact counts of a merge that keeps all buckets
+      Object expected = mergeShards(new FacetFieldMerger(x), shardResponses);
+      match(expected, 1e-5, "=={buckets:[{val:x3, count:18}, {val:x1, count:15}]}");
+      for (int[] order : permutations(shardResponses.length)) {
+        String[] ordered = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+          ordered[i] = shardResponses[order[i]];
+        }
+        FacetMerger merger = x.createFacetMerger(null);
+        assertTrue(merger instanceof FacetFieldCountsMerger);
+        assertEquals(Arrays.toString(order), expected, mergeShards(merger, ordered));
+      }
+
+      for (String json :
+          new String[] {
+            "{type:terms, field:X, limit:3, offset:1, overrequest:0}",
+            "{type:terms, field:X, limit:2, sort:'index asc'}",
+            "{type:terms, field:X, limit:2, sort:'count asc', mincount:9}",
+            "{type:terms, field:X, limit:-1}"
+          }) {
+        x =
+            (FacetField)
+                new FacetParser.FacetTopParser(req)
+                    .parse(Utils.fromJSONString("{x:" + json + "}"))
+                    .getSubFacets()
+                    .get("x");
+        FacetMerger merger = x.createFacetMerger(null);
+        assertTrue(merger instanceof FacetFieldCountsMerger);
+        assertEquals(
+            json,
+            mergeShards(new FacetFieldMerger(x), shardResponses),
+            mergeShards(merger, shardResponses));
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  private static Object mergeShards(FacetMerger merger, String[] shardResponses)
+      throws IOException {
+    FacetMerger.Context ctx = new FacetMerger.Context(shardResponses.length);
+    for (int i = 0; i < shardResponses.length; i++) {
+      ctx.newShard("s" + i);
+      merger.merge(fromJSON(shardResponses[i]), ctx);
+    }
+    return merger.getMergedResult();
+  }
+
+  private static List<int[]> permutations(int n) {
+    List<int[]> permutations = new ArrayList<>();
+    permute(new int[n], new boolean[n], 0, permutations);
+    return permutations;
+  }
+
+  private static void permute(int[] order, boolean[] used, int pos, List<int[]> out) {
+    if (pos == order.length) {
+      out.add(order.clone());
+      return;
+    }
+    for (int i = 0; i < order.length; i++) {
+      if (!used[i]) {
+        used[i] = true;
+        order[pos] = i;
+        permute(order, used, pos + 1, out);
+        used[i] = false;
+      }
+    }
+  }
+
   @Test
   public void testMerge() throws Exception {
 
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Verify that terms facets counted by concurrent segment slices match sequential counting */
+public class TestJsonFacetThreads extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // many segments, so that the counting is split across several slices
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig.xml", "schema_latest.xml");
+
+    for (int i = 0; i < 300; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "cat_s", "c" + (i % 7),
+              "tags_ss", "t" + (i % 3),
+              "tags_ss", "t" + (i % 5),
+              "mod_i", "" + (i % 10)));
+      if (i % 40 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    systemClearPropertySolrTestsMergePolicyFactory();
+  }
+
+  @Test
+  public void testSingleValued() throws Exception {
+    for (String threads : new String[] {"0", "1", "4", "-1"}) {
+      assertJQ(
+          req(
+              "q", "*:*",
+              "fq", "mod_i:[0 TO 4]",
+              "rows", "0",
+              "json.facet",
+                  "{cats:{type:terms, field:cat_s, method:dv, limit:2, threads:" + threads + "}}"),
+          "/response/numFound==150",
+          "/facets/cats/buckets==[{val:c0, count:22}, {val:c3, count:22}]");
+    }
+  }
+
+  @Test
+  public void testMultiValued() throws Exception {
+    for (String threads : new String[] {"0", "4"}) {
+      assertJQ(
+          req(
+              "q", "*:*",
+              "rows", "0",
+              "json.facet",
+                  "{tags:{type:terms, field:tags_ss, method:dv, sort:'index asc', threads:"
+                      + threads
+                      + "}}"),
+          "/facets/tags/buckets==[{val:t0, count:140}, {val:t1, count:140}, {val:t2, count:140},"
+              + " {val:t3, count:60}, {val:t4, count:60}]");
+    }
+  }
+
+  @Test
+  public void testWithStats() throws Exception {
+    // stats are collected per slot, so they use the sequential path
+    assertJQ(
+        req(
+            "q", "*:*",
+            "rows", "0",
+            "json.facet",
+                "{cats:{type:terms, field:cat_s, method:dv, limit:1, threads:4,"
+                    + " facet:{x:'sum(mod_i)'}}}"),
+        "/facets/cats/buckets/[0]/count==43");
+  }
+
+  @Test
+  public void testNumberOfTasks() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    assertEquals(1, FacetFieldProcessorByArrayDV.concurrentCountTasks(0, 10, 100));
+    assertEquals(
+        Math.min(4, processors), FacetFieldProcessorByArrayDV.concurrentCountTasks(4, 10, 100));
+    assertEquals(
+        Math.min(3, processors), FacetFieldProcessorByArrayDV.concurrentCountTasks(-1, 3, 100));
+    // never more tasks than processors, whatever is requested
+    assertEquals(
+        Math.min(10, processors),
+        FacetFieldProcessorByArrayDV.concurrentCountTasks(Integer.MAX_VALUE, 10, 100));
+    // the counts of all tasks must fit the budget
+    long valueCount = FacetFieldProcessorByArrayDV.MAX_CONCURRENT_COUNTS / 2;
+    assertEquals(
+        Math.min(2, processors),
+        FacetFieldProcessorByArrayDV.concurrentCountTasks(8, 10, valueCount));
+    assertEquals(
+        1,
+        FacetFieldProcessorByArrayDV.concurrentCountTasks(
+            8, 10, FacetFieldProcessorByArrayDV.MAX_CONCURRENT_COUNTS));
+  }
+}
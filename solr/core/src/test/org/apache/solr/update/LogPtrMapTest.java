@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.update.UpdateLog.LogPtr;
+
+public class LogPtrMapTest extends SolrTestCase {
+
+  public void testMatchesHashMap() {
+    LogPtrMap map = new LogPtrMap();
+    for (int round = 0; round < 3; round++) {
+      Map<BytesRef, LogPtr> expected = new HashMap<>();
+      int numUpdates = atLeast(1000);
+      for (int i = 0; i < numUpdates; i++) {
+        BytesRef id = new BytesRef(TestUtil.randomSimpleString(random(), 1, 4));
+        long pointer = random().nextLong();
+        long version = random().nextLong();
+        long previousPointer = random().nextBoolean() ? -1 : random().nextLong();
+        map.put(id, pointer, version, previousPointer);
+        // the map copies the id, callers may reuse it
+        expected.put(BytesRef.deepCopyOf(id), new LogPtr(pointer, version, previousPointer));
+        id.bytes[id.offset] = '!';
+      }
+
+      assertEquals(expected.size(), map.size());
+      for (Map.Entry<BytesRef, LogPtr> entry : expected.entrySet()) {
+        LogPtr actual = map.get(entry.getKey());
+        assertNotNull(actual);
+        assertEquals(entry.getValue().pointer, actual.pointer);
+        assertEquals(entry.getValue().version, actual.version);
+        assertEquals(entry.getValue().previousPointer, actual.previousPointer);
+      }
+      assertNull(map.get(new BytesRef("not an id")));
+
+      map.clear();
+      assertEquals(0, map.size());
+      assertNull(map.get(expected.keySet().iterator().next()));
+    }
+  }
+}
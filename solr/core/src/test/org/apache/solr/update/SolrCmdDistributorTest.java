@@ -53,6 +53,7 @@ import org.apache.solr.update.SolrCmdDistributor.Node;
 import org.apache.solr.update.SolrCmdDistributor.SolrError;
 import org.apache.solr.update.SolrCmdDistributor.StdNode;
 import org.apache.solr.update.processor.DistributedUpdateProcessor;
+import org.apache.solr.update.processor.DistributingUpdateProcessorFactory;
 import org.apache.solr.update.processor.DistributedUpdateProcessor.LeaderRequestReplicationTracker;
 import org.apache.solr.update.processor.DistributedUpdateProcessor.RollupRequestReplicationTracker;
 import org.apache.solr.util.TestInjection;
@@ -374,6 +375,7 @@ public class SolrCmdDistributorTest extends BaseDistributedSearchTestCase {
     testDeletes(true, false);
     getRfFromResponseShouldNotCloseTheInputStream();
     testStuckUpdates();
+    testCoalescedAdds();
   }
 
   private void testDeletes(boolean dbq, boolean withFailures) throws Exception {
@@ -889,6 +891,106 @@ public class SolrCmdDistributorTest extends BaseDistributedSearchTestCase {
     }
   }
 
+  private void testCoalescedAdds() throws Exception {
+    System.setProperty("solr.cloud.replication.coalesceMs", "200");
+    UpdateShardHandler coalescingHandler;
+    try {
+      coalescingHandler = new UpdateShardHandler(UpdateShardHandlerConfig.DEFAULT);
+    } finally {
+      System.clearProperty("solr.cloud.replication.coalesceMs");
+    }
+    try {
+      assertTrue(coalescingHandler.getUpdateCoalescer().isEnabled());
+      final HttpSolrClient solrclient = (HttpSolrClient) clients.get(0);
+      long numFoundBefore = solrclient.query(new SolrQuery("*:*")).getResults().getNumFound();
+
+      Node node =
+          new StdNode(
+              new ZkCoreNodeProps(
+                  new ZkNodeProps(
+                      ZkStateReader.BASE_URL_PROP,
+                      solrclient.getBaseURL(),
+                      ZkStateReader.CORE_NAME_PROP,
+                      solrclient.getDefaultCollection())));
+      Node deadNode =
+          new StdNode(
+              new ZkCoreNodeProps(
+                  new ZkNodeProps(
+                      ZkStateReader.BASE_URL_PROP,
+                      DEAD_HOST_1 + "/solr",
+                      ZkStateReader.CORE_NAME_PROP,
+                      "")));
+
+      // as many requests of a single doc each, as a leader processes concurrently
+      int numRequests = 10;
+      List<SolrCmdDistributor> cmdDistribs = new ArrayList<>();
+      List<AddUpdateCommand> cmds = new ArrayList<>();
+      for (int i = 0; i < numRequests; i++) {
+        SolrCmdDistributor cmdDistrib = new SolrCmdDistributor(coalescingHandler);
+        AddUpdateCommand cmd = new AddUpdateCommand(null);
+        // replicas expect the version the leader assigned
+        cmd.solrDoc = sdoc("id", uniqueId.incrementAndGet(), "_version_", i + 1L);
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(
+            DistributingUpdateProcessorFactory.DISTRIB_UPDATE_PARAM,
+            DistributedUpdateProcessor.DistribPhase.FROMLEADER.toString());
+        cmdDistrib.distribAdd(cmd, List.of(node, deadNode), params);
+        cmdDistribs.add(cmdDistrib);
+        cmds.add(cmd);
+      }
+
+      for (int i = 0; i < numRequests; i++) {
+        SolrCmdDistributor cmdDistrib = cmdDistribs.get(i);
+        cmdDistrib.finish();
+        // each request only sees the error of its own doc
+        List<SolrError> errors = cmdDistrib.getErrors();
+        assertEquals(errors.toString(), 1, errors.size());
+        assertSame(cmds.get(i), errors.get(0).req.cmd);
+        assertSame(deadNode, errors.get(0).req.node);
+        cmdDistrib.close();
+      }
+
+      solrclient.commit();
+      long numFoundAfter = solrclient.query(new SolrQuery("*:*")).getResults().getNumFound();
+      assertEquals(numFoundBefore + numRequests, numFoundAfter);
+
+      // the replica rejects the batch because of one bad doc, only its request gets an error
+      int badDoc = 3;
+      cmdDistribs.clear();
+      for (int i = 0; i < numRequests; i++) {
+        SolrCmdDistributor cmdDistrib = new SolrCmdDistributor(coalescingHandler);
+        AddUpdateCommand cmd = new AddUpdateCommand(null);
+        cmd.solrDoc = sdoc("id", uniqueId.incrementAndGet(), "_version_", numRequests + i + 1L);
+        if (i == badDoc) {
+          cmd.solrDoc.addField("bad_i", "not a number");
+        }
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(
+            DistributingUpdateProcessorFactory.DISTRIB_UPDATE_PARAM,
+            DistributedUpdateProcessor.DistribPhase.FROMLEADER.toString());
+        cmdDistrib.distribAdd(cmd, List.of(node), params);
+        cmdDistribs.add(cmdDistrib);
+      }
+      for (int i = 0; i < numRequests; i++) {
+        SolrCmdDistributor cmdDistrib = cmdDistribs.get(i);
+        cmdDistrib.finish();
+        List<SolrError> errors = cmdDistrib.getErrors();
+        assertEquals(errors.toString(), i == badDoc ? 1 : 0, errors.size());
+        if (i == badDoc) {
+          assertEquals(400, errors.get(0).statusCode);
+        }
+        cmdDistrib.close();
+      }
+
+      solrclient.commit();
+      assertEquals(
+          numFoundAfter + numRequests - 1,
+          solrclient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    } finally {
+      coalescingHandler.close();
+    }
+  }
+
   @Override
   public void distribTearDown() throws Exception {
     updateShardHandler.close();
@@ -19,12 +19,20 @@ package org.apache.solr.update;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.solr.SolrTestCase;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
 import org.apache.solr.update.TransactionLog.LogReader;
+import org.apache.solr.update.TransactionLog.ReverseReader;
 import org.junit.Test;
 
 public class TransactionLogTest extends SolrTestCase {
@@ -71,4 +79,164 @@ public class TransactionLogTest extends SolrTestCase {
       assertEquals(uuid, (UUID) doc.getFieldValue("uuid"));
     }
   }
+
+  @Test
+  public void testReadsWhileGrowing() throws IOException, InterruptedException {
+    assumeTrue("reads aren't memory mapped", TransactionLog.MMAP_READS);
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    String filler = "x".repeat(2000);
+    long[] positions = new long[1600];
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      tlog.deleteOnClose = false;
+      for (int i = 0; i < 1000; i++) {
+        positions[i] = tlog.write(addCommand(i, filler));
+      }
+    }
+
+    // reopened logs, as on startup, are mostly read from their mapping
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      assertReads(tlog, positions, 1000);
+
+      // the bytes written since the log was mapped are read from the file, until it grew enough
+      // to be mapped again
+      for (int i = 1000; i < positions.length; i++) {
+        positions[i] = tlog.write(addCommand(i, filler));
+        if (i % 100 == 0) {
+          assertLookup(tlog, positions, i);
+          assertLookup(tlog, positions, i / 2);
+        }
+      }
+      assertReads(tlog, positions, positions.length);
+    }
+  }
+
+  @Test
+  public void testGroupSync() throws Exception {
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    int numThreads = 8;
+    int updatesPerThread = 50;
+    AtomicInteger fsyncs = new AtomicInteger();
+    AtomicInteger synced = new AtomicInteger();
+    TransactionLog.SyncListener listener =
+        (batchSize, nanos) -> {
+          assertTrue(batchSize > 0);
+          fsyncs.incrementAndGet();
+          synced.addAndGet(batchSize);
+        };
+
+    ExecutorService executor =
+        ExecutorUtil.newMDCAwareFixedThreadPool(
+            numThreads, new SolrNamedThreadFactory("testGroupSync"));
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        int thread = t;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < updatesPerThread; i++) {
+                    tlog.write(addCommand(thread * updatesPerThread + i, "x"));
+                    tlog.finish(
+                        UpdateLog.SyncLevel.FSYNC, TimeUnit.MILLISECONDS.toNanos(1), listener);
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+    }
+
+    // every update was made durable by exactly one fsync, usually along with others
+    assertEquals(numThreads * updatesPerThread, synced.get());
+    assertTrue(fsyncs.get() <= synced.get());
+  }
+
+  @Test
+  public void testClosesSupersededMappings() throws IOException, InterruptedException {
+    assumeTrue("reads aren't memory mapped", TransactionLog.MMAP_READS);
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    String filler = "x".repeat(2000);
+    long[] positions = new long[1600];
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      tlog.deleteOnClose = false;
+      for (int i = 0; i < 1000; i++) {
+        positions[i] = tlog.write(addCommand(i, filler));
+      }
+    }
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      assertLookup(tlog, positions, 999);
+      assertEquals(1, tlog.getNumMappings());
+
+      // a reader keeps the mapping it reads from open after the log was mapped again
+      LogReader reader = tlog.getReader(0);
+      try {
+        assertEquals("0", docOf(reader.next()).getFieldValue("id"));
+        for (int i = 1000; i < positions.length; i++) {
+          positions[i] = tlog.write(addCommand(i, filler));
+        }
+        assertLookup(tlog, positions, positions.length - 1);
+        assertEquals(2, tlog.getNumMappings());
+        assertEquals("1", docOf(reader.next()).getFieldValue("id"));
+      } finally {
+        reader.close();
+      }
+      assertEquals(1, tlog.getNumMappings());
+      assertReads(tlog, positions, positions.length);
+      assertEquals(1, tlog.getNumMappings());
+    }
+  }
+
+  private static AddUpdateCommand addCommand(int id, String filler) {
+    AddUpdateCommand cmd = new AddUpdateCommand(null);
+    cmd.solrDoc = new SolrInputDocument();
+    cmd.solrDoc.addField("id", Integer.toString(id));
+    cmd.solrDoc.addField("filler_s", filler);
+    return cmd;
+  }
+
+  private static void assertReads(TransactionLog tlog, long[] positions, int numDocs)
+      throws IOException, InterruptedException {
+    LogReader reader = tlog.getReader(0);
+    try {
+      for (int i = 0; i < numDocs; i++) {
+        assertEquals(Integer.toString(i), docOf(reader.next()).getFieldValue("id"));
+      }
+      assertNull(reader.next());
+    } finally {
+      reader.close();
+    }
+
+    ReverseReader reverseReader = tlog.getReverseReader();
+    try {
+      for (int i = numDocs - 1; i >= 0; i--) {
+        assertNotNull(reverseReader.next());
+        assertEquals(positions[i], reverseReader.position());
+      }
+    } finally {
+      reverseReader.close();
+    }
+
+    for (int i = 0; i < numDocs; i += 7) {
+      assertLookup(tlog, positions, i);
+    }
+  }
+
+  private static void assertLookup(TransactionLog tlog, long[] positions, int id) {
+    assertEquals(Integer.toString(id), docOf(tlog.lookup(positions[id])).getFieldValue("id"));
+  }
+
+  private static SolrInputDocument docOf(Object entry) {
+    return (SolrInputDocument) ((List<?>) entry).get(2);
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.SolrTestCase;
+
+public class UpdateLocksTest extends SolrTestCase {
+
+  public void testDocsLockedExclusively() throws Exception {
+    UpdateLocks locks = new UpdateLocks(0, random().nextInt(UpdateLocks.MAX_STRIPES) + 1);
+    int numIds = random().nextInt(20) + 1;
+    AtomicInteger[] holders = new AtomicInteger[numIds];
+    for (int i = 0; i < numIds; i++) {
+      holders[i] = new AtomicInteger();
+    }
+    AtomicBoolean overlapped = new AtomicBoolean();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Random threadRandom = new Random(random().nextLong());
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  for (int i = 0; i < 500; i++) {
+                    int id = threadRandom.nextInt(numIds);
+                    locks.runWithLock(
+                        new BytesRef("id" + id),
+                        condition -> {
+                          if (holders[id].incrementAndGet() != 1) {
+                            overlapped.set(true);
+                          }
+                          Thread.yield();
+                          holders[id].decrementAndGet();
+                          return null;
+                        });
+                  }
+                } catch (Exception e) {
+                  throw new RuntimeException(e);
+                }
+              }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse("two threads held the lock of the same doc", overlapped.get());
+  }
+
+  public void testBlockUpdates() throws Exception {
+    UpdateLocks locks = new UpdateLocks(0, UpdateLocks.MAX_STRIPES);
+    locks.blockUpdates();
+    // the thread blocking updates can still update
+    locks.lockForUpdate();
+    locks.unlockForUpdate();
+
+    int numThreads = 4;
+    CountDownLatch updated = new CountDownLatch(numThreads);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      threads.add(
+          new Thread(
+              () -> {
+                locks.lockForUpdate();
+                locks.unlockForUpdate();
+                updated.countDown();
+              }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    assertFalse(updated.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(numThreads, updated.getCount());
+
+    locks.unblockUpdates();
+    assertTrue(updated.await(30, TimeUnit.SECONDS));
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.UpdateParams;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+public class ParallelUpdateProcessorTest extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml");
+  }
+
+  @Before
+  public void clearIndex() throws Exception {
+    assertU(delQ("*:*"));
+    assertU(commit());
+  }
+
+  public void testUpdatesOfAnIdInOrder() throws Exception {
+    int numIds = 50;
+    int numUpdates = atLeast(2000);
+    Map<String, Integer> expected = new HashMap<>();
+    StringJoiner json = new StringJoiner(",", "{", "}");
+    for (int i = 0; i < numUpdates; i++) {
+      String id = Integer.toString(random().nextInt(numIds));
+      if (random().nextInt(20) == 0) {
+        json.add("\"delete\":{\"id\":\"" + id + "\"}");
+        expected.remove(id);
+      } else {
+        json.add("\"add\":{\"doc\":{\"id\":\"" + id + "\",\"val_i\":" + i + "}}");
+        expected.put(id, i);
+      }
+    }
+    updateJ(json.toString(), params(UpdateParams.THREADS, "4"));
+    assertU(commit());
+
+    assertJQ(req("q", "*:*"), "/response/numFound==" + expected.size());
+    for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+      assertJQ(
+          req("q", "id:" + entry.getKey(), "fl", "val_i"),
+          "/response/docs/[0]/val_i==" + entry.getValue());
+    }
+  }
+
+  public void testCommitWaitsForEarlierUpdates() throws Exception {
+    int numBefore = atLeast(200);
+    int numAfter = atLeast(200);
+    StringJoiner json = new StringJoiner(",", "{", "}");
+    for (int i = 0; i < numBefore + numAfter; i++) {
+      if (i == numBefore) {
+        json.add("\"commit\":{}");
+      }
+      json.add("\"add\":{\"doc\":{\"id\":\"doc" + i + "\",\"val_i\":" + i + "}}");
+    }
+    updateJ(json.toString(), params(UpdateParams.THREADS, "4"));
+
+    // the commit saw every update before it; the ones after it went to new chains
+    assertJQ(req("q", "*:*", "rows", "0"), "/response/numFound==" + numBefore);
+    assertU(commit());
+    assertJQ(req("q", "*:*", "rows", "0"), "/response/numFound==" + (numBefore + numAfter));
+  }
+
+  public void testFailsWithTheFirstError() throws Exception {
+    int numDocs = atLeast(1000);
+    int firstBad = numDocs / 2;
+    StringJoiner json = new StringJoiner(",", "[", "]");
+    StringJoiner before = new StringJoiner(",");
+    for (int i = 0; i < numDocs; i++) {
+      boolean bad = i == firstBad || i == firstBad + 100;
+      json.add("{\"id\":\"doc" + i + "\",\"val_i\":" + (bad ? "\"bogus\"" : i) + "}");
+      if (i < firstBad) {
+        before.add("doc" + i);
+      }
+    }
+
+    Exception e =
+        expectThrows(
+            Exception.class,
+            () -> updateJ(json.toString(), params(UpdateParams.THREADS, "4")));
+    assertTrue(e.getMessage(), e.getMessage().contains("doc" + firstBad));
+    assertU(commit());
+
+    // like on a single thread, every doc before the failing one is indexed
+    assertJQ(
+        req("q", "*:*", "fq", "{!terms f=id}" + before, "rows", "0"),
+        "/response/numFound==" + firstBad);
+    assertJQ(req("q", "id:doc" + firstBad), "/response/numFound==0");
+  }
+}
@@ -66,6 +66,54 @@ public class DynamicMapsTest extends SolrTestCase {
     assertEquals(-1, map.get(0));
   }
 
+  public void testIntLongMapAddTo() {
+    IntLongDynamicMap map = new IntLongDynamicMap(1 << 14, 0);
+    Map<Integer, Long> standard = new HashMap<>();
+    // enough keys for the map to switch from the hashMap to the array
+    for (int i = 0; i < 1000; i++) {
+      int key = random().nextInt(1 << 14);
+      long delta = random().nextInt(10) + 1;
+      standard.merge(key, delta, Long::sum);
+      map.addTo(key, delta);
+    }
+    assertTrue(map.isArrayBased());
+
+    for (Map.Entry<Integer, Long> entry : standard.entrySet()) {
+      assertEquals((long) entry.getValue(), map.get(entry.getKey()));
+    }
+    Map<Integer, Long> visited = new HashMap<>();
+    map.forEach((key, value) -> visited.put(key, value));
+    assertEquals(standard, visited);
+  }
+
+  public void testSparseIntIntMap() {
+    // a few keys out of many stay in the hashMap
+    IntIntDynamicMap map = new IntIntDynamicMap(1 << 20, 10, -1);
+    Map<Integer, Integer> standard = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      int key = random().nextInt(1 << 20);
+      int val = random().nextInt(Integer.MAX_VALUE);
+      standard.put(key, val);
+      map.put(key, val);
+    }
+    assertFalse(map.isArrayBased());
+    for (Map.Entry<Integer, Integer> entry : standard.entrySet()) {
+      assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+    }
+
+    // as many keys as the array would take memory for
+    map = new IntIntDynamicMap(1 << 14, 0, -1);
+    for (int key = 0; key < 1 << 12; key++) {
+      map.put(key, key);
+    }
+    assertTrue(map.isArrayBased());
+    assertEquals(100, map.get(100));
+    assertEquals(-1, map.get((1 << 12) + 1));
+
+    // expected to take as many keys
+    assertTrue(new IntIntDynamicMap(1 << 14, 1 << 12, -1).isArrayBased());
+  }
+
   public void testIntIntMap() {
     IntIntDynamicMap map = new IntIntDynamicMap(10, -1);
     Map<Integer, Integer> standard = new HashMap<>();
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,13 +30,39 @@ import org.apache.solr.common.util.DataInputInputStream;
 import org.apache.solr.common.util.FastInputStream;
 import org.apache.solr.common.util.JavaBinCodec;
 
+/**
+ * Reads the docs of a JavaBin response as tuples, one map per doc.
+ *
+ * <p>It also reads the columnar responses of the export handler (<code>columnar=true</code>). Those
+ * name the exported fields once, in a <code>fields</code> list, and then stream <code>columns
+ * </code>: blocks of many rows, each made of the number of rows followed by a (type, present,
+ * values) triple per field. The values of numeric, date and boolean columns are primitive arrays,
+ * the others are lists, and <code>present</code> flags the rows that have a value for the column
+ * (null when all of them do).
+ */
 public class JavabinTupleStreamParser extends JavaBinCodec implements TupleStreamParser {
+  public static final int COLUMN_EMPTY = 0,
+      COLUMN_INT = 1,
+      COLUMN_LONG = 2,
+      COLUMN_FLOAT = 3,
+      COLUMN_DOUBLE = 4,
+      COLUMN_BOOL = 5,
+      COLUMN_DATE = 6,
+      COLUMN_OBJECT = 7;
+
   private final InputStream is;
   final FastInputStream fis;
   private int arraySize = Integer.MAX_VALUE;
   private boolean onlyJsonTypes = false;
   int objectSize;
   private boolean atDocs;
+  private String[] columnNames;
+  private boolean columnar;
+  private int[] columnTypes;
+  private boolean[][] columnPresent;
+  private Object[] columnValues;
+  private int blockRows;
+  private int blockRow;
 
   public JavabinTupleStreamParser(InputStream is, boolean onlyJsonTypes) throws IOException {
     this.onlyJsonTypes = onlyJsonTypes;
@@ -54,7 +81,15 @@ public class JavabinTupleStreamParser extends JavaBinCodec implements TupleStrea
       for (int i = objectSize; i > 0; i--) {
         Object k = readVal(fis);
         if (k == END_OBJ) break;
-        if ("docs".equals(k)) {
+        if ("fields".equals(k) && columnNames == null) {
+          if (readVal(fis) instanceof List<?> names) {
+            columnNames = names.stream().map(String::valueOf).toArray(String[]::new);
+          }
+        } else if ("columns".equals(k) && columnNames != null) {
+          tagByte = fis.readByte();
+          columnar = true;
+          return tagByte == ITERATOR;
+        } else if ("docs".equals(k)) {
           tagByte = fis.readByte();
           if (tagByte == ITERATOR) return true; // docs must be an iterator or
           if (tagByte >>> 5 == ARR >>> 5) { // an array
@@ -188,12 +223,83 @@ public class JavabinTupleStreamParser extends JavaBinCodec implements TupleStrea
     }
 
     if (arraySize == 0) return null;
+    if (columnar) {
+      return nextRow();
+    }
     Object o = readVal(fis);
     arraySize--;
     if (o == END_OBJ) return null;
     return (Map<String, Object>) o;
   }
 
+  private Map<String, Object> nextRow() throws IOException {
+    while (blockRow == blockRows) {
+      Object o = readVal(fis);
+      if (o == END_OBJ) {
+        arraySize = 0;
+        return null;
+      }
+      readColumnBlock((List<?>) o);
+    }
+    Map<String, Object> row = new LinkedHashMap<>();
+    for (int i = 0; i < columnNames.length; i++) {
+      if (columnTypes[i] != COLUMN_EMPTY
+          && (columnPresent[i] == null || columnPresent[i][blockRow])) {
+        row.put(columnNames[i], columnValue(i, blockRow));
+      }
+    }
+    blockRow++;
+    return row;
+  }
+
+  private void readColumnBlock(List<?> block) {
+    int numColumns = columnNames.length;
+    if (columnTypes == null) {
+      columnTypes = new int[numColumns];
+      columnPresent = new boolean[numColumns][];
+      columnValues = new Object[numColumns];
+    }
+    blockRows = ((Number) block.get(0)).intValue();
+    blockRow = 0;
+    for (int i = 0; i < numColumns; i++) {
+      columnTypes[i] = ((Number) block.get(1 + 3 * i)).intValue();
+      columnPresent[i] = (boolean[]) block.get(2 + 3 * i);
+      columnValues[i] = block.get(3 + 3 * i);
+    }
+  }
+
+  private Object columnValue(int column, int row) {
+    Object values = columnValues[column];
+    switch (columnTypes[column]) {
+      case COLUMN_INT:
+        {
+          int v = ((int[]) values)[row];
+          if (onlyJsonTypes) return (long) v;
+          return v;
+        }
+      case COLUMN_LONG:
+        return ((long[]) values)[row];
+      case COLUMN_FLOAT:
+        {
+          float v = ((float[]) values)[row];
+          if (onlyJsonTypes) return (double) v;
+          return v;
+        }
+      case COLUMN_DOUBLE:
+        return ((double[]) values)[row];
+      case COLUMN_BOOL:
+        return ((boolean[]) values)[row];
+      case COLUMN_DATE:
+        {
+          long v = ((long[]) values)[row];
+          if (onlyJsonTypes) return Instant.ofEpochMilli(v).toString();
+          return new Date(v);
+        }
+      default:
+        return ((List<?>) values).get(row);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     is.close();
@@ -31,13 +31,29 @@ public class JavaBinResponseParser extends ResponseParser {
   public static final String JAVABIN_CONTENT_TYPE_V2 = "application/vnd.apache.solr.javabin";
   public static final String JAVABIN_CONTENT_TYPE = "application/octet-stream";
 
+  /**
+   * The version of the {@link JavaBinCodec.StringDictionary} the parser has. The response refers
+   * to the dictionary only if the server has one with the same version.
+   */
+  public static final String STRING_DICTIONARY_PARAM = "javabin.dict";
+
   protected JavaBinCodec.StringCache stringCache;
+  protected JavaBinCodec.StringDictionary stringDictionary;
 
   public JavaBinResponseParser setStringCache(JavaBinCodec.StringCache cache) {
     this.stringCache = cache;
     return this;
   }
 
+  /**
+   * Sets the dictionary the responses may refer to. The requests must have its version in the
+   * {@link #STRING_DICTIONARY_PARAM} param.
+   */
+  public JavaBinResponseParser setStringDictionary(JavaBinCodec.StringDictionary dictionary) {
+    this.stringDictionary = dictionary;
+    return this;
+  }
+
   @Override
   public String getWriterType() {
     return "javabin";
@@ -50,7 +66,7 @@ public class JavaBinResponseParser extends ResponseParser {
   }
 
   protected JavaBinCodec createCodec() {
-    return new JavaBinCodec(null, stringCache);
+    return new JavaBinCodec(null, stringCache).setStringDictionary(stringDictionary);
   }
 
   @Override
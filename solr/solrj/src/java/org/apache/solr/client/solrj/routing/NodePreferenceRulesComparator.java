@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import org.apache.solr.common.cloud.NodesSysProps;
 import org.apache.solr.common.cloud.Replica;
 import org.apache.solr.common.params.ShardParams;
@@ -36,7 +37,7 @@ import org.apache.solr.common.util.StrUtils;
  *
  * <p>Optional final preferenceRule is *not* used for pairwise sorting, but instead defines how
  * "equivalent" replicas will be ordered (the base ordering). Defaults to "random"; may specify
- * "stable".
+ * "stable" or "latency".
  */
 public class NodePreferenceRulesComparator implements Comparator<Object> {
 
@@ -63,6 +64,30 @@ public class NodePreferenceRulesComparator implements Comparator<Object> {
       final NodesSysProps sysProps,
       final ReplicaListTransformerFactory defaultRltFactory,
       final ReplicaListTransformerFactory stableRltFactory) {
+    this(
+        preferenceRules,
+        requestParams,
+        nodeName,
+        localHostAddress,
+        sysProps,
+        defaultRltFactory,
+        stableRltFactory,
+        null);
+  }
+
+  /**
+   * @param latencyRltFactory orders the replicas by how fast they answer, for the "latency" base
+   *     order; random if null, when the latencies aren't known
+   */
+  public NodePreferenceRulesComparator(
+      final List<PreferenceRule> preferenceRules,
+      final SolrParams requestParams,
+      final String nodeName,
+      final String localHostAddress,
+      final NodesSysProps sysProps,
+      final ReplicaListTransformerFactory defaultRltFactory,
+      final ReplicaListTransformerFactory stableRltFactory,
+      final ReplicaListTransformerFactory latencyRltFactory) {
     this.sysProps = sysProps;
     this.preferenceRules = preferenceRules;
     this.nodeName = nodeName;
@@ -94,6 +119,15 @@ public class NodePreferenceRulesComparator implements Comparator<Object> {
                   requestParams,
                   RequestReplicaListTransformerGenerator.RANDOM_RLTF);
           break;
+        case ShardParams.REPLICA_LATENCY:
+          this.baseReplicaListTransformer =
+              Objects.requireNonNullElse(
+                      latencyRltFactory, RequestReplicaListTransformerGenerator.RANDOM_RLTF)
+                  .getInstance(
+                      parts.length == 1 ? null : parts[1],
+                      requestParams,
+                      RequestReplicaListTransformerGenerator.RANDOM_RLTF);
+          break;
         default:
           throw new IllegalArgumentException("Invalid base replica order spec");
       }
@@ -42,6 +42,7 @@ public class RequestReplicaListTransformerGenerator {
           shufflingReplicaListTransformer;
   private final ReplicaListTransformerFactory stableRltFactory;
   private final ReplicaListTransformerFactory defaultRltFactory;
+  private final ReplicaListTransformerFactory latencyRltFactory;
   private final String defaultShardPreferences;
   private final String nodeName;
   private final String localHostAddress;
@@ -58,7 +59,18 @@ public class RequestReplicaListTransformerGenerator {
   public RequestReplicaListTransformerGenerator(
       ReplicaListTransformerFactory defaultRltFactory,
       ReplicaListTransformerFactory stableRltFactory) {
-    this(defaultRltFactory, stableRltFactory, null, null, null, null);
+    this(defaultRltFactory, stableRltFactory, null);
+  }
+
+  /**
+   * @param latencyRltFactory orders the replicas by how fast they answer, for the "latency" base
+   *     order of {@link ShardParams#SHARDS_PREFERENCE}
+   */
+  public RequestReplicaListTransformerGenerator(
+      ReplicaListTransformerFactory defaultRltFactory,
+      ReplicaListTransformerFactory stableRltFactory,
+      ReplicaListTransformerFactory latencyRltFactory) {
+    this(defaultRltFactory, stableRltFactory, latencyRltFactory, null, null, null, null);
   }
 
   public RequestReplicaListTransformerGenerator(
@@ -76,6 +88,25 @@ public class RequestReplicaListTransformerGenerator {
       String nodeName,
       String localHostAddress,
       NodesSysProps sysProps) {
+    this(
+        defaultRltFactory,
+        stableRltFactory,
+        null,
+        defaultShardPreferences,
+        nodeName,
+        localHostAddress,
+        sysProps);
+  }
+
+  public RequestReplicaListTransformerGenerator(
+      ReplicaListTransformerFactory defaultRltFactory,
+      ReplicaListTransformerFactory stableRltFactory,
+      ReplicaListTransformerFactory latencyRltFactory,
+      String defaultShardPreferences,
+      String nodeName,
+      String localHostAddress,
+      NodesSysProps sysProps) {
+    this.latencyRltFactory = latencyRltFactory;
     this.defaultRltFactory = Objects.requireNonNullElse(defaultRltFactory, RANDOM_RLTF);
     this.stableRltFactory =
         Objects.requireNonNullElseGet(stableRltFactory, AffinityReplicaListTransformerFactory::new);
@@ -117,7 +148,8 @@ public class RequestReplicaListTransformerGenerator {
                   : this.localHostAddress, // could still be null
               sysProps != null ? sysProps : this.sysProps, // could still be null
               defaultRltFactory,
-              stableRltFactory);
+              stableRltFactory,
+              latencyRltFactory);
       ReplicaListTransformer baseReplicaListTransformer =
           replicaComp.getBaseReplicaListTransformer();
       if (replicaComp.getSortRules() == null) {
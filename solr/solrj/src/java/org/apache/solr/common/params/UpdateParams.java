@@ -68,6 +68,11 @@ public interface UpdateParams {
 
   public static final String EXPUNGE_DELETES = "expungeDeletes";
 
+  /**
+   * The number of threads processing the docs of the update request, as it is parsed. 1 by default
+   */
+  public static final String THREADS = "update.threads";
+
   /** Return versions of updates? */
   public static final String VERSIONS = "versions";
 
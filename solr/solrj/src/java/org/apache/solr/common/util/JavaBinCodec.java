@@ -104,6 +104,8 @@ public class JavaBinCodec implements PushWriter {
       UUID = 20, // This is reserved to be used only in LogCodec
       // types that combine tag + length (or other info) in a single byte
       PRIMITIVE_ARR = 21,
+      /* the version of the StringDictionary the extern strings that follow refer to */
+      STRING_DICT = 22,
       TAG_AND_LEN = (byte) (1 << 5),
       STR = (byte) (1 << 5),
       SINT = (byte) (2 << 5),
@@ -119,6 +121,7 @@ public class JavaBinCodec implements PushWriter {
   private final ObjectResolver resolver;
   protected FastOutputStream daos;
   private StringCache stringCache;
+  private StringDictionary stringDictionary;
   private WritableDocFields writableDocFields;
   private boolean alreadyMarshalled;
   private boolean alreadyUnmarshalled;
@@ -162,9 +165,25 @@ public class JavaBinCodec implements PushWriter {
     return resolver;
   }
 
+  /**
+   * Makes the extern strings refer to the given dictionary. When writing, the strings of the
+   * dictionary are written as references, without ever writing the strings themselves; the reader
+   * must have the same dictionary. When reading, it's the dictionary used by the data whose
+   * dictionary has the same version, if any.
+   */
+  public JavaBinCodec setStringDictionary(StringDictionary stringDictionary) {
+    this.stringDictionary = stringDictionary;
+    return this;
+  }
+
   public void marshal(Object nl, OutputStream os) throws IOException {
     try {
       initWrite(os);
+      if (stringDictionary != null) {
+        writeTag(STRING_DICT);
+        writeVLong(stringDictionary.getVersion(), daos);
+        stringsCount = stringDictionary.size();
+      }
       writeVal(nl);
     } finally {
       alreadyMarshalled = true;
@@ -351,6 +370,9 @@ public class JavaBinCodec implements PushWriter {
         return readMapIter(dis);
       case PRIMITIVE_ARR:
         return readPrimitiveArray(dis);
+      case STRING_DICT:
+        readStringDictionary(dis);
+        return readVal(dis);
     }
 
     throw new RuntimeException("Unknown type " + tagByte);
@@ -1339,26 +1361,41 @@ public class JavaBinCodec implements PushWriter {
   private int stringsCount = 0;
   private Map<String, Integer> stringsMap;
   private List<CharSequence> stringsList;
+  /** The number of the extern strings that are in the dictionary the data refers to */
+  private int dictionarySize = 0;
+
+  void readStringDictionary(DataInputInputStream dis) throws IOException {
+    long version = readVLong(dis);
+    if (stringDictionary == null || stringDictionary.getVersion() != version) {
+      throw new IOException("The data refers to an unknown string dictionary, version " + version);
+    }
+    dictionarySize = stringDictionary.size();
+  }
 
   public void writeExternString(CharSequence s) throws IOException {
     if (s == null) {
       writeTag(NULL);
       return;
     }
-    Integer idx = stringsMap == null ? null : stringsMap.get(s.toString());
+    String str = s.toString();
+    Integer idx = stringDictionary == null ? null : stringDictionary.indexOf(str);
+    if (idx == null && stringsMap != null) idx = stringsMap.get(str);
     if (idx == null) idx = 0;
     writeTag(EXTERN_STRING, idx);
     if (idx == 0) {
       writeStr(s);
       if (stringsMap == null) stringsMap = new HashMap<>();
-      stringsMap.put(s.toString(), ++stringsCount);
+      stringsMap.put(str, ++stringsCount);
     }
   }
 
   public CharSequence readExternString(DataInputInputStream fis) throws IOException {
     int idx = readSize(fis);
     if (idx != 0) { // idx != 0 is the index of the extern string
-      return stringsList.get(idx - 1);
+      if (idx <= dictionarySize) {
+        return stringDictionary.get(idx - 1);
+      }
+      return stringsList.get(idx - 1 - dictionarySize);
     } else { // idx == 0 means it has a string value
       tagByte = fis.readByte();
       CharSequence s = readStr(fis, stringCache, false);
@@ -1430,6 +1467,50 @@ public class JavaBinCodec implements PushWriter {
     }
   }
 
+  /**
+   * Strings that the writer and the reader of some data both know ahead, such as the field names
+   * of a schema, so that the data can refer to them rather than hold them. A dictionary is
+   * identified by a version derived from its strings: a writer only uses the dictionary of a
+   * reader that has the same version. The dictionary is immutable, and shared by any number of
+   * codecs, so that the strings read are the same instances whatever the data they come from.
+   */
+  public static final class StringDictionary {
+    private final String[] strings;
+    private final Map<String, Integer> indexes;
+    private final long version;
+
+    public StringDictionary(Collection<String> strings) {
+      this.strings = strings.stream().distinct().toArray(String[]::new);
+      this.indexes = CollectionUtil.newHashMap(this.strings.length);
+      long hash = this.strings.length;
+      for (int i = 0; i < this.strings.length; i++) {
+        String s = this.strings[i];
+        // the extern string indexes start at 1
+        indexes.put(s, i + 1);
+        hash = Hash.lookup3ycs64(s, 0, s.length(), hash);
+      }
+      // a version is written as a vlong, keep it positive
+      this.version = hash & Long.MAX_VALUE;
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    public int size() {
+      return strings.length;
+    }
+
+    String get(int i) {
+      return strings[i];
+    }
+
+    /** The extern string index of the given string, or null if it isn't in the dictionary */
+    Integer indexOf(String s) {
+      return indexes.get(s);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (daos != null) {
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.common.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Pulls the documents of a javabin response one field at a time, without building a {@link
+ * org.apache.solr.common.SolrDocument} for each of them. The numeric, boolean and date values of
+ * the fields are read as primitives, and the string values as a {@link Utf8CharSequence} over a
+ * buffer the cursor reuses, so reading a page of documents allocates next to nothing. The field
+ * names are the same String instances in all the documents.
+ *
+ * <p>The other entries of the response are read as by {@link JavaBinCodec}, into {@link
+ * #getResponse()}:
+ *
+ * <pre class="prettyprint">
+ * QueryRequest req = new QueryRequest(params);
+ * req.setResponseParser(new InputStreamResponseParser("javabin"));
+ * InputStream is = new InputStreamResponse(client.request(req)).getResponseStream();
+ * try (JavaBinDocumentCursor cursor = new JavaBinDocumentCursor(is)) {
+ *   if (cursor.seekDocList("response")) {
+ *     while (cursor.nextDoc()) {
+ *       while (cursor.nextField()) {
+ *         if ("price".equals(cursor.fieldName())) {
+ *           total += cursor.doubleValue();
+ *         }
+ *       }
+ *     }
+ *   }
+ *   NamedList&lt;Object&gt; rest = cursor.readRest();
+ * }
+ * </pre>
+ *
+ * <p>Meant for clients reading large pages of documents. Solr itself doesn't use it: the responses
+ * of the shards of a distributed request are still read into complete documents by {@link
+ * JavaBinCodec} before QueryComponent merges them.
+ *
+ * <p>Not thread safe, and only meant to read one response.
+ */
+public class JavaBinDocumentCursor extends JavaBinCodec {
+  private static final int BEFORE_DOCS = 0, IN_DOCS = 1, AFTER_DOCS = 2;
+
+  private final FastInputStream dis;
+  private final NamedList<Object> response;
+  private int entriesLeft;
+  private int state = BEFORE_DOCS;
+
+  private long numFound;
+  private long start;
+  private Float maxScore;
+  private boolean numFoundExact = true;
+  /** The number of documents left in the list, or -1 if it's an iterator ending with END */
+  private int docsLeft;
+  private int fieldsLeft;
+
+  private CharSequence fieldName;
+  private DataEntry.Type type;
+  private long numericValue;
+  private double doubleValue;
+  private CharSequence strValue;
+  private Object value;
+  /** Whether the value of the current field is yet to be read from the stream */
+  private boolean pending;
+  /** Whether the value of the current field was read as an object */
+  private boolean objectRead;
+
+  private byte[] buf = new byte[64];
+  private final ByteArrayUtf8CharSequence utf8 = new ByteArrayUtf8CharSequence(buf, 0, 0);
+
+  public JavaBinDocumentCursor(InputStream is) throws IOException {
+    this(is, null);
+  }
+
+  /**
+   * @param dictionary the dictionary the response may refer to
+   * @see JavaBinCodec#setStringDictionary(StringDictionary)
+   */
+  public JavaBinDocumentCursor(InputStream is, StringDictionary dictionary) throws IOException {
+    setStringDictionary(dictionary);
+    this.dis = FastInputStream.wrap(is);
+    _init(dis);
+    tagByte = dis.readByte();
+    if (tagByte == STRING_DICT) {
+      readStringDictionary(dis);
+      tagByte = dis.readByte();
+    }
+    if ((tagByte >>> 5) == (ORDERED_MAP >>> 5)) {
+      response = new SimpleOrderedMap<>();
+    } else if ((tagByte >>> 5) == (NAMED_LST >>> 5)) {
+      response = new NamedList<>();
+    } else {
+      throw new IOException("Not a javabin response, its type is " + tagByte);
+    }
+    entriesLeft = readSize(dis);
+  }
+
+  /**
+   * Reads the entries of the response up to the document list with the given name, such as
+   * "response". Returns false if there is no such list, in which case the whole response has been
+   * read. Only one list can be read with the cursor.
+   */
+  public boolean seekDocList(String name) throws IOException {
+    if (state != BEFORE_DOCS) {
+      throw new IllegalStateException("A document list was already read");
+    }
+    while (entriesLeft > 0) {
+      entriesLeft--;
+      String key = (String) readVal(dis);
+      tagByte = dis.readByte();
+      if (tagByte == SOLRDOCLST && name.equals(key)) {
+        startDocList();
+        return true;
+      }
+      response.add(key, readObject(dis));
+    }
+    state = AFTER_DOCS;
+    return false;
+  }
+
+  private void startDocList() throws IOException {
+    List<?> header = (List<?>) readVal(dis);
+    numFound = (Long) header.get(0);
+    start = (Long) header.get(1);
+    maxScore = (Float) header.get(2);
+    if (header.size() > 3) {
+      numFoundExact = (Boolean) header.get(3);
+    }
+    tagByte = dis.readByte();
+    if (tagByte == ITERATOR) {
+      docsLeft = -1;
+    } else if ((tagByte >>> 5) == (ARR >>> 5)) {
+      docsLeft = readSize(dis);
+    } else {
+      throw new IOException("Not a document list, its type is " + tagByte);
+    }
+    fieldsLeft = 0;
+    state = IN_DOCS;
+  }
+
+  public long getNumFound() {
+    return numFound;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public Float getMaxScore() {
+    return maxScore;
+  }
+
+  public boolean isNumFoundExact() {
+    return numFoundExact;
+  }
+
+  /** Moves to the next document of the list, skipping what's left of the current one */
+  public boolean nextDoc() throws IOException {
+    if (state != IN_DOCS) {
+      return false;
+    }
+    while (nextField()) {
+      // skip the fields that weren't read
+    }
+    if (docsLeft == 0) {
+      state = AFTER_DOCS;
+      return false;
+    }
+    tagByte = dis.readByte();
+    if (docsLeft < 0 && tagByte == END) {
+      state = AFTER_DOCS;
+      return false;
+    }
+    if (tagByte != SOLRDOC) {
+      throw new IOException("Not a document, its type is " + tagByte);
+    }
+    if (docsLeft > 0) {
+      docsLeft--;
+    }
+    tagByte = dis.readByte();
+    fieldsLeft = readSize(dis);
+    return true;
+  }
+
+  /**
+   * Moves to the next field of the current document, skipping the value of the current one if it
+   * wasn't read. The child documents come after the fields, as fields without a name whose {@link
+   * #value()} is the {@link org.apache.solr.common.SolrDocument}.
+   */
+  public boolean nextField() throws IOException {
+    if (pending) {
+      readObject(dis);
+      pending = false;
+    }
+    fieldName = null;
+    value = null;
+    objectRead = false;
+    strValue = null;
+    if (fieldsLeft == 0) {
+      type = null;
+      return false;
+    }
+    fieldsLeft--;
+    tagByte = dis.readByte();
+    if (tagByte != SOLRDOC) {
+      fieldName = (CharSequence) readObject(dis);
+      tagByte = dis.readByte();
+    }
+    readValue();
+    return true;
+  }
+
+  private void readValue() throws IOException {
+    switch (tagByte >>> 5) {
+      case STR >>> 5 -> {
+        int sz = readSize(dis);
+        if (buf.length < sz) {
+          buf = new byte[Math.max(sz, buf.length * 2)];
+        }
+        dis.readFully(buf, 0, sz);
+        strValue = utf8.reset(buf, 0, sz, null);
+        type = DataEntry.Type.STR;
+        return;
+      }
+      case SINT >>> 5 -> {
+        setNumeric(DataEntry.Type.INT, readSmallInt(dis));
+        return;
+      }
+      case SLONG >>> 5 -> {
+        setNumeric(DataEntry.Type.LONG, readSmallLong(dis));
+        return;
+      }
+      case EXTERN_STRING >>> 5 -> {
+        strValue = readExternString(dis);
+        type = strValue == null ? DataEntry.Type.NULL : DataEntry.Type.STR;
+        return;
+      }
+      case ARR >>> 5 -> {
+        type = DataEntry.Type.ENTRY_ITER;
+        pending = true;
+        return;
+      }
+      case ORDERED_MAP >>> 5, NAMED_LST >>> 5 -> {
+        type = DataEntry.Type.KEYVAL_ITER;
+        pending = true;
+        return;
+      }
+    }
+    switch (tagByte) {
+      case NULL -> type = DataEntry.Type.NULL;
+      case BOOL_TRUE -> setNumeric(DataEntry.Type.BOOL, 1);
+      case BOOL_FALSE -> setNumeric(DataEntry.Type.BOOL, 0);
+      case BYTE -> setNumeric(DataEntry.Type.INT, dis.readByte());
+      case SHORT -> setNumeric(DataEntry.Type.INT, dis.readShort());
+      case INT -> setNumeric(DataEntry.Type.INT, dis.readInt());
+      case LONG -> setNumeric(DataEntry.Type.LONG, dis.readLong());
+      case DATE -> setNumeric(DataEntry.Type.DATE, dis.readLong());
+      case FLOAT -> setDouble(DataEntry.Type.FLOAT, dis.readFloat());
+      case DOUBLE -> setDouble(DataEntry.Type.DOUBLE, dis.readDouble());
+      case ITERATOR, MAP -> {
+        type = tagByte == MAP ? DataEntry.Type.KEYVAL_ITER : DataEntry.Type.ENTRY_ITER;
+        pending = true;
+      }
+      default -> {
+        type = DataEntry.Type.JAVA_OBJ;
+        pending = true;
+      }
+    }
+  }
+
+  private void setNumeric(DataEntry.Type type, long v) {
+    this.type = type;
+    this.numericValue = v;
+    this.doubleValue = v;
+  }
+
+  private void setDouble(DataEntry.Type type, double v) {
+    this.type = type;
+    this.doubleValue = v;
+    this.numericValue = (long) v;
+  }
+
+  /** The name of the current field, or null if it's a child document */
+  public CharSequence fieldName() {
+    return fieldName;
+  }
+
+  /**
+   * The type of the value of the current field. {@link DataEntry.Type#ENTRY_ITER} is the type of
+   * the values of a multivalued field, which are read with {@link #value()}.
+   */
+  public DataEntry.Type valueType() {
+    return type;
+  }
+
+  public int intValue() {
+    return (int) numericValue;
+  }
+
+  /** The value of an int or long field, or of a date field in milliseconds */
+  public long longValue() {
+    return numericValue;
+  }
+
+  public float floatValue() {
+    return (float) doubleValue;
+  }
+
+  public double doubleValue() {
+    return doubleValue;
+  }
+
+  public boolean boolValue() {
+    return numericValue != 0;
+  }
+
+  /**
+   * The value of a string field. Unless it's a String, it is only valid until the cursor moves:
+   * {@link Object#toString()} it to keep it.
+   */
+  public CharSequence strValue() {
+    return strValue;
+  }
+
+  /** The value of the current field as an object, as {@link JavaBinCodec} reads it */
+  public Object value() throws IOException {
+    if (pending) {
+      value = readObject(dis);
+      pending = false;
+      objectRead = true;
+    }
+    if (objectRead || type == null) {
+      return value;
+    }
+    objectRead = true;
+    return value =
+        switch (type) {
+          case NULL -> null;
+          case INT -> (int) numericValue;
+          case LONG -> numericValue;
+          case FLOAT -> (float) doubleValue;
+          case DOUBLE -> doubleValue;
+          case BOOL -> numericValue != 0;
+          case DATE -> new Date(numericValue);
+          case STR -> strValue.toString();
+          default -> throw new IllegalStateException("Unexpected type " + type);
+        };
+  }
+
+  /** Reads the entries of the response after the document list, skipping the documents left */
+  public NamedList<Object> readRest() throws IOException {
+    while (nextDoc()) {
+      // skip the documents that weren't read
+    }
+    state = AFTER_DOCS;
+    while (entriesLeft > 0) {
+      entriesLeft--;
+      String key = (String) readVal(dis);
+      response.add(key, readVal(dis));
+    }
+    return response;
+  }
+
+  /** The entries of the response read so far, all but the document list */
+  public NamedList<Object> getResponse() {
+    return response;
+  }
+
+  /** Closes the stream of the response */
+  @Override
+  public void close() throws IOException {
+    dis.close();
+  }
+}
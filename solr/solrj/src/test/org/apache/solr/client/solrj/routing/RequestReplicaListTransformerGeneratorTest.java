@@ -18,6 +18,7 @@
 package org.apache.solr.client.solrj.routing;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import org.apache.solr.SolrTestCaseJ4;
@@ -71,6 +72,40 @@ public class RequestReplicaListTransformerGeneratorTest extends SolrTestCaseJ4 {
     assertEquals("node3", getHost(replicas.get(2).getNodeName()));
   }
 
+  @Test
+  public void testLatencyBase() {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add(
+        ShardParams.SHARDS_PREFERENCE,
+        ShardParams.SHARDS_PREFERENCE_REPLICA_TYPE
+            + ":NRT,"
+            + ShardParams.SHARDS_PREFERENCE_REPLICA_BASE
+            + ":"
+            + ShardParams.REPLICA_LATENCY);
+    List<Replica> replicas = getBasicReplicaList();
+    // a stand-in for the latencies, which only the shard handler knows
+    ReplicaListTransformer byLatency =
+        new ReplicaListTransformer() {
+          @Override
+          public <T> void transform(List<T> choices) {
+            choices.sort(Comparator.comparing(Object::toString).reversed());
+          }
+        };
+    RequestReplicaListTransformerGenerator generator =
+        new RequestReplicaListTransformerGenerator(null, null, (spec, p, f) -> byLatency);
+    generator.getReplicaListTransformer(params).transform(replicas);
+    assertEquals("node1", getHost(replicas.get(0).getNodeName()));
+    assertEquals("node3", getHost(replicas.get(1).getNodeName()));
+    assertEquals("node2", getHost(replicas.get(2).getNodeName()));
+
+    // random, when the latencies aren't known
+    replicas = getBasicReplicaList();
+    generator = new RequestReplicaListTransformerGenerator();
+    generator.getReplicaListTransformer(params).transform(replicas);
+    assertEquals("node1", getHost(replicas.get(0).getNodeName()));
+    assertEquals(3, replicas.size());
+  }
+
   private String getHost(final String nodeName) {
     final int colonAt = nodeName.indexOf(':');
     return colonAt != -1
@@ -480,6 +480,59 @@ public class TestJavaBinCodec extends SolrTestCaseJ4 {
     assertSame(l1.get(1), l2.get(1));
   }
 
+  @Test
+  public void testStringDictionary() throws Exception {
+    JavaBinCodec.StringDictionary dictionary =
+        new JavaBinCodec.StringDictionary(List.of("id", "name", "price"));
+    assertEquals(
+        dictionary.getVersion(),
+        new JavaBinCodec.StringDictionary(List.of("id", "name", "price")).getVersion());
+    assertNotEquals(
+        dictionary.getVersion(),
+        new JavaBinCodec.StringDictionary(List.of("id", "price", "name")).getVersion());
+
+    SimpleOrderedMap<Object> doc = new SimpleOrderedMap<>();
+    doc.add("id", "1");
+    doc.add("name", "a name");
+    doc.add("inStock", true);
+    SimpleOrderedMap<Object> other = new SimpleOrderedMap<>();
+    other.add("inStock", false);
+    other.add("price", 1.5f);
+    NamedList<Object> response = new NamedList<>();
+    response.add("doc", doc);
+    response.add("other", other);
+
+    byte[] plain = getBytes(response);
+    byte[] withDictionary;
+    try (JavaBinCodec javabin = new JavaBinCodec().setStringDictionary(dictionary);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+      javabin.marshal(response, baos);
+      withDictionary = baos.toByteArray();
+    }
+    assertTrue(withDictionary.length < plain.length);
+
+    List<NamedList<?>> read = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      try (JavaBinCodec jbc = new JavaBinCodec().setStringDictionary(dictionary)) {
+        read.add((NamedList<?>) jbc.unmarshal(new ByteArrayInputStream(withDictionary)));
+      }
+    }
+    assertEquals(response, read.get(0));
+    // the strings of the dictionary are the same instances in every response
+    NamedList<?> doc0 = (NamedList<?>) read.get(0).get("doc");
+    NamedList<?> doc1 = (NamedList<?>) read.get(1).get("doc");
+    assertSame(doc0.getName(0), doc1.getName(0));
+    assertNotSame(doc0.getName(2), doc1.getName(2));
+
+    // the data can't be read without the dictionary
+    expectThrows(IOException.class, () -> getObject(withDictionary));
+    try (JavaBinCodec jbc =
+        new JavaBinCodec()
+            .setStringDictionary(new JavaBinCodec.StringDictionary(List.of("id", "name")))) {
+      expectThrows(IOException.class, () -> jbc.unmarshal(withDictionary));
+    }
+  }
+
   public void genBinaryFiles() throws IOException {
 
     Object data = generateAllDataTypes();
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+public class TestJavaBinDocumentCursor extends SolrTestCase {
+
+  private static NamedList<Object> createResponse(int numDocs) {
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(1000);
+    docs.setStart(10);
+    docs.setMaxScore(2.5f);
+    for (int i = 0; i < numDocs; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.addField("id", "doc" + i);
+      doc.addField("count_i", i);
+      doc.addField("big_l", (long) i << 40);
+      doc.addField("price_f", i + 0.5f);
+      doc.addField("weight_d", i * 1.25d);
+      doc.addField("inStock_b", i % 2 == 0);
+      doc.addField("date_dt", new Date(i * 1000L));
+      doc.addField("cat_ss", List.of("a" + i, "b" + i));
+      doc.setField("empty_s", null);
+      if (i == 1) {
+        SolrDocument child = new SolrDocument();
+        child.addField("id", "child");
+        doc.addChildDocument(child);
+      }
+      docs.add(doc);
+    }
+    SimpleOrderedMap<Object> header = new SimpleOrderedMap<>();
+    header.add("status", 0);
+    header.add("QTime", 3);
+    NamedList<Object> response = new SimpleOrderedMap<>();
+    response.add("responseHeader", header);
+    response.add("response", docs);
+    SimpleOrderedMap<Object> facets = new SimpleOrderedMap<>();
+    facets.add("cat", 3);
+    response.add("facet_counts", facets);
+    return response;
+  }
+
+  private static byte[] marshal(Object o, JavaBinCodec.StringDictionary dictionary)
+      throws IOException {
+    try (JavaBinCodec javabin = new JavaBinCodec().setStringDictionary(dictionary);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+      javabin.marshal(o, baos);
+      return baos.toByteArray();
+    }
+  }
+
+  public void testReadsTypedValues() throws IOException {
+    JavaBinCodec.StringDictionary dictionary =
+        random().nextBoolean() ? null : new JavaBinCodec.StringDictionary(List.of("id", "cat"));
+    int numDocs = atLeast(10);
+    byte[] bytes = marshal(createResponse(numDocs), dictionary);
+
+    try (JavaBinDocumentCursor cursor =
+        new JavaBinDocumentCursor(new ByteArrayInputStream(bytes), dictionary)) {
+      assertTrue(cursor.seekDocList("response"));
+      assertEquals(1000, cursor.getNumFound());
+      assertEquals(10, cursor.getStart());
+      assertEquals(2.5f, cursor.getMaxScore(), 0f);
+      assertNotNull(cursor.getResponse().get("responseHeader"));
+
+      int i = 0;
+      CharSequence idName = null;
+      while (cursor.nextDoc()) {
+        int numFields = 0;
+        while (cursor.nextField()) {
+          numFields++;
+          CharSequence name = cursor.fieldName();
+          if (name == null) {
+            assertEquals(1, i);
+            assertEquals(DataEntry.Type.JAVA_OBJ, cursor.valueType());
+            assertEquals("child", ((SolrDocument) cursor.value()).getFieldValue("id"));
+            continue;
+          }
+          switch (name.toString()) {
+            case "id" -> {
+              assertEquals(DataEntry.Type.STR, cursor.valueType());
+              assertEquals("doc" + i, cursor.strValue().toString());
+              // the names are shared by all the docs
+              assertTrue(idName == null || idName == name);
+              idName = name;
+            }
+            case "count_i" -> {
+              assertEquals(DataEntry.Type.INT, cursor.valueType());
+              assertEquals(i, cursor.intValue());
+              assertEquals(i, cursor.value());
+            }
+            case "big_l" -> {
+              assertEquals(DataEntry.Type.LONG, cursor.valueType());
+              assertEquals((long) i << 40, cursor.longValue());
+            }
+            case "price_f" -> {
+              assertEquals(DataEntry.Type.FLOAT, cursor.valueType());
+              assertEquals(i + 0.5f, cursor.floatValue(), 0f);
+            }
+            case "weight_d" -> {
+              assertEquals(DataEntry.Type.DOUBLE, cursor.valueType());
+              assertEquals(i * 1.25d, cursor.doubleValue(), 0d);
+            }
+            case "inStock_b" -> {
+              assertEquals(DataEntry.Type.BOOL, cursor.valueType());
+              assertEquals(i % 2 == 0, cursor.boolValue());
+            }
+            case "date_dt" -> {
+              assertEquals(DataEntry.Type.DATE, cursor.valueType());
+              assertEquals(i * 1000L, cursor.longValue());
+              assertEquals(new Date(i * 1000L), cursor.value());
+            }
+            case "cat_ss" -> {
+              assertEquals(DataEntry.Type.ENTRY_ITER, cursor.valueType());
+              // multivalued fields are skipped when they aren't read
+              if (i % 2 == 0) {
+                assertEquals(List.of("a" + i, "b" + i), cursor.value());
+              }
+            }
+            case "empty_s" -> {
+              assertEquals(DataEntry.Type.NULL, cursor.valueType());
+              assertNull(cursor.value());
+            }
+            default -> fail("Unexpected field " + name);
+          }
+        }
+        assertEquals(i == 1 ? 10 : 9, numFields);
+        i++;
+      }
+      assertEquals(numDocs, i);
+
+      NamedList<Object> rest = cursor.readRest();
+      assertEquals(3, ((NamedList<?>) rest.get("facet_counts")).get("cat"));
+      assertNull(rest.get("response"));
+    }
+  }
+
+  public void testSkipsDocuments() throws IOException {
+    byte[] bytes = marshal(createResponse(atLeast(10)), null);
+    try (JavaBinDocumentCursor cursor =
+        new JavaBinDocumentCursor(new ByteArrayInputStream(bytes))) {
+      assertTrue(cursor.seekDocList("response"));
+      assertTrue(cursor.nextDoc());
+      assertTrue(cursor.nextField());
+      assertEquals("id", cursor.fieldName());
+      NamedList<Object> rest = cursor.readRest();
+      assertNotNull(rest.get("responseHeader"));
+      assertNotNull(rest.get("facet_counts"));
+      assertFalse(cursor.nextDoc());
+    }
+
+    try (JavaBinDocumentCursor cursor =
+        new JavaBinDocumentCursor(new ByteArrayInputStream(bytes))) {
+      assertFalse(cursor.seekDocList("other"));
+      assertFalse(cursor.nextDoc());
+      // the list that wasn't sought is read as any other entry
+      assertEquals(createResponse(0).size(), cursor.getResponse().size());
+      assertTrue(cursor.getResponse().get("response") instanceof SolrDocumentList);
+    }
+  }
+}